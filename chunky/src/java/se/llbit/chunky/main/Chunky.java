@@ -18,9 +18,13 @@ package se.llbit.chunky.main;
 
 import java.awt.Color;
 import java.awt.Insets;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
 
@@ -36,6 +40,7 @@ import se.llbit.chunky.renderer.ConsoleRenderListener;
 import se.llbit.chunky.renderer.PlaceholderRenderCanvas;
 import se.llbit.chunky.renderer.RenderContext;
 import se.llbit.chunky.renderer.RenderManager;
+import se.llbit.chunky.renderer.RenderServer;
 import se.llbit.chunky.renderer.scene.SceneLoadingError;
 import se.llbit.chunky.renderer.scene.SceneManager;
 import se.llbit.chunky.renderer.ui.BenchmarkDialog;
@@ -64,7 +69,9 @@ import se.llbit.chunky.world.RegionParser;
 import se.llbit.chunky.world.RegionQueue;
 import se.llbit.chunky.world.World;
 import se.llbit.chunky.world.listeners.ChunkTopographyListener;
+import se.llbit.json.JsonObject;
 import se.llbit.log.Log;
+import se.llbit.math.Octree;
 import se.llbit.math.Vector3d;
 import se.llbit.util.OSDetector;
 import se.llbit.util.OSDetector.OS;
@@ -160,6 +167,10 @@ public class Chunky implements ChunkTopographyListener {
 				return doBenchmark(options.renderThreads);
 			case HEADLESS_RENDER:
 				return doHeadlessRender();
+			case HEADLESS_SERVER:
+				return doRenderServer(System.in);
+			case HEADLESS_ANIMATION:
+				return doRenderAnimation();
 			case DEFAULT:
 				startNormally();
 				break;
@@ -190,6 +201,9 @@ public class Chunky implements ChunkTopographyListener {
 					benchmark.getScore());
 			System.out.println("Benchmark completed with score " + benchmark.getScore() +
 					" (" + benchmark.getSceneName() + ")");
+			Octree octree = benchmark.bufferedScene().getOctree();
+			System.out.println(String.format("%s octree: %d nodes, %d KiB",
+					octree.getType(), octree.nodeCount(), octree.memoryUsage() / 1024));
 			return 0;
 		} catch (InterruptedException e) {
 			System.err.println("Benchmarking interrupted");
@@ -197,6 +211,57 @@ public class Chunky implements ChunkTopographyListener {
 		}
 	}
 
+	/**
+	 * Render all frames of the animation in the scene given on the command line.
+	 * @return error code
+	 */
+	private int doRenderAnimation() {
+		JsonObject job = new JsonObject();
+		job.add("scene", options.sceneName);
+		job.add("animate", true);
+		if (options.target != -1) {
+			JsonObject overrides = new JsonObject();
+			overrides.add("sppTarget", options.target);
+			job.add("set", overrides);
+		}
+		try {
+			return doRenderServer(new ByteArrayInputStream(
+					job.toCompactString().getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * Render jobs until the input is closed.
+	 * @param in render job input
+	 * @return error code
+	 */
+	private int doRenderServer(InputStream in) {
+		System.setProperty("java.awt.headless", "true");
+
+		// job results are the only output on stdout, progress and log
+		// messages go to stderr so that clients can parse the results
+		PrintStream results = System.out;
+		System.setOut(System.err);
+		try {
+			RenderContext renderContext = new RenderContext(options);
+			RenderServer server = new RenderServer(renderContext,
+					new ConsoleRenderListener(), in, results);
+			server.start();
+			try {
+				server.join();
+				return 0;
+			} catch (InterruptedException e) {
+				System.err.println("Render server interrupted");
+				server.interrupt();
+				return 1;
+			}
+		} finally {
+			System.setOut(results);
+		}
+	}
+
 	/**
 	 * Start headless mode
 	 * @return error code
@@ -252,7 +317,8 @@ public class Chunky implements ChunkTopographyListener {
 		}
 
 		// Start the worker threads
-		RegionParser[] regionParsers = new RegionParser[3];
+		RegionParser[] regionParsers = new RegionParser[
+				Math.max(2, Runtime.getRuntime().availableProcessors())];
 		for (int i = 0; i < regionParsers.length; ++i) {
 			regionParsers[i] = new RegionParser(this, regionQueue);
 			regionParsers[i].start();
@@ -353,6 +419,7 @@ public class Chunky implements ChunkTopographyListener {
 		refresher.setView(map);
 
 		minimap = new ChunkView(map.x, map.z, minimapWidth, minimapHeight, 1);
+		regionQueue.setView(map, minimap);
 
 		int rx0 = Math.min(minimap.prx0, map.prx0);
 		int rx1 = Math.max(minimap.prx1, map.prx1);
@@ -802,6 +869,13 @@ public class Chunky implements ChunkTopographyListener {
 		return !regionQueue.isEmpty();
 	}
 
+	/**
+	 * @return The queue of regions waiting to be parsed
+	 */
+	public RegionQueue getRegionQueue() {
+		return regionQueue;
+	}
+
 	/**
 	 * Modify the block scale of the map view
 	 * @param blockScale
@@ -52,6 +52,8 @@ public class CommandLineOptions {
 		NO_OP,
 		HEADLESS_RENDER,
 		HEADLESS_BENCHMARK,
+		HEADLESS_SERVER,
+		HEADLESS_ANIMATION,
 	}
 
 	/**
@@ -65,6 +67,8 @@ public class CommandLineOptions {
 		"  -snapshot <SCENE> [PNG] create a snapshot of the specified scene",
 		"  -scene-dir <DIR>       use the directory DIR for loading/saving scenes",
 		"  -benchmark             run the benchmark and exit",
+		"  -serve                 read render jobs from standard input (see notes)",
+		"  -animate <SCENE>       render all animation frames of the specified scene",
 		"  -threads <NUM>         use the specified number of threads for rendering",
 		"  -tile-width <NUM>      use the specified job tile width",
 		"  -target <NUM>          override target SPP to be NUM in headless mode",
@@ -85,6 +89,12 @@ public class CommandLineOptions {
 		"parent directory of the Scene Description File, otherwise the scene directory",
 		"can be overridden temporarily by the -scene-dir option.",
 		"",
+		"In -serve mode each line of input is a JSON render job, for example:",
+		"  {\"scene\": \"<SCENE>\", \"set\": {\"sppTarget\": 100}, \"output\": \"<PNG>\"}",
+		"The \"set\" object overrides settings from the scene description. Loaded",
+		"scenes are kept in memory between jobs. The output file is optional.",
+		"Add \"animate\": true to render the keyframed animation of the scene.",
+		"",
 		"Launcher options:",
 		"  --update              download the latest version of Chunky and exit",
 		"  --setup               configure memory limit and Java options for Chunky",
@@ -131,6 +141,19 @@ public class CommandLineOptions {
 				}
 			} else if (args[i].equals("-benchmark")) {
 				mode = Mode.HEADLESS_BENCHMARK;
+			} else if (args[i].equals("-serve")) {
+				mode = Mode.HEADLESS_SERVER;
+			} else if (args[i].equals("-animate")) {
+				if (i+1 == args.length) {
+					System.err.println("You must specify a scene name for the -animate command");
+					printAvailableScenes();
+					confError = true;
+					break;
+				} else {
+					options.sceneName = args[i+1];
+					mode = Mode.HEADLESS_ANIMATION;
+					i += 1;
+				}
 			} else if (args[i].equals("-target")) {
 				if (i+1 == args.length) {
 					System.err.println("Missing argument for -target option");
@@ -372,7 +395,7 @@ public class CommandLineOptions {
 			options.renderThreads = PersistentSettings.getNumThreads();
 		}
 
-		if (options.sceneName != null) {
+		if (options.sceneName != null && mode != Mode.HEADLESS_ANIMATION) {
 			mode = Mode.HEADLESS_RENDER;
 		}
 	}
@@ -52,6 +52,13 @@ public class BiomeLayer extends BitmapLayer {
 		return Biomes.getColor(biomes[Chunk.chunkXZIndex(x, z)]);
 	}
 
+	/**
+	 * @return The biome IDs of the chunk
+	 */
+	public byte[] getBiomes() {
+		return biomes;
+	}
+
 	public String biomeAt(int x, int z) {
 		return Biomes.getName(biomes[Chunk.chunkXZIndex(x, z)]);
 	}
@@ -74,6 +74,26 @@ public class CaveLayer extends BitmapLayer {
 		avgColor = color((byte) (luft / (float) (Chunk.X_MAX*Chunk.Z_MAX)));
 	}
 
+	/**
+	 * Create a cave layer from cached cave depths.
+	 * @param caves the cave depths, as returned by {@link #getCaves()}
+	 */
+	public CaveLayer(byte[] caves) {
+		this.caves = caves;
+		int luft = 0;
+		for (int i = 0; i < caves.length; ++i) {
+			luft += caves[i];
+		}
+		avgColor = color((byte) (luft / (float) (Chunk.X_MAX*Chunk.Z_MAX)));
+	}
+
+	/**
+	 * @return The cave depth of each column
+	 */
+	public byte[] getCaves() {
+		return caves;
+	}
+
 	@Override
 	public int colorAt(int x, int z) {
 		return color(caves[x*16+z]);
@@ -25,13 +25,13 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
-import javax.imageio.ImageIO;
-
 import se.llbit.chunky.world.Chunk;
 import se.llbit.chunky.world.Chunk.Renderer;
 import se.llbit.chunky.world.ChunkPosition;
 import se.llbit.chunky.world.ChunkView;
 import se.llbit.chunky.world.listeners.ChunkUpdateListener;
+import se.llbit.png.IEND;
+import se.llbit.png.PngFileWriter;
 
 /**
  * Keeps a buffered image of rendered chunks. Only re-render chunks when
@@ -287,7 +287,13 @@ public class MapBuffer implements ChunkUpdateListener, Iterable<ChunkPosition> {
 			BufferedImage crop = new BufferedImage(view.width, view.height,
 					BufferedImage.TYPE_INT_RGB);
 			crop.getGraphics().drawImage(buffer, x_offset, y_offset, null);
-			ImageIO.write(crop, "png", targetFile);
+			PngFileWriter writer = new PngFileWriter(targetFile);
+			try {
+				writer.write(crop);
+				writer.writeChunk(new IEND());
+			} finally {
+				writer.close();
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -169,6 +169,24 @@ public class SurfaceLayer extends BitmapLayer {
 		avgColor = avgBitmapColor();
 	}
 
+	/**
+	 * Create a surface layer from a cached bitmap.
+	 * @param bitmap the surface colors, as returned by {@link #getBitmap()}
+	 */
+	public SurfaceLayer(int[] bitmap) {
+		this.bitmap = bitmap;
+		topo = new int[Chunk.X_MAX*Chunk.Z_MAX];
+		System.arraycopy(bitmap, 0, topo, 0, topo.length);
+		avgColor = avgBitmapColor();
+	}
+
+	/**
+	 * @return The surface colors, without topography shading
+	 */
+	public int[] getBitmap() {
+		return bitmap;
+	}
+
 	/**
 	 * Add topographical gradient to this chunk and calculate average color
 	 * @param position
@@ -132,6 +132,12 @@ public class WorldRenderer {
 
 		if (loadIndicator) {
 			g.drawImage(MiscImages.clock, view.width-32, 0, 32, 32, null);
+			// number of regions waiting to be parsed
+			String queued = "" + chunky.getRegionQueue().size();
+			g.setFont(new Font("Sans serif", Font.BOLD, 11)); //$NON-NLS-1$
+			g.setColor(Color.black);
+			g.drawString(queued, view.width - 32
+					- g.getFontMetrics().stringWidth(queued) - 4, 20);
 		}
 
 		renderPlayers(world, g, view,
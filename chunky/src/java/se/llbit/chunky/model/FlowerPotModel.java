@@ -134,10 +134,7 @@ public class FlowerPotModel {
 			break;
 		case 11:
 			if (intersect(flowerSmall, ray, Texture.fern)) {
-				float[] biomeColor = ray.getBiomeGrassColor(scene);
-				ray.color.x *= biomeColor[0];
-				ray.color.y *= biomeColor[1];
-				ray.color.z *= biomeColor[2];
+				ray.applyBiomeGrassColor(scene);
 				hit = true;
 			}
 			break;
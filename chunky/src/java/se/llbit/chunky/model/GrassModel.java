@@ -45,10 +45,7 @@ public class GrassModel {
 				}
 				if (color[3] > Ray.EPSILON) {
 					ray.color.set(color);
-					float[] biomeColor = ray.getBiomeGrassColor(scene);
-					ray.color.x *= biomeColor[0];
-					ray.color.y *= biomeColor[1];
-					ray.color.z *= biomeColor[2];
+					ray.applyBiomeGrassColor(scene);
 					ray.t = ray.tNext;
 				} else {
 					Texture.grassSideSaturated.getColor(ray);
@@ -67,10 +67,7 @@ public class LargeFlowerModel {
 				if (color[3] > Ray.EPSILON) {
 					ray.color.set(color);
 					if (kind == 2 || kind == 3) {
-						float[] biomeColor = ray.getBiomeGrassColor(scene);
-						ray.color.x *= biomeColor[0];
-						ray.color.y *= biomeColor[1];
-						ray.color.z *= biomeColor[2];
+						ray.applyBiomeGrassColor(scene);
 					}
 					ray.t = ray.tNext;
 					ray.n.set(quad.n);
@@ -37,10 +37,7 @@ public class TallGrassModel extends SpriteModel {
 				if (color[3] > Ray.EPSILON) {
 					ray.color.set(color);
 					if (kind != 0) {
-						float[] biomeColor = ray.getBiomeGrassColor(scene);
-						ray.color.x *= biomeColor[0];
-						ray.color.y *= biomeColor[1];
-						ray.color.z *= biomeColor[2];
+						ray.applyBiomeGrassColor(scene);
 					}
 					ray.n.set(quad.n);
 					ray.t = ray.tNext;
@@ -62,10 +62,7 @@ public class VineModel {
 					float[] color = Texture.vines.getColor(ray.u, ray.v);
 					if (color[3] > Ray.EPSILON) {
 						ray.color.set(color);
-						float[] biomeColor = ray.getBiomeFoliageColor(scene);
-						ray.color.x *= biomeColor[0];
-						ray.color.y *= biomeColor[1];
-						ray.color.z *= biomeColor[2];
+						ray.applyBiomeFoliageColor(scene);
 						ray.t = ray.tNext;
 						ray.n.set(quad.n);
 						ray.n.scale(QuickMath.signum(-ray.d.dot(quad.n)));
@@ -80,10 +77,7 @@ public class VineModel {
 				float[] color = Texture.vines.getColor(ray.u, ray.v);
 				if (color[3] > Ray.EPSILON) {
 					ray.color.set(color);
-					float[] biomeColor = ray.getBiomeFoliageColor(scene);
-					ray.color.x *= biomeColor[0];
-					ray.color.y *= biomeColor[1];
-					ray.color.z *= biomeColor[2];
+					ray.applyBiomeFoliageColor(scene);
 					ray.t = ray.tNext;
 					ray.n.set(quad.n);
 					ray.n.scale(QuickMath.signum(-ray.d.dot(quad.n)));
@@ -16,8 +16,6 @@
  */
 package se.llbit.chunky.model;
 
-import java.util.List;
-
 import se.llbit.chunky.resources.Texture;
 import se.llbit.chunky.world.Block;
 import se.llbit.chunky.world.BlockData;
@@ -26,11 +24,8 @@ import se.llbit.math.Quad;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
 import se.llbit.math.Triangle;
-import se.llbit.math.Vector2d;
 import se.llbit.math.Vector3d;
 import se.llbit.math.Vector4d;
-import se.llbit.math.primitive.Primitive;
-import se.llbit.math.primitive.TexturedTriangle;
 
 /**
  * A water block. The height of the top water block is slightly
@@ -89,6 +84,11 @@ public class WaterModel {
 	 */
 	public static final int FULL_BLOCK = 12;
 
+	/**
+	 * Height of lily pads above the bottom of the water block
+	 */
+	private static final double LILY_PAD_HEIGHT = 1 - 0.12;
+
 	static {
 		// precompute normal map
 		Texture waterHeight = new Texture("water-height");
@@ -223,6 +223,14 @@ public class WaterModel {
 		}
 
 		boolean hit = false;
+		boolean lilyPad = false;
+		if ((data & (1<<BlockData.LILY_PAD)) != 0 && intersectLilyPad(ray)) {
+			// water faces below the lily pad are rejected by the distance test
+			ray.t = ray.tNext;
+			hit = true;
+			lilyPad = true;
+		}
+		double lilyPadT = ray.t;
 		if (bot.intersect(ray)) {
 			ray.n.set(bot.n);
 			ray.n.scale(-QuickMath.signum(ray.d.dot(bot.n)));
@@ -314,6 +322,15 @@ public class WaterModel {
 			ray.v = 1-ray.v;
 			hit = true;
 		}
+		if (lilyPad && ray.t == lilyPadT) {
+			ray.setCurrentMat(Block.LILY_PAD, 0);
+			LilyPadModel.getColor(ray);
+			ray.n.set(0, 1, 0);
+			ray.n.scale(-QuickMath.signum(ray.d.y));
+			ray.distance += ray.t;
+			ray.o.scaleAdd(ray.t, ray.d);
+			return true;
+		}
 		if (hit) {
 			Texture.water.getAvgColorLinear(ray.color);
 			ray.distance += ray.t;
@@ -322,6 +339,56 @@ public class WaterModel {
 		return hit;
 	}
 
+	/**
+	 * Intersect the lily pad floating on a water block. The lily pad is a
+	 * horizontal square just above the water surface, and is stored in the
+	 * block data of the water block so that it can be intersected during
+	 * octree traversal. Fully transparent texels are not hit.
+	 * @param ray
+	 * @return {@code true} if the ray hits the lily pad before
+	 * {@code ray.t}. The distance is stored in {@code ray.tNext}
+	 */
+	private static boolean intersectLilyPad(Ray ray) {
+		double ix = ray.o.x - QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
+		double iy = ray.o.y - QuickMath.floor(ray.o.y + ray.d.y * Ray.OFFSET);
+		double iz = ray.o.z - QuickMath.floor(ray.o.z + ray.d.z * Ray.OFFSET);
+		double t = (LILY_PAD_HEIGHT - iy) / ray.d.y;
+		if (!(t > Ray.EPSILON && t < ray.t)) {
+			return false;
+		}
+		double x = ix + ray.d.x * t;
+		double z = iz + ray.d.z * t;
+		if (x < 0 || x > 1 || z < 0 || z > 1) {
+			return false;
+		}
+		double u, v;
+		switch (3 & (ray.getCurrentData() >> BlockData.LILY_PAD_ROTATION)) {
+		case 0:
+			u = x;
+			v = z;
+			break;
+		case 1:
+			u = 1 - z;
+			v = x;
+			break;
+		case 2:
+			u = 1 - x;
+			v = 1 - z;
+			break;
+		default:
+			u = z;
+			v = 1 - x;
+			break;
+		}
+		if (Texture.lilyPad.getColor(u, v)[3] <= Ray.EPSILON) {
+			return false;
+		}
+		ray.u = u;
+		ray.v = v;
+		ray.tNext = t;
+		return true;
+	}
+
 	public static boolean intersectTop(Ray ray) {
 		ray.t = Double.POSITIVE_INFINITY;
 
@@ -377,39 +444,4 @@ public class WaterModel {
 		ray.n.z += normalMap[u][v][1]/2;
 		ray.n.normalize();
 	}
-
-	public static void addPrimitives(List<Primitive> primitives, int data,
-			int x, int y, int z, int size) {
-		// Lily pad test.
-		if ((data & (1<<BlockData.LILY_PAD)) != 0) {
-			double height = y+1-0.12;
-			Vector3d c1 = new Vector3d(x, height, z);
-			Vector3d c2 = new Vector3d(x, height, z+size);
-			Vector3d c3 = new Vector3d(x+size, height, z+size);
-			Vector3d c4 = new Vector3d(x+size, height, z);
-			Vector2d t1 = new Vector2d(0, 0);
-			Vector2d t2 = new Vector2d(0, 1);
-			Vector2d t3 = new Vector2d(1, 1);
-			Vector2d t4 = new Vector2d(1, 0);
-			int	dir = 3 & (data >> BlockData.LILY_PAD_ROTATION);
-			switch (dir) {
-			case 0:
-				primitives.add(new TexturedTriangle(c1, c3, c2, t1, t3, t2, Block.LILY_PAD));
-				primitives.add(new TexturedTriangle(c1, c4, c3, t1, t4, t3, Block.LILY_PAD));
-				break;
-			case 1:
-				primitives.add(new TexturedTriangle(c1, c3, c2, t4, t2, t1, Block.LILY_PAD));
-				primitives.add(new TexturedTriangle(c1, c4, c3, t4, t3, t2, Block.LILY_PAD));
-				break;
-			case 2:
-				primitives.add(new TexturedTriangle(c1, c3, c2, t3, t1, t4, Block.LILY_PAD));
-				primitives.add(new TexturedTriangle(c1, c4, c3, t3, t2, t1, Block.LILY_PAD));
-				break;
-			case 3:
-				primitives.add(new TexturedTriangle(c1, c3, c2, t2, t4, t3, Block.LILY_PAD));
-				primitives.add(new TexturedTriangle(c1, c4, c3, t2, t1, t4, Block.LILY_PAD));
-				break;
-			}
-		}
-	}
 }
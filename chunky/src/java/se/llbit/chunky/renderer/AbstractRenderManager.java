@@ -51,17 +51,78 @@ public abstract class AbstractRenderManager extends Thread {
 	 */
 	public int cpuLoad = PersistentSettings.getCPULoad();
 
+	/**
+	 * Schedules tiles for the render workers
+	 */
+	protected final TileScheduler scheduler = new TileScheduler();
+
 	/**
 	 * Get a job from the job queue
+	 * @param workerId ID of the requesting worker
 	 * @return Next job Id
 	 * @throws InterruptedException
 	 */
-	public abstract int getNextJob() throws InterruptedException;
+	public int getNextJob(int workerId) throws InterruptedException {
+		return scheduler.nextTile(workerId);
+	}
 
 	/**
 	 * Report finished job
+	 * @param workerId ID of the worker that finished the job
+	 * @param jobId
+	 */
+	public void jobDone(int workerId, int jobId) {
+		scheduler.tileDone(workerId, jobId);
+	}
+
+	/**
+	 * Report finished job
+	 * @param workerId ID of the worker that finished the job
+	 * @param jobId
+	 * @param converged {@code true} if the tile needs no more samples
+	 */
+	public void jobDone(int workerId, int jobId, boolean converged) {
+		scheduler.tileDone(workerId, jobId, converged);
+	}
+
+	/**
+	 * @param jobId
+	 * @return The number of samples accumulated in the tile for the given job
+	 */
+	public int jobSpp(int jobId) {
+		return scheduler.tileSpp(jobId);
+	}
+
+	/**
+	 * @param scene
+	 * @return The number of tiles needed to cover the canvas of the scene
 	 */
-	public abstract void jobDone();
+	protected int numTiles(Scene scene) {
+		int canvasWidth = scene.canvasWidth();
+		int canvasHeight = scene.canvasHeight();
+		return ((canvasWidth+(tileWidth-1)) / tileWidth) *
+				((canvasHeight+(tileWidth-1)) / tileWidth);
+	}
+
+	/**
+	 * Find the tiles that converged before the render was paused.
+	 * @param scene
+	 * @return One element per tile, {@code true} if the tile has converged
+	 */
+	protected boolean[] convergedTiles(Scene scene) {
+		int canvasWidth = scene.canvasWidth();
+		int canvasHeight = scene.canvasHeight();
+		int xjobs = (canvasWidth+(tileWidth-1)) / tileWidth;
+		boolean[] converged = new boolean[numTiles(scene)];
+		for (int i = 0; i < converged.length; ++i) {
+			int x0 = tileWidth * (i % xjobs);
+			int y0 = tileWidth * (i / xjobs);
+			converged[i] = scene.isConverged(x0, y0,
+					Math.min(x0 + tileWidth, canvasWidth),
+					Math.min(y0 + tileWidth, canvasHeight));
+		}
+		return converged;
+	}
 
 	/**
 	 * @return The buffered scene object
@@ -17,7 +17,6 @@
 package se.llbit.chunky.renderer;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.scene.SceneLoadingError;
@@ -37,23 +36,11 @@ public class BenchmarkManager extends AbstractRenderManager {
 
 	private final Thread[] workers;
 
-	private final int numJobs;
-
 	/**
  	 * The benchmark scene.
  	 */
 	private final Scene scene;
 
-	/**
-	 * Next job on the job queue.
-	 */
-	private final AtomicInteger nextJob;
-
-	/**
-	 * Number of completed jobs.
-	 */
-	private final AtomicInteger finishedJobs;
-
 	private final RenderStatusListener renderListener;
 
 	private final static String BENCHMARK_NAME = "benchmark-1";
@@ -88,13 +75,6 @@ public class BenchmarkManager extends AbstractRenderManager {
 
 		scene.setBufferFinalization(false);
 
-		int canvasWidth = scene.canvasWidth();
-		int canvasHeight = scene.canvasHeight();
-		numJobs = ((canvasWidth+(tileWidth-1)) / tileWidth) *
-				((canvasHeight+(tileWidth-1)) / tileWidth);
-		nextJob = new AtomicInteger(0);
-		finishedJobs = new AtomicInteger(0);
-
 		// start worker threads
 		long seed = System.currentTimeMillis();
 		workers = new Thread[numThreads];
@@ -116,30 +96,18 @@ public class BenchmarkManager extends AbstractRenderManager {
 			// warm up ten iterations with JIT enabled
 			java.lang.Compiler.enable();
 			scene.refresh();
-			for (int i = 0; i < 15; ++i) {
-				renderListener.setProgress(task, i, 0, 120);
-				giveTickets();
-				waitOnWorkers();
-			}
+			render(task, 0, 15);
 
 			// warm up ten iterations with JIT disabled
 			java.lang.Compiler.disable();
 			scene.refresh();
-			for (int i = 0; i < 5; ++i) {
-				renderListener.setProgress(task, i+10, 0, 120);
-				giveTickets();
-				waitOnWorkers();
-			}
+			render(task, 15, 5);
 
 			// time 100 iterations with JIT disabled
 			millis = System.currentTimeMillis();
 			scene.refresh();
-			for (int i = 0; i < 100; ++i) {
-				renderListener.setProgress(task, i+20, 0, 120);
-				giveTickets();
-				waitOnWorkers();
-				scene.spp += 1;
-			}
+			render(task, 20, 100);
+			scene.spp = scheduler.level();
 			millis = System.currentTimeMillis() - millis;
 
 			int canvasWidth = scene.canvasWidth();
@@ -166,39 +134,23 @@ public class BenchmarkManager extends AbstractRenderManager {
 		}
 	}
 
-	private synchronized void waitOnWorkers() throws InterruptedException {
-		while (finishedJobs.get() < numJobs)
-			wait();
-	}
-
-	private synchronized void giveTickets() {
-		nextJob.set(0);
-		finishedJobs.set(0);
-		notifyAll();
-	}
-
-	@Override
-	public int getNextJob() throws InterruptedException {
-		int jobId = nextJob.getAndIncrement();
-		if (jobId >= numJobs) {
-			synchronized (this) {
-				do {
-					wait();
-					jobId = nextJob.getAndIncrement();
-				} while (jobId >= numJobs);
-			}
-		}
-		return jobId;
-	}
-
-	@Override
-	public void jobDone() {
-		int finished = finishedJobs.incrementAndGet();
-		if (finished >= numJobs) {
-			synchronized (this) {
-				notifyAll();
-			}
+	/**
+	 * Render the given number of passes using the work-stealing scheduler.
+	 * @param task progress task name
+	 * @param progress number of passes completed before this call
+	 * @param passes number of passes to render
+	 * @throws InterruptedException
+	 */
+	private void render(String task, int progress, int passes)
+			throws InterruptedException {
+		scheduler.reset(numTiles(scene), workers.length, 0);
+		scheduler.start(passes);
+		int level = 0;
+		while (level < passes) {
+			renderListener.setProgress(task, progress+level, 0, 120);
+			level = scheduler.awaitLevel(level, 1000);
 		}
+		scheduler.awaitIdle();
 	}
 
 	@Override
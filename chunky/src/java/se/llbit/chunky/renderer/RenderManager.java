@@ -23,7 +23,10 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.scene.SceneLoadingError;
@@ -45,26 +48,24 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 	 */
 	private static final long SCENE_EDIT_GRACE_PERIOD = 30000;
 
+	/**
+	 * Milliseconds between checks for render state changes while rendering.
+	 * The canvas is also updated at this interval, or when a new pass has
+	 * been completed.
+	 */
+	private static final long STATUS_UPDATE_INTERVAL = 100;
+
 	private boolean updateBuffer = false;
-	private boolean dumpNextFrame = false;
 
 	private final RenderableCanvas canvas;
 	private Thread[] workers = {};
 
-	private int numJobs;
-
 	/** The modifiable scene. */
 	private final Scene mutableScene;
 
 	/** The buffered scene is only updated between render jobs. */
 	private final Scene bufferedScene;
 
-	/** Next job on the job queue. */
-	private final AtomicInteger nextJob;
-
-	/** Number of completed jobs. */
-	private final AtomicInteger finishedJobs;
-
 	private final RenderContext context;
 
 	private final RenderStatusListener renderListener;
@@ -80,6 +81,15 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 	private final Collection<SceneStatusListener> sceneListeners =
 			new ArrayList<SceneStatusListener>();
 
+	/**
+	 * Saves snapshots and render dumps in the background while
+	 * rendering continues.
+	 */
+	private final ExecutorService sceneWriter = Executors.newSingleThreadExecutor();
+
+	/** The background save in progress, or {@code null}. */
+	private volatile Future<?> pendingSave = null;
+
 	public RenderManager(RenderableCanvas canvas, RenderContext context,
 			RenderStatusListener statusListener) {
 		this(canvas, context, statusListener, false);
@@ -102,10 +112,6 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 		mutableScene = new Scene();
 		bufferedScene = new Scene(mutableScene);
 
-		numJobs = 0;
-		nextJob = new AtomicInteger(0);
-		finishedJobs = new AtomicInteger(0);
-
 		manageWorkers();
 	}
 
@@ -185,6 +191,9 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 		}
 
 		stopWorkers();
+
+		// let the last save complete
+		sceneWriter.shutdown();
 	}
 
 	private void updateRenderState() {
@@ -194,7 +203,19 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 		}
 	}
 
+	/**
+	 * Render until the target SPP is reached, or rendering is paused or
+	 * restarted. The workers render continuously up to the next render dump,
+	 * while this thread updates the canvas and render status.
+	 */
 	private void pathTraceLoop() throws InterruptedException {
+		synchronized (bufferMonitor) {
+			manageWorkers();
+			bufferedScene.initRenderSeed();
+			bufferedScene.initAdaptiveBuffers();
+			scheduler.reset(convergedTiles(bufferedScene), workers.length, bufferedScene.spp);
+		}
+
 		while (true) {
 
 			updateRenderState();
@@ -202,41 +223,99 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 				return;
 			}
 
+			int target;
 			synchronized (bufferMonitor) {
-				long frameStart = System.currentTimeMillis();
-				giveTickets();
-				waitOnWorkers();
-				bufferedScene.updateCanvas();
-				sendSceneStatus(bufferedScene.sceneStatus());
-				bufferedScene.renderTime += System.currentTimeMillis() - frameStart;
+				bufferedScene.copyTransients(mutableScene);
+				bufferedScene.setBufferFinalization(updateBuffer);
+				target = bufferedScene.getTargetSPP();
+				if (bufferedScene.shouldSaveDumps()) {
+					int frequency = bufferedScene.getDumpFrequency();
+					target = Math.min(target, (bufferedScene.spp / frequency + 1) * frequency);
+				}
+				scheduler.start(target);
 			}
 
-			// Repaint canvas.
-			canvas.repaint();
-
-			bufferedScene.spp += RenderConstants.SPP_PER_PASS;
-
-			if (dumpNextFrame) {
-				// Save the current frame.
-				if (mutableScene.shouldSaveSnapshots()
-						|| bufferedScene.spp >= bufferedScene.getTargetSPP()) {
-					bufferedScene.outputMode = mutableScene.outputMode;
-					bufferedScene.saveSnapshot(context.getSceneDirectory(), renderListener);
-				}
+			if (!renderUntil(target)) {
+				return;
+			}
 
-				// Save scene description and render dump.
-				saveScene();
+			bufferedScene.copyTransients(mutableScene);
+			boolean finished = bufferedScene.spp >= bufferedScene.getTargetSPP();
+			if (finished || bufferedScene.shouldSaveDumps() &&
+					(bufferedScene.spp % bufferedScene.getDumpFrequency() == 0)) {
+				saveInBackground(mutableScene.shouldSaveSnapshots() || finished);
 			}
 
 			updateRenderProgress();
 
-			if (bufferedScene.spp >= bufferedScene.getTargetSPP()) {
+			if (finished) {
+				awaitPendingSave();
 				renderListener.renderJobFinished(bufferedScene.renderTime, samplesPerSecond());
 				return;
 			}
 		}
 	}
 
+	/**
+	 * Update the canvas and render status while the workers render.
+	 * @param target the SPP target for the workers
+	 * @return {@code true} if the workers stopped at a consistent SPP
+	 * and rendering should continue
+	 * @throws InterruptedException
+	 */
+	private boolean renderUntil(int target) throws InterruptedException {
+		long lastUpdate = System.currentTimeMillis();
+		while (true) {
+			int level = scheduler.awaitLevel(bufferedScene.spp, STATUS_UPDATE_INTERVAL);
+
+			synchronized (bufferMonitor) {
+				if (scheduler.isAborted()) {
+					// The buffered scene was changed outside the render loop.
+					return false;
+				}
+				long now = System.currentTimeMillis();
+				bufferedScene.renderTime += now - lastUpdate;
+				lastUpdate = now;
+				if (level > bufferedScene.spp) {
+					bufferedScene.spp = level;
+					bufferedScene.updateCanvas();
+					sendSceneStatus(bufferedScene.sceneStatus());
+				}
+			}
+
+			// Repaint canvas.
+			canvas.repaint();
+
+			updateRenderProgress();
+
+			if (level >= target) {
+				return true;
+			}
+
+			updateRenderState();
+			if (mutableScene.shouldRefresh()) {
+				synchronized (bufferMonitor) {
+					scheduler.abort();
+					scheduler.awaitIdle();
+				}
+				return false;
+			}
+			boolean targetLowered = mutableScene.getTargetSPP() < target;
+			if (targetLowered || state == RenderState.PAUSED ||
+					numThreads != workers.length) {
+				synchronized (bufferMonitor) {
+					scheduler.hold();
+					scheduler.awaitIdle();
+					if (scheduler.isAborted()) {
+						return false;
+					}
+					bufferedScene.spp = scheduler.level();
+				}
+				return targetLowered && state != RenderState.PAUSED;
+			}
+		}
+	}
+
 	/**
 	 * @return the current rendering speed in samples per second (SPS)
 	 */
@@ -288,8 +367,12 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
 			synchronized (bufferMonitor) {
 				frameStart = System.currentTimeMillis();
-				giveTickets();
-				waitOnWorkers();
+				bufferedScene.copyTransients(mutableScene);
+				bufferedScene.setBufferFinalization(true);
+				manageWorkers();
+				scheduler.reset(numTiles(bufferedScene), workers.length, 0);
+				scheduler.start(1);
+				scheduler.awaitIdle();
 				bufferedScene.updateCanvas();
 				sendSceneStatus(bufferedScene.sceneStatus());
 				bufferedScene.renderTime += System.currentTimeMillis() - frameStart;
@@ -333,50 +416,56 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
 	}
 
-	private synchronized void waitOnWorkers() throws InterruptedException {
-		while (finishedJobs.get() < numJobs)
-			wait();
-		// All workers finished - we can now change the number of worker threads!
-		manageWorkers();
-	}
-
-	private synchronized void giveTickets() {
-		bufferedScene.copyTransients(mutableScene);
-		int nextSpp = bufferedScene.spp + RenderConstants.SPP_PER_PASS;
-		dumpNextFrame = nextSpp >= bufferedScene.getTargetSPP() ||
-				bufferedScene.shouldSaveDumps() &&
-				(nextSpp % bufferedScene.getDumpFrequency() == 0);
-		bufferedScene.setBufferFinalization(updateBuffer || dumpNextFrame);
-
-		int canvasWidth = bufferedScene.canvasWidth();
-		int canvasHeight = bufferedScene.canvasHeight();
-		numJobs = ((canvasWidth+(tileWidth-1)) / tileWidth) *
-				((canvasHeight+(tileWidth-1)) / tileWidth);
-		nextJob.set(0);
-		finishedJobs.set(0);
-		notifyAll();
-	}
-
-	@Override
-	public int getNextJob() throws InterruptedException {
-		int jobId = nextJob.getAndIncrement();
-		if (jobId >= numJobs) {
-			synchronized (this) {
-				do {
-					wait();
-					jobId = nextJob.getAndIncrement();
-				} while (jobId >= numJobs);
-			}
+	/**
+	 * Save the scene description, render dump and optionally a snapshot of
+	 * the current frame in the background. The workers are stopped at the
+	 * dump SPP, so the render buffers are copied while they are idle and
+	 * rendering resumes while the copy is written. If the previous save
+	 * is still in progress this waits for it to complete first.
+	 * @param saveSnapshot {@code true} if a snapshot should be saved
+	 * @throws InterruptedException
+	 */
+	private void saveInBackground(final boolean saveSnapshot)
+			throws InterruptedException {
+		awaitPendingSave();
+		final Scene copy;
+		synchronized (bufferMonitor) {
+			bufferedScene.copyTransients(mutableScene);
+			copy = bufferedScene.renderSnapshot();
 		}
-		return jobId;
+		pendingSave = sceneWriter.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (saveSnapshot) {
+					copy.saveSnapshot(context.getSceneDirectory(), renderListener);
+				}
+				try {
+					Log.info("Saving scene " + copy.name());
+					backupFile(context.getSceneDescriptionFile(copy.name()));
+					backupFile(copy.name() + ".dump");
+					copy.saveScene(context, renderListener);
+					Log.info("Scene saved");
+					renderListener.sceneSaved();
+				} catch (IOException e) {
+					Log.warn("Failed to save scene. Reason: " + e.getMessage(), e);
+				} catch (InterruptedException e) {
+					Log.warn("Interrupted while saving scene");
+				}
+			}
+		});
 	}
 
-	@Override
-	public void jobDone() {
-		int finished = finishedJobs.incrementAndGet();
-		if (finished >= numJobs) {
-			synchronized (this) {
-				notifyAll();
+	/**
+	 * Wait for the background save to complete.
+	 * @throws InterruptedException
+	 */
+	private void awaitPendingSave() throws InterruptedException {
+		Future<?> save = pendingSave;
+		if (save != null) {
+			try {
+				save.get();
+			} catch (ExecutionException e) {
+				Log.error("Failed to save scene", e.getCause());
 			}
 		}
 	}
@@ -388,7 +477,15 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 	public void saveScene() throws InterruptedException {
 
 		try {
+			awaitPendingSave();
 			synchronized (bufferMonitor) {
+				// Wait for the workers to reach a consistent SPP.
+				int limit = scheduler.hold();
+				scheduler.awaitIdle();
+				if (!scheduler.isAborted() && scheduler.level() > bufferedScene.spp) {
+					bufferedScene.spp = scheduler.level();
+				}
+
 				String sceneName = bufferedScene.name();
 				Log.info("Saving scene " + sceneName);
 
@@ -401,6 +498,9 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
 				bufferedScene.saveScene(context, renderListener);
 
+				// Resume rendering.
+				scheduler.start(limit);
+
 				Log.info("Scene saved");
 			}
 
@@ -420,7 +520,12 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 	public void loadScene(String sceneName)
 			throws IOException, SceneLoadingError, InterruptedException {
 
+		awaitPendingSave();
 		synchronized (bufferMonitor) {
+			// Stop the workers before the sample buffer is replaced.
+			scheduler.abort();
+			scheduler.awaitIdle();
+
 			renderListener.setProgress("Loading scene", 0, 0, 1);
 			try {
 				bufferedScene.loadScene(context, renderListener, sceneName);
@@ -435,12 +540,6 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 				throw e;
 			}
 
-			synchronized (this) {
-				int canvasWidth = bufferedScene.canvasWidth();
-				int canvasHeight = bufferedScene.canvasHeight();
-				numJobs = canvasWidth * canvasHeight;
-			}
-
 			// Update progress bar.
 			renderListener.setProgress("Rendering",
 					bufferedScene.spp, 0,
@@ -573,9 +672,14 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 	 * Merge a render dump into the current render.
 	 * @param dumpFile the file to be merged.
 	 */
-	public void mergeDump(File dumpFile) {
-		bufferedScene.mergeDump(dumpFile, renderListener);
-		bufferedScene.updateCanvas();
+	public void mergeDump(File dumpFile) throws InterruptedException {
+		synchronized (bufferMonitor) {
+			// Stop the workers while the samples are merged.
+			scheduler.abort();
+			scheduler.awaitIdle();
+			bufferedScene.mergeDump(dumpFile, renderListener);
+			bufferedScene.updateCanvas();
+		}
 		canvas.repaint();
 	}
 
@@ -0,0 +1,404 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.IllegalFormatException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import se.llbit.chunky.renderer.scene.Animation;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SceneLoadingError;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+import se.llbit.json.JsonParser.SyntaxError;
+import se.llbit.log.Log;
+
+/**
+ * Renders a sequence of jobs without reloading the scenes between jobs.
+ *
+ * <p>Each line of input is a JSON object describing one job:
+ * <pre>
+ * {"scene": "name", "set": {"sppTarget": 100, "sun": {"altitude": 0.5}}, "output": "frame.png"}
+ * </pre>
+ * The scene is loaded once and kept in memory. The "set" object is a partial
+ * scene description that is applied to a copy of the loaded scene, so camera,
+ * sun, sky and SPP target can change between jobs while the octree and
+ * entity BVH are shared. The output file is optional, by default a snapshot
+ * is saved in the scene directory. A result line is printed for each job.
+ * Nothing else is written to the result stream, so progress and log
+ * messages should go to another stream.
+ *
+ * <p>A job with {@code "animate": true} renders every frame of the
+ * {@link Animation} stored in the scene description. The output file name
+ * is then a format string with exactly one integer conversion, which takes
+ * the frame number.
+ *
+ * <p>Frames are written in the background while the next frame renders.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class RenderServer extends AbstractRenderManager {
+
+	/**
+	 * Maximum number of loaded scenes kept in memory.
+	 */
+	private static final int MAX_SCENES = 2;
+
+	/**
+	 * Matches a format specifier, the last group is the conversion.
+	 */
+	private static final Pattern FORMAT_SPECIFIER =
+			Pattern.compile("%(\\d+\\$)?[-#+ 0,(<]*\\d*(\\.\\d+)?([tT]?[a-zA-Z%])");
+
+	/**
+	 * A loaded scene and the timestamps of the files it was loaded from.
+	 */
+	private static class LoadedScene {
+		final Scene scene;
+		final long descriptionTimestamp;
+		final long octreeTimestamp;
+
+		LoadedScene(Scene scene, long descriptionTimestamp, long octreeTimestamp) {
+			this.scene = scene;
+			this.descriptionTimestamp = descriptionTimestamp;
+			this.octreeTimestamp = octreeTimestamp;
+		}
+	}
+
+	private final Map<String, LoadedScene> scenes =
+			new LinkedHashMap<String, LoadedScene>(MAX_SCENES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LoadedScene> eldest) {
+			return size() > MAX_SCENES;
+		}
+	};
+
+	private final RenderContext context;
+	private final RenderStatusListener renderListener;
+	private final BufferedReader in;
+	private final PrintStream out;
+	private final Thread[] workers;
+
+	/**
+	 * Writes rendered frames while the next frame renders.
+	 */
+	private final ExecutorService frameWriter = Executors.newSingleThreadExecutor();
+
+	/** The frame being written, or {@code null}. */
+	private volatile Future<?> pendingSave = null;
+
+	/** The scene of the current job. */
+	private volatile Scene scene = new Scene();
+
+	private int jobCount = 0;
+
+	/**
+	 * @param context
+	 * @param renderListener
+	 * @param in job input
+	 * @param out job results
+	 */
+	public RenderServer(RenderContext context, RenderStatusListener renderListener,
+			InputStream in, PrintStream out) {
+		super(context);
+
+		this.context = context;
+		this.renderListener = renderListener;
+		this.in = new BufferedReader(new InputStreamReader(in));
+		this.out = out;
+
+		long seed = System.currentTimeMillis();
+		workers = new Thread[numThreads];
+		for (int i = 0; i < numThreads; ++i) {
+			workers[i] = new RenderWorker(this, i, seed + i);
+			workers[i].start();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!isInterrupted()) {
+				String line = in.readLine();
+				if (line == null) {
+					break;
+				}
+				line = line.trim();
+				if (!line.isEmpty()) {
+					jobCount += 1;
+					runJob(line);
+				}
+			}
+		} catch (IOException e) {
+			Log.error("Failed to read render job", e);
+		} catch (InterruptedException e) {
+			// shutting down
+		} catch (Throwable e) {
+			Log.error("Uncaught exception in render server", e);
+		}
+
+		try {
+			awaitPendingSave();
+		} catch (InterruptedException e) {
+			// shutting down
+		}
+		frameWriter.shutdown();
+
+		for (Thread worker: workers) {
+			worker.interrupt();
+		}
+	}
+
+	private void runJob(String line) throws InterruptedException {
+		JsonObject result = new JsonObject();
+		result.add("job", jobCount);
+		try {
+			JsonObject job = new JsonParser(new ByteArrayInputStream(
+					line.getBytes("UTF-8"))).parse().object();
+			String sceneName = job.get("scene").stringValue("");
+			if (sceneName.isEmpty()) {
+				throw new IOException("missing scene name");
+			}
+			result.add("scene", sceneName);
+			Scene loaded = loadScene(sceneName);
+			JsonObject overrides = job.get("set").object();
+			String output = job.get("output").stringValue("");
+
+			if (job.get("animate").boolValue(false)) {
+				Animation animation = loaded.getAnimation();
+				if (animation.isEmpty()) {
+					throw new IOException("the scene has no animation keyframes");
+				}
+				if (output.isEmpty()) {
+					output = new File(context.getSceneDirectory(),
+							sceneName.replace("%", "%%") + "-%04d"
+							+ loaded.outputMode.getExtension()).getPath();
+				} else {
+					checkFramePattern(output);
+				}
+				for (int frame = 0; frame < animation.frameCount(); ++frame) {
+					Scene frameScene = renderFrame(loaded, animation.frame(frame), overrides);
+					JsonObject frameResult = result.fullCopy();
+					frameResult.add("frame", frame);
+					saveInBackground(frameScene, String.format(output, frame), frameResult);
+				}
+			} else {
+				saveInBackground(renderFrame(loaded, overrides, new JsonObject()),
+						output, result);
+			}
+			return;
+		} catch (SyntaxError e) {
+			result.add("status", "error");
+			result.add("error", "JSON syntax error: " + e.getMessage());
+		} catch (IOException e) {
+			result.add("status", "error");
+			result.add("error", "" + e.getMessage());
+		} catch (SceneLoadingError e) {
+			result.add("status", "error");
+			result.add("error", "" + e.getMessage());
+		} catch (RuntimeException e) {
+			// a malformed job must not stop the server
+			Log.error("Render job failed", e);
+			result.add("status", "error");
+			result.add("error", e.toString());
+		}
+		awaitPendingSave();
+		printResult(result);
+	}
+
+	/**
+	 * Check that an animation output file pattern takes exactly one
+	 * argument, the frame number, so that every frame gets its own file.
+	 * @throws IOException if the pattern is not valid
+	 */
+	static void checkFramePattern(String pattern) throws IOException {
+		Matcher matcher = FORMAT_SPECIFIER.matcher(pattern);
+		int conversions = 0;
+		int pos = pattern.indexOf('%');
+		while (pos != -1) {
+			matcher.region(pos, pattern.length());
+			if (!matcher.lookingAt()) {
+				throw new IOException("invalid format specifier in output file pattern: "
+						+ pattern);
+			}
+			char conversion = matcher.group(3).charAt(0);
+			if (conversion == 'd' || conversion == 'o'
+					|| conversion == 'x' || conversion == 'X') {
+				conversions += 1;
+			} else if (conversion != '%' && conversion != 'n') {
+				throw new IOException("output file pattern can only take the frame number: "
+						+ pattern);
+			}
+			pos = pattern.indexOf('%', matcher.end());
+		}
+		if (conversions != 1) {
+			throw new IOException("output file pattern needs exactly one integer "
+					+ "conversion for the frame number, like %04d: " + pattern);
+		}
+		try {
+			String.format(pattern, 0);
+		} catch (IllegalFormatException e) {
+			throw new IOException("invalid output file pattern: " + pattern);
+		}
+	}
+
+	/**
+	 * Render one frame of a loaded scene.
+	 * @param loaded the loaded scene
+	 * @param settings partial scene descriptions applied before rendering
+	 * @return The rendered scene, with its own sample buffer
+	 */
+	private Scene renderFrame(Scene loaded, JsonObject... settings)
+			throws InterruptedException {
+		Scene frameScene = new Scene(loaded);
+		// the frame renders into its own sample buffer
+		frameScene.setCanvasSize(frameScene.canvasWidth(), frameScene.canvasHeight());
+		for (JsonObject overrides: settings) {
+			frameScene.applyJson(overrides);
+		}
+		frameScene.spp = 0;
+		frameScene.renderTime = 0;
+		frameScene.initRenderSeed();
+		frameScene.setBufferFinalization(false);
+		frameScene.startHeadlessRender();
+		scene = frameScene;
+
+		long start = System.currentTimeMillis();
+		render(frameScene);
+		frameScene.renderTime = System.currentTimeMillis() - start;
+		return frameScene;
+	}
+
+	/**
+	 * Write a rendered frame while the next frame renders. If the previous
+	 * frame is still being written this waits for it to complete first.
+	 * @param frameScene the rendered scene
+	 * @param output the output file, or an empty string to save a snapshot
+	 * in the scene directory
+	 * @param result the job result, printed when the frame is written
+	 */
+	private void saveInBackground(final Scene frameScene, final String output,
+			final JsonObject result) throws InterruptedException {
+		awaitPendingSave();
+		pendingSave = frameWriter.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (output.isEmpty()) {
+						frameScene.saveSnapshot(context.getSceneDirectory(), renderListener);
+					} else {
+						frameScene.saveFrame(new File(output), renderListener);
+						result.add("output", output);
+					}
+					result.add("spp", frameScene.spp);
+					result.add("renderTime", frameScene.renderTime);
+					result.add("status", "done");
+				} catch (IOException e) {
+					result.add("status", "error");
+					result.add("error", "" + e.getMessage());
+				} catch (RuntimeException e) {
+					Log.error("Failed to save frame", e);
+					result.add("status", "error");
+					result.add("error", e.toString());
+				}
+				printResult(result);
+			}
+		});
+	}
+
+	/**
+	 * Wait for the frame being written to complete.
+	 * @throws InterruptedException
+	 */
+	private void awaitPendingSave() throws InterruptedException {
+		Future<?> save = pendingSave;
+		if (save != null) {
+			try {
+				save.get();
+			} catch (ExecutionException e) {
+				Log.error("Failed to save frame", e.getCause());
+			}
+		}
+	}
+
+	private void printResult(JsonObject result) {
+		synchronized (out) {
+			out.println(result.toCompactString());
+			out.flush();
+		}
+	}
+
+	/**
+	 * Find a loaded scene, or load it if it is not loaded or if the
+	 * scene files changed since it was loaded.
+	 */
+	private Scene loadScene(String sceneName)
+			throws IOException, SceneLoadingError, InterruptedException {
+		long descriptionTimestamp = context.getSceneDescriptionFile(sceneName).lastModified();
+		long octreeTimestamp = context.fileTimestamp(sceneName + ".octree");
+		LoadedScene loaded = scenes.get(sceneName);
+		if (loaded != null && loaded.descriptionTimestamp == descriptionTimestamp
+				&& loaded.octreeTimestamp == octreeTimestamp) {
+			return loaded.scene;
+		}
+		scenes.remove(sceneName);
+		Scene scene = new Scene();
+		scene.loadScene(context, renderListener, sceneName);
+		scenes.put(sceneName, new LoadedScene(scene, descriptionTimestamp, octreeTimestamp));
+		return scene;
+	}
+
+	/**
+	 * Render the scene up to its target SPP.
+	 */
+	private void render(Scene scene) throws InterruptedException {
+		String task = "Rendering";
+		int target = scene.getTargetSPP();
+		scene.initAdaptiveBuffers();
+		scheduler.reset(numTiles(scene), workers.length, 0);
+		scheduler.start(target);
+		int level = 0;
+		while (level < target) {
+			renderListener.setProgress(task, level, 0, target);
+			level = scheduler.awaitLevel(level, 1000);
+		}
+		scheduler.awaitIdle();
+		renderListener.setProgress(task, target, 0, target);
+		scene.spp = target;
+	}
+
+	@Override
+	public Scene bufferedScene() {
+		return scene;
+	}
+}
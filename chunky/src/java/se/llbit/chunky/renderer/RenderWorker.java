@@ -16,13 +16,14 @@
  */
 package se.llbit.chunky.renderer;
 
-import java.util.Random;
-
 import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.log.Log;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
+import se.llbit.math.SamplerType;
 
 /**
  * Performs rendering work.
@@ -39,6 +40,8 @@ public class RenderWorker extends Thread {
 	private final AbstractRenderManager manager;
 
 	private final WorkerState state;
+	private final long seed;
+	private SamplerType samplerType = null;
 	private long jobTime = 0;
 
 	/**
@@ -52,8 +55,8 @@ public class RenderWorker extends Thread {
 
 		this.manager = manager;
 		this.id = id;
+		this.seed = seed;
 		state = new WorkerState();
-		state.random = new Random(seed);
 		state.ray = new Ray();
 	}
 
@@ -62,8 +65,9 @@ public class RenderWorker extends Thread {
 		try {
 			try {
 				while (!isInterrupted()) {
-					work(manager.getNextJob());
-					manager.jobDone();
+					int jobId = manager.getNextJob(id);
+					boolean converged = work(jobId);
+					manager.jobDone(id, jobId, converged);
 				}
 			} catch (InterruptedException e) {
 			}
@@ -76,13 +80,20 @@ public class RenderWorker extends Thread {
 	/**
 	 * Perform work
 	 * @param jobId
+	 * @return {@code true} if adaptive sampling is enabled and the tile
+	 * has converged
 	 * @throws InterruptedException interrupted while sleeping
 	 */
-	private final void work(int jobId) throws InterruptedException {
+	private final boolean work(int jobId) throws InterruptedException {
 
 		Scene scene = manager.bufferedScene();
 
-		Random random = state.random;
+		if (scene.getSamplerType() != samplerType) {
+			samplerType = scene.getSamplerType();
+			state.random = samplerType.create(seed);
+		}
+		Sampler random = state.random;
+		random.setRenderSeed(scene.renderSeed);
 		Ray ray = state.ray;
 
 		int width = scene.canvasWidth();
@@ -98,23 +109,37 @@ public class RenderWorker extends Thread {
 		int y0 = manager.tileWidth * (jobId / xjobs);
 		int y1 = Math.min(y0 + manager.tileWidth, height);
 
-		double[] samples = scene.getSampleBuffer();
+		// the SPP of each tile is tracked separately by the scheduler
+		int spp = manager.jobSpp(jobId);
+
+		SampleBuffer samples = scene.getSampleBuffer();
 		final Camera cam = scene.camera();
 
+		// per-pixel statistics for adaptive sampling, null if disabled
+		double[] squares = scene.getSquaredLuminanceBuffer();
+		int[] sampleCount = scene.getSampleCountBuffer();
+		boolean converged = false;
+
 		long jobStart = System.nanoTime();
 
 		if (scene.getRenderState() != RenderState.PREVIEW) {
 
 			// this is intentionally incorrectly indented for readability
 			for (int y = y0; y < y1; ++y) {
-				int offset = y * width * 3 + x0 * 3;
 				for (int x = x0; x < x1; ++x) {
 
 					double sr = 0;
 					double sg = 0;
 					double sb = 0;
+					double sl2 = 0;
+
+					// pixels can have a different count than the tile if
+					// the render was resumed with another tile size
+					int pixel = y * width + x;
+					int n = sampleCount != null ? sampleCount[pixel] : spp;
 
 					for (int i = 0; i < RenderConstants.SPP_PER_PASS; ++i) {
+						random.startSample(x, y, n + i);
 						double oy = random.nextDouble();
 						double ox = random.nextDouble();
 
@@ -127,20 +152,33 @@ public class RenderWorker extends Thread {
 						sr += ray.color.x;
 						sg += ray.color.y;
 						sb += ray.color.z;
+						if (squares != null) {
+							double l = Scene.luminance(ray.color.x, ray.color.y, ray.color.z);
+							sl2 += l*l;
+						}
 					}
-					double sinv = 1.0 / (scene.spp + RenderConstants.SPP_PER_PASS);
-					samples[offset+0] = (samples[offset+0] * scene.spp + sr) * sinv;
-					samples[offset+1] = (samples[offset+1] * scene.spp + sg) * sinv;
-					samples[offset+2] = (samples[offset+2] * scene.spp + sb) * sinv;
+					if (sampleCount != null) {
+						squares[pixel] = (squares[pixel] * n + sl2)
+								/ (n + RenderConstants.SPP_PER_PASS);
+						sampleCount[pixel] = n + RenderConstants.SPP_PER_PASS;
+					}
+					double sinv = 1.0 / (n + RenderConstants.SPP_PER_PASS);
+					int index = samples.index(x, y);
+					samples.set(index,
+							(samples.getR(index) * n + sr) * sinv,
+							(samples.getG(index) * n + sg) * sinv,
+							(samples.getB(index) * n + sb) * sinv);
 
 					if (scene.shouldFinalizeBuffer()) {
 						scene.finalizePixel(x, y);
 					}
-
-					offset += 3;
 				}
 			}
 
+			if (sampleCount != null && spp + RenderConstants.SPP_PER_PASS >= Scene.MIN_ADAPTIVE_SPP) {
+				converged = scene.estimateNoise(x0, y0, x1, y1) < scene.getNoiseThreshold();
+			}
+
 		} else {
 
 			Ray target = new Ray(ray);
@@ -168,9 +206,7 @@ public class RenderWorker extends Thread {
 			// Draw the crosshair.
 			if (x == width / 2 && (y >= height / 2 - 5 && y <= height / 2 + 5) ||
 					y == height / 2 && (x >= width / 2 - 5 && x <= width / 2 + 5)) {
-				samples[(y*width+x)*3+0] = 0xFF;
-				samples[(y*width+x)*3+1] = 0xFF;
-				samples[(y*width+x)*3+2] = 0xFF;
+				samples.set(samples.index(x, y), 0xFF, 0xFF, 0xFF);
 				scene.finalizePixel(x, y);
 				continue;
 			}
@@ -196,9 +232,7 @@ public class RenderWorker extends Thread {
 				ray.color.w = 1;
 			}
 
-			samples[(y*width+x)*3+0] = ray.color.x;
-			samples[(y*width+x)*3+1] = ray.color.y;
-			samples[(y*width+x)*3+2] = ray.color.z;
+			samples.set(samples.index(x, y), ray.color.x, ray.color.y, ray.color.z);
 
 			scene.finalizePixel(x, y);
 
@@ -223,6 +257,7 @@ public class RenderWorker extends Thread {
 			}
 			jobTime = 0;
 		}
+		return converged;
 	}
 
 }
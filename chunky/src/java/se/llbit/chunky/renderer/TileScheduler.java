@@ -0,0 +1,422 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Work-stealing tile scheduler for the render workers.
+ *
+ * <p>Each tile has its own SPP counter. A tile is handed out again as soon as
+ * it is finished, as long as it has not reached the current SPP limit and is
+ * not more than {@link #MAX_LEAD} passes ahead of the slowest tile. This
+ * means that workers do not have to wait for the slowest tile at the end of
+ * each pass.
+ *
+ * <p>Each worker has a queue of tiles. Workers take tiles from their own
+ * queue first, and steal from other queues when their own queue is empty.
+ * The scheduler level is the SPP reached by all tiles. When all tiles have
+ * reached the SPP limit the scheduler is idle.
+ *
+ * <p>With adaptive sampling, tiles that have converged are retired and
+ * are not rendered again until the scheduler is reset. The scheduler level
+ * only tracks tiles that have not converged.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TileScheduler {
+
+	/**
+	 * Maximum number of passes a tile may be ahead of the slowest tile.
+	 * This also bounds the extra work done when the scheduler is held.
+	 */
+	public static final int MAX_LEAD = 2;
+
+	/** Number of level counters (one for each possible tile SPP). */
+	private static final int NUM_LEVELS = MAX_LEAD + 2;
+
+	private volatile TileQueue[] queues = { new TileQueue() };
+
+	/** SPP for each tile. */
+	private volatile int[] tileSpp = {};
+
+	/** Number of tiles at each SPP level, indexed by SPP modulo NUM_LEVELS. */
+	private volatile AtomicIntegerArray levelCount = new AtomicIntegerArray(NUM_LEVELS);
+
+	/** Minimum tile SPP. */
+	private volatile int level = 0;
+
+	/** Tiles are not handed out when they reach this SPP. */
+	private volatile int limit = 0;
+
+	private volatile boolean aborted = false;
+
+	/** Converged tiles. */
+	private boolean[] converged = {};
+
+	/** Number of tiles that have not converged. */
+	private final AtomicInteger active = new AtomicInteger(0);
+
+	/** Tiles that are currently not runnable. */
+	private int[] parked = {};
+	private int numParked = 0;
+
+	/** Number of tiles currently in worker queues. */
+	private final AtomicInteger queued = new AtomicInteger(0);
+
+	/** Number of workers waiting for tiles. */
+	private volatile int waiting = 0;
+
+	/**
+	 * Reset the scheduler. All tiles are set to the given SPP, and
+	 * no tiles are handed out until {@link #start(int)} is called.
+	 * Must only be called when the scheduler is idle.
+	 * @param numTiles number of tiles in the canvas
+	 * @param numWorkers number of render workers
+	 * @param spp initial SPP of all tiles
+	 */
+	public synchronized void reset(int numTiles, int numWorkers, int spp) {
+		reset(new boolean[numTiles], numWorkers, spp);
+	}
+
+	/**
+	 * Reset the scheduler. All tiles that have not converged are set to the
+	 * given SPP, and no tiles are handed out until {@link #start(int)} is
+	 * called. Must only be called when the scheduler is idle.
+	 * @param converged the converged tiles - one element per tile
+	 * @param numWorkers number of render workers
+	 * @param spp initial SPP of all tiles
+	 */
+	public synchronized void reset(boolean[] converged, int numWorkers, int spp) {
+		int numTiles = converged.length;
+		TileQueue[] newQueues = new TileQueue[Math.max(1, numWorkers)];
+		for (int i = 0; i < newQueues.length; ++i) {
+			newQueues[i] = new TileQueue();
+		}
+		queues = newQueues;
+		queued.set(0);
+		int[] newSpp = new int[numTiles];
+		parked = new int[numTiles];
+		for (int i = 0; i < numTiles; ++i) {
+			newSpp[i] = spp;
+			parked[i] = i;
+		}
+		tileSpp = newSpp;
+		numParked = numTiles;
+		this.converged = converged.clone();
+		int numActive = 0;
+		for (boolean done: converged) {
+			if (!done) {
+				numActive += 1;
+			}
+		}
+		active.set(numActive);
+		levelCount = new AtomicIntegerArray(NUM_LEVELS);
+		levelCount.set(spp % NUM_LEVELS, numActive);
+		level = spp;
+		limit = spp;
+		aborted = false;
+	}
+
+	/**
+	 * Start handing out tiles until all tiles reach the target SPP.
+	 * @param target SPP target
+	 */
+	public synchronized void start(int target) {
+		if (!aborted) {
+			limit = target;
+			if (active.get() == 0) {
+				level = Math.max(level, limit);
+			}
+			release();
+		}
+	}
+
+	/**
+	 * Stop handing out tiles once all tiles have reached the same SPP.
+	 * Use {@link #awaitIdle()} to wait for the in-flight tiles to finish.
+	 * @return the previous SPP limit, which can be passed to
+	 * {@link #start(int)} to resume rendering
+	 */
+	public synchronized int hold() {
+		int previous = limit;
+		limit = Math.min(limit, level + MAX_LEAD);
+		return previous;
+	}
+
+	/**
+	 * Stop handing out tiles immediately. The scheduler must be reset
+	 * after an abort, since the tiles may have different SPP.
+	 */
+	public synchronized void abort() {
+		aborted = true;
+		limit = 0;
+		notifyAll();
+	}
+
+	/**
+	 * @return {@code true} if the scheduler was aborted since the last reset
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * @return the SPP that all tiles have reached
+	 */
+	public int level() {
+		return level;
+	}
+
+	/**
+	 * @return the number of samples accumulated in the given tile
+	 */
+	public int tileSpp(int tile) {
+		return tileSpp[tile];
+	}
+
+	/**
+	 * @return {@code true} if the given tile has converged
+	 */
+	public synchronized boolean isConverged(int tile) {
+		return converged[tile];
+	}
+
+	/**
+	 * @return the number of tiles that have not converged
+	 */
+	public int activeTiles() {
+		return active.get();
+	}
+
+	/**
+	 * @return {@code true} if no tiles are queued or being rendered
+	 */
+	public synchronized boolean isIdle() {
+		return numParked == tileSpp.length;
+	}
+
+	/**
+	 * Wait until no tiles are queued or being rendered.
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (numParked < tileSpp.length) {
+			wait();
+		}
+	}
+
+	/**
+	 * Wait until the scheduler level has increased above the given level,
+	 * the scheduler becomes idle, or the timeout expires.
+	 * @param previous previous scheduler level
+	 * @param timeout timeout in milliseconds
+	 * @return the current scheduler level
+	 * @throws InterruptedException
+	 */
+	public synchronized int awaitLevel(int previous, long timeout)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (level <= previous && numParked < tileSpp.length && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return level;
+	}
+
+	/**
+	 * Get the next tile for a worker. Blocks until a tile is available.
+	 * @param worker worker ID
+	 * @return tile index
+	 * @throws InterruptedException
+	 */
+	public int nextTile(int worker) throws InterruptedException {
+		while (true) {
+			TileQueue[] queues = this.queues;
+			int home = worker % queues.length;
+			int tile = queues[home].poll();
+			for (int i = 1; tile == -1 && i < queues.length; ++i) {
+				// Steal from another worker.
+				tile = queues[(home + i) % queues.length].poll();
+			}
+			if (tile != -1) {
+				queued.decrementAndGet();
+				if (isRunnable(tileSpp[tile])) {
+					return tile;
+				}
+				park(tile);
+				continue;
+			}
+			synchronized (this) {
+				waiting += 1;
+				try {
+					while (queued.get() == 0) {
+						wait();
+					}
+				} finally {
+					waiting -= 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Report that a worker finished rendering one pass of a tile.
+	 * @param worker worker ID
+	 * @param tile tile index
+	 */
+	public void tileDone(int worker, int tile) {
+		tileDone(worker, tile, false);
+	}
+
+	/**
+	 * Report that a worker finished rendering one pass of a tile.
+	 * @param worker worker ID
+	 * @param tile tile index
+	 * @param tileConverged {@code true} if the tile does not need more samples
+	 */
+	public void tileDone(int worker, int tile, boolean tileConverged) {
+		int spp = ++tileSpp[tile];
+		AtomicIntegerArray count = levelCount;
+		if (tileConverged) {
+			retire(tile);
+		} else {
+			count.incrementAndGet(spp % NUM_LEVELS);
+		}
+		if (count.decrementAndGet((spp - 1) % NUM_LEVELS) == 0 && spp - 1 == level) {
+			advanceLevel();
+		}
+		if (tileConverged) {
+			park(tile);
+		} else if (isRunnable(spp)) {
+			TileQueue[] queues = this.queues;
+			enqueue(queues[worker % queues.length], tile);
+		} else {
+			park(tile);
+		}
+	}
+
+	private boolean isRunnable(int spp) {
+		return spp < limit && spp < level + MAX_LEAD;
+	}
+
+	private synchronized void retire(int tile) {
+		converged[tile] = true;
+		active.decrementAndGet();
+	}
+
+	private void enqueue(TileQueue queue, int tile) {
+		queued.incrementAndGet();
+		queue.add(tile);
+		if (waiting > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized void park(int tile) {
+		if (!converged[tile] && isRunnable(tileSpp[tile])) {
+			// The level was advanced while we were not holding the lock.
+			enqueue(homeQueue(tile), tile);
+		} else {
+			parked[numParked++] = tile;
+			if (numParked == tileSpp.length) {
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized void advanceLevel() {
+		AtomicIntegerArray count = levelCount;
+		int previous = level;
+		if (active.get() == 0) {
+			// All tiles have converged.
+			level = Math.max(level, limit);
+		} else {
+			while (count.get(level % NUM_LEVELS) == 0) {
+				level += 1;
+			}
+		}
+		if (level != previous) {
+			release();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Move runnable parked tiles back to the worker queues.
+	 */
+	private void release() {
+		int remaining = 0;
+		for (int i = 0; i < numParked; ++i) {
+			int tile = parked[i];
+			if (!converged[tile] && isRunnable(tileSpp[tile])) {
+				enqueue(homeQueue(tile), tile);
+			} else {
+				parked[remaining++] = tile;
+			}
+		}
+		numParked = remaining;
+	}
+
+	/**
+	 * Tiles are initially distributed in contiguous blocks so that each
+	 * worker renders a compact region of the canvas.
+	 */
+	private TileQueue homeQueue(int tile) {
+		TileQueue[] queues = this.queues;
+		return queues[(int) ((tile * (long) queues.length) / tileSpp.length)];
+	}
+
+	/**
+	 * A simple synchronized FIFO of tile indices.
+	 */
+	private static final class TileQueue {
+		private int[] tiles = new int[16];
+		private int head = 0;
+		private int size = 0;
+
+		synchronized void add(int tile) {
+			if (size == tiles.length) {
+				int[] grown = new int[tiles.length * 2];
+				for (int i = 0; i < size; ++i) {
+					grown[i] = tiles[(head + i) % tiles.length];
+				}
+				tiles = grown;
+				head = 0;
+			}
+			tiles[(head + size) % tiles.length] = tile;
+			size += 1;
+		}
+
+		/**
+		 * @return the first tile in the queue, or -1 if the queue is empty
+		 */
+		synchronized int poll() {
+			if (size == 0) {
+				return -1;
+			}
+			int tile = tiles[head];
+			head = (head + 1) % tiles.length;
+			size -= 1;
+			return tile;
+		}
+	}
+}
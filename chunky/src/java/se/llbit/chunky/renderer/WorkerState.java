@@ -16,13 +16,110 @@
  */
 package se.llbit.chunky.renderer;
 
-import java.util.Random;
-
+import se.llbit.math.Octree;
+import se.llbit.math.PackedBVH;
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector4d;
 
+/**
+ * Per-thread rendering state. The rays used for path tracing are allocated
+ * once per worker and reused for every sample.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
 public class WorkerState {
 	public Ray ray;
 	public Vector4d attenuation = new Vector4d();
-	public Random random;
+	public Sampler random;
+
+	/**
+	 * Copy of the current ray used for octree intersection tests.
+	 */
+	public final Ray octreeRay = new Ray();
+
+	/**
+	 * Node stack for BVH traversal.
+	 */
+	public final int[] bvhStack = new int[PackedBVH.STACK_SIZE];
+
+	/**
+	 * Octree traversal cache for camera rays. Camera rays for neighbouring
+	 * pixels visit the same octree nodes, so they get their own cache which
+	 * is not disturbed by the bounces traced in between.
+	 */
+	private Octree.Traversal primaryTraversal = null;
+
+	/**
+	 * Octree traversal cache for all other rays.
+	 */
+	private Octree.Traversal traversal = null;
+
+	/**
+	 * Secondary rays indexed by ray depth.
+	 */
+	private Ray[] rays = new Ray[0];
+
+	/**
+	 * Fog rays indexed by ray depth. The fog ray also stores the
+	 * origin and direction of the path segment before it is traced.
+	 */
+	private Ray[] fogRays = new Ray[0];
+
+	/**
+	 * @param parent
+	 * @return A reusable ray for the next path segment after the parent ray.
+	 * The ray is only valid until the next call with a parent of the same depth.
+	 */
+	public Ray nextRay(Ray parent) {
+		int depth = parent.depth + 1;
+		if (depth >= rays.length) {
+			rays = grow(rays, depth);
+		}
+		return rays[depth];
+	}
+
+	/**
+	 * @param ray
+	 * @return A reusable ray for fog sampling of the given path segment
+	 */
+	public Ray fogRay(Ray ray) {
+		int depth = ray.depth;
+		if (depth >= fogRays.length) {
+			fogRays = grow(fogRays, depth);
+		}
+		return fogRays[depth];
+	}
+
+	/**
+	 * @param octree
+	 * @param ray
+	 * @return The octree traversal cache to use for the given ray
+	 */
+	public Octree.Traversal traversal(Octree octree, Ray ray) {
+		if (ray.depth == 0) {
+			if (primaryTraversal == null || primaryTraversal.octree() != octree) {
+				primaryTraversal = octree.traversal();
+			}
+			return primaryTraversal;
+		} else {
+			if (traversal == null || traversal.octree() != octree) {
+				traversal = octree.traversal();
+			}
+			return traversal;
+		}
+	}
+
+	/**
+	 * Paths are terminated randomly after the maximum ray depth, so the
+	 * stack is grown as needed rather than allocated for a fixed depth.
+	 */
+	private static Ray[] grow(Ray[] stack, int depth) {
+		Ray[] grown = new Ray[Math.max(depth + 1, stack.length * 2)];
+		System.arraycopy(stack, 0, grown, 0, stack.length);
+		for (int i = stack.length; i < grown.length; ++i) {
+			grown[i] = new Ray();
+		}
+		return grown;
+	}
 }
@@ -16,9 +16,8 @@
  */
 package se.llbit.chunky.renderer.projection;
 
-import java.util.Random;
-
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 
 /**
@@ -40,7 +39,7 @@ public class ApertureProjector implements Projector {
 	}
 
 	@Override
-	public void apply(double x, double y, Random random, Vector3d o,
+	public void apply(double x, double y, Sampler random, Vector3d o,
 			Vector3d d) {
 		wrapped.apply(x, y, random, o, d);
 
@@ -16,11 +16,10 @@
  */
 package se.llbit.chunky.renderer.projection;
 
-import java.util.Random;
-
 import org.apache.commons.math3.util.FastMath;
 
 import se.llbit.math.QuickMath;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 
 public class FisheyeProjector implements Projector {
@@ -31,7 +30,7 @@ public class FisheyeProjector implements Projector {
 	}
 
 	@Override
-	public void apply(double x, double y, Random random, Vector3d o, Vector3d d) {
+	public void apply(double x, double y, Sampler random, Vector3d o, Vector3d d) {
 		apply(x, y, o, d);
 	}
 
@@ -16,12 +16,11 @@
  */
 package se.llbit.chunky.renderer.projection;
 
-import java.util.Random;
-
 import org.apache.commons.math3.util.FastMath;
 
 import se.llbit.chunky.renderer.scene.Camera;
 import se.llbit.math.QuickMath;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 
 /**
@@ -38,7 +37,7 @@ public class PanoramicSlotProjector implements Projector {
 	}
 
 	@Override
-	public void apply(double x, double y, Random random, Vector3d o,
+	public void apply(double x, double y, Sampler random, Vector3d o,
 			Vector3d d) {
 		apply(x, y, o, d);
 	}
@@ -16,8 +16,7 @@
  */
 package se.llbit.chunky.renderer.projection;
 
-import java.util.Random;
-
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 
 /**
@@ -33,7 +32,7 @@ public class ParallelProjector implements Projector {
 	}
 
 	@Override
-	public void apply(double x, double y, Random random, Vector3d o,
+	public void apply(double x, double y, Sampler random, Vector3d o,
 			Vector3d d) {
 		apply(x, y, o, d);
 	}
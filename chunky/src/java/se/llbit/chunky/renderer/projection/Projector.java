@@ -16,8 +16,7 @@
  */
 package se.llbit.chunky.renderer.projection;
 
-import java.util.Random;
-
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 
 /**
@@ -32,7 +31,7 @@ public interface Projector {
 	 * @param direction will be populated with camera-relative ray direction
 	 *            (not necessarily normalized)
 	 */
-	public void apply(double x, double y, Random random, Vector3d pos,
+	public void apply(double x, double y, Sampler random, Vector3d pos,
 			Vector3d direction);
 
 	/**
@@ -16,9 +16,8 @@
  */
 package se.llbit.chunky.renderer.projection;
 
-import java.util.Random;
-
 import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 
 /**
@@ -34,7 +33,7 @@ public class StereographicProjector implements Projector {
 	}
 
 	@Override
-	public void apply(double x, double y, Random random, Vector3d o, Vector3d d) {
+	public void apply(double x, double y, Sampler random, Vector3d o, Vector3d d) {
 		apply(x, y, o, d);
 	}
 
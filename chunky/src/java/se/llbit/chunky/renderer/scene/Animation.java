@@ -0,0 +1,205 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import se.llbit.json.JsonMember;
+import se.llbit.json.JsonNumber;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonUnknown;
+import se.llbit.json.JsonValue;
+
+/**
+ * Keyframed scene settings for rendering an animation.
+ *
+ * <p>The animation is stored in the "animation" member of the scene
+ * description:
+ * <pre>
+ * "animation": {
+ *   "frames": 100,
+ *   "keyframes": [
+ *     {"frame": 0, "set": {"sun": {"altitude": 1.5}}},
+ *     {"frame": 99, "set": {"sun": {"altitude": 0.1}}}
+ *   ]
+ * }
+ * </pre>
+ * Each keyframe holds a partial scene description, as accepted by
+ * {@link Scene#applyJson}. Numbers are linearly interpolated between
+ * keyframes, other values are taken from the previous keyframe. Settings
+ * that are only in some keyframes keep their value before the first and
+ * after the last keyframe that sets them.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class Animation {
+
+	private static class Keyframe {
+		final int frame;
+		final JsonObject settings;
+
+		Keyframe(int frame, JsonObject settings) {
+			this.frame = frame;
+			this.settings = settings;
+		}
+	}
+
+	private final List<Keyframe> keyframes = new ArrayList<Keyframe>();
+	private final int frames;
+
+	/**
+	 * @param json the animation object from a scene description
+	 */
+	public Animation(JsonObject json) {
+		for (JsonValue value: json.get("keyframes").array().getElementList()) {
+			JsonObject keyframe = value.object();
+			int frame = keyframe.get("frame").intValue(-1);
+			if (frame >= 0) {
+				keyframes.add(new Keyframe(frame, keyframe.get("set").object()));
+			}
+		}
+		Collections.sort(keyframes, new Comparator<Keyframe>() {
+			@Override
+			public int compare(Keyframe a, Keyframe b) {
+				return a.frame - b.frame;
+			}
+		});
+		int last = keyframes.isEmpty() ? 0 : keyframes.get(keyframes.size() - 1).frame;
+		frames = json.get("frames").intValue(last + 1);
+	}
+
+	/**
+	 * @return {@code true} if the animation has no keyframes
+	 */
+	public boolean isEmpty() {
+		return keyframes.isEmpty();
+	}
+
+	/**
+	 * @return The number of frames in the animation
+	 */
+	public int frameCount() {
+		return frames;
+	}
+
+	/**
+	 * @param frame
+	 * @return The partial scene description for the given frame
+	 */
+	public JsonObject frame(int frame) {
+		JsonObject settings = new JsonObject();
+		for (Keyframe keyframe: keyframes) {
+			collectNames(settings, keyframe.settings);
+		}
+		interpolate(settings, frame, new ArrayList<String>());
+		return settings;
+	}
+
+	/**
+	 * Add the structure of a keyframe to the settings object.
+	 */
+	private static void collectNames(JsonObject settings, JsonObject keyframe) {
+		for (JsonMember member: keyframe.getMemberList()) {
+			JsonValue value = member.getValue();
+			if (value.isObject()) {
+				JsonValue current = settings.get(member.getName());
+				if (!current.isObject()) {
+					current = new JsonObject();
+					settings.set(member.getName(), current);
+				}
+				collectNames(current.object(), value.object());
+			} else if (!settings.hasMember(member.getName())) {
+				settings.add(member.getName(), new JsonObject());
+			}
+		}
+	}
+
+	/**
+	 * Replace the leaves of the settings object by the interpolated values.
+	 * @param path member names from the settings root to the current object
+	 */
+	private void interpolate(JsonObject settings, int frame, List<String> path) {
+		for (JsonMember member: settings.getMemberList()) {
+			path.add(member.getName());
+			JsonObject value = member.getValue().object();
+			if (value.getNumMember() > 0) {
+				interpolate(value, frame, path);
+			} else {
+				member.setValue(interpolate(path, frame));
+			}
+			path.remove(path.size() - 1);
+		}
+	}
+
+	/**
+	 * @return The interpolated value of the setting at the given path
+	 */
+	private JsonValue interpolate(List<String> path, int frame) {
+		Keyframe before = null;
+		JsonValue beforeValue = null;
+		for (Keyframe keyframe: keyframes) {
+			JsonValue value = lookup(keyframe.settings, path);
+			if (value.isUnknown()) {
+				continue;
+			}
+			if (keyframe.frame > frame) {
+				if (before == null) {
+					return (JsonValue) value.fullCopy();
+				}
+				if (beforeValue instanceof JsonNumber && value instanceof JsonNumber) {
+					double t = (frame - before.frame) / (double) (keyframe.frame - before.frame);
+					return lerp((JsonNumber) beforeValue, (JsonNumber) value, t);
+				}
+				break;
+			}
+			before = keyframe;
+			beforeValue = value;
+		}
+		return (JsonValue) beforeValue.fullCopy();
+	}
+
+	private static JsonValue lookup(JsonObject settings, List<String> path) {
+		JsonValue value = settings;
+		for (String name: path) {
+			if (!value.isObject()) {
+				return JsonUnknown.INSTANCE;
+			}
+			value = value.object().get(name);
+		}
+		return value;
+	}
+
+	/**
+	 * Integer settings stay integers so that they can still be read as ints.
+	 */
+	private static JsonNumber lerp(JsonNumber a, JsonNumber b, double t) {
+		double value = (1 - t) * a.doubleValue(0) + t * b.doubleValue(0);
+		if (isInteger(a) && isInteger(b)) {
+			return new JsonNumber(Math.round(value));
+		}
+		return new JsonNumber(value);
+	}
+
+	private static boolean isInteger(JsonNumber number) {
+		String value = number.getValue();
+		return value.indexOf('.') == -1 && value.indexOf('e') == -1
+				&& value.indexOf('E') == -1;
+	}
+}
@@ -16,8 +16,6 @@
  */
 package se.llbit.chunky.renderer.scene;
 
-import java.util.Random;
-
 import org.apache.commons.math3.util.FastMath;
 
 import se.llbit.chunky.renderer.Refreshable;
@@ -40,6 +38,7 @@ import se.llbit.log.Log;
 import se.llbit.math.Matrix3d;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 import se.llbit.util.JSONifiable;
 
@@ -442,7 +441,7 @@ public class Camera implements JSONifiable {
 	 * @param x normalized image coordinate [-0.5, 0.5]
 	 * @param y normalized image coordinate [-0.5, 0.5]
 	 */
-	public void calcViewRay(Ray ray, Random random, double x,
+	public void calcViewRay(Ray ray, Sampler random, double x,
 			double y) {
 
 		// reset the ray properties - current material etc.
@@ -0,0 +1,325 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.apache.commons.math3.util.FastMath;
+
+import se.llbit.chunky.model.WaterModel;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.world.Block;
+import se.llbit.chunky.world.Material;
+import se.llbit.math.QuickMath;
+import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
+import se.llbit.math.Vector3d;
+import se.llbit.math.Vector4d;
+
+/**
+ * Path tracing in a single loop. This computes the same estimate as
+ * {@link PathTracer}, but instead of recursing for each bounce and
+ * multiplying colors on the way back, the path throughput is multiplied
+ * on the way out and emitted light is added to the radiance directly.
+ *
+ * <p>Random numbers are drawn in the same order as in PathTracer.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class IterativePathTracer {
+
+	/**
+	 * Path trace the ray
+	 * @param scene
+	 * @param state
+	 */
+	public static final void pathTrace(Scene scene, WorkerState state) {
+		Ray ray = state.ray;
+		if (scene.isInWater(ray)) {
+			ray.setCurrentMat(Block.WATER, 0);
+		} else {
+			ray.setCurrentMat(Block.AIR, 0);
+		}
+
+		Sampler random = state.random;
+		// the fog ray stores the original ray origin and direction
+		Ray atmos = state.fogRay(ray);
+		atmos.o.set(ray.o);
+		atmos.d.set(ray.d);
+		double s = 0;
+
+		// path throughput
+		double tr = 1, tg = 1, tb = 1;
+
+		// accumulated radiance
+		double lr = 0, lg = 0, lb = 0;
+
+		// emitters add their color directly, except after a diffuse bounce
+		boolean addEmitted = true;
+
+		Ray current = ray;
+		while (true) {
+
+			if (!RayTracer.nextIntersection(scene, current, state)) {
+				if (current.getPrevMaterial() == Block.WATER) {
+					// no light reaches the surface from below
+				} else if (current.depth == 0) {
+					// direct sky hit
+					if (!scene.transparentSky()) {
+						scene.sky.getSkyColorInterpolated(current);
+						lr += tr * current.color.x;
+						lg += tg * current.color.y;
+						lb += tb * current.color.z;
+					} else {
+						s = current.distance;
+					}
+				} else {
+					if (current.specular) {
+						scene.sky.getSkySpecularColor(current);
+					} else {
+						scene.sky.getSkyColor(current);
+					}
+					lr += tr * current.color.x;
+					lg += tg * current.color.y;
+					lb += tb * current.color.z;
+				}
+				break;
+			}
+
+			double pSpecular = 0;
+
+			Material currentMat = current.getCurrentMaterial();
+			Material prevMat = current.getPrevMaterial();
+
+			if (!scene.stillWater && current.n.y != 0 &&
+					((currentMat == Block.WATER && prevMat == Block.AIR) ||
+					(currentMat == Block.AIR && prevMat == Block.WATER))) {
+
+				WaterModel.doWaterDisplacement(current);
+
+				if (currentMat == Block.AIR) {
+					current.n.y = -current.n.y;
+				}
+			}
+
+			if (currentMat.isShiny) {
+				if (currentMat == Block.WATER) {
+					pSpecular = Scene.WATER_SPECULAR;
+				} else {
+					pSpecular = Scene.SPECULAR_COEFF;
+				}
+			}
+
+			double pDiffuse = current.color.w;
+
+			float n1 = prevMat.ior;
+			float n2 = currentMat.ior;
+
+			if (pDiffuse + pSpecular < Ray.EPSILON && n1 == n2)
+				continue;
+
+			if (current.depth == 0) {
+				s = current.distance;
+			}
+
+			if (prevMat == Block.WATER) {
+				// water fog attenuates everything seen from this point
+				double a = current.distance / scene.waterVisibility;
+				double attenuation = 1 - QuickMath.min(1, a*a);
+				tr *= attenuation;
+				tg *= attenuation;
+				tb *= attenuation;
+			}
+
+			Ray next = state.nextRay(current);
+
+			if (currentMat.isShiny &&
+					random.nextDouble() < pSpecular) {
+
+				if (scene.kill(current.depth+1, random)) {
+					break;
+				}
+				next.specularReflection(current);
+				tr *= current.color.x;
+				tg *= current.color.y;
+				tb *= current.color.z;
+				addEmitted = true;
+
+			} else if (random.nextDouble() < pDiffuse) {
+
+				if (scene.kill(current.depth+1, random)) {
+					break;
+				}
+				next.set(current);
+
+				double cr = current.color.x;
+				double cg = current.color.y;
+				double cb = current.color.z;
+
+				if (scene.emittersEnabled && currentMat.isEmitter) {
+					if (addEmitted) {
+						lr += tr * cr;
+						lg += tg * cg;
+						lb += tb * cb;
+					} else {
+						double emittance = currentMat.emittance * scene.emitterIntensity;
+						lr += tr * cr * cr * emittance;
+						lg += tg * cg * cg * emittance;
+						lb += tb * cb * cb * emittance;
+					}
+				}
+
+				if (scene.sunEnabled) {
+					scene.sun.getRandomSunDirection(next, random);
+
+					boolean frontLight = next.d.dot(current.n) > 0;
+
+					if (frontLight || (currentMat.subSurfaceScattering &&
+							random.nextDouble() < Scene.fSubSurface)) {
+
+						if (!frontLight) {
+							next.o.scaleAdd(-Ray.OFFSET, current.n);
+						}
+
+						next.setCurrentMat(next.getPrevMaterial(), next.getPrevData());
+
+						PathTracer.getDirectLightAttenuation(scene, next, state);
+
+						Vector4d attenuation = state.attenuation;
+						if (attenuation.w > 0) {
+							double mult = QuickMath.abs(next.d.dot(current.n));
+							Vector3d sunEmittance = scene.sun.emittance;
+							lr += tr * cr * attenuation.x*attenuation.w * mult * sunEmittance.x;
+							lg += tg * cg * attenuation.y*attenuation.w * mult * sunEmittance.y;
+							lb += tb * cb * attenuation.z*attenuation.w * mult * sunEmittance.z;
+						}
+					}
+				}
+
+				next.diffuseReflection(current, random);
+				tr *= cr;
+				tg *= cg;
+				tb *= cb;
+				addEmitted = false;
+
+			} else if (n1 != n2) {
+
+				boolean doRefraction =
+						currentMat == Block.WATER ||
+						prevMat == Block.WATER ||
+						currentMat == Block.ICE ||
+						prevMat == Block.ICE;
+
+				// refraction
+				float n1n2 = n1 / n2;
+				double cosTheta = - current.n.dot(current.d);
+				double radicand = 1 - n1n2*n1n2 * (1 - cosTheta*cosTheta);
+				if (doRefraction && radicand < Ray.EPSILON) {
+					// total internal reflection
+					if (scene.kill(current.depth+1, random)) {
+						break;
+					}
+					next.specularReflection(current);
+				} else {
+					if (scene.kill(current.depth+1, random)) {
+						break;
+					}
+					// Calculate angle-dependent reflectance using
+					// Fresnel equation approximation
+					// R(cosineAngle) = R0 + (1 - R0) * (1 - cos(cosineAngle))^5
+					float a = (n1n2 - 1);
+					float b = (n1n2 + 1);
+					double R0 = a*a/(b*b);
+					double c = 1 - cosTheta;
+					double Rtheta = R0 + (1-R0) * c*c*c*c*c;
+
+					if (random.nextDouble() < Rtheta) {
+						next.specularReflection(current);
+					} else {
+						next.set(current);
+						if (doRefraction) {
+
+							double t2 = FastMath.sqrt(radicand);
+							if (cosTheta > 0) {
+								next.d.x = n1n2*current.d.x + (n1n2*cosTheta - t2)*current.n.x;
+								next.d.y = n1n2*current.d.y + (n1n2*cosTheta - t2)*current.n.y;
+								next.d.z = n1n2*current.d.z + (n1n2*cosTheta - t2)*current.n.z;
+							} else {
+								next.d.x = n1n2*current.d.x - (-n1n2*cosTheta - t2)*current.n.x;
+								next.d.y = n1n2*current.d.y - (-n1n2*cosTheta - t2)*current.n.y;
+								next.d.z = n1n2*current.d.z - (-n1n2*cosTheta - t2)*current.n.z;
+							}
+
+							next.d.normalize();
+
+							next.o.scaleAdd(Ray.OFFSET, next.d);
+						}
+						tr *= current.color.x * pDiffuse + (1-pDiffuse);
+						tg *= current.color.y * pDiffuse + (1-pDiffuse);
+						tb *= current.color.z * pDiffuse + (1-pDiffuse);
+					}
+				}
+				addEmitted = true;
+
+			} else {
+
+				next.set(current);
+				next.o.scaleAdd(Ray.OFFSET, next.d);
+				tr *= current.color.x * pDiffuse + (1-pDiffuse);
+				tg *= current.color.y * pDiffuse + (1-pDiffuse);
+				tb *= current.color.z * pDiffuse + (1-pDiffuse);
+				addEmitted = true;
+			}
+
+			current = next;
+		}
+
+		// fog is only applied to the first path segment, see PathTracer
+		if (s > 0 && scene.fogEnabled()) {
+			Sun sun = scene.sun;
+
+			// pick point between ray origin and intersected object
+			double offset = QuickMath.clamp(s * random.nextFloat(), Ray.EPSILON, s-Ray.EPSILON);
+			atmos.o.scaleAdd(offset, atmos.d, atmos.o);
+			atmos.distance = 0;
+			sun.getRandomSunDirection(atmos, random);
+			atmos.setCurrentMat(Block.AIR, 0);
+
+			double fogDensity = scene.getFogDensity() * PathTracer.EXTINCTION_FACTOR;
+			double extinction = Math.exp(-s * fogDensity);
+			lr *= extinction;
+			lg *= extinction;
+			lb *= extinction;
+
+			// check sun visibility at random point to determine inscatter brightness
+			PathTracer.getDirectLightAttenuation(scene, atmos, state);
+			Vector4d attenuation = state.attenuation;
+			if (attenuation.w > Ray.EPSILON) {
+				Vector3d fogColor = scene.getFogColor();
+				double inscatter;
+				if (scene.fastFog()) {
+					inscatter = (1-extinction);
+				} else {
+					inscatter = s * fogDensity * Math.exp(-offset * fogDensity);
+				}
+				lr += attenuation.x*attenuation.w * fogColor.x * inscatter;
+				lg += attenuation.y*attenuation.w * fogColor.y * inscatter;
+				lb += attenuation.z*attenuation.w * fogColor.z * inscatter;
+			}
+		}
+
+		ray.color.set(lr, lg, lb, 1);
+	}
+}
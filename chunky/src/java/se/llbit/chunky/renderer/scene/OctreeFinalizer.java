@@ -33,31 +33,103 @@ import se.llbit.math.Vector3i;
  */
 public class OctreeFinalizer {
 	/**
-	 * Finalize a chunk in the octree.
+	 * Voxel updates for one chunk. Reads of voxels in the chunk see the
+	 * updates made so far, other reads go to the octree. The octree is not
+	 * modified until the updates are applied, so several chunks can be
+	 * finalized concurrently as long as no updates are applied meanwhile.
+	 */
+	public static final class ChunkUpdates {
+		private final Octree.Cursor cursor;
+		private final int x0;
+		private final int y0;
+		private final int z0;
+		private final int[] types = new int[Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX];
+		private final boolean[] updated = new boolean[types.length];
+
+		ChunkUpdates(Octree octree, Vector3i origin, ChunkPosition cp) {
+			cursor = octree.cursor();
+			x0 = cp.x*16 - origin.x;
+			y0 = -origin.y;
+			z0 = cp.z*16 - origin.z;
+		}
+
+		/**
+		 * @return The voxel type at the given coordinates
+		 */
+		int get(int x, int y, int z) {
+			int index = index(x - x0, y - y0, z - z0);
+			if (index != -1 && updated[index]) {
+				return types[index];
+			}
+			return cursor.get(x, y, z);
+		}
+
+		/**
+		 * Update a voxel in the chunk.
+		 */
+		void set(int type, int x, int y, int z) {
+			int index = index(x - x0, y - y0, z - z0);
+			types[index] = type;
+			updated[index] = true;
+		}
+
+		/**
+		 * Write the updates to the octree.
+		 */
+		public void apply(Octree octree) {
+			for (int index = 0; index < types.length; ++index) {
+				if (updated[index]) {
+					int x = index & 15;
+					int z = (index >> 4) & 15;
+					int y = index >> 8;
+					octree.set(types[index], x0 + x, y0 + y, z0 + z);
+				}
+			}
+		}
+
+		/**
+		 * @return Index of the voxel in the chunk, or -1 if it is outside
+		 * the chunk
+		 */
+		private static int index(int x, int y, int z) {
+			if (x < 0 || x >= Chunk.X_MAX || z < 0 || z >= Chunk.Z_MAX
+					|| y < 0 || y >= Chunk.Y_MAX) {
+				return -1;
+			}
+			return x + (z << 4) + (y << 8);
+		}
+	}
+
+	/**
+	 * Finalize a chunk in the octree. The octree is only read, the updates
+	 * are returned so that the caller can apply them when no other chunk is
+	 * being finalized.
 	 * @param octree Octree to finalize
 	 * @param origin Origin of the octree
 	 * @param cp Position of the chunk to finalize
+	 * @return The voxel updates for the chunk
 	 */
-	public static void finalizeChunk(Octree octree, Vector3i origin, ChunkPosition cp) {
+	public static ChunkUpdates finalizeChunk(Octree octree, Vector3i origin, ChunkPosition cp) {
+		ChunkUpdates voxels = new ChunkUpdates(octree, origin, cp);
 		for (int cy = 0 - origin.y; cy < Chunk.Y_MAX - origin.y; ++cy) {
 			for (int cz = 0; cz < 16; ++cz) {
 				int z = cz + cp.z*16 - origin.z;
 				for (int cx = 0; cx < 16; ++cx) {
 					int x = cx + cp.x*16 - origin.x;
-					int type = octree.get(x, cy, z);
+					int type = voxels.get(x, cy, z);
 					Block block = Block.get(type);
 
 					// Set non-visible blocks to be stone, in order to merge large patches.
 					if ((cx == 0 || cx == 15 || cz == 0 || cz == 15)
 							&& cy > -origin.y && cy < Chunk.Y_MAX - origin.y - 1
 							&& block != Block.STONE && block.isOpaque) {
-						if (Block.get(octree.get(x-1, cy, z)).isOpaque
-								&& Block.get(octree.get(x + 1, cy, z)).isOpaque
-								&& Block.get(octree.get(x, cy - 1, z)).isOpaque
-								&& Block.get(octree.get(x, cy + 1, z)).isOpaque
-								&& Block.get(octree.get(x, cy, z - 1)).isOpaque
-								&& Block.get(octree.get(x, cy, z + 1)).isOpaque) {
-							octree.set(Block.STONE_ID, x, cy, z);
+						if (Block.get(voxels.get(x-1, cy, z)).isOpaque
+								&& Block.get(voxels.get(x + 1, cy, z)).isOpaque
+								&& Block.get(voxels.get(x, cy - 1, z)).isOpaque
+								&& Block.get(voxels.get(x, cy + 1, z)).isOpaque
+								&& Block.get(voxels.get(x, cy, z - 1)).isOpaque
+								&& Block.get(voxels.get(x, cy, z + 1)).isOpaque) {
+							voxels.set(Block.STONE_ID, x, cy, z);
 							continue;
 						}
 					}
@@ -88,9 +160,9 @@ public class OctreeFinalizer {
 						data = type >> BlockData.OFFSET;
 						if ((data&8) != 0) {
 							// Get flower kind from block beneath.
-							int kind = (octree.get(x, cy - 1, z) >> BlockData.OFFSET)&7;
+							int kind = (voxels.get(x, cy - 1, z) >> BlockData.OFFSET)&7;
 							type = (type & ~(15<<BlockData.OFFSET)) | ( (8|kind) << BlockData.OFFSET);
-							octree.set(type, x, cy, z);
+							voxels.set(type, x, cy, z);
 						}
 						break;
 					case Block.WATER_ID:
@@ -103,7 +175,7 @@ public class OctreeFinalizer {
 						corner2 = level0;
 						corner3 = level0;
 
-						data = octree.get(x-1, cy, z);
+						data = voxels.get(x-1, cy, z);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -114,7 +186,7 @@ public class OctreeFinalizer {
 						corner3 += level;
 						corner0 += level;
 
-						data = octree.get(x-1, cy, z+1);
+						data = voxels.get(x-1, cy, z+1);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -124,7 +196,7 @@ public class OctreeFinalizer {
 						}
 						corner0 += level;
 
-						data = octree.get(x, cy, z+1);
+						data = voxels.get(x, cy, z+1);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -135,7 +207,7 @@ public class OctreeFinalizer {
 						corner0 += level;
 						corner1 += level;
 
-						data = octree.get(x+1, cy, z+1);
+						data = voxels.get(x+1, cy, z+1);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -145,7 +217,7 @@ public class OctreeFinalizer {
 						}
 						corner1 += level;
 
-						data = octree.get(x+1, cy, z);
+						data = voxels.get(x+1, cy, z);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -156,7 +228,7 @@ public class OctreeFinalizer {
 						corner1 += level;
 						corner2 += level;
 
-						data = octree.get(x+1, cy, z-1);
+						data = voxels.get(x+1, cy, z-1);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -166,7 +238,7 @@ public class OctreeFinalizer {
 						}
 						corner2 += level;
 
-						data = octree.get(x, cy, z-1);
+						data = voxels.get(x, cy, z-1);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -177,7 +249,7 @@ public class OctreeFinalizer {
 						corner2 += level;
 						corner3 += level;
 
-						data = octree.get(x-1, cy, z-1);
+						data = voxels.get(x-1, cy, z-1);
 						level = level0;
 						if (Block.get(data) == Block.WATER) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -195,7 +267,7 @@ public class OctreeFinalizer {
 						type |= (corner1 << 20);
 						type |= (corner2 << 24);
 						type |= (corner3 << 28);
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.LAVA_ID:
 						fullBlock = (type >> WaterModel.FULL_BLOCK) & 1;
@@ -207,7 +279,7 @@ public class OctreeFinalizer {
 						corner2 = level0;
 						corner3 = level0;
 
-						data = octree.get(x-1, cy, z);
+						data = voxels.get(x-1, cy, z);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -218,7 +290,7 @@ public class OctreeFinalizer {
 						corner3 += level;
 						corner0 += level;
 
-						data = octree.get(x-1, cy, z+1);
+						data = voxels.get(x-1, cy, z+1);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -228,7 +300,7 @@ public class OctreeFinalizer {
 						}
 						corner0 += level;
 
-						data = octree.get(x, cy, z+1);
+						data = voxels.get(x, cy, z+1);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -239,7 +311,7 @@ public class OctreeFinalizer {
 						corner0 += level;
 						corner1 += level;
 
-						data = octree.get(x+1, cy, z+1);
+						data = voxels.get(x+1, cy, z+1);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -249,7 +321,7 @@ public class OctreeFinalizer {
 						}
 						corner1 += level;
 
-						data = octree.get(x+1, cy, z);
+						data = voxels.get(x+1, cy, z);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -260,7 +332,7 @@ public class OctreeFinalizer {
 						corner1 += level;
 						corner2 += level;
 
-						data = octree.get(x+1, cy, z-1);
+						data = voxels.get(x+1, cy, z-1);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -270,7 +342,7 @@ public class OctreeFinalizer {
 						}
 						corner2 += level;
 
-						data = octree.get(x, cy, z-1);
+						data = voxels.get(x, cy, z-1);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -281,7 +353,7 @@ public class OctreeFinalizer {
 						corner2 += level;
 						corner3 += level;
 
-						data = octree.get(x-1, cy, z-1);
+						data = voxels.get(x-1, cy, z-1);
 						level = level0;
 						if (Block.get(data) == Block.LAVA) {
 							fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -299,47 +371,47 @@ public class OctreeFinalizer {
 						type |= (corner1 << 20);
 						type |= (corner2 << 24);
 						type |= (corner3 << 28);
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.TRIPWIRE_ID:
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other == Block.TRIPWIRE || other == Block.TRIPWIREHOOK) {
 							type |= 1 << 12;
 						} else {
-							other = Block.get(octree.get(x + 1, cy, z));
+							other = Block.get(voxels.get(x + 1, cy, z));
 							if (other == Block.TRIPWIRE || other == Block.TRIPWIREHOOK) {
 								type |= 1 << 12;
 							}
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.REDSTONEWIRE_ID:
-						above = Block.get(octree.get(x, cy + 1, z));
-						west = Block.get(octree.get(x - 1, cy, z));
-						east = Block.get(octree.get(x + 1, cy, z));
-						north = Block.get(octree.get(x, cy, z - 1));
-						south = Block.get(octree.get(x, cy, z + 1));
+						above = Block.get(voxels.get(x, cy + 1, z));
+						west = Block.get(voxels.get(x - 1, cy, z));
+						east = Block.get(voxels.get(x + 1, cy, z));
+						north = Block.get(voxels.get(x, cy, z - 1));
+						south = Block.get(voxels.get(x, cy, z + 1));
 
 						if (above == Block.AIR) {
-							Block westAbove = Block.get(octree.get(x - 1, cy + 1, z));
+							Block westAbove = Block.get(voxels.get(x - 1, cy + 1, z));
 							if (west.isSolid && westAbove == Block.REDSTONEWIRE) {
 								// wire on west block side
 								type |= 1 << BlockData.RSW_WEST_CONNECTION;
 								type |= 1 << BlockData.RSW_WEST_SIDE;
 							}
-							Block eastAbove = Block.get(octree.get(x + 1, cy + 1, z));
+							Block eastAbove = Block.get(voxels.get(x + 1, cy + 1, z));
 							if (east.isSolid && eastAbove == Block.REDSTONEWIRE) {
 								// wire on east block side
 								type |= 1 << BlockData.RSW_EAST_CONNECTION;
 								type |= 1 << BlockData.RSW_EAST_SIDE;
 							}
-							Block northAbove = Block.get(octree.get(x, cy + 1, z - 1));
+							Block northAbove = Block.get(voxels.get(x, cy + 1, z - 1));
 							if (north.isSolid && northAbove == Block.REDSTONEWIRE) {
 								// wire on north block side
 								type |= 1 << BlockData.RSW_NORTH_CONNECTION;
 								type |= 1 << BlockData.RSW_NORTH_SIDE;
 							}
-							Block southAbove = Block.get(octree.get(x, cy + 1, z + 1));
+							Block southAbove = Block.get(voxels.get(x, cy + 1, z + 1));
 							if (south.isSolid && southAbove == Block.REDSTONEWIRE) {
 								// wire on south block side
 								type |= 1 << BlockData.RSW_SOUTH_CONNECTION;
@@ -350,7 +422,7 @@ public class OctreeFinalizer {
 						if (west.isRedstoneWireConnector()) {
 							type |= 1 << BlockData.RSW_WEST_CONNECTION;
 						} else if (west == Block.AIR) {
-							Block westBelow = Block.get(octree.get(x - 1, cy - 1, z));
+							Block westBelow = Block.get(voxels.get(x - 1, cy - 1, z));
 							if (westBelow == Block.REDSTONEWIRE) {
 								type |= 1 << BlockData.RSW_WEST_CONNECTION;
 							}
@@ -359,7 +431,7 @@ public class OctreeFinalizer {
 						if (east.isRedstoneWireConnector()) {
 							type |= 1 << BlockData.RSW_EAST_CONNECTION;
 						} else if (east == Block.AIR) {
-							Block eastBelow = Block.get(octree.get(x + 1, cy - 1, z));
+							Block eastBelow = Block.get(voxels.get(x + 1, cy - 1, z));
 							if (eastBelow == Block.REDSTONEWIRE) {
 								type |= 1 << BlockData.RSW_EAST_CONNECTION;
 							}
@@ -368,7 +440,7 @@ public class OctreeFinalizer {
 						if (north.isRedstoneWireConnector() || south.isRedstoneWireConnector()) {
 							type |= 1 << BlockData.RSW_NORTH_CONNECTION;
 						} else if (north == Block.AIR) {
-							Block northBelow = Block.get(octree.get(x, cy - 1, z - 1));
+							Block northBelow = Block.get(voxels.get(x, cy - 1, z - 1));
 							if (northBelow == Block.REDSTONEWIRE) {
 								type |= 1 << BlockData.RSW_NORTH_CONNECTION;
 							}
@@ -377,130 +449,130 @@ public class OctreeFinalizer {
 						if (south.isRedstoneWireConnector()) {
 							type |= 1 << BlockData.RSW_SOUTH_CONNECTION;
 						} else if (south == Block.AIR) {
-							Block southBelow = Block.get(octree.get(x, cy - 1, z + 1));
+							Block southBelow = Block.get(voxels.get(x, cy - 1, z + 1));
 							if (southBelow == Block.REDSTONEWIRE) {
 								type |= 1 << BlockData.RSW_SOUTH_CONNECTION;
 							}
 						}
 
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.MELONSTEM_ID:
-						if (Block.get(octree.get(x - 1, cy, z)) == Block.MELON) {
+						if (Block.get(voxels.get(x - 1, cy, z)) == Block.MELON) {
 							type |= 1 << 16;
-						} else if (Block.get(octree.get(x + 1, cy, z)) == Block.MELON) {
+						} else if (Block.get(voxels.get(x + 1, cy, z)) == Block.MELON) {
 							type |= 2 << 16;
-						} else if (Block.get(octree.get(x, cy, z - 1)) == Block.MELON) {
+						} else if (Block.get(voxels.get(x, cy, z - 1)) == Block.MELON) {
 							type |= 3 << 16;
-						} else if (Block.get(octree.get(x, cy, z + 1)) == Block.MELON) {
+						} else if (Block.get(voxels.get(x, cy, z + 1)) == Block.MELON) {
 							type |= 4 << 16;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.PUMPKINSTEM_ID:
-						if (Block.get(octree.get(x - 1, cy, z)) == Block.PUMPKIN) {
+						if (Block.get(voxels.get(x - 1, cy, z)) == Block.PUMPKIN) {
 							type |= 1 << 16;
-						} else if (Block.get(octree.get(x + 1, cy, z)) == Block.PUMPKIN) {
+						} else if (Block.get(voxels.get(x + 1, cy, z)) == Block.PUMPKIN) {
 							type |= 2 << 16;
-						} else if (Block.get(octree.get(x, cy, z - 1)) == Block.PUMPKIN) {
+						} else if (Block.get(voxels.get(x, cy, z - 1)) == Block.PUMPKIN) {
 							type |= 3 << 16;
-						} else if (Block.get(octree.get(x, cy, z + 1)) == Block.PUMPKIN) {
+						} else if (Block.get(voxels.get(x, cy, z + 1)) == Block.PUMPKIN) {
 							type |= 4 << 16;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.TRAPPEDCHEST_ID:
 						dir = type >> 8;
 						tex = 0;
 						if (dir < 4) {
-							if (Block.get(octree.get(x - 1, cy, z)) == Block.TRAPPEDCHEST) {
+							if (Block.get(voxels.get(x - 1, cy, z)) == Block.TRAPPEDCHEST) {
 								tex = 1 + (dir-1) % 2;
-							} else if (Block.get(octree.get(x + 1, cy, z)) == Block.TRAPPEDCHEST) {
+							} else if (Block.get(voxels.get(x + 1, cy, z)) == Block.TRAPPEDCHEST) {
 								tex = 1 + dir % 2;
 							}
 						} else {
-							if (Block.get(octree.get(x, cy, z - 1)) == Block.TRAPPEDCHEST) {
+							if (Block.get(voxels.get(x, cy, z - 1)) == Block.TRAPPEDCHEST) {
 								tex = 1 + dir % 2;
-							} else if (Block.get(octree.get(x, cy, z + 1)) == Block.TRAPPEDCHEST) {
+							} else if (Block.get(voxels.get(x, cy, z + 1)) == Block.TRAPPEDCHEST) {
 								tex = 1 + (dir-1) % 2;
 							}
 						}
 						type |= tex << 16;
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.CHEST_ID:
 						dir = type >> 8;
 						tex = 0;
 						if (dir < 4) {
-							if (Block.get(octree.get(x - 1, cy, z)) == Block.CHEST) {
+							if (Block.get(voxels.get(x - 1, cy, z)) == Block.CHEST) {
 								tex = 1 + (dir-1) % 2;
-							} else if (Block.get(octree.get(x + 1, cy, z)) == Block.CHEST) {
+							} else if (Block.get(voxels.get(x + 1, cy, z)) == Block.CHEST) {
 								tex = 1 + dir % 2;
 							}
 						} else {
-							if (Block.get(octree.get(x, cy, z - 1)) == Block.CHEST) {
+							if (Block.get(voxels.get(x, cy, z - 1)) == Block.CHEST) {
 								tex = 1 + dir % 2;
-							} else if (Block.get(octree.get(x, cy, z + 1)) == Block.CHEST) {
+							} else if (Block.get(voxels.get(x, cy, z + 1)) == Block.CHEST) {
 								tex = 1 + (dir-1) % 2;
 							}
 						}
 						type |= tex << 16;
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.IRONBARS_ID:
-						other = Block.get(octree.get(x, cy, z - 1));
+						other = Block.get(voxels.get(x, cy, z - 1));
 						if (other.isIronBarsConnector()) {
 							type |= BlockData.CONNECTED_NORTH << BlockData.GLASS_PANE_OFFSET;
 						}
-						other = Block.get(octree.get(x, cy, z + 1));
+						other = Block.get(voxels.get(x, cy, z + 1));
 						if (other.isIronBarsConnector()) {
 							type |= BlockData.CONNECTED_SOUTH << BlockData.GLASS_PANE_OFFSET;
 						}
-						other = Block.get(octree.get(x + 1, cy, z));
+						other = Block.get(voxels.get(x + 1, cy, z));
 						if (other.isIronBarsConnector()) {
 							type |= BlockData.CONNECTED_EAST << BlockData.GLASS_PANE_OFFSET;
 						}
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other.isIronBarsConnector()) {
 							type |= BlockData.CONNECTED_WEST << BlockData.GLASS_PANE_OFFSET;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.GLASSPANE_ID:
 					case Block.STAINED_GLASSPANE_ID:
-						other = Block.get(octree.get(x, cy, z - 1));
+						other = Block.get(voxels.get(x, cy, z - 1));
 						if (other.isGlassPaneConnector()) {
 							type |= BlockData.CONNECTED_NORTH << BlockData.GLASS_PANE_OFFSET;
 						}
-						other = Block.get(octree.get(x, cy, z + 1));
+						other = Block.get(voxels.get(x, cy, z + 1));
 						if (other.isGlassPaneConnector()) {
 							type |= BlockData.CONNECTED_SOUTH << BlockData.GLASS_PANE_OFFSET;
 						}
-						other = Block.get(octree.get(x + 1, cy, z));
+						other = Block.get(voxels.get(x + 1, cy, z));
 						if (other.isGlassPaneConnector()) {
 							type |= BlockData.CONNECTED_EAST << BlockData.GLASS_PANE_OFFSET;
 						}
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other.isGlassPaneConnector()) {
 							type |= BlockData.CONNECTED_WEST << BlockData.GLASS_PANE_OFFSET;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.STONEWALL_ID:
 						connections = 0;
-						other = Block.get(octree.get(x, cy, z - 1));
+						other = Block.get(voxels.get(x, cy, z - 1));
 						if (other.isStoneWallConnector()) {
 							connections |= BlockData.CONNECTED_NORTH;
 						}
-						other = Block.get(octree.get(x, cy, z + 1));
+						other = Block.get(voxels.get(x, cy, z + 1));
 						if (other.isStoneWallConnector()) {
 							connections |= BlockData.CONNECTED_SOUTH;
 						}
-						other = Block.get(octree.get(x + 1, cy, z));
+						other = Block.get(voxels.get(x + 1, cy, z));
 						if (other.isStoneWallConnector()) {
 							connections |= BlockData.CONNECTED_EAST;
 						}
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other.isStoneWallConnector()) {
 							connections |= BlockData.CONNECTED_WEST;
 						}
@@ -508,14 +580,14 @@ public class OctreeFinalizer {
 						if (connections != 3 && connections != 12) {
 							type |= 1 << BlockData.STONEWALL_CORNER;
 						} else if (cy+1 < Chunk.Y_MAX) {
-							other =  Block.get(octree.get(x, cy+1, z));
+							other =  Block.get(voxels.get(x, cy+1, z));
 							if (other == Block.TORCH
 									|| other == Block.REDSTONETORCHON
 									|| other == Block.REDSTONETORCHOFF) {
 								type |= 1 << BlockData.STONEWALL_CORNER;
 							}
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.FENCE_ID:
 					case Block.SPRUCEFENCE_ID:
@@ -523,42 +595,42 @@ public class OctreeFinalizer {
 					case Block.JUNGLEFENCE_ID:
 					case Block.DARKOAKFENCE_ID:
 					case Block.ACACIAFENCE_ID:
-						other = Block.get(octree.get(x, cy, z - 1));
+						other = Block.get(voxels.get(x, cy, z - 1));
 						if (other.isFenceConnector()) {
 							type |= BlockData.CONNECTED_NORTH << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x, cy, z + 1));
+						other = Block.get(voxels.get(x, cy, z + 1));
 						if (other.isFenceConnector()) {
 							type |= BlockData.CONNECTED_SOUTH << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x + 1, cy, z));
+						other = Block.get(voxels.get(x + 1, cy, z));
 						if (other.isFenceConnector()) {
 							type |= BlockData.CONNECTED_EAST << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other.isFenceConnector()) {
 							type |= BlockData.CONNECTED_WEST << BlockData.OFFSET;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.NETHERBRICKFENCE_ID:
-						other = Block.get(octree.get(x, cy, z - 1));
+						other = Block.get(voxels.get(x, cy, z - 1));
 						if (other.isNetherBrickFenceConnector()) {
 							type |= BlockData.CONNECTED_NORTH << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x, cy, z + 1));
+						other = Block.get(voxels.get(x, cy, z + 1));
 						if (other.isNetherBrickFenceConnector()) {
 							type |= BlockData.CONNECTED_SOUTH << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x + 1, cy, z));
+						other = Block.get(voxels.get(x + 1, cy, z));
 						if (other.isNetherBrickFenceConnector()) {
 							type |= BlockData.CONNECTED_EAST << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other.isNetherBrickFenceConnector()) {
 							type |= BlockData.CONNECTED_WEST << BlockData.OFFSET;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					case Block.FENCEGATE_ID:
 					case Block.SPRUCEFENCEGATE_ID:
@@ -569,19 +641,19 @@ public class OctreeFinalizer {
 						dir = 3 & (type >> BlockData.OFFSET);
 						if (dir == 0 || dir == 2) {
 							// facing north or south
-							west = Block.get(octree.get(x - 1, cy, z));
-							east = Block.get(octree.get(x + 1, cy, z));
+							west = Block.get(voxels.get(x - 1, cy, z));
+							east = Block.get(voxels.get(x + 1, cy, z));
 							if (west == Block.STONEWALL && east == Block.STONEWALL) {
 								type |= 1 << BlockData.FENCEGATE_LOW;
-								octree.set(type, x, cy, z);
+								voxels.set(type, x, cy, z);
 							}
 						} else {
 							// facing east or west
-							north = Block.get(octree.get(x, cy, z - 1));
-							south = Block.get(octree.get(x, cy, z + 1));
+							north = Block.get(voxels.get(x, cy, z - 1));
+							south = Block.get(voxels.get(x, cy, z + 1));
 							if (north == Block.STONEWALL && south == Block.STONEWALL) {
 								type |= 1 << BlockData.FENCEGATE_LOW;
-								octree.set(type, x, cy, z);
+								voxels.set(type, x, cy, z);
 							}
 						}
 						break;
@@ -605,26 +677,26 @@ public class OctreeFinalizer {
 						switch (rotation) {
 						case 0:
 							// ascending east
-							bd = octree.get(x+1, cy, z);// behind
+							bd = voxels.get(x+1, cy, z);// behind
 							other = Block.get(bd);
-							bd_alt = octree.get(x-1, cy, z);// in front of
+							bd_alt = voxels.get(x-1, cy, z);// in front of
 							other_alt = Block.get(bd_alt);
 							if (other.isStair() && (bd&BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
 								switch (3 & (bd >> BlockData.OFFSET)) {
 								case 2:
 									// if stair behind ascends south we have outer s-e corner
 									// unless stair to the left has same orientation
-									if (!sameStair(octree, type, x, cy, z-1)) {
+									if (!sameStair(voxels, type, x, cy, z-1)) {
 										type |= BlockData.SOUTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 3:
 									// if stair behind ascends north we have n-e corner
 									// unless stair to the right has same orientation
-									if (!sameStair(octree, type, x, cy, z+1)) {
+									if (!sameStair(voxels, type, x, cy, z+1)) {
 										type |= BlockData.NORTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -633,17 +705,17 @@ public class OctreeFinalizer {
 								case 2:
 									// if stair in front ascends south we have inner s-e corner
 									// unless stair to the right has same orientation
-									if (!sameStair(octree, type, x, cy, z+1)) {
+									if (!sameStair(voxels, type, x, cy, z+1)) {
 										type |= BlockData.INNER_SOUTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 3:
 									// if stair in front ascends north we have inner n-e corner
 									// unless stair to the left has same orientation
-									if (!sameStair(octree, type, x, cy, z-1)) {
+									if (!sameStair(voxels, type, x, cy, z-1)) {
 										type |= BlockData.INNER_NORTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -651,26 +723,26 @@ public class OctreeFinalizer {
 							break;
 						case 1:
 							// ascending west
-							bd = octree.get(x-1, cy, z);// behind
+							bd = voxels.get(x-1, cy, z);// behind
 							other = Block.get(bd);
-							bd_alt = octree.get(x+1, cy, z);// in front of
+							bd_alt = voxels.get(x+1, cy, z);// in front of
 							other_alt = Block.get(bd_alt);
 							if (other.isStair() && (bd&BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
 								switch (3 & (bd >> BlockData.OFFSET)) {
 								case 2:
 									// if stair behind ascends south we have outer s-w corner
 									// unless stair to the right has same orientation
-									if (!sameStair(octree, type, x, cy, z-1)) {
+									if (!sameStair(voxels, type, x, cy, z-1)) {
 										type |= BlockData.SOUTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 3:
 									// if stair behind ascends north we have outer n-w corner
 									// unless stair to the left has same orientation
-									if (!sameStair(octree, type, x, cy, z+1)) {
+									if (!sameStair(voxels, type, x, cy, z+1)) {
 										type |= BlockData.NORTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -679,17 +751,17 @@ public class OctreeFinalizer {
 								case 2:
 									// if stair in front ascends south we have inner s-w corner
 									// unless stair to the left has same orientation
-									if (!sameStair(octree, type, x, cy, z+1)) {
+									if (!sameStair(voxels, type, x, cy, z+1)) {
 										type |= BlockData.INNER_SOUTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 3:
 									// if stair in front ascends north we have inner n-w corner
 									// unless stair to the right has same orientation
-									if (!sameStair(octree, type, x, cy, z-1)) {
+									if (!sameStair(voxels, type, x, cy, z-1)) {
 										type |= BlockData.INNER_NORTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -697,24 +769,24 @@ public class OctreeFinalizer {
 							break;
 						case 2:
 							// ascending south
-							bd = octree.get(x, cy, z+1);// behind
+							bd = voxels.get(x, cy, z+1);// behind
 							other = Block.get(bd);
-							bd_alt = octree.get(x, cy, z-1);// in front of
+							bd_alt = voxels.get(x, cy, z-1);// in front of
 							other_alt = Block.get(bd_alt);
 							if (other.isStair() && (bd&BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
 								switch (3 & (bd >> BlockData.OFFSET)) {
 								case 0:
 									// if stair behind ascends east we have outer s-e corner
-									if (!sameStair(octree, type, x-1, cy, z)) {
+									if (!sameStair(voxels, type, x-1, cy, z)) {
 										type |= BlockData.SOUTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 1:
 									// if stair behind ascends west we have outer s-w corner
-									if (!sameStair(octree, type, x+1, cy, z)) {
+									if (!sameStair(voxels, type, x+1, cy, z)) {
 										type |= BlockData.SOUTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -722,16 +794,16 @@ public class OctreeFinalizer {
 								switch (3 & (bd_alt >> BlockData.OFFSET)) {
 								case 0:
 									// if stair in front ascends east we have inner s-e corner
-									if (!sameStair(octree, type, x+1, cy, z)) {
+									if (!sameStair(voxels, type, x+1, cy, z)) {
 										type |= BlockData.INNER_SOUTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 1:
 									// if stair in front ascends west we have inner s-w corner
-									if (!sameStair(octree, type, x-1, cy, z)) {
+									if (!sameStair(voxels, type, x-1, cy, z)) {
 										type |= BlockData.INNER_SOUTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -739,24 +811,24 @@ public class OctreeFinalizer {
 							break;
 						case 3:
 							// Ascending north.
-							bd = octree.get(x, cy, z-1); // Behind.
+							bd = voxels.get(x, cy, z-1); // Behind.
 							other = Block.get(bd);
-							bd_alt = octree.get(x, cy, z+1); // In front of.
+							bd_alt = voxels.get(x, cy, z+1); // In front of.
 							other_alt = Block.get(bd_alt);
 							if (other.isStair() && (bd&BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
 								switch (3 & (bd >> BlockData.OFFSET)) {
 								case 0:
 									// If stair behind ascends east we have outer n-e corner.
-									if (!sameStair(octree, type, x-1, cy, z)) {
+									if (!sameStair(voxels, type, x-1, cy, z)) {
 										type |= BlockData.NORTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 1:
 									// If stair behind ascends west we have outer n-w corner.
-									if (!sameStair(octree, type, x+1, cy, z)) {
+									if (!sameStair(voxels, type, x+1, cy, z)) {
 										type |= BlockData.NORTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -764,16 +836,16 @@ public class OctreeFinalizer {
 								switch (3 & (bd_alt >> BlockData.OFFSET)) {
 								case 0:
 									// If stair in front ascends east we have inner n-e corner.
-									if (!sameStair(octree, type, x+1, cy, z)) {
+									if (!sameStair(voxels, type, x+1, cy, z)) {
 										type |= BlockData.INNER_NORTH_EAST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								case 1:
 									// If stair in front ascends west we have inner n-w corner.
-									if (!sameStair(octree, type, x-1, cy, z)) {
+									if (!sameStair(voxels, type, x-1, cy, z)) {
 										type |= BlockData.INNER_NORTH_WEST << BlockData.CORNER_OFFSET;
-										octree.set(type, x, cy, z);
+										voxels.set(type, x, cy, z);
 									}
 									break;
 								}
@@ -782,31 +854,31 @@ public class OctreeFinalizer {
 						}
 						break;
 					case Block.CHORUSPLANT_ID:
-						other = Block.get(octree.get(x, cy, z - 1));
+						other = Block.get(voxels.get(x, cy, z - 1));
 						if (other.isChorusPlant()) {
 							type |= BlockData.CONNECTED_NORTH << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x, cy, z + 1));
+						other = Block.get(voxels.get(x, cy, z + 1));
 						if (other.isChorusPlant()) {
 							type |= BlockData.CONNECTED_SOUTH << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x + 1, cy, z));
+						other = Block.get(voxels.get(x + 1, cy, z));
 						if (other.isChorusPlant()) {
 							type |= BlockData.CONNECTED_EAST << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x - 1, cy, z));
+						other = Block.get(voxels.get(x - 1, cy, z));
 						if (other.isChorusPlant()) {
 							type |= BlockData.CONNECTED_WEST << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x, cy + 1, z));
+						other = Block.get(voxels.get(x, cy + 1, z));
 						if (other.isChorusPlant()) {
 							type |= BlockData.CONNECTED_ABOVE << BlockData.OFFSET;
 						}
-						other = Block.get(octree.get(x, cy - 1, z));
+						other = Block.get(voxels.get(x, cy - 1, z));
 						if (other.isChorusPlant()) {
 							type |= BlockData.CONNECTED_BELOW << BlockData.OFFSET;
 						}
-						octree.set(type, x, cy, z);
+						voxels.set(type, x, cy, z);
 						break;
 					default:
 						break;
@@ -814,11 +886,12 @@ public class OctreeFinalizer {
 				}
 			}
 		}
+		return voxels;
 	}
 
 	/** Check if this stair type is the same as the other stair block. */
-	private static boolean sameStair(Octree octree, int type, int x, int y, int z) {
-		int id = octree.get(x, y, z);
+	private static boolean sameStair(ChunkUpdates voxels, int type, int x, int y, int z) {
+		int id = voxels.get(x, y, z);
 		return Block.get(id).isStair() && (type&(7<<8)) == (id&(7<<8));
 	}
 
@@ -16,8 +16,6 @@
  */
 package se.llbit.chunky.renderer.scene;
 
-import java.util.Random;
-
 import org.apache.commons.math3.util.FastMath;
 
 import se.llbit.chunky.model.WaterModel;
@@ -26,6 +24,7 @@ import se.llbit.chunky.world.Block;
 import se.llbit.chunky.world.Material;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 import se.llbit.math.Vector4d;
 
@@ -36,7 +35,7 @@ import se.llbit.math.Vector4d;
  */
 public class PathTracer {
 
-	private static final double EXTINCTION_FACTOR = 0.04;
+	static final double EXTINCTION_FACTOR = 0.04;
 
 	/**
 	 * Path trace the ray
@@ -64,9 +63,11 @@ public class PathTracer {
 			int addEmitted, boolean first) {
 
 		boolean hit = false;
-		Random random = state.random;
-		Vector3d ox = new Vector3d(ray.o);
-		Vector3d od = new Vector3d(ray.d);
+		Sampler random = state.random;
+		// the fog ray stores the original ray origin and direction
+		Ray atmos = state.fogRay(ray);
+		atmos.o.set(ray.o);
+		atmos.d.set(ray.d);
 		double s = 0;
 
 		while (true) {
@@ -133,7 +134,7 @@ public class PathTracer {
 					random.nextDouble() < pSpecular) {
 
 				if (!scene.kill(ray.depth+1, random)) {
-					Ray reflected = new Ray();
+					Ray reflected = state.nextRay(ray);
 					reflected.specularReflection(ray);
 
 					if (pathTrace(scene, reflected, state, 1, false)) {
@@ -149,7 +150,7 @@ public class PathTracer {
 				if (random.nextDouble() < pDiffuse) {
 
 					if (!scene.kill(ray.depth+1, random)) {
-						Ray reflected = new Ray();
+						Ray reflected = state.nextRay(ray);
 						reflected.set(ray);
 
 						double emittance = 0;
@@ -239,7 +240,7 @@ public class PathTracer {
 					if (doRefraction && radicand < Ray.EPSILON) {
 						// total internal reflection
 						if (!scene.kill(ray.depth+1, random)) {
-							Ray reflected = new Ray();
+							Ray reflected = state.nextRay(ray);
 							reflected.specularReflection(ray);
 							if (pathTrace(scene, reflected, state, 1, false)) {
 
@@ -251,9 +252,6 @@ public class PathTracer {
 						}
 					} else {
 						if (!scene.kill(ray.depth+1, random)) {
-							Ray refracted = new Ray();
-							refracted.set(ray);
-
 							// Calculate angle-dependent reflectance using
 							// Fresnel equation approximation
 							// R(cosineAngle) = R0 + (1 - R0) * (1 - cos(cosineAngle))^5
@@ -264,7 +262,7 @@ public class PathTracer {
 							double Rtheta = R0 + (1-R0) * c*c*c*c*c;
 
 							if (random.nextDouble() < Rtheta) {
-								Ray reflected = new Ray();
+								Ray reflected = state.nextRay(ray);
 								reflected.specularReflection(ray);
 								if (pathTrace(scene, reflected, state, 1, false)) {
 									ray.color.x = reflected.color.x;
@@ -273,6 +271,8 @@ public class PathTracer {
 									hit = true;
 								}
 							} else {
+								Ray refracted = state.nextRay(ray);
+								refracted.set(ray);
 								if (doRefraction) {
 
 									double t2 = FastMath.sqrt(radicand);
@@ -306,7 +306,7 @@ public class PathTracer {
 
 				} else {
 
-					Ray transmitted = new Ray();
+					Ray transmitted = state.nextRay(ray);
 					transmitted.set(ray);
 					transmitted.o.scaleAdd(Ray.OFFSET, transmitted.d);
 
@@ -353,9 +353,9 @@ public class PathTracer {
 			Sun sun = scene.sun;
 
 			// pick point between ray origin and intersected object
-			Ray atmos = new Ray();
 			double offset = QuickMath.clamp(s * random.nextFloat(), Ray.EPSILON, s-Ray.EPSILON);
-			atmos.o.scaleAdd(offset, od, ox);
+			atmos.o.scaleAdd(offset, atmos.d, atmos.o);
+			atmos.distance = 0;
 			sun.getRandomSunDirection(atmos, random);
 			atmos.setCurrentMat(Block.AIR, 0);
 
@@ -0,0 +1,70 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.renderer.WorkerState;
+
+/**
+ * The available path tracing implementations.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public enum PathTracerType {
+	/** One recursive call per bounce. */
+	RECURSIVE {
+		@Override
+		public String toString() {
+			return "Recursive";
+		}
+
+		@Override
+		public void pathTrace(Scene scene, WorkerState state) {
+			PathTracer.pathTrace(scene, state);
+		}
+	},
+
+	/** A single loop with path throughput. */
+	ITERATIVE {
+		@Override
+		public String toString() {
+			return "Iterative";
+		}
+
+		@Override
+		public void pathTrace(Scene scene, WorkerState state) {
+			IterativePathTracer.pathTrace(scene, state);
+		}
+	};
+
+	public static final PathTracerType DEFAULT = RECURSIVE;
+
+	public static PathTracerType get(String name) {
+		for (PathTracerType type: values()) {
+			if (type.name().equals(name)) {
+				return type;
+			}
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * Path trace the ray of the worker state. The ray origin must be
+	 * relative to the scene origin.
+	 * @param scene
+	 * @param state
+	 */
+	public abstract void pathTrace(Scene scene, WorkerState state);
+}
@@ -19,7 +19,6 @@ package se.llbit.chunky.renderer.scene;
 import se.llbit.chunky.renderer.WorkerState;
 import se.llbit.chunky.world.Block;
 import se.llbit.math.Ray;
-import se.llbit.math.Vector3d;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -92,7 +91,7 @@ public class RayTracer {
 		if (scene.waterHeight > 0) {
 			hit = waterIntersection(scene, ray) || hit;
 		}
-		if (scene.intersect(ray)) {
+		if (scene.intersect(ray, state)) {
 			// Octree tracer handles updating distance.
 			return true;
 		}
@@ -111,9 +110,9 @@ public class RayTracer {
 		if (ray.d.y < 0) {
 			double t = (scene.waterHeight - .125 - ray.o.y - scene.origin.y) / ray.d.y;
 			if (t > 0 && t < ray.t) {
-				Vector3d vec = new Vector3d();
-				vec.scaleAdd(t + Ray.OFFSET, ray.d, ray.o);
-				if (!scene.isInsideOctree(vec)) {
+				if (!scene.isInsideOctree(ray.o.x + ray.d.x * (t + Ray.OFFSET),
+						ray.o.y + ray.d.y * (t + Ray.OFFSET),
+						ray.o.z + ray.d.z * (t + Ray.OFFSET))) {
 					ray.t = t;
 					Block.WATER.getColor(ray);
 					ray.n.set(0, 1, 0);
@@ -125,9 +124,9 @@ public class RayTracer {
 		if (ray.d.y > 0) {
 			double t = (scene.waterHeight - .125 - ray.o.y - scene.origin.y) / ray.d.y;
 			if (t > 0 && t < ray.t) {
-				Vector3d vec = new Vector3d();
-				vec.scaleAdd(t + Ray.OFFSET, ray.d, ray.o);
-				if (!scene.isInsideOctree(vec)) {
+				if (!scene.isInsideOctree(ray.o.x + ray.d.x * (t + Ray.OFFSET),
+						ray.o.y + ray.d.y * (t + Ray.OFFSET),
+						ray.o.z + ray.d.z * (t + Ray.OFFSET))) {
 					ray.t = t;
 					Block.WATER.getColor(ray);
 					ray.n.set(0, -1, 0);
@@ -143,11 +142,11 @@ public class RayTracer {
 		if (ray.d.y < 0) {
 			double t = (scene.waterHeight - .125 - ray.o.y - scene.origin.y) / ray.d.y;
 			if (t > 0 && t < ray.t) {
-				Vector3d vec = new Vector3d();
-				vec.scaleAdd(t + Ray.OFFSET, ray.d, ray.o);
-				if (!scene.isInsideOctree(vec)) {
+				if (!scene.isInsideOctree(ray.o.x + ray.d.x * (t + Ray.OFFSET),
+						ray.o.y + ray.d.y * (t + Ray.OFFSET),
+						ray.o.z + ray.d.z * (t + Ray.OFFSET))) {
 					ray.t = t;
-					ray.o.set(vec);
+					ray.o.scaleAdd(t + Ray.OFFSET, ray.d);
 					double xm = (ray.o.x % 16.0 + 16.0) % 16.0;
 					double zm = (ray.o.z % 16.0 + 16.0) % 16.0;
 					if (xm > 0.6 && zm > 0.6) {
@@ -0,0 +1,466 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import se.llbit.chunky.renderer.ProgressListener;
+
+/**
+ * Reads and writes render dumps.
+ *
+ * <p>A dump starts with a magic number and a format version, followed by the
+ * canvas size, SPP, render time, flags, and the number of rows per block.
+ * The samples follow in blocks of rows. Each block stores the RGB samples
+ * of its rows in row-major order, followed by the per-pixel sample counts
+ * and mean squared luminance if the dump has adaptive sampling data.
+ * Blocks are prefixed by their stored length and are optionally Deflate
+ * compressed. Blocks are encoded and compressed in parallel, and written
+ * in order through a channel.
+ *
+ * <p>Older dumps are a GZip stream of the samples in column-major order,
+ * optionally followed by adaptive sampling data. These are still read.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class RenderDump {
+
+	private static final int MAGIC = 0x44554D50;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 36;
+
+	private static final int FLAG_COMPRESSED = 1;
+	private static final int FLAG_ADAPTIVE = 2;
+
+	/**
+	 * Marks the adaptive sampling section at the end of an old render dump.
+	 */
+	static final int LEGACY_ADAPTIVE_MAGIC = 0x41445054;
+
+	/**
+	 * Approximate uncompressed size of a block, in bytes.
+	 */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * Receives the samples of a dump, a rectangle of pixels at a time.
+	 * Current dumps are read in blocks of full rows, old dumps one column
+	 * at a time.
+	 */
+	public interface SampleHandler {
+		/**
+		 * @param x0 the first column of the rectangle
+		 * @param y0 the first row of the rectangle
+		 * @param columns number of columns in the rectangle
+		 * @param rows number of rows in the rectangle
+		 * @param samples RGB samples of the pixels in row-major order
+		 * @param count per-pixel sample counts, or {@code null} if the dump
+		 * has no adaptive sampling data or if it is passed to
+		 * {@link #sampleCounts} later
+		 * @param squares per-pixel mean squared luminance, or {@code null}
+		 * like {@code count}
+		 */
+		void samples(int x0, int y0, int columns, int rows, double[] samples,
+				int[] count, double[] squares);
+
+		/**
+		 * Receives adaptive sampling data for pixels whose samples were
+		 * already passed to {@link #samples} without it. Only old dumps store
+		 * the adaptive sampling data after all samples.
+		 * @param x0 the first column of the rectangle
+		 * @param y0 the first row of the rectangle
+		 * @param columns number of columns in the rectangle
+		 * @param rows number of rows in the rectangle
+		 * @param count per-pixel sample counts in row-major order
+		 * @param squares per-pixel mean squared luminance in row-major order
+		 */
+		void sampleCounts(int x0, int y0, int columns, int rows, int[] count,
+				double[] squares);
+	}
+
+	public final int width;
+	public final int height;
+	public final int spp;
+	public final long renderTime;
+
+	private final ReadableByteChannel channel;
+	private final DataInputStream legacy;
+	private final boolean compressed;
+	private final boolean adaptive;
+	private final int rowsPerBlock;
+
+	private RenderDump(ReadableByteChannel channel, ByteBuffer header)
+			throws IOException {
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unknown render dump version: " + version);
+		}
+		this.channel = channel;
+		legacy = null;
+		width = header.getInt();
+		height = header.getInt();
+		spp = header.getInt();
+		renderTime = header.getLong();
+		int flags = header.getInt();
+		compressed = (flags & FLAG_COMPRESSED) != 0;
+		adaptive = (flags & FLAG_ADAPTIVE) != 0;
+		rowsPerBlock = header.getInt();
+		if (width <= 0 || height <= 0 || rowsPerBlock <= 0) {
+			throw new IOException("Corrupted render dump header");
+		}
+	}
+
+	private RenderDump(DataInputStream in) throws IOException {
+		channel = null;
+		legacy = in;
+		width = in.readInt();
+		height = in.readInt();
+		spp = in.readInt();
+		renderTime = in.readLong();
+		compressed = false;
+		adaptive = false;
+		rowsPerBlock = height;
+	}
+
+	/**
+	 * Read the header of a render dump. The samples are then read with
+	 * {@link #readSamples}.
+	 * @param in
+	 * @return the opened dump
+	 * @throws IOException
+	 */
+	public static RenderDump open(InputStream in) throws IOException {
+		ReadableByteChannel channel = in instanceof FileInputStream
+				? ((FileInputStream) in).getChannel()
+				: Channels.newChannel(in);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.limit(4);
+		readFully(channel, header);
+		header.flip();
+		if (header.getInt(0) == MAGIC) {
+			header.clear();
+			header.position(4);
+			readFully(channel, header);
+			header.flip();
+			header.position(4);
+			return new RenderDump(channel, header);
+		} else {
+			// old GZip dump - put back the bytes that were already read
+			InputStream rest = Channels.newInputStream(channel);
+			InputStream stream = new SequenceInputStream(
+					new ByteArrayInputStream(header.array(), 0, 4), rest);
+			return new RenderDump(new DataInputStream(new BufferedInputStream(
+					new GZIPInputStream(stream))));
+		}
+	}
+
+	/**
+	 * Read all samples of the dump.
+	 * @param handler receives the samples
+	 * @param progress
+	 * @param task progress task name
+	 * @throws IOException
+	 */
+	public void readSamples(SampleHandler handler, ProgressListener progress,
+			String task) throws IOException {
+		if (legacy != null) {
+			readLegacySamples(handler, progress, task);
+			return;
+		}
+		int blockPixels = rowsPerBlock * width;
+		double[] samples = new double[blockPixels * 3];
+		int[] count = adaptive ? new int[blockPixels] : null;
+		double[] squares = adaptive ? new double[blockPixels] : null;
+		ByteBuffer length = ByteBuffer.allocate(4);
+		ByteBuffer stored = null;
+		byte[] raw = compressed ? new byte[blockPixels * pixelSize(adaptive)] : null;
+		Inflater inflater = compressed ? new Inflater() : null;
+		try {
+			for (int y0 = 0; y0 < height; y0 += rowsPerBlock) {
+				int rows = Math.min(rowsPerBlock, height - y0);
+				int rawSize = rows * width * pixelSize(adaptive);
+				length.clear();
+				readFully(channel, length);
+				int size = length.getInt(0);
+				if (size < 0 || (compressed ? size > 2 * rawSize + 1024 : size != rawSize)) {
+					throw new IOException("Corrupted render dump block");
+				}
+				if (stored == null || stored.capacity() < size) {
+					stored = ByteBuffer.allocate(size);
+				}
+				stored.clear();
+				stored.limit(size);
+				readFully(channel, stored);
+				stored.flip();
+				ByteBuffer data = stored;
+				if (compressed) {
+					inflater.reset();
+					inflater.setInput(stored.array(), 0, size);
+					int n = 0;
+					try {
+						while (n < rawSize && !inflater.finished()) {
+							int inflated = inflater.inflate(raw, n, rawSize - n);
+							if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+								break;
+							}
+							n += inflated;
+						}
+					} catch (DataFormatException e) {
+						throw new IOException("Corrupted render dump block", e);
+					}
+					if (n != rawSize) {
+						throw new IOException("Corrupted render dump block");
+					}
+					data = ByteBuffer.wrap(raw, 0, rawSize);
+				}
+				int pixels = rows * width;
+				data.asDoubleBuffer().get(samples, 0, pixels * 3);
+				if (adaptive) {
+					data.position(pixels * 24);
+					data.asIntBuffer().get(count, 0, pixels);
+					data.position(pixels * 28);
+					data.asDoubleBuffer().get(squares, 0, pixels);
+				}
+				handler.samples(0, y0, width, rows, samples, count, squares);
+				progress.setProgress(task, y0 + rows, 0, height);
+			}
+		} finally {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Read the samples of an old dump. The samples are stored in
+	 * column-major order and are passed to the handler one column at a time.
+	 * The adaptive sampling data, if any, follows all samples and is passed
+	 * to the handler in a second pass over the columns.
+	 */
+	private void readLegacySamples(SampleHandler handler, ProgressListener progress,
+			String task) throws IOException {
+		double[] samples = new double[height * 3];
+		for (int x = 0; x < width; ++x) {
+			progress.setProgress(task, x+1, 0, width);
+			for (int i = 0; i < height * 3; ++i) {
+				samples[i] = legacy.readDouble();
+			}
+			handler.samples(x, 0, 1, height, samples, null, null);
+		}
+		boolean hasAdaptive;
+		try {
+			hasAdaptive = legacy.readInt() == LEGACY_ADAPTIVE_MAGIC;
+		} catch (EOFException e) {
+			hasAdaptive = false;
+		}
+		if (hasAdaptive) {
+			int[] count = new int[height];
+			double[] squares = new double[height];
+			for (int x = 0; x < width; ++x) {
+				for (int y = 0; y < height; ++y) {
+					count[y] = legacy.readInt();
+					squares[y] = legacy.readDouble();
+				}
+				handler.sampleCounts(x, 0, 1, height, count, squares);
+			}
+		}
+	}
+
+	/**
+	 * Close the underlying stream.
+	 */
+	public void close() {
+		try {
+			if (legacy != null) {
+				legacy.close();
+			} else {
+				channel.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Write a render dump.
+	 * @param out output stream, closed when the dump has been written
+	 * @param samples
+	 * @param spp
+	 * @param renderTime
+	 * @param sampleCount per-pixel sample counts, or {@code null} if
+	 * adaptive sampling is not used
+	 * @param squaredLuminance per-pixel mean squared luminance, or
+	 * {@code null} if adaptive sampling is not used
+	 * @param compress {@code true} if the blocks should be compressed
+	 * @param progress
+	 * @param task progress task name
+	 * @throws IOException
+	 */
+	public static void write(OutputStream out, final SampleBuffer samples,
+			int spp, long renderTime, final int[] sampleCount,
+			final double[] squaredLuminance, final boolean compress,
+			ProgressListener progress, String task) throws IOException {
+		final int width = samples.width;
+		int height = samples.height;
+		final boolean adaptive = sampleCount != null;
+		final int rowsPerBlock = Math.max(1, BLOCK_SIZE / (width * pixelSize(adaptive)));
+		WritableByteChannel channel = out instanceof FileOutputStream
+				? ((FileOutputStream) out).getChannel()
+				: Channels.newChannel(out);
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(width);
+			header.putInt(height);
+			header.putInt(spp);
+			header.putLong(renderTime);
+			header.putInt((compress ? FLAG_COMPRESSED : 0) | (adaptive ? FLAG_ADAPTIVE : 0));
+			header.putInt(rowsPerBlock);
+			header.flip();
+			writeFully(channel, header);
+
+			// at most two blocks per thread are kept in memory
+			LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
+			int next = 0;
+			int written = 0;
+			while (written < height) {
+				while (next < height && pending.size() < 2 * threads) {
+					final int y0 = next;
+					final int rows = Math.min(rowsPerBlock, height - y0);
+					pending.add(executor.submit(new Callable<ByteBuffer>() {
+						@Override
+						public ByteBuffer call() {
+							ByteBuffer block = encodeBlock(samples, sampleCount,
+									squaredLuminance, y0, rows);
+							return compress ? deflate(block) : block;
+						}
+					}));
+					next += rows;
+				}
+				ByteBuffer block = pending.removeFirst().get();
+				ByteBuffer length = ByteBuffer.allocate(4);
+				length.putInt(0, block.remaining());
+				writeFully(channel, length);
+				writeFully(channel, block);
+				written = Math.min(height, written + rowsPerBlock);
+				progress.setProgress(task, written, 0, height);
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while writing render dump", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to encode render dump", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the uncompressed bytes per pixel
+	 */
+	private static int pixelSize(boolean adaptive) {
+		return adaptive ? 36 : 24;
+	}
+
+	private static ByteBuffer encodeBlock(SampleBuffer samples, int[] sampleCount,
+			double[] squaredLuminance, int y0, int rows) {
+		int width = samples.width;
+		int pixels = rows * width;
+		ByteBuffer block = ByteBuffer.allocate(pixels * pixelSize(sampleCount != null));
+		for (int y = y0; y < y0 + rows; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int index = samples.index(x, y);
+				block.putDouble(samples.getR(index));
+				block.putDouble(samples.getG(index));
+				block.putDouble(samples.getB(index));
+			}
+		}
+		if (sampleCount != null) {
+			int offset = y0 * width;
+			for (int i = 0; i < pixels; ++i) {
+				block.putInt(sampleCount[offset + i]);
+			}
+			for (int i = 0; i < pixels; ++i) {
+				block.putDouble(squaredLuminance[offset + i]);
+			}
+		}
+		block.flip();
+		return block;
+	}
+
+	private static ByteBuffer deflate(ByteBuffer block) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(block.array(), 0, block.limit());
+			deflater.finish();
+			byte[] out = new byte[block.limit() + block.limit() / 1000 + 64];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == out.length) {
+					byte[] grown = new byte[out.length * 2];
+					System.arraycopy(out, 0, grown, 0, size);
+					out = grown;
+				}
+				size += deflater.deflate(out, size, out.length - size);
+			}
+			return ByteBuffer.wrap(out, 0, size);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
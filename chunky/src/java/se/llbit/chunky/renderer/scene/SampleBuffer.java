@@ -0,0 +1,204 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+/**
+ * Accumulates the mean RGB color of the samples for each pixel of the
+ * canvas. A pixel is accessed through its buffer index, which depends on
+ * the memory layout of the buffer.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public abstract class SampleBuffer {
+
+	protected final int width;
+	protected final int height;
+
+	protected SampleBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return The buffer index of the pixel at (x, y)
+	 */
+	public abstract int index(int x, int y);
+
+	/**
+	 * @param index buffer index
+	 * @return Red component of the pixel
+	 */
+	public abstract double getR(int index);
+
+	/**
+	 * @param index buffer index
+	 * @return Green component of the pixel
+	 */
+	public abstract double getG(int index);
+
+	/**
+	 * @param index buffer index
+	 * @return Blue component of the pixel
+	 */
+	public abstract double getB(int index);
+
+	/**
+	 * Set the color of a pixel
+	 * @param index buffer index
+	 * @param r
+	 * @param g
+	 * @param b
+	 */
+	public abstract void set(int index, double r, double g, double b);
+
+	/**
+	 * @return Estimated heap size of the buffer, in bytes
+	 */
+	public abstract long memoryUsage();
+
+	/**
+	 * @return A copy of this buffer with the same layout
+	 */
+	public abstract SampleBuffer copy();
+
+	/**
+	 * Double precision samples stored in scanline order, with the color
+	 * components of each pixel next to each other.
+	 */
+	static final class DoubleBuffer extends SampleBuffer {
+		private final double[] samples;
+
+		DoubleBuffer(int width, int height) {
+			super(width, height);
+			samples = new double[width * height * 3];
+		}
+
+		@Override
+		public int index(int x, int y) {
+			return (y * width + x) * 3;
+		}
+
+		@Override
+		public double getR(int index) {
+			return samples[index];
+		}
+
+		@Override
+		public double getG(int index) {
+			return samples[index + 1];
+		}
+
+		@Override
+		public double getB(int index) {
+			return samples[index + 2];
+		}
+
+		@Override
+		public void set(int index, double r, double g, double b) {
+			samples[index] = r;
+			samples[index + 1] = g;
+			samples[index + 2] = b;
+		}
+
+		@Override
+		public long memoryUsage() {
+			return samples.length * 8L;
+		}
+
+		@Override
+		public SampleBuffer copy() {
+			DoubleBuffer copy = new DoubleBuffer(width, height);
+			System.arraycopy(samples, 0, copy.samples, 0, samples.length);
+			return copy;
+		}
+	}
+
+	/**
+	 * Single precision samples stored in square tiles, with one array per
+	 * color component. The pixels of a tile are stored contiguously so that
+	 * a render job only touches a few cache lines per row, and the buffer
+	 * uses half the memory of the double precision buffer.
+	 */
+	static final class TiledFloatBuffer extends SampleBuffer {
+		/**
+		 * Log2 of the tile size.
+		 */
+		private static final int TILE_BITS = 4;
+		private static final int TILE_SIZE = 1 << TILE_BITS;
+		private static final int TILE_MASK = TILE_SIZE - 1;
+
+		private final int tilesX;
+		private final float[] r;
+		private final float[] g;
+		private final float[] b;
+
+		TiledFloatBuffer(int width, int height) {
+			super(width, height);
+			tilesX = (width + TILE_MASK) >> TILE_BITS;
+			int tilesY = (height + TILE_MASK) >> TILE_BITS;
+			int size = tilesX * tilesY * TILE_SIZE * TILE_SIZE;
+			r = new float[size];
+			g = new float[size];
+			b = new float[size];
+		}
+
+		@Override
+		public int index(int x, int y) {
+			int tile = (y >> TILE_BITS) * tilesX + (x >> TILE_BITS);
+			return (tile << (2 * TILE_BITS))
+					| ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK);
+		}
+
+		@Override
+		public double getR(int index) {
+			return r[index];
+		}
+
+		@Override
+		public double getG(int index) {
+			return g[index];
+		}
+
+		@Override
+		public double getB(int index) {
+			return b[index];
+		}
+
+		@Override
+		public void set(int index, double r, double g, double b) {
+			this.r[index] = (float) r;
+			this.g[index] = (float) g;
+			this.b[index] = (float) b;
+		}
+
+		@Override
+		public long memoryUsage() {
+			return r.length * 12L;
+		}
+
+		@Override
+		public SampleBuffer copy() {
+			TiledFloatBuffer copy = new TiledFloatBuffer(width, height);
+			System.arraycopy(r, 0, copy.r, 0, r.length);
+			System.arraycopy(g, 0, copy.g, 0, g.length);
+			System.arraycopy(b, 0, copy.b, 0, b.length);
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+/**
+ * The available sample buffer layouts.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public enum SampleBufferType {
+	/** Double precision samples in scanline order. */
+	DOUBLE {
+		@Override
+		public String toString() {
+			return "Double precision";
+		}
+
+		@Override
+		public SampleBuffer create(int width, int height) {
+			return new SampleBuffer.DoubleBuffer(width, height);
+		}
+	},
+
+	/** Single precision samples in square tiles. */
+	FLOAT_TILED {
+		@Override
+		public String toString() {
+			return "Single precision, tiled";
+		}
+
+		@Override
+		public SampleBuffer create(int width, int height) {
+			return new SampleBuffer.TiledFloatBuffer(width, height);
+		}
+	};
+
+	public static final SampleBufferType DEFAULT = DOUBLE;
+
+	public static SampleBufferType get(String name) {
+		for (SampleBufferType type: values()) {
+			if (type.name().equals(name)) {
+				return type;
+			}
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * @param width canvas width
+	 * @param height canvas height
+	 * @return A new zeroed sample buffer of this type
+	 */
+	public abstract SampleBuffer create(int width, int height);
+}
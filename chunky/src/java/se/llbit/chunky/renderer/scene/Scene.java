@@ -25,13 +25,22 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -61,17 +70,20 @@ import se.llbit.chunky.world.entity.SignEntity;
 import se.llbit.chunky.world.entity.SkullEntity;
 import se.llbit.chunky.world.entity.WallSignEntity;
 import se.llbit.json.JsonArray;
+import se.llbit.json.JsonMember;
 import se.llbit.json.JsonObject;
 import se.llbit.json.JsonValue;
 import se.llbit.log.Log;
-import se.llbit.math.BVH;
 import se.llbit.math.Color;
 import se.llbit.math.Octree;
-import se.llbit.math.OctreeVisitor;
+import se.llbit.math.PackedBVH;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
+import se.llbit.math.SamplerType;
 import se.llbit.math.Vector3d;
 import se.llbit.math.Vector3i;
+import se.llbit.math.Vector4d;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.nbt.CompoundTag;
 import se.llbit.nbt.ListTag;
@@ -146,6 +158,11 @@ public class Scene extends SceneDescription {
 	 */
 	public static final int CVF_VERSION = 1;
 
+	/**
+	 * Tile size for frame finalization and alpha computation
+	 */
+	private static final int FRAME_TILE_SIZE = 64;
+
 	//private static final double MIN_WATER_VISIBILITY = 0;
 	//private static final double MAX_WATER_VISIBILITY = 62;
 
@@ -159,6 +176,27 @@ public class Scene extends SceneDescription {
 	 */
 	public static final double DEFAULT_FOG_DENSITY = 0.0;
 
+	/**
+	 * Default noise threshold for adaptive sampling
+	 */
+	public static final double DEFAULT_NOISE_THRESHOLD = 0.05;
+
+	/**
+	 * Minimum noise threshold
+	 */
+	public static final double MIN_NOISE_THRESHOLD = 0.001;
+
+	/**
+	 * Maximum noise threshold
+	 */
+	public static final double MAX_NOISE_THRESHOLD = 1;
+
+	/**
+	 * Minimum SPP before a tile can be considered converged.
+	 * The noise estimate is unreliable for fewer samples.
+	 */
+	public static final int MIN_ADAPTIVE_SPP = 16;
+
 	/**
 	 * World
 	 */
@@ -179,12 +217,7 @@ public class Scene extends SceneDescription {
 	/** Entities in the scene. */
 	private Collection<Entity> entities = new LinkedList<Entity>();
 
-	private BVH bvh = new BVH(Collections.<Primitive>emptyList());
-
-	// chunk loading buffers
-	private final byte[] blocks = new byte[Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX];
-	private final byte[] biomes = new byte[Chunk.X_MAX * Chunk.Z_MAX];
-	private final byte[] data = new byte[(Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX) / 2];
+	private PackedBVH bvh = new PackedBVH(Collections.<Primitive>emptyList());
 
 	/**
 	 * Preview frame interlacing counter.
@@ -198,7 +231,19 @@ public class Scene extends SceneDescription {
 
 	private BufferedImage backBuffer;
 
-	private double[] samples;
+	private SampleBuffer samples;
+
+	/**
+	 * Mean squared luminance of the samples for each pixel. Used to
+	 * estimate pixel variance for adaptive sampling.
+	 */
+	private double[] squaredLuminance;
+
+	/**
+	 * Number of samples for each pixel. Only used for adaptive sampling,
+	 * where converged tiles stop receiving samples.
+	 */
+	private int[] sampleCount;
 
 	private int[] bufferData;
 	private byte[] alphaChannel;
@@ -217,7 +262,7 @@ public class Scene extends SceneDescription {
 	 * Create an empty scene with default canvas width and height.
 	 */
 	public Scene() {
-		worldOctree = new Octree(1);
+		worldOctree = new Octree(octreeImplementation, 1);
 
 		width = PersistentSettings.get3DCanvasWidth();
 		height = PersistentSettings.get3DCanvasHeight();
@@ -232,7 +277,36 @@ public class Scene extends SceneDescription {
 		backBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		bufferData = ((DataBufferInt) backBuffer.getRaster().getDataBuffer()).getData();
 		alphaChannel = new byte[width*height];
-		samples = new double[width*height*3];
+		samples = sampleBufferType.create(width, height);
+		squaredLuminance = null;
+		sampleCount = null;
+		initAdaptiveBuffers();
+	}
+
+	/**
+	 * Allocate or release the adaptive sampling buffers depending on if
+	 * adaptive sampling is enabled. The buffers are cleared if the
+	 * render was reset.
+	 */
+	public synchronized void initAdaptiveBuffers() {
+		if (!adaptiveSampling) {
+			squaredLuminance = null;
+			sampleCount = null;
+		} else if (squaredLuminance == null) {
+			squaredLuminance = new double[width*height];
+			sampleCount = new int[width*height];
+			for (int y = 0; y < height; ++y) {
+				for (int x = 0; x < width; ++x) {
+					sampleCount[y*width+x] = spp;
+					squaredLuminance[y*width+x] = luminanceSquared(samples, x, y);
+				}
+			}
+		} else if (spp == 0) {
+			for (int i = 0; i < sampleCount.length; ++i) {
+				sampleCount[i] = 0;
+				squaredLuminance[i] = 0;
+			}
+		}
 	}
 
 	/**
@@ -244,6 +318,25 @@ public class Scene extends SceneDescription {
 		copyTransients(other);
 	}
 
+	/**
+	 * Create a copy of this scene with its own copy of the sample buffers.
+	 * The copy can be saved while this scene continues rendering.
+	 * @return the copied scene
+	 */
+	public synchronized Scene renderSnapshot() {
+		Scene copy = new Scene(this);
+		copy.samples = samples.copy();
+		if (sampleCount != null) {
+			copy.sampleCount = sampleCount.clone();
+			copy.squaredLuminance = squaredLuminance.clone();
+		}
+		copy.backBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		copy.buffer = copy.backBuffer;
+		copy.bufferData = ((DataBufferInt) copy.backBuffer.getRaster().getDataBuffer()).getData();
+		copy.alphaChannel = new byte[width*height];
+		return copy;
+	}
+
 	/**
 	 * Set scene equal to other
 	 * @param other
@@ -256,6 +349,10 @@ public class Scene extends SceneDescription {
 		// the octree reference is overwritten to save time
 		// when the other scene is changed it must create a new octree
 		worldOctree = other.worldOctree;
+		octreeImplementation = other.octreeImplementation;
+		sampleBufferType = other.sampleBufferType;
+		samplerType = other.samplerType;
+		pathTracerType = other.pathTracerType;
 		primitives = other.primitives;
 		entities = other.entities;
 		bvh = other.bvh;
@@ -281,6 +378,7 @@ public class Scene extends SceneDescription {
 		transparentSky = other.transparentSky;
 		fogDensity = other.fogDensity;
 		fastFog = other.fastFog;
+		adaptiveSampling = other.adaptiveSampling;
 
 		camera.set(other.camera);
 		sky.set(other.sky);
@@ -290,6 +388,7 @@ public class Scene extends SceneDescription {
 
 		spp = other.spp;
 		renderTime = other.renderTime;
+		renderSeed = other.renderSeed;
 
 		refresh = other.refresh;
 
@@ -302,6 +401,8 @@ public class Scene extends SceneDescription {
 			buffer = other.buffer;
 			alphaChannel = other.alphaChannel;
 			samples = other.samples;
+			squaredLuminance = other.squaredLuminance;
+			sampleCount = other.sampleCount;
 			bufferData = other.bufferData;
 		}
 	}
@@ -497,23 +598,26 @@ public class Scene extends SceneDescription {
 		state.ray.o.y -= origin.y;
 		state.ray.o.z -= origin.z;
 
-		PathTracer.pathTrace(this, state);
+		pathTracerType.pathTrace(this, state);
 	}
 
 	/**
 	 * Find closest intersection between ray and scene.
 	 * This marches the ray forward - i.e. updates the ray origin directly.
 	 * @param ray ray to test against scene
+	 * @param state
 	 * @return <code>true</code> if an intersection was found
 	 */
-	public boolean intersect(Ray ray) {
+	public boolean intersect(Ray ray, WorkerState state) {
 		boolean hit = false;
-		if (bvh.closestIntersection(ray)) {
+		if (bvh.closestIntersection(ray, state.bvhStack)) {
 			hit = true;
 		}
-		Ray oct = new Ray(ray);
+		Ray oct = state.octreeRay;
+		oct.set(ray);
 		oct.setCurrentMat(ray.getPrevMaterial(), ray.getPrevData());
-		if (worldOctree.intersect(this, oct) && oct.distance < ray.t) {
+		if (worldOctree.intersect(this, oct, state.traversal(worldOctree, ray))
+				&& oct.distance < ray.t) {
 			ray.distance += oct.distance;
 			ray.o.set(oct.o);
 			ray.n.set(oct.n);
@@ -550,7 +654,7 @@ public class Scene extends SceneDescription {
 	 * @param random
 	 * @return {@code true} if the ray needs to die now
 	 */
-	protected final boolean kill(int depth, Random random) {
+	protected final boolean kill(int depth, Sampler random) {
 		return depth >= rayDepth && random.nextDouble() < .5f;
 	}
 
@@ -578,7 +682,7 @@ public class Scene extends SceneDescription {
 	 */
 	public synchronized void loadChunks(
 			ProgressListener progressListener,
-			World world,
+			final World world,
 			Collection<ChunkPosition> chunksToLoad) {
 
 		if (world == null)
@@ -598,12 +702,12 @@ public class Scene extends SceneDescription {
 			return;
 		}
 
-		Set<ChunkPosition> loadedChunks = new HashSet<ChunkPosition>();
+		final Set<ChunkPosition> loadedChunks = new HashSet<ChunkPosition>();
 
 		int requiredDepth = calculateOctreeOrigin(chunksToLoad);
 
 		// create new octree to fit all chunks
-		worldOctree = new Octree(requiredDepth);
+		worldOctree = new Octree(octreeImplementation, requiredDepth);
 
 		if (waterHeight > 0) {
 			for (int x = 0; x < (1<<worldOctree.depth); ++x) {
@@ -620,100 +724,266 @@ public class Scene extends SceneDescription {
 			}
 		}
 
-		// parse the regions first - force chunk lists to be populated!
-		Set<ChunkPosition> regions = new HashSet<ChunkPosition>();
-		for (ChunkPosition cp: chunksToLoad) {
-			regions.add(cp.getRegionPosition());
-		}
-
-		for (ChunkPosition region: regions) {
-			world.getRegion(region).parse();
-		}
+		ExecutorService pool = Executors.newFixedThreadPool(
+				PersistentSettings.getNumThreads());
+		try {
+			// parse the regions first - force chunk lists to be populated!
+			Set<ChunkPosition> regions = new HashSet<ChunkPosition>();
+			for (ChunkPosition cp: chunksToLoad) {
+				regions.add(cp.getRegionPosition());
+			}
 
-		entities = new LinkedList<Entity>();
+			CompletionService<Void> regionParser = new ExecutorCompletionService<Void>(pool);
+			for (final ChunkPosition region: regions) {
+				regionParser.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						world.getRegion(region).parse();
+						return null;
+					}
+				});
+			}
+			for (int i = 0; i < regions.size(); ++i) {
+				takeResult(regionParser);
+			}
 
-		int ycutoff = PersistentSettings.getYCutoff();
-		ycutoff = Math.max(0, ycutoff);
-
-		task = "Loading entities";
-		progressListener.setProgress(task, 0, 0, 1);
-		entities = world.getEntityData();
-		progressListener.setProgress(task, 1, 0, 1);
-
-		Heightmap biomeIdMap = new Heightmap();
-		task = "Loading chunks";
-		int done = 1;
-		int target = chunksToLoad.size();
-		for (ChunkPosition cp : chunksToLoad) {
-
-			progressListener.setProgress(task, done, 0, target);
-			done += 1;
-
-			if (loadedChunks.contains(cp))
-				continue;
-
-			loadedChunks.add(cp);
-
-			Collection<CompoundTag> tileEntities = new LinkedList<CompoundTag>();
-			Collection<CompoundTag> ents = new LinkedList<CompoundTag>();
-			world.getChunk(cp).getBlockData(blocks, data, biomes, tileEntities, ents);
-			nchunks += 1;
-
-			int wx0 = cp.x*16;
-			int wz0 = cp.z*16;
-			for (int cz = 0; cz < 16; ++cz) {
-				int wz = cz + wz0;
-				for (int cx = 0; cx < 16; ++cx) {
-					int wx = cx + wx0;
-					int biomeId = 0xFF & biomes[Chunk.chunkXZIndex(cx, cz)];
-					biomeIdMap.set(biomeId, wx, wz);
+			entities = new LinkedList<Entity>();
+
+			int ycutoff = PersistentSettings.getYCutoff();
+			final int yMin = Math.max(0, ycutoff);
+
+			task = "Loading entities";
+			progressListener.setProgress(task, 0, 0, 1);
+			entities = world.getEntityData();
+			progressListener.setProgress(task, 1, 0, 1);
+
+			// chunks are parsed and inserted into the octree concurrently
+			CompletionService<LoadedChunk> chunkLoader =
+					new ExecutorCompletionService<LoadedChunk>(pool);
+			for (final ChunkPosition cp : chunksToLoad) {
+				if (loadedChunks.add(cp)) {
+					chunkLoader.submit(new Callable<LoadedChunk>() {
+						@Override
+						public LoadedChunk call() {
+							return loadChunk(world, cp, yMin);
+						}
+					});
 				}
 			}
 
-			// Load entities.
-			for (CompoundTag tag: ents) {
-				if (tag.get("id").stringValue("").equals("Painting")) {
-					ListTag pos = (ListTag) tag.get("Pos");
-					double x = pos.getItem(0).doubleValue();
-					double y = pos.getItem(1).doubleValue();
-					double z = pos.getItem(2).doubleValue();
-					ListTag rot = (ListTag) tag.get("Rotation");
-					double yaw = rot.getItem(0).floatValue();
-					//double pitch = rot.getItem(1).floatValue();
-					entities.add(new PaintingEntity(new Vector3d(x, y, z), tag.get("Motive").stringValue(), yaw));
+			final Heightmap biomeIdMap = new Heightmap();
+			task = "Loading chunks";
+			int target = loadedChunks.size();
+			for (int done = 1; done <= target; ++done) {
+				LoadedChunk chunk = takeResult(chunkLoader);
+				progressListener.setProgress(task, done, 0, target);
+				nchunks += 1;
+				emitters += chunk.emitters;
+				entities.addAll(chunk.entities);
+
+				ChunkPosition cp = chunk.position;
+				int wx0 = cp.x*16;
+				int wz0 = cp.z*16;
+				for (int cz = 0; cz < 16; ++cz) {
+					int wz = cz + wz0;
+					for (int cx = 0; cx < 16; ++cx) {
+						int wx = cx + wx0;
+						int biomeId = 0xFF & chunk.biomes[Chunk.chunkXZIndex(cx, cz)];
+						biomeIdMap.set(biomeId, wx, wz);
+					}
 				}
 			}
 
-			// Load tile entities.
-			for (CompoundTag entityTag: tileEntities) {
-				int x = entityTag.get("x").intValue(0)-wx0;
-				int y = entityTag.get("y").intValue(0);
-				int z = entityTag.get("z").intValue(0)-wz0;
-				int index = Chunk.chunkIndex(x, y, z);
-				int block = 0xFF & blocks[index];
-				int metadata = 0xFF & data[index/2];
-				metadata >>= (x % 2) * 4;
-				metadata &= 0xF;
-				Vector3d position = new Vector3d(x+wx0, y, z+wz0);
-				switch (block) {
-				case Block.WALLSIGN_ID:
-					entities.add(new WallSignEntity(position, entityTag, metadata));
-					break;
-				case Block.SIGNPOST_ID:
-					entities.add(new SignEntity(position, entityTag, metadata));
-					break;
-				case Block.HEAD_ID:
-					entities.add(new SkullEntity(position, entityTag, metadata));
-					break;
+			grassTexture = new WorldTexture();
+			foliageTexture = new WorldTexture();
+
+			// Chunks are finalized concurrently in batches. Finalizing a chunk
+			// only reads the octree, the updates are applied after the whole
+			// batch is done so that no voxel is written while it may be read.
+			CompletionService<ChunkBiomeColors> finalizer =
+					new ExecutorCompletionService<ChunkBiomeColors>(pool);
+			int batchSize = 4 * PersistentSettings.getNumThreads();
+			List<ChunkBiomeColors> batch = new ArrayList<ChunkBiomeColors>(batchSize);
+			Iterator<ChunkPosition> iter = loadedChunks.iterator();
+			task = "Finalizing octree";
+			int done = 0;
+			while (iter.hasNext()) {
+				int submitted = 0;
+				while (submitted < batchSize && iter.hasNext()) {
+					final ChunkPosition cp = iter.next();
+					finalizer.submit(new Callable<ChunkBiomeColors>() {
+						@Override
+						public ChunkBiomeColors call() {
+							ChunkBiomeColors colors = blendBiomeColors(cp, biomeIdMap, loadedChunks);
+							colors.updates = OctreeFinalizer.finalizeChunk(worldOctree, origin, cp);
+							return colors;
+						}
+					});
+					submitted += 1;
+				}
+				batch.clear();
+				for (int i = 0; i < submitted; ++i) {
+					batch.add(takeResult(finalizer));
+				}
+				for (ChunkBiomeColors colors: batch) {
+					done += 1;
+					progressListener.setProgress(task, done, 0, target);
+					colors.updates.apply(worldOctree);
+					ChunkPosition cp = colors.position;
+					for (int x = 0; x < 16; ++x) {
+						for (int z = 0; z < 16; ++z) {
+							grassTexture.set(cp.x*16 + x - origin.x,
+									cp.z*16 + z - origin.z, colors.grass[x*16 + z]);
+							foliageTexture.set(cp.x*16 + x - origin.x,
+									cp.z*16 + z - origin.z, colors.foliage[x*16 + z]);
+						}
+					}
 				}
 			}
+		} catch (InterruptedException e) {
+			Log.warn("Chunk loading was interrupted");
+			progressListener.taskAborted(task);
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		chunks = loadedChunks;
+
+		camera.setWorldSize(1<<worldOctree.depth);
+
+		buildBVH();
+
+		Log.info(String.format("Loaded %d chunks (%d emitters)",
+				nchunks, emitters));
+		logOctreeInfo();
+	}
+
+	/**
+	 * Block data, biomes and entities of a loaded chunk.
+	 */
+	private static class LoadedChunk {
+		final ChunkPosition position;
+		final byte[] biomes = new byte[Chunk.X_MAX * Chunk.Z_MAX];
+		final Collection<Entity> entities = new LinkedList<Entity>();
+		int emitters = 0;
+
+		LoadedChunk(ChunkPosition position) {
+			this.position = position;
+		}
+	}
+
+	/**
+	 * Blended grass and foliage colors for the columns of a chunk, and the
+	 * voxel updates from finalizing the chunk.
+	 */
+	private static class ChunkBiomeColors {
+		final ChunkPosition position;
+		final float[][] grass = new float[Chunk.X_MAX * Chunk.Z_MAX][];
+		final float[][] foliage = new float[Chunk.X_MAX * Chunk.Z_MAX][];
+		OctreeFinalizer.ChunkUpdates updates;
+
+		ChunkBiomeColors(ChunkPosition position) {
+			this.position = position;
+		}
+	}
+
+	/**
+	 * Wait for the next completed task.
+	 * @throws RuntimeException if the task failed
+	 */
+	private static <T> T takeResult(CompletionService<T> service)
+			throws InterruptedException {
+		try {
+			return service.take().get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+	}
 
-			for (int cy = ycutoff; cy < 256; ++cy) {
+	/**
+	 * Parse a chunk and insert its blocks into the octree. This is
+	 * called concurrently for different chunks.
+	 * @param ycutoff Blocks below this level are not loaded
+	 */
+	private LoadedChunk loadChunk(World world, ChunkPosition cp, int ycutoff) {
+		LoadedChunk result = new LoadedChunk(cp);
+		byte[] blocks = new byte[Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX];
+		byte[] data = new byte[(Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX) / 2];
+		byte[] biomes = result.biomes;
+		Collection<CompoundTag> tileEntities = new LinkedList<CompoundTag>();
+		Collection<CompoundTag> ents = new LinkedList<CompoundTag>();
+		world.getChunk(cp).getBlockData(blocks, data, biomes, tileEntities, ents);
+
+		Collection<Entity> entities = result.entities;
+		int wx0 = cp.x*16;
+		int wz0 = cp.z*16;
+
+		// Load entities.
+		for (CompoundTag tag: ents) {
+			if (tag.get("id").stringValue("").equals("Painting")) {
+				ListTag pos = (ListTag) tag.get("Pos");
+				double x = pos.getItem(0).doubleValue();
+				double y = pos.getItem(1).doubleValue();
+				double z = pos.getItem(2).doubleValue();
+				ListTag rot = (ListTag) tag.get("Rotation");
+				double yaw = rot.getItem(0).floatValue();
+				//double pitch = rot.getItem(1).floatValue();
+				entities.add(new PaintingEntity(new Vector3d(x, y, z), tag.get("Motive").stringValue(), yaw));
+			}
+		}
+
+		// Load tile entities.
+		for (CompoundTag entityTag: tileEntities) {
+			int x = entityTag.get("x").intValue(0)-wx0;
+			int y = entityTag.get("y").intValue(0);
+			int z = entityTag.get("z").intValue(0)-wz0;
+			int index = Chunk.chunkIndex(x, y, z);
+			int block = 0xFF & blocks[index];
+			int metadata = 0xFF & data[index/2];
+			metadata >>= (x % 2) * 4;
+			metadata &= 0xF;
+			Vector3d position = new Vector3d(x+wx0, y, z+wz0);
+			switch (block) {
+			case Block.WALLSIGN_ID:
+				entities.add(new WallSignEntity(position, entityTag, metadata));
+				break;
+			case Block.SIGNPOST_ID:
+				entities.add(new SignEntity(position, entityTag, metadata));
+				break;
+			case Block.HEAD_ID:
+				entities.add(new SkullEntity(position, entityTag, metadata));
+				break;
+			}
+		}
+
+		// Each chunk section is built as separate subtrees that are then
+		// inserted in the octree. Voxels that are not loaded keep their
+		// current value. Other chunks are inserted concurrently, so the
+		// current value is read with the octree locked.
+		int[] cube = new int[16 * 16 * 16];
+		int[] octant = new int[8 * 8 * 8];
+		for (int y0 = ycutoff & ~15; y0 < Chunk.Y_MAX; y0 += 16) {
+			int sectionIndex = Chunk.chunkIndex(0, y0, 0);
+			for (int cy = y0; cy < y0 + 16; ++cy) {
 				for (int cz = 0; cz < 16; ++cz) {
 					int z = cz + cp.z*16 - origin.z;
 					for (int cx = 0; cx < 16; ++cx) {
 						int x = cx + cp.x*16 - origin.x;
 						int index = Chunk.chunkIndex(cx, cy, cz);
+						int cubeIndex = index - sectionIndex;
+						if (cy < ycutoff) {
+							cube[cubeIndex] = worldOctree.getLocked(x, cy - origin.y, z);
+							continue;
+						}
 						Block block = Block.get(blocks[index]);
 
 						if (cx > 0 && cx < 15 && cz > 0 && cz < 15 && cy > 0 && cy < 255 &&
@@ -726,7 +996,7 @@ public class Scene extends SceneDescription {
 									Block.get(blocks[index+Chunk.X_MAX]).isOpaque &&
 									Block.get(blocks[index-Chunk.X_MAX*Chunk.Z_MAX]).isOpaque &&
 									Block.get(blocks[index+Chunk.X_MAX*Chunk.Z_MAX]).isOpaque) {
-								worldOctree.set(Block.STONE_ID, x, cy - origin.y, z);
+								cube[cubeIndex] = Block.STONE_ID;
 								continue;
 							}
 						}
@@ -741,6 +1011,7 @@ public class Scene extends SceneDescription {
 						case Block.WALLSIGN_ID:
 						case Block.SIGNPOST_ID:
 							// Treated as entities.
+							cube[cubeIndex] = worldOctree.getLocked(x, cy - origin.y, z);
 							continue;
 						case Block.VINES_ID:
 							if (cy < 255) {
@@ -847,103 +1118,89 @@ public class Scene extends SceneDescription {
 						}
 						type |= metadata << 8;
 						if (block.isEmitter)
-							emitters += 1;
+							result.emitters += 1;
 						if (block.isInvisible)
 							type = 0;
-						worldOctree.set(type, cx + cp.x*16 - origin.x,
-								cy - origin.y, cz + cp.z*16 - origin.z);
+						cube[cubeIndex] = type;
 					}
 				}
 			}
+			// the octree origin is only aligned to 8 blocks in the x and z
+			// directions, so the section is split into octants
+			for (int i = 0; i < 8; ++i) {
+				int ox = 8 * ((i >> 2) & 1);
+				int oy = 8 * ((i >> 1) & 1);
+				int oz = 8 * (i & 1);
+				for (int y = 0; y < 8; ++y) {
+					for (int z = 0; z < 8; ++z) {
+						System.arraycopy(cube, Chunk.chunkIndex(ox, oy + y, oz + z),
+								octant, 8 * (z + 8 * y), 8);
+					}
+				}
+				worldOctree.setCube(3, octant, wx0 + ox - origin.x,
+						y0 + oy - origin.y, wz0 + oz - origin.z);
+			}
 		}
-
-		grassTexture = new WorldTexture();
-		foliageTexture = new WorldTexture();
-
-		Set<ChunkPosition> chunkSet = new HashSet<ChunkPosition>(chunksToLoad);
-
-		task = "Finalizing octree";
-		done = 0;
-		for (ChunkPosition cp : chunksToLoad) {
-
-			// finalize grass and foliage textures
-			// box blur 3x3
-			for (int x = 0; x < 16; ++x) {
-				for (int z = 0; z < 16; ++z) {
-
-					int nsum = 0;
-					float[] grassMix = { 0, 0, 0 };
-					float[] foliageMix = { 0, 0, 0 };
-					for (int sx = x-1; sx <= x+1; ++sx) {
-						int wx = cp.x*16 + sx;
-						for (int sz = z-1; sz <= z+1; ++sz) {
-							int wz = cp.z*16 + sz;
-
-							ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
-							if (chunkSet.contains(ccp)) {
-								nsum += 1;
-								int biomeId = biomeIdMap.get(wx, wz);
-								float[] grassColor = Biomes.getGrassColorLinear(biomeId);
-								grassMix[0] += grassColor[0];
-								grassMix[1] += grassColor[1];
-								grassMix[2] += grassColor[2];
-								float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
-								foliageMix[0] += foliageColor[0];
-								foliageMix[1] += foliageColor[1];
-								foliageMix[2] += foliageColor[2];
-							}
+		return result;
+	}
+
+	/**
+	 * Blend biome colors of a chunk using a 3x3 box blur.
+	 */
+	private static ChunkBiomeColors blendBiomeColors(ChunkPosition cp,
+			Heightmap biomeIdMap, Set<ChunkPosition> chunkSet) {
+		ChunkBiomeColors colors = new ChunkBiomeColors(cp);
+		for (int x = 0; x < 16; ++x) {
+			for (int z = 0; z < 16; ++z) {
+
+				int nsum = 0;
+				float[] grassMix = { 0, 0, 0 };
+				float[] foliageMix = { 0, 0, 0 };
+				for (int sx = x-1; sx <= x+1; ++sx) {
+					int wx = cp.x*16 + sx;
+					for (int sz = z-1; sz <= z+1; ++sz) {
+						int wz = cp.z*16 + sz;
+
+						ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
+						if (chunkSet.contains(ccp)) {
+							nsum += 1;
+							int biomeId = biomeIdMap.get(wx, wz);
+							float[] grassColor = Biomes.getGrassColorLinear(biomeId);
+							grassMix[0] += grassColor[0];
+							grassMix[1] += grassColor[1];
+							grassMix[2] += grassColor[2];
+							float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
+							foliageMix[0] += foliageColor[0];
+							foliageMix[1] += foliageColor[1];
+							foliageMix[2] += foliageColor[2];
 						}
 					}
-
-					grassMix[0] /= nsum;
-					grassMix[1] /= nsum;
-					grassMix[2] /= nsum;
-					grassTexture.set(cp.x*16 + x - origin.x,
-							cp.z*16 + z - origin.z, grassMix);
-
-					foliageMix[0] /= nsum;
-					foliageMix[1] /= nsum;
-					foliageMix[2] /= nsum;
-					foliageTexture.set(cp.x*16 + x - origin.x,
-							cp.z*16 + z - origin.z, foliageMix);
 				}
-			}
 
-			progressListener.setProgress(task, done, 0, target);
-			done += 1;
+				grassMix[0] /= nsum;
+				grassMix[1] /= nsum;
+				grassMix[2] /= nsum;
+				colors.grass[x*16 + z] = grassMix;
 
-			OctreeFinalizer.finalizeChunk(worldOctree, origin, cp);
+				foliageMix[0] /= nsum;
+				foliageMix[1] /= nsum;
+				foliageMix[2] /= nsum;
+				colors.foliage[x*16 + z] = foliageMix;
+			}
 		}
-
-		chunks = loadedChunks;
-
-		camera.setWorldSize(1<<worldOctree.depth);
-
-		buildBVH();
-
-		Log.info(String.format("Loaded %d chunks (%d emitters)",
-				nchunks, emitters));
+		return colors;
 	}
 
 	private void buildBVH() {
+		// water surfaces and lily pads are intersected in the octree
 		primitives = new LinkedList<Primitive>();
-		final List<Primitive> list = primitives;
-
-		worldOctree.visit(new OctreeVisitor() {
-			@Override
-			public void visit(int data, int x, int y, int z, int size) {
-				if ((data&0xF) == Block.WATER_ID) {
-					WaterModel.addPrimitives(list, data, x, y, z, 1<<size);
-				}
-			}
-		});
 
 		Vector3d worldOffset = new Vector3d(-origin.x, -origin.y, -origin.z);
 		for (Entity ent: entities) {
 			primitives.addAll(ent.primitives(worldOffset));
 		}
 
-		bvh = new BVH(primitives);
+		bvh = new PackedBVH(primitives);
 
 	}
 
@@ -1069,6 +1326,16 @@ public class Scene extends SceneDescription {
 		notifyAll();
 	}
 
+	/**
+	 * Pick a new render seed if the render starts from zero samples.
+	 * A resumed render keeps the seed it was started with.
+	 */
+	public synchronized void initRenderSeed() {
+		if (spp == 0) {
+			renderSeed = new Random().nextLong();
+		}
+	}
+
 	/**
 	 * @return {@code true} if the refresh happened
 	 * @throws InterruptedException
@@ -1361,9 +1628,11 @@ public class Scene extends SceneDescription {
 		saveSnapshots = other.saveSnapshots;
 		sppTarget = other.sppTarget;
 		cameraPresets = other.cameraPresets;
+		animation = other.animation;
 		rayDepth = other.rayDepth;
 		renderState = other.renderState;
 		outputMode = other.outputMode;
+		noiseThreshold = other.noiseThreshold;
 	}
 
 	/**
@@ -1419,8 +1688,10 @@ public class Scene extends SceneDescription {
 		}
 		String fileName = String.format("%s-%d%s", name, spp, outputMode.getExtension());
 		File targetFile = new File(directory, fileName);
-		computeAlpha(progressListener);
-		finalizeFrame(progressListener);
+		if (!computeAlpha(progressListener) || !finalizeFrame(progressListener)) {
+			Log.warn("Snapshot not saved: interrupted");
+			return;
+		}
 		writeImage(targetFile, progressListener);
 	}
 
@@ -1428,44 +1699,122 @@ public class Scene extends SceneDescription {
 	 * @param targetFile
 	 * @param progressListener
 	 * @throws IOException
+	 * @throws InterruptedIOException if the thread was interrupted before
+	 * the frame was finalized, the file is then not written
 	 */
 	public synchronized void saveFrame(File targetFile, ProgressListener progressListener)
 			throws IOException {
 
-		computeAlpha(progressListener);
-		finalizeFrame(progressListener);
+		if (!computeAlpha(progressListener) || !finalizeFrame(progressListener)) {
+			throw new InterruptedIOException("Frame not saved: interrupted");
+		}
 		writeImage(targetFile, progressListener);
 	}
 
 	/**
 	 * Compute the alpha channel.
 	 * @param progressListener
+	 * @return {@code false} if the thread was interrupted
 	 */
-	private void computeAlpha(ProgressListener progressListener) {
+	private boolean computeAlpha(ProgressListener progressListener) {
 		if (transparentSky) {
 			if (outputMode == OutputMode.TIFF_32) {
 				Log.warn("Can not use transparent sky with TIFF output mode.");
 			} else {
-				WorkerState state = new WorkerState();
-				state.ray = new Ray();
-				for (int x = 0; x < width; ++x) {
-					progressListener.setProgress("Computing alpha channel", x + 1, 0, width);
-					for (int y = 0; y < height; ++y) {
-						computeAlpha(x, y, state);
+				return processTiles("Computing alpha channel", new TileTask() {
+					@Override
+					public void process(int x0, int y0, int x1, int y1) {
+						WorkerState state = new WorkerState();
+						state.ray = new Ray();
+						for (int y = y0; y < y1; ++y) {
+							for (int x = x0; x < x1; ++x) {
+								computeAlpha(x, y, state);
+							}
+						}
 					}
-				}
+				}, progressListener);
 			}
 		}
+		return true;
 	}
 
-	public void finalizeFrame(ProgressListener progressListener) {
+	/**
+	 * Finalize all pixels of the frame, unless it is already finalized.
+	 * @param progressListener
+	 * @return {@code false} if the thread was interrupted, the frame is
+	 * then only partially finalized
+	 */
+	public boolean finalizeFrame(ProgressListener progressListener) {
 		if (!finalized) {
-			for (int x = 0; x < width; ++x) {
-				progressListener.setProgress("Finalizing frame", x+1, 0, width);
-				for (int y = 0; y < height; ++y) {
-					finalizePixel(x, y);
+			boolean done = processTiles("Finalizing frame", new TileTask() {
+				@Override
+				public void process(int x0, int y0, int x1, int y1) {
+					for (int y = y0; y < y1; ++y) {
+						for (int x = x0; x < x1; ++x) {
+							finalizePixel(x, y);
+						}
+					}
 				}
+			}, progressListener);
+			if (!done) {
+				// some pixels were finalized, but not all of them
+				finalized = false;
+			}
+			return done;
+		}
+		return true;
+	}
+
+	/**
+	 * Processes a rectangle of pixels.
+	 */
+	private interface TileTask {
+		/**
+		 * Process the pixels in [x0,x1) x [y0,y1).
+		 */
+		void process(int x0, int y0, int x1, int y1);
+	}
+
+	/**
+	 * Run a task for each tile of the canvas, in parallel using the
+	 * configured number of render threads.
+	 * @return {@code false} if the thread was interrupted before all tiles
+	 * were processed. The interrupt flag is then set again.
+	 */
+	private boolean processTiles(String task, final TileTask tileTask,
+			ProgressListener progressListener) {
+		int xtiles = (width + FRAME_TILE_SIZE - 1) / FRAME_TILE_SIZE;
+		int ytiles = (height + FRAME_TILE_SIZE - 1) / FRAME_TILE_SIZE;
+		int tiles = xtiles * ytiles;
+		progressListener.setProgress(task, 0, 0, tiles);
+		ExecutorService pool = Executors.newFixedThreadPool(
+				PersistentSettings.getNumThreads());
+		try {
+			CompletionService<Void> service = new ExecutorCompletionService<Void>(pool);
+			for (int i = 0; i < tiles; ++i) {
+				final int x0 = (i % xtiles) * FRAME_TILE_SIZE;
+				final int y0 = (i / xtiles) * FRAME_TILE_SIZE;
+				final int x1 = Math.min(x0 + FRAME_TILE_SIZE, width);
+				final int y1 = Math.min(y0 + FRAME_TILE_SIZE, height);
+				service.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						tileTask.process(x0, y0, x1, y1);
+						return null;
+					}
+				});
+			}
+			for (int i = 0; i < tiles; ++i) {
+				takeResult(service);
+				progressListener.setProgress(task, i + 1, 0, tiles);
 			}
+			return true;
+		} catch (InterruptedException e) {
+			progressListener.taskAborted(task);
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
@@ -1584,6 +1933,12 @@ public class Scene extends SceneDescription {
 		}
 	}
 
+	private void logOctreeInfo() {
+		Log.info(String.format("%s octree: %d nodes, %d KiB",
+				worldOctree.getType(), worldOctree.nodeCount(),
+				worldOctree.memoryUsage() / 1024));
+	}
+
 	private synchronized void saveGrassTexture(
 			RenderContext context,
 			ProgressListener progressListener) {
@@ -1661,35 +2016,16 @@ public class Scene extends SceneDescription {
 			ProgressListener progressListener) {
 
 		String fileName = name + ".dump";
-		DataOutputStream out = null;
 		try {
 			String task = "Saving render dump";
 			progressListener.setProgress(task, 1, 0, 2);
 			Log.info("Saving render dump " + fileName);
-			out = new DataOutputStream(new GZIPOutputStream(
-					context.getSceneFileOutputStream(fileName)));
-			out.writeInt(width);
-			out.writeInt(height);
-			out.writeInt(spp);
-			out.writeLong(renderTime);
-			for (int x = 0; x < width; ++x) {
-				progressListener.setProgress(task, x+1, 0, width);
-				for (int y = 0; y < height; ++y) {
-					out.writeDouble(samples[(y*width+x)*3+0]);
-					out.writeDouble(samples[(y*width+x)*3+1]);
-					out.writeDouble(samples[(y*width+x)*3+2]);
-				}
-			}
+			RenderDump.write(context.getSceneFileOutputStream(fileName), samples,
+					spp, renderTime, sampleCount, squaredLuminance,
+					PersistentSettings.getCompressDumps(), progressListener, task);
 			Log.info("Render dump saved");
 		} catch (IOException e) {
 			Log.warn("IO exception while saving render dump!", e);
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (IOException e) {
-				}
-			}
 		}
 	}
 
@@ -1707,13 +2043,14 @@ public class Scene extends SceneDescription {
 			in = new DataInputStream(new GZIPInputStream(
 					context.getSceneFileInputStream(fileName)));
 
-			worldOctree = Octree.load(in);
+			worldOctree = Octree.load(octreeImplementation, in);
 			in.close();
 			in = null;
 			worldOctree.setTimestamp(context.fileTimestamp(fileName));
 
 			renderListener.setProgress(task, 2, 0, 2);
 			Log.info("Octree loaded");
+			logOctreeInfo();
 
 			calculateOctreeOrigin(chunks);
 			camera.setWorldSize(1<<worldOctree.depth);
@@ -1810,23 +2147,19 @@ public class Scene extends SceneDescription {
 
 		String fileName = name + ".dump";
 
-		DataInputStream in = null;
+		RenderDump dump = null;
 		try {
-			in = new DataInputStream(new GZIPInputStream(
-					context.getSceneFileInputStream(fileName)));
+			dump = RenderDump.open(context.getSceneFileInputStream(fileName));
 
 			String task = "Loading render dump";
 			renderListener.setProgress(task, 1, 0, 2);
 			Log.info("Loading render dump " + fileName);
-			int dumpWidth = in.readInt();
-			int dumpHeight= in.readInt();
-			if (dumpWidth != width || dumpHeight != height) {
+			if (dump.width != width || dump.height != height) {
 				Log.warn("Render dump discarded: incorrect width or height!");
-				in.close();
 				return;
 			}
-			spp = in.readInt();
-			renderTime = in.readLong();
+			spp = dump.spp;
+			renderTime = dump.renderTime;
 
 			// Update render status
 			renderListener.setSPP(spp);
@@ -1835,24 +2168,51 @@ public class Scene extends SceneDescription {
 			renderListener.setSamplesPerSecond(
 					(int) (totalSamples / (renderTime / 1000.0)));
 
-			for (int x = 0; x < width; ++x) {
-				renderListener.setProgress(task, x+1, 0, width);
-				for (int y = 0; y < height; ++y) {
-					samples[(y*width+x)*3+0] = in.readDouble();
-					samples[(y*width+x)*3+1] = in.readDouble();
-					samples[(y*width+x)*3+2] = in.readDouble();
-					finalizePixel(x, y);
+			initAdaptiveBuffers();
+			dump.readSamples(new RenderDump.SampleHandler() {
+				@Override
+				public void samples(int x0, int y0, int columns, int rows,
+						double[] dumpSamples, int[] count, double[] squares) {
+					for (int y = y0; y < y0 + rows; ++y) {
+						for (int x = x0; x < x0 + columns; ++x) {
+							int i = (y - y0) * columns + x - x0;
+							samples.set(samples.index(x, y), dumpSamples[i*3+0],
+									dumpSamples[i*3+1], dumpSamples[i*3+2]);
+							if (sampleCount != null) {
+								if (count != null) {
+									sampleCount[y*width+x] = count[i];
+									squaredLuminance[y*width+x] = squares[i];
+								} else {
+									// No variance data - all pixels have the same SPP.
+									sampleCount[y*width+x] = spp;
+									squaredLuminance[y*width+x] = luminanceSquared(samples, x, y);
+								}
+							}
+							finalizePixel(x, y);
+						}
+					}
+				}
+
+				@Override
+				public void sampleCounts(int x0, int y0, int columns, int rows,
+						int[] count, double[] squares) {
+					if (sampleCount != null) {
+						for (int y = y0; y < y0 + rows; ++y) {
+							for (int x = x0; x < x0 + columns; ++x) {
+								int i = (y - y0) * columns + x - x0;
+								sampleCount[y*width+x] = count[i];
+								squaredLuminance[y*width+x] = squares[i];
+							}
+						}
+					}
 				}
-			}
+			}, renderListener, task);
 			Log.info("Render dump loaded");
 		} catch (IOException e) {
 			Log.info("Render dump not loaded");
 		} finally {
-			if (in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {
-				}
+			if (dump != null) {
+				dump.close();
 			}
 		}
 	}
@@ -1866,13 +2226,11 @@ public class Scene extends SceneDescription {
 	public void finalizePixel(int x, int y) {
 		finalized = true;
 
-		double[] result = new double[3];
-		postProcessPixel(x, y, result);
-
+		int index = samples.index(x, y);
 		bufferData[y*width + x] = Color.getRGB(
-				QuickMath.min(1, result[0]),
-				QuickMath.min(1, result[1]),
-				QuickMath.min(1, result[2]));
+				QuickMath.min(1, postProcess(samples.getR(index))),
+				QuickMath.min(1, postProcess(samples.getG(index))),
+				QuickMath.min(1, postProcess(samples.getB(index))));
 	}
 
 	/**
@@ -1882,42 +2240,34 @@ public class Scene extends SceneDescription {
 	 * @param result the resulting color values are written to this array
 	 */
 	public void postProcessPixel(int x, int y, double[] result) {
-		double r = samples[(y * width + x) * 3 + 0];
-		double g = samples[(y * width + x) * 3 + 1];
-		double b = samples[(y * width + x) * 3 + 2];
-
-		r *= exposure;
-		g *= exposure;
-		b *= exposure;
+		int index = samples.index(x, y);
+		result[0] = postProcess(samples.getR(index));
+		result[1] = postProcess(samples.getG(index));
+		result[2] = postProcess(samples.getB(index));
+	}
 
+	/**
+	 * Apply exposure and the postprocessing filter to a color component.
+	 */
+	private double postProcess(double value) {
+		value *= exposure;
 		if (renderState != RenderState.PREVIEW) {
 			switch (postprocess) {
 			case NONE:
 				break;
 			case TONEMAP1:
 				// http://filmicgames.com/archives/75
-				r = QuickMath.max(0, r - 0.004);
-				r = (r * (6.2 * r + .5)) / (r * (6.2 * r + 1.7) + 0.06);
-				g = QuickMath.max(0, g - 0.004);
-				g = (g * (6.2 * g + .5)) / (g * (6.2 * g + 1.7) + 0.06);
-				b = QuickMath.max(0, b - 0.004);
-				b = (b * (6.2 * b + .5)) / (b * (6.2 * b + 1.7) + 0.06);
+				value = QuickMath.max(0, value - 0.004);
+				value = (value * (6.2 * value + .5)) / (value * (6.2 * value + 1.7) + 0.06);
 				break;
 			case GAMMA:
-				r = FastMath.pow(r, 1/DEFAULT_GAMMA);
-				g = FastMath.pow(g, 1/DEFAULT_GAMMA);
-				b = FastMath.pow(b, 1/DEFAULT_GAMMA);
+				value = FastMath.pow(value, 1/DEFAULT_GAMMA);
 				break;
 			}
 		} else {
-			r = FastMath.sqrt(r);
-			g = FastMath.sqrt(g);
-			b = FastMath.sqrt(b);
+			value = FastMath.sqrt(value);
 		}
-
-		result[0] = r;
-		result[1] = g;
-		result[2] = b;
+		return value;
 	}
 
 	/**
@@ -2042,7 +2392,7 @@ public class Scene extends SceneDescription {
 	 * Get direct access to the sample buffer
 	 * @return The sample buffer for this scene
 	 */
-	public double[] getSampleBuffer() {
+	public SampleBuffer getSampleBuffer() {
 		return samples;
 	}
 
@@ -2062,28 +2412,38 @@ public class Scene extends SceneDescription {
 	}
 
 	/**
+	 * Multiply the RGB components of a color by the foliage color
+	 * at the given coordinates
 	 * @param x X coordinate in octree space
 	 * @param z Z coordinate in octree space
-	 * @return Foliage color for the given coordinates
+	 * @param color
 	 */
-	public float[] getFoliageColor(int x, int z) {
+	public void tintFoliageColor(int x, int z, Vector4d color) {
 		if (biomeColors) {
-			return foliageTexture.get(x, z);
+			foliageTexture.tint(x, z, color);
 		} else {
-			return Biomes.getFoliageColorLinear(0);
+			float[] foliageColor = Biomes.getFoliageColorLinear(0);
+			color.x *= foliageColor[0];
+			color.y *= foliageColor[1];
+			color.z *= foliageColor[2];
 		}
 	}
 
 	/**
+	 * Multiply the RGB components of a color by the grass color
+	 * at the given coordinates
 	 * @param x X coordinate in octree space
 	 * @param z Z coordinate in octree space
-	 * @return Grass color for the given coordinates
+	 * @param color
 	 */
-	public float[] getGrassColor(int x, int z) {
+	public void tintGrassColor(int x, int z, Vector4d color) {
 		if (biomeColors) {
-			return grassTexture.get(x, z);
+			grassTexture.tint(x, z, color);
 		} else {
-			return Biomes.getGrassColorLinear(0);
+			float[] grassColor = Biomes.getGrassColorLinear(0);
+			color.x *= grassColor[0];
+			color.y *= grassColor[1];
+			color.z *= grassColor[2];
 		}
 	}
 
@@ -2093,41 +2453,71 @@ public class Scene extends SceneDescription {
 	 * @param renderListener
 	 */
 	public void mergeDump(File dumpFile, RenderStatusListener renderListener) {
-		int dumpSpp;
-		long dumpTime;
-		DataInputStream in = null;
+		RenderDump dump = null;
 		try {
-			in = new DataInputStream(new GZIPInputStream(
-					new FileInputStream(dumpFile)));
+			dump = RenderDump.open(new FileInputStream(dumpFile));
 
 			String task = "Merging render dump";
 			renderListener.setProgress(task, 1, 0, 2);
 			Log.info("Loading render dump " + dumpFile.getAbsolutePath());
-			int dumpWidth = in.readInt();
-			int dumpHeight= in.readInt();
-			if (dumpWidth != width || dumpHeight != height) {
+			if (dump.width != width || dump.height != height) {
 				Log.warn("Render dump discarded: incorrect widht or height!");
-				in.close();
 				return;
 			}
-			dumpSpp = in.readInt();
-			dumpTime = in.readLong();
-
-			double sa = spp / (double) (spp + dumpSpp);
-			double sb = 1 - sa;
-
-			for (int x = 0; x < width; ++x) {
-				renderListener.setProgress(task, x+1, 0, width);
-				for (int y = 0; y < height; ++y) {
-					samples[(y*width+x)*3+0] = samples[(y*width+x)*3+0] * sa
-							+ in.readDouble() * sb;
-					samples[(y*width+x)*3+1] = samples[(y*width+x)*3+1] * sa
-							+ in.readDouble() * sb;
-					samples[(y*width+x)*3+2] = samples[(y*width+x)*3+2] * sa
-							+ in.readDouble() * sb;
-					finalizePixel(x, y);
+			final int dumpSpp = dump.spp;
+			long dumpTime = dump.renderTime;
+
+			dump.readSamples(new RenderDump.SampleHandler() {
+				@Override
+				public void samples(int x0, int y0, int columns, int rows,
+						double[] dumpSamples, int[] count, double[] squares) {
+					for (int y = y0; y < y0 + rows; ++y) {
+						for (int x = x0; x < x0 + columns; ++x) {
+							int i = (y - y0) * columns + x - x0;
+							double r = dumpSamples[i*3+0];
+							double g = dumpSamples[i*3+1];
+							double b = dumpSamples[i*3+2];
+							double sa;
+							if (sampleCount == null) {
+								sa = spp / (double) (spp + dumpSpp);
+							} else {
+								// weight the pixels by their sample counts
+								int pixel = y*width + x;
+								int dumpCount = count != null ? count[i] : dumpSpp;
+								double dumpSquares = count != null ? squares[i]
+										: luminanceSquared(r, g, b);
+								int total = sampleCount[pixel] + dumpCount;
+								sa = total > 0 ? sampleCount[pixel] / (double) total : 0;
+								squaredLuminance[pixel] = squaredLuminance[pixel] * sa
+										+ dumpSquares * (1 - sa);
+								sampleCount[pixel] = total;
+							}
+							double sb = 1 - sa;
+							int index = samples.index(x, y);
+							samples.set(index,
+									samples.getR(index) * sa + r * sb,
+									samples.getG(index) * sa + g * sb,
+									samples.getB(index) * sa + b * sb);
+							finalizePixel(x, y);
+						}
+					}
 				}
-			}
+
+				@Override
+				public void sampleCounts(int x0, int y0, int columns, int rows,
+						int[] count, double[] squares) {
+					// old dump: the samples were already merged as if the dump
+					// had the same SPP in all pixels, only the counts are corrected
+					if (sampleCount != null) {
+						for (int y = y0; y < y0 + rows; ++y) {
+							for (int x = x0; x < x0 + columns; ++x) {
+								int i = (y - y0) * columns + x - x0;
+								sampleCount[y*width+x] += count[i] - dumpSpp;
+							}
+						}
+					}
+				}
+			}, renderListener, task);
 			Log.info("Render dump loaded");
 
 			// Update render status
@@ -2142,13 +2532,165 @@ public class Scene extends SceneDescription {
 		} catch (IOException e) {
 			Log.info("Render dump not loaded");
 		} finally {
-			if (in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {
+			if (dump != null) {
+				dump.close();
+			}
+		}
+	}
+
+	/**
+	 * Estimate the mean squared luminance of a pixel without variance data.
+	 * The sample deviation is assumed to equal the pixel luminance, which is
+	 * conservative so that old renders are not considered converged too early.
+	 */
+	private static double luminanceSquared(double r, double g, double b) {
+		double l = luminance(r, g, b);
+		return 2*l*l;
+	}
+
+	private static double luminanceSquared(SampleBuffer samples, int x, int y) {
+		int index = samples.index(x, y);
+		return luminanceSquared(samples.getR(index), samples.getG(index),
+				samples.getB(index));
+	}
+
+	/**
+	 * @return relative luminance of a linear RGB color
+	 */
+	public static double luminance(double r, double g, double b) {
+		return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+	}
+
+	/**
+	 * Estimate the noise level in a rectangle of the canvas.
+	 * The noise level is the root mean square of the relative standard error
+	 * of the pixel luminance. Requires the adaptive sampling buffers.
+	 * @return estimated noise level
+	 */
+	public double estimateNoise(int x0, int y0, int x1, int y1) {
+		double sum = 0;
+		for (int y = y0; y < y1; ++y) {
+			for (int x = x0; x < x1; ++x) {
+				int pixel = y*width + x;
+				int n = sampleCount[pixel];
+				if (n < 2) {
+					return Double.POSITIVE_INFINITY;
 				}
+				int index = samples.index(x, y);
+				double mean = luminance(samples.getR(index), samples.getG(index),
+						samples.getB(index));
+				double variance = QuickMath.max(0, squaredLuminance[pixel] - mean*mean);
+				// Dark pixels look noisy after gamma correction, so the error
+				// is measured relative to the pixel luminance.
+				double scale = mean + 0.01;
+				sum += variance / ((n-1) * scale * scale);
 			}
 		}
+		return FastMath.sqrt(sum / ((x1-x0) * (y1-y0)));
+	}
+
+	/**
+	 * @return {@code true} if all pixels in the rectangle have fewer samples
+	 * than the current SPP, i.e. the rectangle converged in an earlier pass
+	 */
+	public boolean isConverged(int x0, int y0, int x1, int y1) {
+		if (sampleCount == null || spp == 0) {
+			return false;
+		}
+		for (int y = y0; y < y1; ++y) {
+			for (int x = x0; x < x1; ++x) {
+				if (sampleCount[y*width + x] >= spp) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the squared luminance buffer, or {@code null} if adaptive
+	 * sampling is disabled
+	 */
+	public double[] getSquaredLuminanceBuffer() {
+		return squaredLuminance;
+	}
+
+	/**
+	 * @return the per-pixel sample count buffer, or {@code null} if adaptive
+	 * sampling is disabled
+	 */
+	public int[] getSampleCountBuffer() {
+		return sampleCount;
+	}
+
+	/**
+	 * @return {@code true} if adaptive sampling is enabled
+	 */
+	public boolean adaptiveSamplingEnabled() {
+		return adaptiveSampling;
+	}
+
+	/**
+	 * Change the sample buffer type. Restarts the render.
+	 * @param type
+	 */
+	public synchronized void setSampleBufferType(SampleBufferType type) {
+		if (type != sampleBufferType) {
+			sampleBufferType = type;
+			initBuffers();
+			refresh();
+		}
+	}
+
+	/**
+	 * Change the sampler type. Restarts the render.
+	 * @param type
+	 */
+	public synchronized void setSamplerType(SamplerType type) {
+		if (type != samplerType) {
+			samplerType = type;
+			refresh();
+		}
+	}
+
+	/**
+	 * Change the path tracer type. Restarts the render.
+	 * @param type
+	 */
+	public synchronized void setPathTracerType(PathTracerType type) {
+		if (type != pathTracerType) {
+			pathTracerType = type;
+			refresh();
+		}
+	}
+
+	/**
+	 * Enable or disable adaptive sampling. Restarts the render.
+	 * @param value
+	 */
+	public synchronized void setAdaptiveSampling(boolean value) {
+		if (value != adaptiveSampling) {
+			adaptiveSampling = value;
+			refresh();
+		}
+	}
+
+	/**
+	 * @return The noise threshold for adaptive sampling
+	 */
+	public double getNoiseThreshold() {
+		return noiseThreshold;
+	}
+
+	/**
+	 * Change the noise threshold for adaptive sampling. Tiles that have
+	 * already converged are not affected until the render is restarted.
+	 * @param value
+	 */
+	public void setNoiseThreshold(double value) {
+		value = Math.max(MIN_NOISE_THRESHOLD, value);
+		value = Math.min(MAX_NOISE_THRESHOLD, value);
+		noiseThreshold = value;
 	}
 
 	public void setSaveSnapshots(boolean value) {
@@ -2187,8 +2729,11 @@ public class Scene extends SceneDescription {
 		}
 	}
 
-	public boolean isInsideOctree(Vector3d vec) {
-		return worldOctree.isInside(vec);
+	/**
+	 * @return {@code true} if the point is inside the octree
+	 */
+	public boolean isInsideOctree(double x, double y, double z) {
+		return worldOctree.isInside(x, y, z);
 	}
 
 	public double getWaterOpacity() {
@@ -2268,6 +2813,47 @@ public class Scene extends SceneDescription {
 		}
 	}
 
+	/**
+	 * Apply a partial scene description on top of the current settings.
+	 * Settings missing from the partial description are kept, and nested
+	 * objects such as the camera are merged member by member. The world,
+	 * chunk list and entities are not changed, so the loaded octree stays
+	 * valid.
+	 * @param overrides partial scene description
+	 */
+	public synchronized void applyJson(JsonObject overrides) {
+		JsonObject desc = toJson();
+		for (JsonMember member: overrides.getMemberList()) {
+			String name = member.getName();
+			if (!name.equals("world") && !name.equals("chunkList")
+					&& !name.equals("entities")) {
+				merge(desc, name, (JsonValue) member.getValue().fullCopy());
+			}
+		}
+		int oldWidth = width;
+		int oldHeight = height;
+		Collection<Entity> oldEntities = entities;
+		fromJson(desc);
+		entities = oldEntities;
+		if (overrides.hasMember("sky")) {
+			sky.loadSkymap();
+		}
+		if (width != oldWidth || height != oldHeight) {
+			setCanvasSize(width, height);
+		}
+	}
+
+	private static void merge(JsonObject desc, String name, JsonValue value) {
+		JsonValue current = desc.get(name);
+		if (current.isObject() && value.isObject()) {
+			for (JsonMember member: value.object().getMemberList()) {
+				merge(current.object(), member.getName(), member.getValue());
+			}
+		} else {
+			desc.set(name, value);
+		}
+	}
+
 	public Collection<Entity> getEntities() {
 		return entities;
 	}
@@ -37,6 +37,8 @@ import se.llbit.json.JsonObject;
 import se.llbit.json.JsonParser;
 import se.llbit.json.JsonParser.SyntaxError;
 import se.llbit.json.JsonValue;
+import se.llbit.math.OctreeType;
+import se.llbit.math.SamplerType;
 import se.llbit.math.Vector3d;
 import se.llbit.util.JSONifiable;
 import se.llbit.util.ZipExport;
@@ -75,6 +77,13 @@ public class SceneDescription implements Refreshable, JSONifiable {
 	 */
 	public int spp = 0;
 
+	/**
+	 * Seed for the sample pattern of the current render. A new seed is
+	 * picked when a render starts from zero samples, so that independent
+	 * renders of the scene can be merged.
+	 */
+	public long renderSeed = 0;
+
 	/**
 	 * Target SPP for the scene
 	 */
@@ -99,6 +108,41 @@ public class SceneDescription implements Refreshable, JSONifiable {
 	protected int dumpFrequency = Scene.DEFAULT_DUMP_FREQUENCY;
 	protected boolean saveSnapshots = false;
 
+	/**
+	 * Enables adaptive sampling: tiles stop receiving samples when their
+	 * estimated noise drops below the noise threshold.
+	 */
+	protected boolean adaptiveSampling = false;
+
+	/**
+	 * Relative noise level at which a tile is considered converged.
+	 */
+	protected double noiseThreshold = Scene.DEFAULT_NOISE_THRESHOLD;
+
+	/**
+	 * The octree implementation used when loading chunks or the octree file.
+	 */
+	protected OctreeType octreeImplementation =
+			OctreeType.get(PersistentSettings.getOctreeImplementation());
+
+	/**
+	 * The memory layout and precision of the sample buffer.
+	 */
+	protected SampleBufferType sampleBufferType =
+			SampleBufferType.get(PersistentSettings.getSampleBufferType());
+
+	/**
+	 * The random number sampler used by the path tracer.
+	 */
+	protected SamplerType samplerType =
+			SamplerType.get(PersistentSettings.getSamplerType());
+
+	/**
+	 * The path tracing implementation.
+	 */
+	protected PathTracerType pathTracerType =
+			PathTracerType.get(PersistentSettings.getPathTracerType());
+
 	protected boolean emittersEnabled = Scene.DEFAULT_EMITTERS_ENABLED;
 	protected double emitterIntensity = Scene.DEFAULT_EMITTER_INTENSITY;
 	protected boolean sunEnabled = true;
@@ -134,6 +178,11 @@ public class SceneDescription implements Refreshable, JSONifiable {
 
 	protected JsonObject cameraPresets = new JsonObject();
 
+	/**
+	 * Keyframes for animation rendering, see {@link Animation}.
+	 */
+	protected JsonObject animation = new JsonObject();
+
 	/**
 	 * Parse the scene description from a JSON file.
 	 * @param in input stream - will be closed
@@ -172,11 +221,18 @@ public class SceneDescription implements Refreshable, JSONifiable {
 		desc.add("outputMode", outputMode.name());
 		desc.add("renderTime", renderTime);
 		desc.add("spp", spp);
+		desc.add("renderSeed", renderSeed);
 		desc.add("sppTarget", sppTarget);
 		desc.add("rayDepth", rayDepth);
 		desc.add("pathTrace", renderState != RenderState.PREVIEW);
 		desc.add("dumpFrequency", dumpFrequency);
 		desc.add("saveSnapshots", saveSnapshots);
+		desc.add("adaptiveSampling", adaptiveSampling);
+		desc.add("noiseThreshold", noiseThreshold);
+		desc.add("octreeImplementation", octreeImplementation.name());
+		desc.add("sampleBufferType", sampleBufferType.name());
+		desc.add("samplerType", samplerType.name());
+		desc.add("pathTracerType", pathTracerType.name());
 
 		desc.add("emittersEnabled", emittersEnabled);
 		desc.add("emitterIntensity", emitterIntensity);
@@ -217,6 +273,10 @@ public class SceneDescription implements Refreshable, JSONifiable {
 
 		desc.add("cameraPresets", cameraPresets.fullCopy());
 
+		if (animation.getNumMember() > 0) {
+			desc.add("animation", animation.fullCopy());
+		}
+
 		JsonArray chunkList = new JsonArray();
 		for (ChunkPosition pos: chunks) {
 			JsonArray chunk = new JsonArray();
@@ -250,6 +310,16 @@ public class SceneDescription implements Refreshable, JSONifiable {
 		}
 		dumpFrequency = desc.get("dumpFrequency").intValue(Scene.DEFAULT_DUMP_FREQUENCY);
 		saveSnapshots = desc.get("saveSnapshots").boolValue(false);
+		adaptiveSampling = desc.get("adaptiveSampling").boolValue(false);
+		noiseThreshold = desc.get("noiseThreshold").doubleValue(Scene.DEFAULT_NOISE_THRESHOLD);
+		octreeImplementation = OctreeType.get(desc.get("octreeImplementation").stringValue(
+				PersistentSettings.getOctreeImplementation()));
+		sampleBufferType = SampleBufferType.get(desc.get("sampleBufferType").stringValue(
+				PersistentSettings.getSampleBufferType()));
+		samplerType = SamplerType.get(desc.get("samplerType").stringValue(
+				PersistentSettings.getSamplerType()));
+		pathTracerType = PathTracerType.get(desc.get("pathTracerType").stringValue(
+				PersistentSettings.getPathTracerType()));
 
 		emittersEnabled = desc.get("emittersEnabled").boolValue(Scene.DEFAULT_EMITTERS_ENABLED);
 		emitterIntensity = desc.get("emitterIntensity").doubleValue(Scene.DEFAULT_EMITTER_INTENSITY);
@@ -285,9 +355,12 @@ public class SceneDescription implements Refreshable, JSONifiable {
 
 		cameraPresets = desc.get("cameraPresets").object();
 
+		animation = desc.get("animation").object();
+
 		// read these after loading camera, sun, sky because they refresh the scene
 		spp = desc.get("spp").intValue(0);
 		renderTime = desc.get("renderTime").longValue(0);
+		renderSeed = desc.get("renderSeed").longValue(0);
 
 		chunks.clear();
 		JsonArray chunkList = desc.get("chunkList").array();
@@ -301,6 +374,13 @@ public class SceneDescription implements Refreshable, JSONifiable {
 		}
 	}
 
+	/**
+	 * @return The keyframed animation of this scene
+	 */
+	public Animation getAnimation() {
+		return new Animation(animation);
+	}
+
 	/**
 	 * Called when the scene description has been altered in a way that
 	 * forces the rendering to restart.
@@ -440,6 +520,43 @@ public class SceneDescription implements Refreshable, JSONifiable {
 		outputMode = mode;
 	}
 
+	/**
+	 * @return The octree implementation used for this scene
+	 */
+	public OctreeType getOctreeImplementation() {
+		return octreeImplementation;
+	}
+
+	/**
+	 * Change the octree implementation. Takes effect the next time
+	 * the chunks or the octree are loaded.
+	 * @param type
+	 */
+	public void setOctreeImplementation(OctreeType type) {
+		octreeImplementation = type;
+	}
+
+	/**
+	 * @return The sample buffer type used for this scene
+	 */
+	public SampleBufferType getSampleBufferType() {
+		return sampleBufferType;
+	}
+
+	/**
+	 * @return The sampler type used for this scene
+	 */
+	public SamplerType getSamplerType() {
+		return samplerType;
+	}
+
+	/**
+	 * @return The path tracer type used for this scene
+	 */
+	public PathTracerType getPathTracerType() {
+		return pathTracerType;
+	}
+
 	public int numberOfChunks() {
 		return chunks.size();
 	}
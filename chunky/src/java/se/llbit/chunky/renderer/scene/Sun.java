@@ -16,8 +16,6 @@
  */
 package se.llbit.chunky.renderer.scene;
 
-import java.util.Random;
-
 import org.apache.commons.math3.util.FastMath;
 
 import se.llbit.chunky.renderer.Refreshable;
@@ -25,6 +23,7 @@ import se.llbit.chunky.resources.Texture;
 import se.llbit.json.JsonObject;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
 import se.llbit.math.Vector3d;
 import se.llbit.util.JSONifiable;
 
@@ -381,23 +380,20 @@ public class Sun implements JSONifiable {
 	 * @param reflected
 	 * @param random
 	 */
-	public void getRandomSunDirection(Ray reflected, Random random) {
+	public void getRandomSunDirection(Ray reflected, Sampler random) {
 		double x1 = random.nextDouble();
 		double x2 = random.nextDouble();
 		double cos_a = 1-x1 + x1*RADIUS_COS;
 		double sin_a = FastMath.sqrt(1 - cos_a*cos_a);
 		double phi = 2 * Math.PI * x2;
 
-		Vector3d u = new Vector3d(su);
-		Vector3d v = new Vector3d(sv);
-		Vector3d w = new Vector3d(sw);
-
-		u.scale(FastMath.cos(phi)*sin_a);
-		v.scale(FastMath.sin(phi)*sin_a);
-		w.scale(cos_a);
+		double u = FastMath.cos(phi)*sin_a;
+		double v = FastMath.sin(phi)*sin_a;
+		double w = cos_a;
 
-		reflected.d.add(u, v);
-		reflected.d.add(w);
+		reflected.d.x = u*su.x + v*sv.x + w*sw.x;
+		reflected.d.y = u*su.y + v*sv.y + w*sw.y;
+		reflected.d.z = u*su.z + v*sv.z + w*sw.z;
 		reflected.d.normalize();
 	}
 
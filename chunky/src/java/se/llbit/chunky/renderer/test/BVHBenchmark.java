@@ -0,0 +1,149 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import se.llbit.chunky.world.Block;
+import se.llbit.math.BVH;
+import se.llbit.math.PackedBVH;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector2d;
+import se.llbit.math.Vector3d;
+import se.llbit.math.primitive.Primitive;
+import se.llbit.math.primitive.TexturedTriangle;
+
+/**
+ * Compares build time and ray intersection speed of the packed BVH and
+ * the node-based BVH on random triangles.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+@SuppressWarnings("javadoc")
+public class BVHBenchmark {
+
+	protected static final String USAGE =
+		"Usage: BVHBenchmark [triangles] [rays]";
+
+	private static final double WORLD_SIZE = 256;
+
+	public static void main(String[] args) {
+		if (args.length > 2) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		int numTriangles = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int numRays = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+		List<Primitive> primitives = triangles(numTriangles, new Random(0));
+		Ray[] rays = rays(numRays, new Random(1));
+		System.out.format("%d triangles, %d rays%n", numTriangles, numRays);
+
+		BVH bvh = null;
+		PackedBVH packed = null;
+		for (int round = 0; round < 3; ++round) {
+			long time = System.nanoTime();
+			bvh = new BVH(primitives);
+			double bvhBuild = (System.nanoTime() - time) / 1000000.0;
+			time = System.nanoTime();
+			packed = new PackedBVH(primitives);
+			double packedBuild = (System.nanoTime() - time) / 1000000.0;
+			System.out.format("build:  BVH %8.1f ms   PackedBVH %8.1f ms (%d nodes)%n",
+					bvhBuild, packedBuild, packed.nodeCount());
+		}
+
+		Ray ray = new Ray();
+		for (int round = 0; round < 3; ++round) {
+			long time = System.nanoTime();
+			int bvhHits = 0;
+			double bvhSum = 0;
+			for (Ray r: rays) {
+				ray.set(r);
+				ray.t = Double.POSITIVE_INFINITY;
+				if (bvh.closestIntersection(ray)) {
+					bvhHits += 1;
+					bvhSum += ray.t;
+				}
+			}
+			double bvhTime = (System.nanoTime() - time) / (double) numRays;
+
+			time = System.nanoTime();
+			int[] stack = new int[PackedBVH.STACK_SIZE];
+			int packedHits = 0;
+			double packedSum = 0;
+			for (Ray r: rays) {
+				ray.set(r);
+				ray.t = Double.POSITIVE_INFINITY;
+				if (packed.closestIntersection(ray, stack)) {
+					packedHits += 1;
+					packedSum += ray.t;
+				}
+			}
+			double packedTime = (System.nanoTime() - time) / (double) numRays;
+			System.out.format("trace:  BVH %8.1f ns/ray   PackedBVH %8.1f ns/ray%n",
+					bvhTime, packedTime);
+			if (bvhHits != packedHits || Math.abs(bvhSum - packedSum) > 1e-6 * bvhSum) {
+				System.out.format("result mismatch: %d hits (sum %f) vs %d hits (sum %f)%n",
+						bvhHits, bvhSum, packedHits, packedSum);
+			}
+		}
+	}
+
+	/**
+	 * Small triangles clustered in layers, roughly like entities and
+	 * lily pads placed in a world.
+	 */
+	private static List<Primitive> triangles(int count, Random random) {
+		List<Primitive> list = new ArrayList<Primitive>(count);
+		Vector2d t1 = new Vector2d(0, 0);
+		Vector2d t2 = new Vector2d(0, 1);
+		Vector2d t3 = new Vector2d(1, 1);
+		for (int i = 0; i < count; ++i) {
+			double x = random.nextDouble() * WORLD_SIZE;
+			double y = Math.floor(random.nextDouble() * 8) * WORLD_SIZE / 8;
+			double z = random.nextDouble() * WORLD_SIZE;
+			Vector3d c1 = new Vector3d(x, y, z);
+			Vector3d c2 = new Vector3d(
+					x + random.nextDouble() - .5,
+					y + random.nextDouble() - .5,
+					z + random.nextDouble() - .5);
+			Vector3d c3 = new Vector3d(
+					x + random.nextDouble() - .5,
+					y + random.nextDouble() - .5,
+					z + random.nextDouble() - .5);
+			list.add(new TexturedTriangle(c1, c2, c3, t1, t2, t3, Block.STONE));
+		}
+		return list;
+	}
+
+	private static Ray[] rays(int count, Random random) {
+		Ray[] rays = new Ray[count];
+		for (int i = 0; i < count; ++i) {
+			Ray ray = new Ray();
+			ray.o.set(random.nextDouble() * WORLD_SIZE,
+					random.nextDouble() * WORLD_SIZE,
+					random.nextDouble() * WORLD_SIZE);
+			ray.d.set(random.nextGaussian(), random.nextGaussian(),
+					random.nextGaussian());
+			ray.d.normalize();
+			rays[i] = ray;
+		}
+		return rays;
+	}
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import se.llbit.chunky.renderer.ProgressListener;
+import se.llbit.chunky.renderer.scene.RenderDump;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBufferType;
+
+/**
+ * Compares save and load times of the old GZip render dump format and the
+ * block-based render dump format.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+@SuppressWarnings("javadoc")
+public class DumpBenchmark {
+
+	protected static final String USAGE =
+		"Usage: DumpBenchmark [width] [height]";
+
+	private static final ProgressListener NO_PROGRESS = new ProgressListener() {
+		@Override
+		public void setProgress(String task, int done, int start, int target) {
+		}
+
+		@Override
+		public void setProgress(String task, int done, int start, int target,
+				String eta) {
+		}
+
+		@Override
+		public void taskAborted(String task) {
+		}
+
+		@Override
+		public void taskFailed(String task) {
+		}
+	};
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 2) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+
+		// noisy samples, like an early render
+		SampleBuffer samples = SampleBufferType.DOUBLE.create(width, height);
+		Random random = new Random(0);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				double l = random.nextDouble();
+				samples.set(samples.index(x, y), l * .8, l * .9, l);
+			}
+		}
+		final SampleBuffer result = SampleBufferType.DOUBLE.create(width, height);
+
+		File file = File.createTempFile("dump", ".dump");
+		file.deleteOnExit();
+		System.out.format("%dx%d samples%n", width, height);
+		for (int round = 0; round < 3; ++round) {
+			long time = System.nanoTime();
+			saveLegacy(file, samples, width, height);
+			double save = (System.nanoTime() - time) / 1000000.0;
+			time = System.nanoTime();
+			loadLegacy(file, result, width, height);
+			double load = (System.nanoTime() - time) / 1000000.0;
+			System.out.format("GZip:          save %8.1f ms  load %8.1f ms  %6.1f MiB%n",
+					save, load, file.length() / (double) (1 << 20));
+
+			for (int i = 0; i < 2; ++i) {
+				boolean compress = i == 0;
+				time = System.nanoTime();
+				RenderDump.write(new FileOutputStream(file), samples, 1, 1, null, null,
+						compress, NO_PROGRESS, "");
+				save = (System.nanoTime() - time) / 1000000.0;
+				time = System.nanoTime();
+				RenderDump dump = RenderDump.open(new FileInputStream(file));
+				try {
+					dump.readSamples(new RenderDump.SampleHandler() {
+						@Override
+						public void samples(int x0, int y0, int columns, int rows,
+								double[] samples, int[] count, double[] squares) {
+							for (int y = y0; y < y0 + rows; ++y) {
+								for (int x = x0; x < x0 + columns; ++x) {
+									int j = ((y - y0) * columns + x - x0) * 3;
+									result.set(result.index(x, y), samples[j], samples[j+1],
+											samples[j+2]);
+								}
+							}
+						}
+
+						@Override
+						public void sampleCounts(int x0, int y0, int columns, int rows,
+								int[] count, double[] squares) {
+						}
+					}, NO_PROGRESS, "");
+				} finally {
+					dump.close();
+				}
+				load = (System.nanoTime() - time) / 1000000.0;
+				System.out.format("%-14s save %8.1f ms  load %8.1f ms  %6.1f MiB%n",
+						compress ? "Blocks+Deflate:" : "Blocks:", save, load,
+						file.length() / (double) (1 << 20));
+			}
+		}
+	}
+
+	/**
+	 * Write a dump the way it was done before the block format.
+	 */
+	private static void saveLegacy(File file, SampleBuffer samples, int width,
+			int height) throws IOException {
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(1);
+			out.writeLong(1);
+			for (int x = 0; x < width; ++x) {
+				for (int y = 0; y < height; ++y) {
+					int index = samples.index(x, y);
+					out.writeDouble(samples.getR(index));
+					out.writeDouble(samples.getG(index));
+					out.writeDouble(samples.getB(index));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void loadLegacy(File file, SampleBuffer samples, int width,
+			int height) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new FileInputStream(file)));
+		try {
+			in.readInt();
+			in.readInt();
+			in.readInt();
+			in.readLong();
+			for (int x = 0; x < width; ++x) {
+				for (int y = 0; y < height; ++y) {
+					double r = in.readDouble();
+					double g = in.readDouble();
+					double b = in.readDouble();
+					samples.set(samples.index(x, y), r, g, b);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
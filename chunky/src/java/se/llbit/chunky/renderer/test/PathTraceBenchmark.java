@@ -0,0 +1,102 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.ConsoleRenderListener;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SceneLoadingError;
+import se.llbit.math.Ray;
+import se.llbit.math.Sampler;
+import se.llbit.util.ThreadAllocation;
+
+/**
+ * Measures the time and heap allocations per sample when path tracing
+ * a saved scene on a single thread.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+@SuppressWarnings("javadoc")
+public class PathTraceBenchmark {
+
+	protected static final String USAGE =
+		"Usage: PathTraceBenchmark <scene-dir> <scene-name> [spp]";
+
+	public static void main(String[] args) throws IOException,
+			SceneLoadingError, InterruptedException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		ChunkyOptions options = new ChunkyOptions();
+		options.sceneDir = new File(args[0]);
+		int spp = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		Scene scene = new Scene();
+		scene.loadScene(new RenderContext(options), new ConsoleRenderListener(),
+				args[1]);
+
+		WorkerState state = new WorkerState();
+		state.random = scene.getSamplerType().create(0);
+		state.ray = new Ray();
+
+		int width = scene.canvasWidth();
+		int height = scene.canvasHeight();
+		System.out.format("%dx%d canvas, %d spp, %s sampler%n", width, height, spp,
+				scene.getSamplerType());
+
+		for (int round = 0; round < 3; ++round) {
+			long time = System.nanoTime();
+			long allocated = ThreadAllocation.allocatedBytes();
+			render(scene, state, width, height, spp);
+			long samples = (long) width * height * spp;
+			double elapsed = (System.nanoTime() - time) / 1000.0 / samples;
+			long bytes = ThreadAllocation.allocatedBytes();
+			if (bytes >= 0 && allocated >= 0) {
+				System.out.format("%8.2f us/sample %10.1f bytes/sample%n", elapsed,
+						(bytes - allocated) / (double) samples);
+			} else {
+				System.out.format("%8.2f us/sample%n", elapsed);
+			}
+		}
+	}
+
+	private static void render(Scene scene, WorkerState state, int width,
+			int height, int spp) {
+		Camera cam = scene.camera();
+		Sampler random = state.random;
+		double halfWidth = width/(2.0*height);
+		double invHeight = 1.0 / height;
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				for (int i = 0; i < spp; ++i) {
+					random.startSample(x, y, i);
+					cam.calcViewRay(state.ray, random,
+							(-halfWidth + (x + random.nextDouble()) * invHeight),
+							(-.5 + (y + random.nextDouble()) * invHeight));
+					scene.pathTrace(state);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import se.llbit.png.IEND;
+import se.llbit.png.PngFileWriter;
+
+/**
+ * Compares PNG write times and file sizes of unfiltered single-threaded
+ * compression and the filtered, striped PNG writer, for 4K and 8K images.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+@SuppressWarnings("javadoc")
+public class PngBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		File file = File.createTempFile("benchmark", ".png");
+		file.deleteOnExit();
+		int[][] sizes = { { 3840, 2160 }, { 7680, 4320 } };
+		for (int[] size: sizes) {
+			BufferedImage image = image(size[0], size[1]);
+			System.out.format("%dx%d image%n", size[0], size[1]);
+			for (int round = 0; round < 3; ++round) {
+				long time = System.nanoTime();
+				writeUnfiltered(file, image);
+				double unfiltered = (System.nanoTime() - time) / 1000000.0;
+				long unfilteredSize = file.length();
+
+				time = System.nanoTime();
+				PngFileWriter writer = new PngFileWriter(file);
+				writer.write(image);
+				writer.writeChunk(new IEND());
+				writer.close();
+				double filtered = (System.nanoTime() - time) / 1000000.0;
+				System.out.format("Unfiltered: %8.1f ms %6.1f MiB   Striped: %8.1f ms %6.1f MiB%n",
+						unfiltered, unfilteredSize / (double) (1 << 20),
+						filtered, file.length() / (double) (1 << 20));
+			}
+		}
+	}
+
+	/**
+	 * A smooth image with some noise, similar to a partially converged render.
+	 */
+	private static BufferedImage image(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		Random random = new Random(0);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				double shade = 0.5 + 0.5 * Math.sin(x * 0.01) * Math.cos(y * 0.013);
+				int noise = random.nextInt(8);
+				int r = Math.min(255, (int) (shade * 200) + noise);
+				int g = Math.min(255, (int) (shade * 180) + noise);
+				int b = Math.min(255, (int) ((1 - shade) * 220) + noise);
+				data[x + y * width] = (r << 16) | (g << 8) | b;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Compress the scanlines without filtering in a single thread, like the
+	 * PNG writer did before. Only the compressed data is written.
+	 */
+	private static void writeUnfiltered(File file, BufferedImage image) throws IOException {
+		int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(file));
+		try {
+			int i = 0;
+			for (int y = 0; y < height; ++y) {
+				out.write(0);
+				for (int x = 0; x < width; ++x) {
+					int rgb = data[i++];
+					out.write(rgb >> 16);
+					out.write(rgb >> 8);
+					out.write(rgb);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -35,17 +35,45 @@ import javax.swing.LayoutStyle.ComponentPlacement;
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.renderer.OutputMode;
 import se.llbit.chunky.renderer.RenderConstants;
+import se.llbit.chunky.renderer.scene.PathTracerType;
+import se.llbit.chunky.renderer.scene.SampleBufferType;
+import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.ui.RenderControls;
 import se.llbit.chunky.renderer.ui.ShutdownAlert;
 import se.llbit.chunky.ui.CenteredFileDialog;
+import se.llbit.math.OctreeType;
+import se.llbit.math.SamplerType;
 import se.llbit.ui.Adjuster;
 
 public class AdvancedTab extends RenderControlsTab {
 
 	private final JComboBox outputMode = new JComboBox(OutputMode.values());
+	private final JComboBox octreeImplementation = new JComboBox(OctreeType.values());
+	private final JComboBox sampleBufferType = new JComboBox(SampleBufferType.values());
+	private final JComboBox samplerType = new JComboBox(SamplerType.values());
+	private final JComboBox pathTracerType = new JComboBox(PathTracerType.values());
 	private final JCheckBox fastFogCB = new JCheckBox("Fast fog");
 	private final JButton mergeDumpBtn = new JButton("Merge Render Dump");
 	private final JCheckBox shutdownWhenDoneCB = new JCheckBox("Shutdown computer when render completes");
+	private final JCheckBox adaptiveSamplingCB = new JCheckBox("Adaptive sampling");
+
+	private final Adjuster noiseThreshold = new Adjuster(
+			"Noise threshold",
+			"Tiles with less noise than this stop receiving samples",
+			Scene.MIN_NOISE_THRESHOLD, Scene.MAX_NOISE_THRESHOLD) {
+		{
+			setLogarithmicMode();
+		}
+		@Override
+		public void valueChanged(double newValue) {
+			renderMan.scene().setNoiseThreshold(newValue);
+		}
+
+		@Override
+		public void update() {
+			set(renderMan.scene().getNoiseThreshold());
+		}
+	};
 
 	private final Adjuster rayDepth = new Adjuster(
 			"Ray depth",
@@ -107,6 +135,37 @@ public class AdvancedTab extends RenderControlsTab {
 		}
 	};
 
+	private final ActionListener adaptiveSamplingListener = new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			renderMan.scene().setAdaptiveSampling(adaptiveSamplingCB.isSelected());
+		}
+	};
+
+	private final ActionListener sampleBufferTypeListener = new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			renderMan.scene().setSampleBufferType(
+					(SampleBufferType) sampleBufferType.getSelectedItem());
+		}
+	};
+
+	private final ActionListener samplerTypeListener = new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			renderMan.scene().setSamplerType(
+					(SamplerType) samplerType.getSelectedItem());
+		}
+	};
+
+	private final ActionListener pathTracerTypeListener = new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			renderMan.scene().setPathTracerType(
+					(PathTracerType) pathTracerType.getSelectedItem());
+		}
+	};
+
 	public AdvancedTab(RenderControls renderControls) {
 		super(renderControls);
 
@@ -128,6 +187,35 @@ public class AdvancedTab extends RenderControlsTab {
 		});
 		updateOutputMode();
 
+		JLabel octreeImplementationLbl = new JLabel("Octree implementation: ");
+		octreeImplementation.setToolTipText(
+				"Takes effect when the chunks are reloaded");
+		octreeImplementation.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JComboBox source = (JComboBox) e.getSource();
+				renderMan.scene().setOctreeImplementation(
+						(OctreeType) source.getSelectedItem());
+			}
+		});
+		updateOctreeImplementation();
+
+		JLabel sampleBufferTypeLbl = new JLabel("Sample buffer: ");
+		sampleBufferType.setToolTipText(
+				"Single precision halves the memory used by large renders");
+		sampleBufferType.addActionListener(sampleBufferTypeListener);
+		updateSampleBufferType();
+
+		JLabel samplerTypeLbl = new JLabel("Sampler: ");
+		samplerType.setToolTipText(
+				"Halton samples converge faster, Xorshift is the fastest generator");
+		samplerType.addActionListener(samplerTypeListener);
+		updateSamplerType();
+
+		JLabel pathTracerTypeLbl = new JLabel("Path tracer: ");
+		pathTracerType.addActionListener(pathTracerTypeListener);
+		updatePathTracerType();
+
 		JSeparator sep1 = new JSeparator();
 		JSeparator sep2 = new JSeparator();
 
@@ -139,6 +227,13 @@ public class AdvancedTab extends RenderControlsTab {
 		fastFogCB.addActionListener(fastFogListener);
 		updateFastFog();
 
+		adaptiveSamplingCB.setToolTipText(
+				"Stop rendering tiles when their noise level is below the threshold");
+		adaptiveSamplingCB.addActionListener(adaptiveSamplingListener);
+		updateAdaptiveSampling();
+
+		noiseThreshold.update();
+
 		mergeDumpBtn.setToolTipText(
 				"Merge an existing render dump with the current render");
 		mergeDumpBtn.addActionListener(new ActionListener() {
@@ -173,6 +268,8 @@ public class AdvancedTab extends RenderControlsTab {
 				.addGroup(cpuLoad.horizontalGroup(layout))
 				.addComponent(sep1)
 				.addGroup(rayDepth.horizontalGroup(layout))
+				.addComponent(adaptiveSamplingCB)
+				.addGroup(noiseThreshold.horizontalGroup(layout))
 				.addComponent(sep2)
 				.addComponent(mergeDumpBtn)
 				.addComponent(shutdownWhenDoneCB)
@@ -180,6 +277,18 @@ public class AdvancedTab extends RenderControlsTab {
 				.addGroup(layout.createSequentialGroup()
 					.addComponent(outputModeLbl)
 					.addComponent(outputMode, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
+				.addGroup(layout.createSequentialGroup()
+					.addComponent(octreeImplementationLbl)
+					.addComponent(octreeImplementation, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
+				.addGroup(layout.createSequentialGroup()
+					.addComponent(sampleBufferTypeLbl)
+					.addComponent(sampleBufferType, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
+				.addGroup(layout.createSequentialGroup()
+					.addComponent(samplerTypeLbl)
+					.addComponent(samplerType, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
+				.addGroup(layout.createSequentialGroup()
+					.addComponent(pathTracerTypeLbl)
+					.addComponent(pathTracerType, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
 			)
 			.addContainerGap()
 		);
@@ -193,6 +302,10 @@ public class AdvancedTab extends RenderControlsTab {
 			.addPreferredGap(ComponentPlacement.UNRELATED)
 			.addGroup(rayDepth.verticalGroup(layout))
 			.addPreferredGap(ComponentPlacement.UNRELATED)
+			.addComponent(adaptiveSamplingCB)
+			.addPreferredGap(ComponentPlacement.RELATED)
+			.addGroup(noiseThreshold.verticalGroup(layout))
+			.addPreferredGap(ComponentPlacement.UNRELATED)
 			.addComponent(sep2, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
 			.addPreferredGap(ComponentPlacement.UNRELATED)
 			.addComponent(mergeDumpBtn)
@@ -204,6 +317,22 @@ public class AdvancedTab extends RenderControlsTab {
 			.addGroup(layout.createParallelGroup(Alignment.BASELINE)
 					.addComponent(outputModeLbl)
 					.addComponent(outputMode))
+			.addPreferredGap(ComponentPlacement.UNRELATED)
+			.addGroup(layout.createParallelGroup(Alignment.BASELINE)
+					.addComponent(octreeImplementationLbl)
+					.addComponent(octreeImplementation))
+			.addPreferredGap(ComponentPlacement.UNRELATED)
+			.addGroup(layout.createParallelGroup(Alignment.BASELINE)
+					.addComponent(sampleBufferTypeLbl)
+					.addComponent(sampleBufferType))
+			.addPreferredGap(ComponentPlacement.UNRELATED)
+			.addGroup(layout.createParallelGroup(Alignment.BASELINE)
+					.addComponent(samplerTypeLbl)
+					.addComponent(samplerType))
+			.addPreferredGap(ComponentPlacement.UNRELATED)
+			.addGroup(layout.createParallelGroup(Alignment.BASELINE)
+					.addComponent(pathTracerTypeLbl)
+					.addComponent(pathTracerType))
 			.addContainerGap()
 		);
 	}
@@ -211,20 +340,54 @@ public class AdvancedTab extends RenderControlsTab {
 	@Override
 	public void refreshSettings() {
 		updateOutputMode();
+		updateOctreeImplementation();
+		updateSampleBufferType();
+		updateSamplerType();
+		updatePathTracerType();
 		updateFastFog();
 		rayDepth.update();
+		updateAdaptiveSampling();
+		noiseThreshold.update();
 	}
 
 	protected void updateOutputMode() {
 		outputMode.setSelectedItem(renderMan.scene().getOutputMode());
 	}
 
+	protected void updateOctreeImplementation() {
+		octreeImplementation.setSelectedItem(renderMan.scene().getOctreeImplementation());
+	}
+
+	protected void updateSampleBufferType() {
+		sampleBufferType.removeActionListener(sampleBufferTypeListener);
+		sampleBufferType.setSelectedItem(renderMan.scene().getSampleBufferType());
+		sampleBufferType.addActionListener(sampleBufferTypeListener);
+	}
+
+	protected void updateSamplerType() {
+		samplerType.removeActionListener(samplerTypeListener);
+		samplerType.setSelectedItem(renderMan.scene().getSamplerType());
+		samplerType.addActionListener(samplerTypeListener);
+	}
+
+	protected void updatePathTracerType() {
+		pathTracerType.removeActionListener(pathTracerTypeListener);
+		pathTracerType.setSelectedItem(renderMan.scene().getPathTracerType());
+		pathTracerType.addActionListener(pathTracerTypeListener);
+	}
+
 	protected void updateFastFog() {
 		fastFogCB.removeActionListener(fastFogListener);
 		fastFogCB.setSelected(renderMan.scene().fastFog());
 		fastFogCB.addActionListener(fastFogListener);
 	}
 
+	protected void updateAdaptiveSampling() {
+		adaptiveSamplingCB.removeActionListener(adaptiveSamplingListener);
+		adaptiveSamplingCB.setSelected(renderMan.scene().adaptiveSamplingEnabled());
+		adaptiveSamplingCB.addActionListener(adaptiveSamplingListener);
+	}
+
 	public boolean shutdownAfterCompletedRender() {
 		return shutdownWhenDoneCB.isSelected();
 	}
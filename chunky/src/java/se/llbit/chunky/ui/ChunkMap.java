@@ -117,7 +117,7 @@ public class ChunkMap extends JPanel implements ChunkUpdateListener {
 			}
 
 			ChunkPosition chunk = getChunk(e);
-			if (chunk != end) {
+			if (!chunk.equals(end)) {
 				end = chunk;
 				repaint();
 			}
@@ -204,7 +204,7 @@ public class ChunkMap extends JPanel implements ChunkUpdateListener {
 		@Override
 		public void mouseMoved(MouseEvent e) {
 			ChunkPosition chunk = getChunk(e);
-			if (chunk != start) {
+			if (!chunk.equals(start)) {
 				start = chunk;
 				end = chunk;
 				repaint();
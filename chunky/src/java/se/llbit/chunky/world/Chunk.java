@@ -20,10 +20,8 @@ import java.awt.Color;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 
 import se.llbit.chunky.main.Chunky;
 import se.llbit.chunky.map.AbstractLayer;
@@ -34,13 +32,7 @@ import se.llbit.chunky.map.CorruptLayer;
 import se.llbit.chunky.map.MapBuffer;
 import se.llbit.chunky.map.SurfaceLayer;
 import se.llbit.chunky.map.UnknownLayer;
-import se.llbit.nbt.AnyTag;
 import se.llbit.nbt.CompoundTag;
-import se.llbit.nbt.ErrorTag;
-import se.llbit.nbt.ListTag;
-import se.llbit.nbt.NamedTag;
-import se.llbit.nbt.SpecificTag;
-import se.llbit.util.NotNull;
 
 /**
  * This class represents a loaded or not-yet-loaded chunk in the world.
@@ -51,12 +43,6 @@ import se.llbit.util.NotNull;
  */
 public class Chunk {
 
-	private static final String LEVEL_HEIGHTMAP = ".Level.HeightMap";
-	private static final String LEVEL_SECTIONS = ".Level.Sections";
-	private static final String LEVEL_BIOMES = ".Level.Biomes";
-	private static final String LEVEL_ENTITIES = ".Level.Entities";
-	private static final String LEVEL_TILEENTITIES = ".Level.TileEntities";
-
 	/**
 	 * Chunk width
 	 */
@@ -72,9 +58,6 @@ public class Chunk {
 	 */
 	public static final int Z_MAX = 16;
 
-	private static final int SECTION_Y_MAX = 16;
-	private static final int SECTION_BYTES = X_MAX*SECTION_Y_MAX*Z_MAX;
-	private static final int SECTION_HALF_NIBBLES = SECTION_BYTES / 2;
 	private static final int CHUNK_BYTES = X_MAX*Y_MAX*Z_MAX;
 
 	private static final int BLOCK_LAYER = 1<<0;
@@ -117,20 +100,6 @@ public class Chunk {
 		 */
 		abstract public int getLayers(ChunkView view);
 
-		public Set<String> getRequest(ChunkView view) {
-			int layers = getLayers(view);
-			Set<String> request = new HashSet<String>();
-			request.add(LEVEL_SECTIONS);
-			if ((layers&BLOCK_LAYER) != 0 || (layers&SURFACE_LAYER) != 0 ||
-					(layers&BIOME_LAYER) != 0) {
-				request.add(LEVEL_BIOMES);
-			}
-			if ((layers&SURFACE_LAYER) != 0 || (layers&CAVE_LAYER) != 0) {
-				request.add(LEVEL_HEIGHTMAP);
-			}
-			return request;
-		}
-
 		/**
 		 * @param view
 		 * @param newView
@@ -257,43 +226,68 @@ public class Chunk {
 	}
 
 	protected void renderSurface(MapBuffer rbuff, int cx, int cz) {
-		surface.render(rbuff, cx, cz);
+		if (surface != UnknownLayer.INSTANCE
+				|| !renderOverview(MapTileCache.Layer.SURFACE, rbuff, cx, cz)) {
+			surface.render(rbuff, cx, cz);
+		}
 	}
 
 	protected void renderCaves(MapBuffer rbuff, int cx, int cz) {
-		caves.render(rbuff, cx, cz);
+		if (caves != UnknownLayer.INSTANCE
+				|| !renderOverview(MapTileCache.Layer.CAVES, rbuff, cx, cz)) {
+			caves.render(rbuff, cx, cz);
+		}
 	}
 
 	protected void renderBiomes(MapBuffer rbuff, int cx, int cz) {
-		biomes.render(rbuff, cx, cz);
+		if (biomes != UnknownLayer.INSTANCE
+				|| !renderOverview(MapTileCache.Layer.BIOMES, rbuff, cx, cz)) {
+			biomes.render(rbuff, cx, cz);
+		}
+	}
+
+	/**
+	 * Draw the overview color of a layer that has not been loaded.
+	 * Only used when the map is zoomed out to one pixel per chunk.
+	 * @return {@code true} if the chunk had an overview color
+	 */
+	private boolean renderOverview(MapTileCache.Layer layer, MapBuffer rbuff,
+			int cx, int cz) {
+		ChunkView view = rbuff.getView();
+		if (view.chunkScale != 1) {
+			return false;
+		}
+		int color = world.tileCache().overviewColor(layer,
+				world.currentDimension(), position);
+		if (color == 0) {
+			return false;
+		}
+		rbuff.setRGB(cx - view.px0, cz - view.pz0, color);
+		return true;
 	}
 
 	/**
-	 * @param request fresh request set
-	 * @return loaded data, or null if something went wrong
+	 * Read the chunk data from the region file.
+	 * @param reader Chunk data reader with the requested destinations
+	 * @return {@code false} if the chunk data could not be read
 	 */
-	private Map<String, AnyTag> getChunkData(Set<String> request) {
+	private boolean readChunkData(ChunkDataReader reader) {
 		Region region = world.getRegion(position.getRegionPosition());
 		ChunkDataSource data = region.getChunkData(position);
 		if (data == null) {
-			return null;
+			return false;
 		}
 		DataInputStream in = data.inputStream;
 		if (in == null) {
-			return null;
+			return false;
 		}
 		dataTimestamp = data.timestamp;
-		Map<String, AnyTag> result = NamedTag.quickParse(in, request);
+		reader.read(in);
 		try {
 			in.close();
 		} catch (IOException e) {
 		}
-		for (String key: request) {
-			if (!result.containsKey(key)) {
-				result.put(key, new ErrorTag());
-			}
-		}
-		return result;
+		return true;
 	}
 
 	/**
@@ -342,134 +336,235 @@ public class Chunk {
 
 		loadedLayer = requestedLayer;
 
-		Map<String, AnyTag> data = getChunkData(renderer.getRequest(view));
-
 		int layers = renderer.getLayers(view);
+		Region region = world.getRegion(position.getRegionPosition());
+		int timestamp = region.getChunkTimestamp(position);
+		if (view.chunkScale == 1 && hasCurrentOverview(layers, timestamp)) {
+			// the zoomed out map is drawn from the overview colors
+			world.chunkUpdated(position);
+			return;
+		}
+		layers &= ~loadCachedLayers(layers, timestamp);
+		if (layers == 0) {
+			world.chunkUpdated(position);
+			return;
+		}
+
+		byte[] blocks = new byte[CHUNK_BYTES];
+		byte[] blockData = new byte[CHUNK_BYTES / 2];
+		byte[] biomeData = new byte[X_MAX*Z_MAX];
+		int[] heightmapData = new int[X_MAX*Z_MAX];
+		ChunkDataReader reader = new ChunkDataReader()
+				.blocks(blocks)
+				.biomes(biomeData);
+		if ((layers&SURFACE_LAYER) != 0) {
+			reader.blockData(blockData);
+		}
+		if ((layers&SURFACE_LAYER) != 0 || (layers&CAVE_LAYER) != 0) {
+			reader.heightmap(heightmapData);
+		}
+		if (!readChunkData(reader)) {
+			reader = null;
+		} else if (!reader.hasHeightmap()) {
+			for (int i = 0; i < heightmapData.length; ++i) {
+				heightmapData[i] = Y_MAX-1;
+			}
+		}
+
 		if ((layers&BLOCK_LAYER) != 0) {
 			layerTimestamp = dataTimestamp;
-			loadLayer(data, requestedLayer);
+			loadLayer(reader, blocks, biomeData, requestedLayer);
 		}
 		if ((layers&SURFACE_LAYER) != 0) {
 			surfaceTimestamp = dataTimestamp;
-			loadSurface(data);
+			loadSurface(reader, blocks, blockData, biomeData, heightmapData);
 		}
 		if ((layers&BIOME_LAYER) != 0) {
 			biomesTimestamp = dataTimestamp;
-			loadBiomes(data);
+			loadBiomes(reader, biomeData);
 		}
 		if ((layers&CAVE_LAYER) != 0) {
 			cavesTimestamp = dataTimestamp;
-			loadCaves(data);
+			loadCaves(reader, blocks, heightmapData);
+		}
+		if (reader != null) {
+			storeCachedLayers(layers);
 		}
 
 		world.chunkUpdated(position);
 	}
 
-	private void loadSurface(Map<String, AnyTag> data) {
+	/**
+	 * Load layers from the map tile cache.
+	 * @param layers the requested layers
+	 * @param timestamp the current region file timestamp of this chunk
+	 * @return The layers that were loaded
+	 */
+	private int loadCachedLayers(int layers, int timestamp) {
+		MapTileCache cache = world.tileCache();
+		int dimension = world.currentDimension();
+		int loaded = 0;
+		if ((layers&SURFACE_LAYER) != 0) {
+			int[] bitmap = new int[X_MAX*Z_MAX];
+			byte[] heights = new byte[X_MAX*Z_MAX];
+			if (cache.read(MapTileCache.Layer.SURFACE, dimension, position, timestamp,
+					bitmap, heights)) {
+				Heightmap heightmap = world.heightmap();
+				for (int x = 0; x < X_MAX; ++x) {
+					for (int z = 0; z < Z_MAX; ++z) {
+						heightmap.set(heights[x*Z_MAX + z] & 0xFF,
+								position.x*X_MAX + x, position.z*Z_MAX + z);
+					}
+				}
+				surface = new SurfaceLayer(bitmap);
+				surfaceTimestamp = timestamp;
+				cache.writeOverview(MapTileCache.Layer.SURFACE, dimension, position,
+						timestamp, surface.getAvgColor());
+				queueTopography();
+				loaded |= SURFACE_LAYER;
+			}
+		}
+		if ((layers&BIOME_LAYER) != 0) {
+			byte[] biomeData = new byte[X_MAX*Z_MAX];
+			if (cache.read(MapTileCache.Layer.BIOMES, dimension, position, timestamp,
+					null, biomeData)) {
+				biomes = new BiomeLayer(biomeData);
+				biomesTimestamp = timestamp;
+				cache.writeOverview(MapTileCache.Layer.BIOMES, dimension, position,
+						timestamp, biomes.getAvgColor());
+				loaded |= BIOME_LAYER;
+			}
+		}
+		if ((layers&CAVE_LAYER) != 0) {
+			byte[] caveData = new byte[X_MAX*Z_MAX];
+			if (cache.read(MapTileCache.Layer.CAVES, dimension, position, timestamp,
+					null, caveData)) {
+				caves = new CaveLayer(caveData);
+				cavesTimestamp = timestamp;
+				cache.writeOverview(MapTileCache.Layer.CAVES, dimension, position,
+						timestamp, caves.getAvgColor());
+				loaded |= CAVE_LAYER;
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Store the parsed layers in the map tile cache.
+	 * @param layers the parsed layers
+	 */
+	private void storeCachedLayers(int layers) {
+		MapTileCache cache = world.tileCache();
+		int dimension = world.currentDimension();
+		if ((layers&SURFACE_LAYER) != 0 && surface instanceof SurfaceLayer) {
+			Heightmap heightmap = world.heightmap();
+			byte[] heights = new byte[X_MAX*Z_MAX];
+			for (int x = 0; x < X_MAX; ++x) {
+				for (int z = 0; z < Z_MAX; ++z) {
+					heights[x*Z_MAX + z] = (byte) heightmap.get(
+							position.x*X_MAX + x, position.z*Z_MAX + z);
+				}
+			}
+			cache.write(MapTileCache.Layer.SURFACE, dimension, position, dataTimestamp,
+					((SurfaceLayer) surface).getBitmap(), heights);
+			cache.writeOverview(MapTileCache.Layer.SURFACE, dimension, position,
+					dataTimestamp, surface.getAvgColor());
+		}
+		if ((layers&BIOME_LAYER) != 0 && biomes instanceof BiomeLayer) {
+			cache.write(MapTileCache.Layer.BIOMES, dimension, position, dataTimestamp,
+					null, ((BiomeLayer) biomes).getBiomes());
+			cache.writeOverview(MapTileCache.Layer.BIOMES, dimension, position,
+					dataTimestamp, biomes.getAvgColor());
+		}
+		if ((layers&CAVE_LAYER) != 0 && caves instanceof CaveLayer) {
+			cache.write(MapTileCache.Layer.CAVES, dimension, position, dataTimestamp,
+					null, ((CaveLayer) caves).getCaves());
+			cache.writeOverview(MapTileCache.Layer.CAVES, dimension, position,
+					dataTimestamp, caves.getAvgColor());
+		}
+	}
+
+	/**
+	 * @param layers the requested layers
+	 * @param timestamp the current region file timestamp of this chunk
+	 * @return {@code true} if all requested layers have overview colors
+	 * generated from the current chunk data
+	 */
+	private boolean hasCurrentOverview(int layers, int timestamp) {
+		if ((layers&BLOCK_LAYER) != 0) {
+			return false;
+		}
+		MapTileCache cache = world.tileCache();
+		int dimension = world.currentDimension();
+		if ((layers&SURFACE_LAYER) != 0 && !cache.hasOverview(
+				MapTileCache.Layer.SURFACE, dimension, position, timestamp)) {
+			return false;
+		}
+		if ((layers&BIOME_LAYER) != 0 && !cache.hasOverview(
+				MapTileCache.Layer.BIOMES, dimension, position, timestamp)) {
+			return false;
+		}
+		if ((layers&CAVE_LAYER) != 0 && !cache.hasOverview(
+				MapTileCache.Layer.CAVES, dimension, position, timestamp)) {
+			return false;
+		}
+		return true;
+	}
+
+	private void loadSurface(ChunkDataReader data, byte[] blocks,
+			byte[] blockData, byte[] biomeData, int[] heightmapData) {
 		if (data == null) {
 			surface = CorruptLayer.INSTANCE;
 			return;
 		}
 
 		Heightmap heightmap = world.heightmap();
-		AnyTag sections = data.get(LEVEL_SECTIONS);
-		if (sections.isList()) {
-			int[] heightmapData = extractHeightmapData(data);
-			byte[] biomeData = extractBiomeData(data);
-			byte[] chunkData = new byte[CHUNK_BYTES];
-			byte[] blockData = new byte[CHUNK_BYTES];
-			extractChunkData(data, chunkData, blockData);
-			updateHeightmap(heightmap, position, chunkData, heightmapData);
+		if (data.hasSections()) {
+			updateHeightmap(heightmap, position, blocks, heightmapData);
 			surface = new SurfaceLayer(world.currentDimension(), position,
-					chunkData, biomeData, blockData);
+					blocks, biomeData, blockData);
 			queueTopography();
 		} else {
 			surface = CorruptLayer.INSTANCE;
 		}
 	}
 
-	private void loadBiomes(Map<String, AnyTag> data) {
+	private void loadBiomes(ChunkDataReader data, byte[] biomeData) {
 		if (data == null) {
 			biomes = CorruptLayer.INSTANCE;
 		} else {
-			biomes = new BiomeLayer(extractBiomeData(data));
+			biomes = new BiomeLayer(biomeData);
 		}
 	}
 
-	private void loadLayer(Map<String, AnyTag> data, int requestedLayer) {
+	private void loadLayer(ChunkDataReader data, byte[] blocks,
+			byte[] biomeData, int requestedLayer) {
 		if (data == null) {
 			layer = CorruptLayer.INSTANCE;
 			return;
 		}
 
-		AnyTag sections = data.get(LEVEL_SECTIONS);
-		if (sections.isList()) {
-			byte[] biomeData = extractBiomeData(data);
-			byte[] chunkData = new byte[CHUNK_BYTES];
-			extractChunkData(data, chunkData, new byte[CHUNK_BYTES]);
-			layer = new BlockLayer(chunkData, biomeData, requestedLayer);
+		if (data.hasSections()) {
+			layer = new BlockLayer(blocks, biomeData, requestedLayer);
 		} else {
 			layer = CorruptLayer.INSTANCE;
 		}
 	}
 
-	private void loadCaves(Map<String, AnyTag> data) {
+	private void loadCaves(ChunkDataReader data, byte[] blocks,
+			int[] heightmapData) {
 		if (data == null) {
 			caves = CorruptLayer.INSTANCE;
 			return;
 		}
 
-		AnyTag sections = data.get(LEVEL_SECTIONS);
-		if (sections.isList()) {
-			int[] heightmapData = extractHeightmapData(data);
-			byte[] chunkData = new byte[CHUNK_BYTES];
-			extractChunkData(data, chunkData, new byte[CHUNK_BYTES]);
-			caves = new CaveLayer(chunkData, heightmapData);
+		if (data.hasSections()) {
+			caves = new CaveLayer(blocks, heightmapData);
 		} else {
 			caves = CorruptLayer.INSTANCE;
 		}
 	}
 
-	private byte[] extractBiomeData(@NotNull Map<String, AnyTag> data) {
-		AnyTag biomesTag = data.get(LEVEL_BIOMES);
-		if (biomesTag.isByteArray(X_MAX*Z_MAX)) {
-			return biomesTag.byteArray();
-		} else {
-			return new byte[X_MAX*Z_MAX];
-		}
-	}
-
-	private int[] extractHeightmapData(@NotNull Map<String, AnyTag> data) {
-		AnyTag heightmapTag = data.get(LEVEL_HEIGHTMAP);
-		if (heightmapTag.isIntArray(X_MAX*Z_MAX)) {
-			return heightmapTag.intArray();
-		} else {
-			int[] fallback = new int[X_MAX*Z_MAX];
-			for (int i = 0; i < fallback.length; ++i) {
-				fallback[i] = Y_MAX-1;
-			}
-			return fallback;
-		}
-	}
-
-	private void extractChunkData(@NotNull Map<String, AnyTag> data, @NotNull byte[] blocks, @NotNull byte[] blockData) {
-		AnyTag sections = data.get(LEVEL_SECTIONS);
-		if (sections.isList()) {
-			for (SpecificTag section : ((ListTag) sections).getItemList()) {
-				AnyTag yTag = section.get("Y");
-				int yOffset = yTag.byteValue() & 0xFF;
-				AnyTag blocksTag = section.get("Blocks");
-				if (blocksTag.isByteArray(SECTION_BYTES)) {
-					System.arraycopy(blocksTag.byteArray(), 0, blocks, SECTION_BYTES*yOffset, SECTION_BYTES);
-				}
-				AnyTag dataTag = section.get("Data");
-				if (dataTag.isByteArray(SECTION_HALF_NIBBLES)) {
-					System.arraycopy(dataTag.byteArray(), 0, blockData, SECTION_HALF_NIBBLES*yOffset, SECTION_HALF_NIBBLES);
-				}
-			}
-		}
-	}
-
 	/**
 	 * Load heightmap information from a chunk heightmap array
 	 * and insert into a quadtree.
@@ -579,32 +674,19 @@ public class Chunk {
 			blockData[i] = 0;
 		}
 
-		Set<String> request = new HashSet<String>();
-		request.add(LEVEL_SECTIONS);
-		request.add(LEVEL_BIOMES);
-		request.add(LEVEL_ENTITIES);
-		request.add(LEVEL_TILEENTITIES);
-		Map<String, AnyTag> data = getChunkData(request);
-		AnyTag sections = data.get(LEVEL_SECTIONS);
-		AnyTag biomesTag = data.get(LEVEL_BIOMES);
-		AnyTag entitiesTag = data.get(LEVEL_ENTITIES);
-		AnyTag tileEntitiesTag = data.get(LEVEL_TILEENTITIES);
-		if (sections.isList() && biomesTag.isByteArray(X_MAX*Z_MAX)
-				&& tileEntitiesTag.isList()
-				&& entitiesTag.isList()) {
-			byte[] chunkBiomes = extractBiomeData(data);
-			System.arraycopy(chunkBiomes, 0, biomes, 0, chunkBiomes.length);
-			extractChunkData(data, blocks, blockData);
-			ListTag list = (ListTag) entitiesTag;
-			for (SpecificTag tag: list.getItemList()) {
-				if (tag.isCompoundTag())
-					entities.add((CompoundTag) tag);
-			}
-			list = (ListTag) tileEntitiesTag;
-			for (SpecificTag tag: list.getItemList()) {
-				if (tag.isCompoundTag())
-					tileEntities.add((CompoundTag) tag);
-			}
+		ChunkDataReader reader = new ChunkDataReader()
+				.blocks(blocks)
+				.blockData(blockData)
+				.biomes(biomes)
+				.entities(entities, tileEntities);
+		if (readChunkData(reader) && !(reader.hasSections()
+				&& reader.hasBiomes() && reader.hasEntities())) {
+			// incomplete chunk
+			Arrays.fill(blocks, (byte) 0);
+			Arrays.fill(blockData, (byte) 0);
+			Arrays.fill(biomes, (byte) 0);
+			entities.clear();
+			tileEntities.clear();
 		}
 	}
 
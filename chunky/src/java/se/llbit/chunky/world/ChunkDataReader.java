@@ -0,0 +1,288 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.NbtScanner;
+import se.llbit.nbt.SpecificTag;
+
+/**
+ * Reads chunk data directly into caller provided arrays, without building
+ * a tag tree for the block data.
+ *
+ * <p>Only the parts of the chunk with a destination are extracted, other
+ * tags are skipped. Block arrays are not cleared before reading, and
+ * sections with malformed block arrays are cleared.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class ChunkDataReader {
+
+	private static final int SECTION_BYTES = Chunk.X_MAX * 16 * Chunk.Z_MAX;
+	private static final int SECTION_HALF_NIBBLES = SECTION_BYTES / 2;
+	private static final int NUM_SECTIONS = Chunk.Y_MAX / 16;
+	private static final int COLUMNS = Chunk.X_MAX * Chunk.Z_MAX;
+
+	private byte[] blocks;
+	private byte[] blockData;
+	private byte[] biomes;
+	private int[] heightmap;
+	private Collection<CompoundTag> entities;
+	private Collection<CompoundTag> tileEntities;
+
+	/**
+	 * Section buffers for sections where the Y tag comes after the block data.
+	 */
+	private byte[] sectionBlocks;
+	private byte[] sectionData;
+
+	private boolean haveSections;
+	private boolean haveBiomes;
+	private boolean haveHeightmap;
+	private boolean haveEntities;
+	private boolean haveTileEntities;
+
+	/**
+	 * Extract section block IDs into the given array.
+	 * @param blocks Destination for block IDs, indexed by
+	 * {@link Chunk#chunkIndex(int, int, int)}
+	 * @return This reader
+	 */
+	public ChunkDataReader blocks(byte[] blocks) {
+		this.blocks = blocks;
+		return this;
+	}
+
+	/**
+	 * Extract section block metadata into the given array.
+	 * @param blockData Destination for packed block metadata
+	 * @return This reader
+	 */
+	public ChunkDataReader blockData(byte[] blockData) {
+		this.blockData = blockData;
+		return this;
+	}
+
+	/**
+	 * Extract biome IDs into the given array.
+	 * @param biomes
+	 * @return This reader
+	 */
+	public ChunkDataReader biomes(byte[] biomes) {
+		this.biomes = biomes;
+		return this;
+	}
+
+	/**
+	 * Extract the chunk heightmap into the given array.
+	 * @param heightmap
+	 * @return This reader
+	 */
+	public ChunkDataReader heightmap(int[] heightmap) {
+		this.heightmap = heightmap;
+		return this;
+	}
+
+	/**
+	 * Collect entity tags.
+	 * @param entities
+	 * @param tileEntities
+	 * @return This reader
+	 */
+	public ChunkDataReader entities(Collection<CompoundTag> entities,
+			Collection<CompoundTag> tileEntities) {
+		this.entities = entities;
+		this.tileEntities = tileEntities;
+		return this;
+	}
+
+	/**
+	 * Read chunk data. Parsing stops at the first error, the has-methods
+	 * tell which parts were read.
+	 * @param in Uncompressed chunk NBT data
+	 */
+	public void read(DataInputStream in) {
+		haveSections = false;
+		haveBiomes = false;
+		haveHeightmap = false;
+		haveEntities = false;
+		haveTileEntities = false;
+		NbtScanner scanner = new NbtScanner(in);
+		try {
+			if (scanner.next() != NbtScanner.TAG_COMPOUND) {
+				return;
+			}
+			while (true) {
+				int type = scanner.next();
+				if (type == NbtScanner.TAG_END) {
+					break;
+				}
+				if (type == NbtScanner.TAG_COMPOUND && scanner.nameEquals("Level")) {
+					readLevel(scanner);
+				} else {
+					scanner.skip(type);
+				}
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	private void readLevel(NbtScanner scanner) throws IOException {
+		while (true) {
+			int type = scanner.next();
+			if (type == NbtScanner.TAG_END) {
+				break;
+			}
+			if (type == NbtScanner.TAG_LIST && scanner.nameEquals("Sections")) {
+				int length = scanner.readListHeader();
+				if (scanner.listType() == NbtScanner.TAG_COMPOUND) {
+					for (int i = 0; i < length; ++i) {
+						readSection(scanner);
+					}
+				} else {
+					for (int i = 0; i < length; ++i) {
+						scanner.skip(scanner.listType());
+					}
+				}
+				haveSections = true;
+			} else if (type == NbtScanner.TAG_BYTE_ARRAY && biomes != null
+					&& scanner.nameEquals("Biomes")) {
+				haveBiomes = scanner.readByteArray(biomes, 0, COLUMNS) == COLUMNS;
+				if (!haveBiomes) {
+					Arrays.fill(biomes, (byte) 0);
+				}
+			} else if (type == NbtScanner.TAG_INT_ARRAY && heightmap != null
+					&& scanner.nameEquals("HeightMap")) {
+				haveHeightmap = scanner.readIntArray(heightmap, 0, COLUMNS) == COLUMNS;
+			} else if (type == NbtScanner.TAG_LIST && entities != null
+					&& scanner.nameEquals("Entities")) {
+				readCompoundList(scanner, entities);
+				haveEntities = true;
+			} else if (type == NbtScanner.TAG_LIST && tileEntities != null
+					&& scanner.nameEquals("TileEntities")) {
+				readCompoundList(scanner, tileEntities);
+				haveTileEntities = true;
+			} else {
+				scanner.skip(type);
+			}
+		}
+	}
+
+	private void readSection(NbtScanner scanner) throws IOException {
+		int y = -1;
+		boolean bufferedBlocks = false;
+		boolean bufferedData = false;
+		while (true) {
+			int type = scanner.next();
+			if (type == NbtScanner.TAG_END) {
+				break;
+			}
+			if (type == NbtScanner.TAG_BYTE && scanner.nameEquals("Y")) {
+				y = scanner.readByte() & 0xFF;
+			} else if (type == NbtScanner.TAG_BYTE_ARRAY && blocks != null
+					&& scanner.nameEquals("Blocks")) {
+				if (y >= 0 && y < NUM_SECTIONS) {
+					int offset = SECTION_BYTES * y;
+					if (scanner.readByteArray(blocks, offset, SECTION_BYTES) != SECTION_BYTES) {
+						Arrays.fill(blocks, offset, offset + SECTION_BYTES, (byte) 0);
+					}
+				} else {
+					if (sectionBlocks == null) {
+						sectionBlocks = new byte[SECTION_BYTES];
+					}
+					bufferedBlocks = scanner.readByteArray(sectionBlocks, 0,
+							SECTION_BYTES) == SECTION_BYTES;
+				}
+			} else if (type == NbtScanner.TAG_BYTE_ARRAY && blockData != null
+					&& scanner.nameEquals("Data")) {
+				if (y >= 0 && y < NUM_SECTIONS) {
+					int offset = SECTION_HALF_NIBBLES * y;
+					if (scanner.readByteArray(blockData, offset, SECTION_HALF_NIBBLES)
+							!= SECTION_HALF_NIBBLES) {
+						Arrays.fill(blockData, offset, offset + SECTION_HALF_NIBBLES, (byte) 0);
+					}
+				} else {
+					if (sectionData == null) {
+						sectionData = new byte[SECTION_HALF_NIBBLES];
+					}
+					bufferedData = scanner.readByteArray(sectionData, 0,
+							SECTION_HALF_NIBBLES) == SECTION_HALF_NIBBLES;
+				}
+			} else {
+				scanner.skip(type);
+			}
+		}
+		if (y >= 0 && y < NUM_SECTIONS) {
+			if (bufferedBlocks) {
+				System.arraycopy(sectionBlocks, 0, blocks, SECTION_BYTES * y, SECTION_BYTES);
+			}
+			if (bufferedData) {
+				System.arraycopy(sectionData, 0, blockData, SECTION_HALF_NIBBLES * y,
+						SECTION_HALF_NIBBLES);
+			}
+		}
+	}
+
+	private static void readCompoundList(NbtScanner scanner,
+			Collection<CompoundTag> result) throws IOException {
+		int length = scanner.readListHeader();
+		int itemType = scanner.listType();
+		for (int i = 0; i < length; ++i) {
+			if (itemType == NbtScanner.TAG_COMPOUND) {
+				SpecificTag tag = scanner.readTag(itemType);
+				if (tag.isCompoundTag()) {
+					result.add((CompoundTag) tag);
+				}
+			} else {
+				scanner.skip(itemType);
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if the chunk had a section list
+	 */
+	public boolean hasSections() {
+		return haveSections;
+	}
+
+	/**
+	 * @return {@code true} if complete biome data was read
+	 */
+	public boolean hasBiomes() {
+		return haveBiomes;
+	}
+
+	/**
+	 * @return {@code true} if a complete heightmap was read
+	 */
+	public boolean hasHeightmap() {
+		return haveHeightmap;
+	}
+
+	/**
+	 * @return {@code true} if the entity and tile entity lists were read
+	 */
+	public boolean hasEntities() {
+		return haveEntities && haveTileEntities;
+	}
+}
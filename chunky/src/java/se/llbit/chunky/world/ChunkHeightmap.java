@@ -30,7 +30,7 @@ public class ChunkHeightmap {
 	 * Create new heightmap
 	 */
 	public ChunkHeightmap() {
-		for (int i = 0; i < (Chunk.X_MAX * Chunk.Z_MAX); ++i)
+		for (int i = 0; i < data.length; ++i)
 			data[i] = World.SEA_LEVEL;
 	}
 
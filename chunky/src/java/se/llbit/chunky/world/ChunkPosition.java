@@ -16,19 +16,20 @@
  */
 package se.llbit.chunky.world;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A chunk position consists of two integer coordinates x and z.
  *
  * The filename of a chunk is uniquely defined by it's position.
  *
+ * <p>Chunk positions are immutable values and should be compared with
+ * {@link #equals}. Recently used positions are cached so that
+ * {@link #get(int, int)} usually does not allocate.
+ *
  * @author Jesper Öqvist (jesper@llbit.se)
  */
 @SuppressWarnings("javadoc")
 public class ChunkPosition {
-	public int x, z;
+	public final int x, z;
 
 	private ChunkPosition(int x, int z) {
 		this.x = x;
@@ -44,22 +45,45 @@ public class ChunkPosition {
 		return get(x >> 5, z >> 5);
 	}
 
-	private final static Map<Integer, Map<Integer, ChunkPosition>> map =
-			new HashMap<Integer, Map<Integer,ChunkPosition>>();
-
-	public synchronized static ChunkPosition get(int x, int z) {
-		Map<Integer, ChunkPosition> submap = map.get(x);
-		if (submap == null) {
-			submap = new HashMap<Integer, ChunkPosition>();
-			map.put(x, submap);
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
 		}
+		if (obj instanceof ChunkPosition) {
+			ChunkPosition other = (ChunkPosition) obj;
+			return x == other.x && z == other.z;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash(x, z);
+	}
+
+	private static int hash(int x, int z) {
+		int h = x * 0x9E3779B1 + z;
+		return h ^ (h >>> 16);
+	}
+
+	private static final int CACHE_SIZE = 4096;
 
-		ChunkPosition chunkPosition = submap.get(z);
-		if (chunkPosition == null) {
+	/**
+	 * Direct-mapped cache of recently used positions. The cache is read and
+	 * written without locking: the fields of a position are final, so a
+	 * racing thread sees either a complete position or a stale entry, and
+	 * a stale entry is just a cache miss.
+	 */
+	private static final ChunkPosition[] cache = new ChunkPosition[CACHE_SIZE];
+
+	public static ChunkPosition get(int x, int z) {
+		int index = hash(x, z) & (CACHE_SIZE - 1);
+		ChunkPosition chunkPosition = cache[index];
+		if (chunkPosition == null || chunkPosition.x != x || chunkPosition.z != z) {
 			chunkPosition = new ChunkPosition(x, z);
-			submap.put(z, chunkPosition);
+			cache[index] = chunkPosition;
 		}
-
 		return chunkPosition;
 	}
 
@@ -20,13 +20,18 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+import se.llbit.math.Vector4d;
+
 /**
  * Chunk texture
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class ChunkTexture {
 
-	float[][] data = new float[Chunk.X_MAX * Chunk.Z_MAX][3];
+	/**
+	 * RGB components, three floats per column.
+	 */
+	final float[] data = new float[Chunk.X_MAX * Chunk.Z_MAX * 3];
 
 	/**
 	 * Create new texture
@@ -41,20 +46,23 @@ public class ChunkTexture {
 	 * @param frgb RGB color components to set
 	 */
 	public void set(int x, int z, float[] frgb) {
-		int index = x + z * Chunk.X_MAX;
-		data[index][0] = frgb[0];
-		data[index][1] = frgb[1];
-		data[index][2] = frgb[2];
+		int index = (x + z * Chunk.X_MAX) * 3;
+		data[index] = frgb[0];
+		data[index+1] = frgb[1];
+		data[index+2] = frgb[2];
 	}
 
 	/**
+	 * Multiply the RGB components of a color by the color at (x, z)
 	 * @param x
 	 * @param z
-	 * @return RGB color components at (x, z)
+	 * @param color
 	 */
-	public float[] get(int x, int z) {
-		int index = x + z * Chunk.X_MAX;
-		return data[index];
+	public void tint(int x, int z, Vector4d color) {
+		int index = (x + z * Chunk.X_MAX) * 3;
+		color.x *= data[index];
+		color.y *= data[index+1];
+		color.z *= data[index+2];
 	}
 
 	/**
@@ -63,10 +71,8 @@ public class ChunkTexture {
 	 * @throws IOException
 	 */
 	public void store(DataOutputStream out) throws IOException {
-		for (int i = 0; i < Chunk.X_MAX * Chunk.Z_MAX; ++i) {
-			out.writeFloat(data[i][0]);
-			out.writeFloat(data[i][1]);
-			out.writeFloat(data[i][2]);
+		for (int i = 0; i < data.length; ++i) {
+			out.writeFloat(data[i]);
 		}
 	}
 
@@ -78,10 +84,8 @@ public class ChunkTexture {
 	 */
 	public static ChunkTexture load(DataInputStream in) throws IOException {
 		ChunkTexture texture = new ChunkTexture();
-		for (int i = 0; i < Chunk.X_MAX * Chunk.Z_MAX; ++i) {
-			texture.data[i][0] = in.readFloat();
-			texture.data[i][1] = in.readFloat();
-			texture.data[i][2] = in.readFloat();
+		for (int i = 0; i < texture.data.length; ++i) {
+			texture.data[i] = in.readFloat();
 		}
 		return texture;
 	}
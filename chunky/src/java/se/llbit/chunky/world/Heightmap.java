@@ -16,17 +16,48 @@
  */
 package se.llbit.chunky.world;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Chunk heightmap.
+ *
+ * <p>The heights are stored in tiles of two by two chunks. The tiles are
+ * grouped in region-sized pages that are kept in a hash map, so that distant
+ * parts of the map do not need storage for the area between them.
+ * Reading and writing do not lock. Columns outside the stored tiles have
+ * height {@link World#SEA_LEVEL}.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class Heightmap {
 
-	private Map<ChunkPosition, ChunkHeightmap> map =
-			new HashMap<ChunkPosition, ChunkHeightmap>();
+	/**
+	 * A page holds 16 by 16 tiles, the size of one region.
+	 */
+	private static final int PAGE_BITS = 4;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private static final class Page {
+		final ChunkPosition position;
+		final AtomicReferenceArray<ChunkHeightmap> tiles =
+				new AtomicReferenceArray<ChunkHeightmap>(PAGE_SIZE * PAGE_SIZE);
+
+		Page(ChunkPosition position) {
+			this.position = position;
+		}
+	}
+
+	private final ConcurrentMap<ChunkPosition, Page> pages =
+			new ConcurrentHashMap<ChunkPosition, Page>();
+
+	/**
+	 * The most recently used page. Neighbouring columns are usually
+	 * accessed together, so this saves most hash lookups.
+	 */
+	private volatile Page lastPage = null;
 
 	/**
 	 * Set height y at (x, z)
@@ -34,12 +65,28 @@ public class Heightmap {
 	 * @param x
 	 * @param z
 	 */
-	public synchronized void set(int y, int x, int z) {
-		ChunkPosition cp = ChunkPosition.get(x >> 5, z >> 5);
-		ChunkHeightmap hm = map.get(cp);
+	public void set(int y, int x, int z) {
+		int tx = x >> 5;
+		int tz = z >> 5;
+		Page page = page(tx >> PAGE_BITS, tz >> PAGE_BITS);
+		if (page == null) {
+			ChunkPosition pos = ChunkPosition.get(tx >> PAGE_BITS, tz >> PAGE_BITS);
+			Page newPage = new Page(pos);
+			page = pages.putIfAbsent(pos, newPage);
+			if (page == null) {
+				page = newPage;
+			}
+			lastPage = page;
+		}
+		int index = (tx & PAGE_MASK) + (tz & PAGE_MASK) * PAGE_SIZE;
+		ChunkHeightmap hm = page.tiles.get(index);
 		if (hm == null) {
-			hm = new ChunkHeightmap();
-			map.put(cp, hm);
+			ChunkHeightmap newTile = new ChunkHeightmap();
+			if (page.tiles.compareAndSet(index, null, newTile)) {
+				hm = newTile;
+			} else {
+				hm = page.tiles.get(index);
+			}
 		}
 		hm.set(y, x & 0x1F, z & 0x1F);
 	}
@@ -49,14 +96,36 @@ public class Heightmap {
 	 * @param z
 	 * @return Height at (x, z)
 	 */
-	public synchronized int get(int x, int z) {
-		ChunkPosition cp = ChunkPosition.get(x >> 5, z >> 5);
-		ChunkHeightmap hm = map.get(cp);
+	public int get(int x, int z) {
+		int tx = x >> 5;
+		int tz = z >> 5;
+		Page page = page(tx >> PAGE_BITS, tz >> PAGE_BITS);
+		if (page == null) {
+			return World.SEA_LEVEL;
+		}
+		ChunkHeightmap hm = page.tiles.get((tx & PAGE_MASK) + (tz & PAGE_MASK) * PAGE_SIZE);
 		if (hm == null) {
-			hm = new ChunkHeightmap();
-			map.put(cp, hm);
+			return World.SEA_LEVEL;
 		}
 		return hm.get(x & 0x1F, z & 0x1F);
 	}
 
+	/**
+	 * @param px page x coordinate
+	 * @param pz page z coordinate
+	 * @return The page at the given coordinates, or {@code null} if there
+	 * is no page there
+	 */
+	private Page page(int px, int pz) {
+		Page page = lastPage;
+		if (page != null && page.position.x == px && page.position.z == pz) {
+			return page;
+		}
+		page = pages.get(ChunkPosition.get(px, pz));
+		if (page != null) {
+			lastPage = page;
+		}
+		return page;
+	}
+
 }
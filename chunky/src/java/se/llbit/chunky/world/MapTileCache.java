@@ -0,0 +1,413 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.log.Log;
+
+/**
+ * Persistent cache of parsed map layers.
+ *
+ * <p>The cache has one memory mapped file per region, dimension and layer.
+ * Each file has a fixed size record for every chunk in the region. A
+ * record starts with the region file timestamp of the chunk it was
+ * generated from, so a record is only used if the chunk has not been
+ * modified since. Reopening a world then only requires parsing the chunks
+ * that changed.
+ *
+ * <p>Surface colors depend on the loaded textures, so the surface files
+ * also store a palette stamp computed from the block colors. The files
+ * are cleared when the stamp does not match.
+ *
+ * <p>The cache also stores an overview of each layer: the average color and
+ * timestamp of every chunk, grouped in files covering 8x8 regions. The map
+ * draws one pixel per chunk when zoomed out, so a zoomed out view can be
+ * rendered from a few overview files without parsing any chunks.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class MapTileCache {
+
+	/**
+	 * The cached map layers.
+	 */
+	public enum Layer {
+		/** Surface colors and heightmap values. */
+		SURFACE(Chunk.X_MAX * Chunk.Z_MAX, Chunk.X_MAX * Chunk.Z_MAX),
+
+		/** Biome IDs. */
+		BIOMES(0, Chunk.X_MAX * Chunk.Z_MAX),
+
+		/** Cave depths. */
+		CAVES(0, Chunk.X_MAX * Chunk.Z_MAX);
+
+		/**
+		 * Number of ints per chunk
+		 */
+		public final int ints;
+
+		/**
+		 * Number of bytes per chunk, after the ints
+		 */
+		public final int bytes;
+
+		Layer(int ints, int bytes) {
+			this.ints = ints;
+			this.bytes = bytes;
+		}
+
+		int recordSize() {
+			return 4 + 4 * ints + bytes;
+		}
+	}
+
+	private static final int MAGIC = 0x54494C45;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Header: magic, version, palette stamp.
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	private static final int NUM_CHUNKS = Region.CHUNKS_X * Region.CHUNKS_Z;
+
+	/**
+	 * Each overview file covers 2^OVERVIEW_BITS by 2^OVERVIEW_BITS regions.
+	 */
+	private static final int OVERVIEW_BITS = 3;
+
+	private static final int OVERVIEW_CHUNKS = NUM_CHUNKS << (2 * OVERVIEW_BITS);
+
+	/**
+	 * Overview record: timestamp, color.
+	 */
+	private static final int OVERVIEW_RECORD_SIZE = 8;
+
+	private static final int MAX_OVERVIEWS = 16;
+
+	/**
+	 * Maximum number of mapped cache files. Mappings are only released by
+	 * the garbage collector, so this also bounds the address space used.
+	 */
+	private static final int MAX_MAPPINGS = 64;
+
+	private final Map<File, MappedByteBuffer> mappings =
+			new LinkedHashMap<File, MappedByteBuffer>(MAX_MAPPINGS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, MappedByteBuffer> eldest) {
+			return size() > MAX_MAPPINGS;
+		}
+	};
+
+	private final Map<Long, MappedByteBuffer> overviews =
+			new LinkedHashMap<Long, MappedByteBuffer>(MAX_OVERVIEWS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+			return size() > MAX_OVERVIEWS;
+		}
+	};
+
+	private final File directory;
+	private final int palette;
+	private volatile boolean enabled;
+
+	/**
+	 * @param directory the cache directory
+	 * @param palette palette stamp for the surface layer
+	 */
+	public MapTileCache(File directory, int palette) {
+		this.directory = directory;
+		this.palette = palette;
+		this.enabled = PersistentSettings.getCacheMapTiles();
+	}
+
+	/**
+	 * Create the tile cache for a world. The cache is stored in the
+	 * settings directory, in a subdirectory named after the world directory.
+	 * @param world
+	 * @return The tile cache for the world
+	 */
+	public static MapTileCache forWorld(World world) {
+		File worldDir = world.getWorldDirectory();
+		String name = String.format("%s-%08x", worldDir.getName().replaceAll("[^a-zA-Z0-9_-]", "_"),
+				worldDir.getAbsolutePath().hashCode());
+		File cacheDir = new File(new File(PersistentSettings.getSettingsDirectory(), "cache"), name);
+		return new MapTileCache(cacheDir, surfacePalette());
+	}
+
+	/**
+	 * @return A stamp identifying the currently loaded block colors
+	 */
+	private static int surfacePalette() {
+		int hash = 0;
+		for (int id = 0; id < 256; ++id) {
+			Block block = Block.get(id);
+			for (int data = 0; data < 16; ++data) {
+				hash = hash * 31 + block.getTexture(data).getAvgColor();
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Read a cached chunk record.
+	 * @param layer
+	 * @param dimension
+	 * @param pos chunk position
+	 * @param timestamp region file timestamp of the chunk
+	 * @param ints destination for the int data, may be {@code null} if
+	 * the layer has no int data
+	 * @param bytes destination for the byte data
+	 * @return {@code true} if the chunk was cached with the given timestamp
+	 * and the record was not rewritten while it was read
+	 */
+	public boolean read(Layer layer, int dimension, ChunkPosition pos, int timestamp,
+			int[] ints, byte[] bytes) {
+		if (!enabled || timestamp == 0) {
+			return false;
+		}
+		MappedByteBuffer buffer = mapping(layer, dimension, pos);
+		if (buffer == null) {
+			return false;
+		}
+		int record = recordOffset(layer, pos);
+		if (buffer.getInt(record) != timestamp) {
+			return false;
+		}
+		int offset = record + 4;
+		for (int i = 0; i < layer.ints; ++i) {
+			ints[i] = buffer.getInt(offset);
+			offset += 4;
+		}
+		for (int i = 0; i < layer.bytes; ++i) {
+			bytes[i] = buffer.get(offset++);
+		}
+		// the record is cleared while it is rewritten, so if the timestamp
+		// still matches the data was not modified while it was copied
+		return buffer.getInt(record) == timestamp;
+	}
+
+	/**
+	 * Store a chunk record.
+	 * @param layer
+	 * @param dimension
+	 * @param pos chunk position
+	 * @param timestamp region file timestamp of the chunk
+	 * @param ints the int data, may be {@code null} if the layer has no
+	 * int data
+	 * @param bytes the byte data
+	 */
+	public void write(Layer layer, int dimension, ChunkPosition pos, int timestamp,
+			int[] ints, byte[] bytes) {
+		if (!enabled || timestamp == 0) {
+			return;
+		}
+		MappedByteBuffer buffer = mapping(layer, dimension, pos);
+		if (buffer == null) {
+			return;
+		}
+		int record = recordOffset(layer, pos);
+		// the record is invalid while it is written
+		buffer.putInt(record, 0);
+		int offset = record + 4;
+		for (int i = 0; i < layer.ints; ++i) {
+			buffer.putInt(offset, ints[i]);
+			offset += 4;
+		}
+		for (int i = 0; i < layer.bytes; ++i) {
+			buffer.put(offset++, bytes[i]);
+		}
+		buffer.putInt(record, timestamp);
+	}
+
+	/**
+	 * Read the overview color of a chunk.
+	 * @param layer
+	 * @param dimension
+	 * @param pos chunk position
+	 * @return The average layer color the chunk had when it was last
+	 * parsed, or 0 if the chunk has no overview color
+	 */
+	public int overviewColor(Layer layer, int dimension, ChunkPosition pos) {
+		if (!enabled) {
+			return 0;
+		}
+		MappedByteBuffer buffer = overview(layer, dimension, pos);
+		if (buffer == null) {
+			return 0;
+		}
+		int offset = overviewOffset(pos);
+		int timestamp = buffer.getInt(offset);
+		if (timestamp == 0) {
+			return 0;
+		}
+		int color = buffer.getInt(offset + 4);
+		return buffer.getInt(offset) == timestamp ? color : 0;
+	}
+
+	/**
+	 * @param layer
+	 * @param dimension
+	 * @param pos chunk position
+	 * @param timestamp region file timestamp of the chunk
+	 * @return {@code true} if the overview color of the chunk was
+	 * generated from the chunk with the given timestamp
+	 */
+	public boolean hasOverview(Layer layer, int dimension, ChunkPosition pos,
+			int timestamp) {
+		if (!enabled || timestamp == 0) {
+			return false;
+		}
+		MappedByteBuffer buffer = overview(layer, dimension, pos);
+		return buffer != null && buffer.getInt(overviewOffset(pos)) == timestamp;
+	}
+
+	/**
+	 * Store the overview color of a chunk.
+	 * @param layer
+	 * @param dimension
+	 * @param pos chunk position
+	 * @param timestamp region file timestamp of the chunk
+	 * @param color average layer color of the chunk
+	 */
+	public void writeOverview(Layer layer, int dimension, ChunkPosition pos,
+			int timestamp, int color) {
+		if (!enabled || timestamp == 0) {
+			return;
+		}
+		MappedByteBuffer buffer = overview(layer, dimension, pos);
+		if (buffer == null) {
+			return;
+		}
+		int record = overviewOffset(pos);
+		buffer.putInt(record, 0);
+		buffer.putInt(record + 4, color);
+		buffer.putInt(record, timestamp);
+	}
+
+	private static int overviewOffset(ChunkPosition pos) {
+		int mask = (32 << OVERVIEW_BITS) - 1;
+		int x = pos.x & mask;
+		int z = pos.z & mask;
+		int region = (x >> 5) + (z >> 5) * (1 << OVERVIEW_BITS);
+		return HEADER_SIZE + (region * NUM_CHUNKS + (x & 31) + (z & 31) * 32)
+				* OVERVIEW_RECORD_SIZE;
+	}
+
+	private static int recordOffset(Layer layer, ChunkPosition pos) {
+		return HEADER_SIZE + ((pos.x & 31) + (pos.z & 31) * 32) * layer.recordSize();
+	}
+
+	/**
+	 * Find the mapped cache file for a region, mapping the file if needed.
+	 * @return {@code null} if the cache file could not be mapped
+	 */
+	private MappedByteBuffer mapping(Layer layer, int dimension, ChunkPosition pos) {
+		File file = new File(new File(directory, "DIM" + dimension),
+				String.format("%s.%d.%d.bin", layer.name().toLowerCase(), pos.x >> 5, pos.z >> 5));
+		synchronized (mappings) {
+			MappedByteBuffer buffer = mappings.get(file);
+			if (buffer != null) {
+				return buffer;
+			}
+			try {
+				buffer = map(file, NUM_CHUNKS, layer.recordSize(),
+						layer == Layer.SURFACE ? palette : 0);
+				mappings.put(file, buffer);
+				return buffer;
+			} catch (IOException e) {
+				Log.warn("Disabling the map tile cache: " + e.getMessage());
+				enabled = false;
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Find the mapped overview file for a chunk, mapping the file if needed.
+	 * The overview is looked up for every chunk drawn in a zoomed out map,
+	 * so the mappings are keyed by a packed long rather than by file.
+	 * @return {@code null} if the overview file could not be mapped
+	 */
+	private MappedByteBuffer overview(Layer layer, int dimension, ChunkPosition pos) {
+		int sx = pos.x >> (5 + OVERVIEW_BITS);
+		int sz = pos.z >> (5 + OVERVIEW_BITS);
+		long key = ((long) (layer.ordinal() * 4 + (dimension & 3)) << 48)
+				| ((long) (sx & 0xFFFFFF) << 24) | (sz & 0xFFFFFF);
+		synchronized (overviews) {
+			MappedByteBuffer buffer = overviews.get(key);
+			if (buffer != null) {
+				return buffer;
+			}
+			File file = new File(new File(directory, "DIM" + dimension),
+					String.format("%s.overview.%d.%d.bin", layer.name().toLowerCase(), sx, sz));
+			try {
+				buffer = map(file, OVERVIEW_CHUNKS, OVERVIEW_RECORD_SIZE,
+						layer == Layer.SURFACE ? palette : 0);
+				overviews.put(key, buffer);
+				return buffer;
+			} catch (IOException e) {
+				Log.warn("Disabling the map tile cache: " + e.getMessage());
+				enabled = false;
+				return null;
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(File file, int records, int recordSize,
+			int palette) throws IOException {
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create directory " + parent.getAbsolutePath());
+		}
+		long size = HEADER_SIZE + (long) records * recordSize;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() != size) {
+				raf.setLength(0);
+				raf.setLength(size);
+			}
+			// the mapping stays valid after the file is closed
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+					|| buffer.getInt(8) != palette) {
+				for (int i = 0; i < records; ++i) {
+					buffer.putInt(HEADER_SIZE + i * recordSize, 0);
+				}
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, palette);
+			}
+			return buffer;
+		} finally {
+			raf.close();
+		}
+	}
+}
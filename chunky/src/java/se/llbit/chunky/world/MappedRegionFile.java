@@ -0,0 +1,203 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import se.llbit.log.Log;
+import se.llbit.util.ByteBufferInputStream;
+
+/**
+ * A memory mapped region file.
+ *
+ * <p>Region files are mapped once and the mappings are shared through
+ * a bounded cache, so that reading a chunk does not need to open the
+ * region file. A mapping is replaced when the modification time or length
+ * of the region file changes. The location and timestamp tables are read
+ * from the mapping on every access, so header updates written to the file
+ * in place are seen even if they do not change the modification time.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class MappedRegionFile {
+
+	/**
+	 * Sector size in bytes.
+	 */
+	private static final int SECTOR_SIZE = 4096;
+
+	/**
+	 * Maximum number of mapped region files. Mappings are only released
+	 * by the garbage collector, so this also bounds the address space used.
+	 */
+	private static final int MAX_MAPPINGS = 32;
+
+	private static final Map<File, MappedRegionFile> cache =
+			new LinkedHashMap<File, MappedRegionFile>(MAX_MAPPINGS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, MappedRegionFile> eldest) {
+			return size() > MAX_MAPPINGS;
+		}
+	};
+
+	private final long lastModified;
+	private final long length;
+	private final ByteBuffer buffer;
+
+	private MappedRegionFile(File file, long lastModified, long length)
+			throws IOException {
+		this.lastModified = lastModified;
+		this.length = length;
+		if (length < 2*SECTOR_SIZE) {
+			throw new IOException("Missing header in region file!");
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Region file is too large!");
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid after the file is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the mapping for a region file, mapping the file if needed.
+	 * @param file
+	 * @return The mapped region file
+	 * @throws IOException if the file could not be mapped
+	 */
+	public static MappedRegionFile get(File file) throws IOException {
+		long lastModified = file.lastModified();
+		long length = file.length();
+		synchronized (cache) {
+			MappedRegionFile region = cache.get(file);
+			if (region != null && region.lastModified == lastModified
+					&& region.length == length) {
+				return region;
+			}
+		}
+		MappedRegionFile region = new MappedRegionFile(file, lastModified, length);
+		synchronized (cache) {
+			cache.put(file, region);
+		}
+		return region;
+	}
+
+	/**
+	 * Drop the cached mapping for a region file. This should be called
+	 * after the region file is modified.
+	 * @param file
+	 */
+	public static void invalidate(File file) {
+		synchronized (cache) {
+			cache.remove(file);
+		}
+	}
+
+	/**
+	 * Drop the cached mappings of all region files in a directory tree.
+	 * This should be called when a world is closed. The mapped memory, and
+	 * on some platforms the lock on the file, is released when the mapping
+	 * is garbage collected. Java 6 has no safe way to unmap a buffer that
+	 * other threads may still read.
+	 * @param directory
+	 */
+	public static void release(File directory) {
+		String prefix = directory.getAbsolutePath() + File.separator;
+		synchronized (cache) {
+			Iterator<File> iter = cache.keySet().iterator();
+			while (iter.hasNext()) {
+				if (iter.next().getAbsolutePath().startsWith(prefix)) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the location table entry for a chunk from the mapped header.
+	 * @param index chunk index in the region
+	 * @return The location table entry for the chunk
+	 */
+	public int getLocation(int index) {
+		return buffer.getInt(index * 4);
+	}
+
+	/**
+	 * Read the timestamp table entry for a chunk from the mapped header.
+	 * @param index chunk index in the region
+	 * @return The timestamp table entry for the chunk
+	 */
+	public int getTimestamp(int index) {
+		return buffer.getInt(SECTOR_SIZE + index * 4);
+	}
+
+	/**
+	 * Open the compressed data of a chunk. The data is read directly from
+	 * the mapped file.
+	 * @param index chunk index in the region
+	 * @return {@code null} if the chunk could not be loaded
+	 * @throws IOException
+	 */
+	public ChunkDataSource getChunkData(int index) throws IOException {
+		int loc = getLocation(index);
+		if (loc == 0) {
+			// the chunk does not exist
+			return null;
+		}
+		int numSectors = loc & 0xFF;
+		int sectorOffset = loc >> 8;
+		if (length < (sectorOffset + numSectors) * (long) SECTOR_SIZE) {
+			Log.warn("Chunk is outside region file!");
+			return null;
+		}
+		int offset = sectorOffset * SECTOR_SIZE;
+		int chunkSize = buffer.getInt(offset);
+		if (chunkSize < 1 || chunkSize + 4 > numSectors * SECTOR_SIZE) {
+			Log.warn("Error: chunk length does not fit in allocated sectors!");
+			return null;
+		}
+		byte type = buffer.get(offset + 4);
+		if (type != 1 && type != 2) {
+			Log.warn("Error: unknown chunk data compression method: " + type + "!");
+			return null;
+		}
+		ByteBuffer data = buffer.duplicate();
+		data.limit(offset + 4 + chunkSize);
+		data.position(offset + 5);
+		ByteBufferInputStream in = new ByteBufferInputStream(data.slice());
+		if (type == 1) {
+			return new ChunkDataSource(getTimestamp(index), new GZIPInputStream(in));
+		} else {
+			return new ChunkDataSource(getTimestamp(index), new InflaterInputStream(in));
+		}
+	}
+}
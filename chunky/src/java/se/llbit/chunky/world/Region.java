@@ -16,15 +16,12 @@
  */
 package se.llbit.chunky.world;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 import se.llbit.log.Log;
 
@@ -118,19 +115,13 @@ public class Region implements Iterable<Chunk> {
 		if (!regionFile.isFile()) {
 			return;
 		}
-		RandomAccessFile file = null;
 		try {
 			long modtime = regionFile.lastModified();
 			if (regionFileTime == modtime) {
 				return;
 			}
 			regionFileTime = modtime;
-			file = new RandomAccessFile(regionFile, "r");
-			long length = file.length();
-			if (length < 2*SECTOR_SIZE) {
-				Log.warn("Missing header in region file!");
-				return;
-			}
+			MappedRegionFile file = MappedRegionFile.get(regionFile);
 
 			for (int z = 0; z < 32; ++z) {
 				for (int x = 0; x < 32; ++x) {
@@ -138,7 +129,7 @@ public class Region implements Iterable<Chunk> {
 							(position.x<<5) + x,
 							(position.z<<5) + z);
 					Chunk chunk = getChunk(x, z);
-					int loc = file.readInt();
+					int loc = file.getLocation(x + z*32);
 					if (loc != 0) {
 						if (chunk.isEmpty()) {
 							chunk = new Chunk(pos, world);
@@ -153,20 +144,13 @@ public class Region implements Iterable<Chunk> {
 			}
 
 			for (int i = 0; i < NUM_CHUNKS; ++i) {
-				chunkTimestamps[i] = file.readInt();
+				chunkTimestamps[i] = file.getTimestamp(i);
 			}
 
 			world.regionUpdated(position);
 
 		} catch (IOException e) {
 			Log.warn("Failed to read region: " + e.getMessage());
-		} finally {
-			if (file != null) {
-				try {
-					file.close();
-				} catch (IOException e) {
-				}
-			}
 		}
 	}
 
@@ -230,59 +214,12 @@ public class Region implements Iterable<Chunk> {
 	public static ChunkDataSource getChunkData(File regionFile, ChunkPosition chunkPos) {
 		int x = chunkPos.x & 31;
 		int z = chunkPos.z & 31;
-		int index = x + z * 32;
-		RandomAccessFile file = null;
 		try {
-			file = new RandomAccessFile(regionFile, "r");
-			long length = file.length();
-			if (length < 2*SECTOR_SIZE) {
-				Log.warn("Missing header in region file!");
-				return null;
-			}
-			file.seek(4 * index);
-			int loc = file.readInt();
-			int numSectors = loc & 0xFF;
-			int sectorOffset = loc >> 8;
-			file.seek(SECTOR_SIZE + 4 * index);
-			int timestamp = file.readInt();
-			if (length < (sectorOffset + numSectors) * SECTOR_SIZE) {
-				System.err.println("Chunk is outside region file!");
-				return null;
-			}
-			file.seek(sectorOffset * SECTOR_SIZE);
-
-			int chunkSize = file.readInt();
-
-			if (chunkSize > numSectors * SECTOR_SIZE) {
-				System.err.println("Error: chunk length does not fit in allocated sectors!");
-				return null;
-			}
-
-			byte type = file.readByte();
-			if (type != 1 && type != 2) {
-				System.err.println("Error: unknown chunk data compression method: " + type + "!");
-				return null;
-			}
-			byte[] buf = new byte[chunkSize - 1];
-			file.read(buf);
-			ByteArrayInputStream in = new ByteArrayInputStream(buf);
-			if (type == 1) {
-				return new ChunkDataSource(timestamp, new GZIPInputStream(in));
-			} else if (type == 2) {
-				return new ChunkDataSource(timestamp, new InflaterInputStream(in));
-			}
-
+			return MappedRegionFile.get(regionFile).getChunkData(x + z * 32);
 		} catch (IOException e) {
 			Log.warn("Failed to read chunk: " + e.getMessage());
-		} finally {
-			if (file != null) {
-				try {
-					file.close();
-				} catch (IOException e) {
-				}
-			}
+			return null;
 		}
-		return null;
 	}
 
 	/**
@@ -306,6 +243,7 @@ public class Region implements Iterable<Chunk> {
 			}
 			file.seek(4 * index);
 			file.writeInt(0);
+			MappedRegionFile.invalidate(regionFile);
 		} catch (IOException e) {
 			Log.warningfmt("Failed to delete chunk: %s", e.getMessage());
 		} finally {
@@ -396,6 +334,15 @@ public class Region implements Iterable<Chunk> {
 		return timestamp != chunkTimestamps[(chunkPos.x&31)+(chunkPos.z&31)*32];
 	}
 
+	/**
+	 * @param chunkPos
+	 * @return The region file timestamp of the chunk, or zero if the
+	 * chunk timestamp is not known
+	 */
+	public int getChunkTimestamp(ChunkPosition chunkPos) {
+		return chunkTimestamps[(chunkPos.x&31)+(chunkPos.z&31)*32];
+	}
+
 	@Override
 	public Iterator<Chunk> iterator() {
 		return new Iterator<Chunk>() {
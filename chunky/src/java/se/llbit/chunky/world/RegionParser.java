@@ -52,7 +52,8 @@ public class RegionParser extends Thread {
 				Region region = chunky.getWorld().getRegion(position);
 				region.parse();
 				for (Chunk chunk: region) {
-					if (map.isVisible(chunk)) {
+					// the view may have moved while the region was parsed
+					if (chunky.getMapView().isVisible(chunk)) {
 						chunk.loadChunk(chunky);
 					}
 				}
@@ -19,52 +19,133 @@ package se.llbit.chunky.world;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
 
 /**
  * Queue of region positions.
+ *
+ * <p>Regions are polled in order of distance from the center of the map
+ * view, so that the regions the user is looking at are parsed first.
+ * Regions that are neither visible in the map nor in the minimap are
+ * dropped when the view changes.
+ *
+ * <p>Polling scans all queued regions. The queue only holds regions around
+ * the current view, which are at most a few hundred.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class RegionQueue implements Queue<ChunkPosition> {
 
-	private final Queue<ChunkPosition> queue = new LinkedList<ChunkPosition>();
 	private final Set<ChunkPosition> set = new HashSet<ChunkPosition>();
 
+	private ChunkView map = null;
+	private ChunkView minimap = null;
+
+	private long added = 0;
+	private long dropped = 0;
+
+	/**
+	 * Update the view used to prioritize regions. Queued regions that are
+	 * not visible in either view are removed from the queue.
+	 * @param map the main map view
+	 * @param minimap the minimap view
+	 */
+	public synchronized void setView(ChunkView map, ChunkView minimap) {
+		this.map = map;
+		this.minimap = minimap;
+		Iterator<ChunkPosition> iter = set.iterator();
+		while (iter.hasNext()) {
+			ChunkPosition position = iter.next();
+			if (!isVisible(position)) {
+				iter.remove();
+				dropped += 1;
+			}
+		}
+	}
+
+	private boolean isVisible(ChunkPosition region) {
+		return map == null || map.isRegionVisible(region)
+				|| minimap.isRegionVisible(region);
+	}
+
+	/**
+	 * @return Squared distance from the region center to the map view
+	 * center
+	 */
+	private double distance(ChunkPosition region) {
+		double dx = region.x * 32 + 16 - map.x;
+		double dz = region.z * 32 + 16 - map.z;
+		return dx * dx + dz * dz;
+	}
+
 	@Override
 	public synchronized ChunkPosition poll() {
 		try {
-			while (queue.isEmpty()) {
+			while (set.isEmpty()) {
 				wait();
 			}
 		} catch (InterruptedException e) {
 			return null;
 		}
-		ChunkPosition position = queue.poll();
-		set.remove(position);
-		return position;
+		if (map == null) {
+			ChunkPosition next = set.iterator().next();
+			set.remove(next);
+			return next;
+		}
+		// regions visible in the main map come before regions only visible
+		// in the minimap, then regions closer to the view center come first
+		ChunkPosition next = null;
+		boolean bestVisible = false;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (ChunkPosition position: set) {
+			boolean visible = map.isRegionVisible(position);
+			double distance = distance(position);
+			if (next == null || (visible && !bestVisible)
+					|| (visible == bestVisible && distance < bestDistance)) {
+				next = position;
+				bestVisible = visible;
+				bestDistance = distance;
+			}
+		}
+		set.remove(next);
+		return next;
 	}
 
 	@Override
 	public synchronized boolean add(ChunkPosition position) {
 		if (!set.contains(position)) {
-			queue.add(position);
 			set.add(position);
+			added += 1;
 			notifyAll();
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * @return The total number of regions added to the queue
+	 */
+	public synchronized long addedCount() {
+		return added;
+	}
+
+	/**
+	 * @return The number of regions that were removed from the queue
+	 * because they were no longer visible
+	 */
+	public synchronized long droppedCount() {
+		return dropped;
+	}
+
 	@Override
 	public synchronized boolean isEmpty() {
-		return queue.isEmpty();
+		return set.isEmpty();
 	}
 
 	@Override
 	public synchronized int size() {
-		return queue.size();
+		return set.size();
 	}
 
 	@Override
@@ -79,18 +160,17 @@ public class RegionQueue implements Queue<ChunkPosition> {
 
 	@Override
 	public synchronized Object[] toArray() {
-		return queue.toArray();
+		return set.toArray();
 	}
 
 	@Override
 	public synchronized <T> T[] toArray(T[] a) {
-		return queue.toArray(a);
+		return set.toArray(a);
 	}
 
 	@Override
 	public synchronized boolean remove(Object o) {
-		set.remove(o);
-		return queue.remove(o);
+		return set.remove(o);
 	}
 
 	@Override
@@ -115,7 +195,6 @@ public class RegionQueue implements Queue<ChunkPosition> {
 
 	@Override
 	public synchronized void clear() {
-		queue.clear();
 		set.clear();
 	}
 
@@ -0,0 +1,178 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import java.io.IOException;
+
+/**
+ * A dense two-dimensional array of tiles indexed by tile coordinates.
+ *
+ * <p>The grid grows to cover every tile that has been added, so it is only
+ * suitable for bounded areas such as the loaded part of a scene. Lookups do
+ * not lock, so they may run concurrently with {@link #put}: the grid is
+ * replaced rather than modified when it grows.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ * @param <T> tile type
+ */
+final class TileGrid<T> {
+
+	/**
+	 * Tile visitor.
+	 * @param <T> tile type
+	 */
+	interface Visitor<T> {
+		/**
+		 * @param tx tile x coordinate
+		 * @param tz tile z coordinate
+		 * @param tile
+		 * @throws IOException
+		 */
+		void visit(int tx, int tz, T tile) throws IOException;
+	}
+
+	private static final class Grid {
+		final int x0;
+		final int z0;
+		final int width;
+		final int height;
+		final Object[] tiles;
+
+		Grid(int x0, int z0, int width, int height) {
+			this.x0 = x0;
+			this.z0 = z0;
+			this.width = width;
+			this.height = height;
+			tiles = new Object[width * height];
+		}
+	}
+
+	private volatile Grid grid = new Grid(0, 0, 0, 0);
+
+	private int size = 0;
+
+	/**
+	 * @param tx tile x coordinate
+	 * @param tz tile z coordinate
+	 * @return The tile at the given coordinates, or {@code null} if there
+	 * is no tile there
+	 */
+	@SuppressWarnings("unchecked")
+	T get(int tx, int tz) {
+		Grid g = grid;
+		int x = tx - g.x0;
+		int z = tz - g.z0;
+		if (x < 0 || z < 0 || x >= g.width || z >= g.height) {
+			return null;
+		}
+		return (T) g.tiles[x + z * g.width];
+	}
+
+	/**
+	 * Add a tile, growing the grid if needed.
+	 * @param tx tile x coordinate
+	 * @param tz tile z coordinate
+	 * @param tile
+	 */
+	synchronized void put(int tx, int tz, T tile) {
+		Grid g = grid;
+		int x = tx - g.x0;
+		int z = tz - g.z0;
+		if (x < 0 || z < 0 || x >= g.width || z >= g.height) {
+			g = grow(g, tx, tz);
+			x = tx - g.x0;
+			z = tz - g.z0;
+		}
+		if (g.tiles[x + z * g.width] == null) {
+			size += 1;
+		}
+		g.tiles[x + z * g.width] = tile;
+		grid = g;
+	}
+
+	/**
+	 * @param tx tile x coordinate
+	 * @param tz tile z coordinate
+	 * @param newTile tile to add if there is no tile at the given coordinates
+	 * @return The tile at the given coordinates
+	 */
+	synchronized T getOrPut(int tx, int tz, T newTile) {
+		T tile = get(tx, tz);
+		if (tile == null) {
+			put(tx, tz, newTile);
+			tile = newTile;
+		}
+		return tile;
+	}
+
+	/**
+	 * Double the grid in each direction that needs to grow, so that adding
+	 * tiles one at a time only copies the grid a logarithmic number of times.
+	 */
+	private static Grid grow(Grid g, int tx, int tz) {
+		Grid grown;
+		if (g.width == 0) {
+			grown = new Grid(tx, tz, 1, 1);
+		} else {
+			int x0 = g.x0;
+			int z0 = g.z0;
+			int x1 = g.x0 + g.width;
+			int z1 = g.z0 + g.height;
+			if (tx < x0) {
+				x0 = Math.min(tx, x0 - g.width);
+			} else if (tx >= x1) {
+				x1 = Math.max(tx + 1, x1 + g.width);
+			}
+			if (tz < z0) {
+				z0 = Math.min(tz, z0 - g.height);
+			} else if (tz >= z1) {
+				z1 = Math.max(tz + 1, z1 + g.height);
+			}
+			grown = new Grid(x0, z0, x1 - x0, z1 - z0);
+			for (int z = 0; z < g.height; ++z) {
+				System.arraycopy(g.tiles, z * g.width, grown.tiles,
+						(g.x0 - x0) + (g.z0 - z0 + z) * grown.width, g.width);
+			}
+		}
+		return grown;
+	}
+
+	/**
+	 * @return The number of tiles in the grid
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Visit all tiles in the grid.
+	 * @param visitor
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized void visit(Visitor<T> visitor) throws IOException {
+		Grid g = grid;
+		for (int z = 0; z < g.height; ++z) {
+			for (int x = 0; x < g.width; ++x) {
+				T tile = (T) g.tiles[x + z * g.width];
+				if (tile != null) {
+					visitor.visit(g.x0 + x, g.z0 + z, tile);
+				}
+			}
+		}
+	}
+}
@@ -97,6 +97,11 @@ public class World implements Comparable<World> {
 
 	private final Heightmap heightmap = new Heightmap();
 
+	/**
+	 * Cache of parsed map layers, created when first used.
+	 */
+	private MapTileCache tileCache = null;
+
 	private String levelName = "unknown";
 
 	private final Collection<ChunkDeletionListener> chunkDeletionListeners =
@@ -406,6 +411,16 @@ public class World implements Comparable<World> {
 		return heightmap;
 	}
 
+	/**
+	 * @return The map tile cache for this world
+	 */
+	public synchronized MapTileCache tileCache() {
+		if (tileCache == null) {
+			tileCache = MapTileCache.forWorld(this);
+		}
+		return tileCache;
+	}
+
 	/**
 	 * @return The world director
 	 */
@@ -458,6 +473,9 @@ public class World implements Comparable<World> {
 	 */
 	public synchronized void dispose() {
 		regionMap.clear();
+		if (worldDirectory != null) {
+			MappedRegionFile.release(worldDirectory);
+		}
 
 		synchronized (chunkDeletionListeners) {
 			chunkDeletionListeners.clear();
@@ -853,6 +871,10 @@ public class World implements Comparable<World> {
 	 */
 	public void reload() {
 		regionMap.clear();
+		synchronized (this) {
+			// the textures may have changed
+			tileCache = null;
+		}
 		loadAdditionalData(true);
 	}
 
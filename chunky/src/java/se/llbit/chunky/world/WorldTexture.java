@@ -19,17 +19,21 @@ package se.llbit.chunky.world;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+
+import se.llbit.math.Vector4d;
 
 /**
  * World texture.
+ *
+ * <p>The texture is stored in chunk-sized tiles in a dense grid, so that
+ * looking up a color does not allocate or lock. Columns outside the
+ * loaded tiles are black.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class WorldTexture {
 
-	private final Map<ChunkPosition, ChunkTexture> map =
-			new HashMap<ChunkPosition, ChunkTexture>();
+	private final TileGrid<ChunkTexture> tiles = new TileGrid<ChunkTexture>();
 
 	/**
 	 * Timestamp of last serialization.
@@ -43,28 +47,28 @@ public class WorldTexture {
 	 * @param frgb RGB color components
 	 */
 	public void set(int x, int z, float[] frgb) {
-		ChunkPosition cp = ChunkPosition.get(x >> 4, z >> 4);
-		ChunkTexture ct = map.get(cp);
+		ChunkTexture ct = tiles.get(x >> 4, z >> 4);
 		if (ct == null) {
-			ct = new ChunkTexture();
-			map.put(cp, ct);
+			ct = tiles.getOrPut(x >> 4, z >> 4, new ChunkTexture());
 		}
 		ct.set(x & 0xF, z & 0xF, frgb);
 	}
 
 	/**
+	 * Multiply the RGB components of a color by the texture color at (x, z)
 	 * @param x
 	 * @param z
-	 * @return RGB color components at (x, z)
+	 * @param color
 	 */
-	public float[] get(int x, int z) {
-		ChunkPosition cp = ChunkPosition.get(x >> 4, z >> 4);
-		ChunkTexture ct = map.get(cp);
-		if (ct == null) {
-			ct = new ChunkTexture();
-			map.put(cp, ct);
+	public void tint(int x, int z, Vector4d color) {
+		ChunkTexture ct = tiles.get(x >> 4, z >> 4);
+		if (ct != null) {
+			ct.tint(x & 0xF, z & 0xF, color);
+		} else {
+			color.x = 0;
+			color.y = 0;
+			color.z = 0;
 		}
-		return ct.get(x & 0xF, z & 0xF);
 	}
 
 	/**
@@ -72,15 +76,17 @@ public class WorldTexture {
 	 * @param out
 	 * @throws IOException
 	 */
-	public void store(DataOutputStream out) throws IOException {
-		out.writeInt(map.size());
-		for (Map.Entry<ChunkPosition, ChunkTexture> entry : map.entrySet()) {
-			ChunkPosition pos = entry.getKey();
-			ChunkTexture texture = entry.getValue();
-			out.writeInt(pos.x);
-			out.writeInt(pos.z);
-			texture.store(out);
-		}
+	public void store(final DataOutputStream out) throws IOException {
+		out.writeInt(tiles.size());
+		tiles.visit(new TileGrid.Visitor<ChunkTexture>() {
+			@Override
+			public void visit(int tx, int tz, ChunkTexture texture)
+					throws IOException {
+				out.writeInt(tx);
+				out.writeInt(tz);
+				texture.store(out);
+			}
+		});
 	}
 
 	/**
@@ -96,7 +102,7 @@ public class WorldTexture {
 			int x = in.readInt();
 			int z = in.readInt();
 			ChunkTexture tile = ChunkTexture.load(in);
-			texture.map.put(ChunkPosition.get(x, z), tile);
+			texture.tiles.put(x, z, tile);
 		}
 		return texture;
 	}
@@ -0,0 +1,468 @@
+/* Copyright (c) 2010-2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Octree implementation where each node is a separate object.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class NodeBasedOctree implements OctreeImplementation {
+
+	/**
+	 * Estimated heap size of a node object.
+	 */
+	private static final int NODE_SIZE = 24;
+
+	/**
+	 * Estimated heap size of a child array.
+	 */
+	private static final int CHILD_ARRAY_SIZE = 48;
+
+	/**
+	 * An Octree node
+	 */
+	public static final class Node {
+		/**
+		 * The node type. Type is -1 if it's a non-leaf node.
+		 */
+		public int type;
+
+		/**
+		 * Child array
+		 */
+		public Node[] children;
+
+		/**
+		 * Create new octree leaf node with the given type
+		 * @param type
+		 */
+		public Node(int type) {
+			this.type = type;
+		}
+
+		/**
+		 * Subdivide this leaf node
+		 */
+		public final void subdivide() {
+			children = new Node[8];
+			children[0] = new Node(type);
+			children[1] = new Node(type);
+			children[2] = new Node(type);
+			children[3] = new Node(type);
+			children[4] = new Node(type);
+			children[5] = new Node(type);
+			children[6] = new Node(type);
+			children[7] = new Node(type);
+			type = -1;
+		}
+
+		/**
+		 * Merge the leafs of this node and make this node a
+		 * leaf node.
+		 * @param newType
+		 */
+		public final void merge(int newType) {
+			type = newType;
+			children = null;
+		}
+
+		/**
+		 * @return Calculated data size, in bytes, to store this node
+		 */
+		public int dataSize() {
+			if (type != -1) {
+				return 1;
+			} else {
+				int total = 9;// type plus child indices
+				for (Node child: children)
+					total += child.dataSize();
+				return total;
+			}
+		}
+
+		/**
+		 * @return The number of nodes in the subtree rooted at this node
+		 */
+		public long nodeCount() {
+			long total = 1;
+			if (type == -1) {
+				for (Node child: children)
+					total += child.nodeCount();
+			}
+			return total;
+		}
+
+		/**
+		 * @param index
+		 * @param data
+		 * @return A dump of the octree data in this node
+		 */
+		public int dumpData(int index, int[] data) {
+			data[index++] = type;
+			if (type == -1) {
+				int childIndex = index;
+				index += 8;
+				for (int i = 0; i < 8; ++i) {
+					data[childIndex+i] = index;
+					index = children[i].dumpData(index, data);
+				}
+			}
+			return index;
+		}
+
+		/**
+		 * Serialize this node
+		 * @param out
+		 * @throws IOException
+		 */
+		public void store(DataOutputStream out) throws IOException {
+			out.writeInt(type);
+			if (type == -1) {
+				for (int i = 0; i < 8; ++i) {
+					children[i].store(out);
+				}
+			}
+		}
+
+		/**
+		 * Deserialize node
+		 * @param in
+		 * @throws IOException
+		 */
+		public void load(DataInputStream in) throws IOException {
+			type = in.readInt();
+			if (type == -1) {
+				children = new Node[8];
+				for (int i = 0; i < 8; ++i) {
+					children[i] = new Node(0);
+					children[i].load(in);
+				}
+			}
+		}
+
+		public void visit(OctreeVisitor visitor, int x, int y, int z, int depth) {
+			if (type == -1) {
+				int cx = x<<1;
+				int cy = y<<1;
+				int cz = z<<1;
+				children[0].visit(visitor, cx,   cy,   cz,   depth-1);
+				children[1].visit(visitor, cx,   cy,   cz|1, depth-1);
+				children[2].visit(visitor, cx,   cy|1, cz,   depth-1);
+				children[3].visit(visitor, cx,   cy|1, cz|1, depth-1);
+				children[4].visit(visitor, cx|1, cy,   cz,   depth-1);
+				children[5].visit(visitor, cx|1, cy,   cz|1, depth-1);
+				children[6].visit(visitor, cx|1, cy|1, cz,   depth-1);
+				children[7].visit(visitor, cx|1, cy|1, cz|1, depth-1);
+			} else {
+				visitor.visit(type, x<<depth, y<<depth, z<<depth, depth);
+			}
+		}
+	}
+
+	/**
+	 * Recursive depth of the octree
+	 */
+	private final int depth;
+
+	/**
+	 * Root node
+	 */
+	private final Node root;
+
+	private final Node[] parents;
+
+	/**
+	 * Structural modification stamp.
+	 */
+	private volatile int modCount = 0;
+
+	/**
+	 * Caches the path to the last accessed leaf.
+	 */
+	private final class NodeLookup implements Lookup {
+		private final Node[] cache = new Node[depth+1];
+		private int cx = 0;
+		private int cy = 0;
+		private int cz = 0;
+		private int cacheLevel;
+
+		NodeLookup() {
+			reset();
+		}
+
+		@Override
+		public int get(int x, int y, int z) {
+			return (int) getLeaf(x, y, z);
+		}
+
+		@Override
+		public long getLeaf(int x, int y, int z) {
+			// find the deepest cached node that contains the voxel
+			int level = cacheLevel;
+			while (level < depth && (((x ^ cx) | (y ^ cy) | (z ^ cz)) >>> level) != 0) {
+				level += 1;
+			}
+			Node node = cache[level];
+			while (node.type == -1) {
+				level -= 1;
+				node = node.children[(((x >>> level) & 1) << 2)
+						| (((y >>> level) & 1) << 1) | ((z >>> level) & 1)];
+				cache[level] = node;
+			}
+			cx = x;
+			cy = y;
+			cz = z;
+			cacheLevel = level;
+			return ((long) level << 32) | (node.type & 0xFFFFFFFFL);
+		}
+
+		@Override
+		public void reset() {
+			cache[depth] = root;
+			cacheLevel = depth;
+		}
+	}
+
+	/**
+	 * Create a new octree. The dimensions of the octree are 2^levels.
+	 * @param octreeDepth The number of levels in the octree.
+	 */
+	public NodeBasedOctree(int octreeDepth) {
+		depth = octreeDepth;
+		root = new Node(0);
+		parents = new Node[depth];
+	}
+
+	@Override
+	public synchronized void set(int type, int x, int y, int z) {
+		boolean structural = false;
+		try {
+			Node node = root;
+			int parentLvl = depth-1;
+			int level = parentLvl;
+			for (int i = depth-1; i >= 0; --i) {
+				level = i;
+				parents[i] = node;
+
+				if (node.type == type) {
+					return;
+				} else if (node.children == null) {
+					if (!structural) {
+						modCount += 1;
+						structural = true;
+					}
+					node.subdivide();
+					parentLvl = i;
+				}
+
+				int xbit = 1 & (x >> i);
+				int ybit = 1 & (y >> i);
+				int zbit = 1 & (z >> i);
+				node = node.children[(xbit<<2) | (ybit<<1) | zbit];
+
+			}
+			node.type = type;
+
+			// merge nodes where all children have been set to the same type
+			for (int i = level; i <= parentLvl; ++i) {
+				Node parent = parents[i];
+
+				boolean allSame = true;
+				for (Node child: parent.children) {
+					if (child.type != node.type) {
+						allSame = false;
+						break;
+					}
+				}
+
+				if (allSame) {
+					if (!structural) {
+						modCount += 1;
+						structural = true;
+					}
+					parent.merge(node.type);
+				} else {
+					break;
+				}
+			}
+		} finally {
+			if (structural) {
+				modCount += 1;
+			}
+		}
+	}
+
+	@Override
+	public void setCube(int cubeDepth, int[] types, int x0, int y0, int z0) {
+		Node cube = buildCube(types, 1 << cubeDepth, 0, 0, 0, cubeDepth);
+		synchronized (this) {
+			modCount += 1;
+			try {
+				Node node = root;
+				for (int i = depth-1; i >= cubeDepth; --i) {
+					parents[i] = node;
+					if (node.children == null) {
+						if (cube.type == node.type) {
+							return;
+						}
+						node.subdivide();
+					}
+					int xbit = 1 & (x0 >> i);
+					int ybit = 1 & (y0 >> i);
+					int zbit = 1 & (z0 >> i);
+					node = node.children[(xbit<<2) | (ybit<<1) | zbit];
+				}
+				node.type = cube.type;
+				node.children = cube.children;
+
+				if (cube.type != -1) {
+					// merge nodes where all children have the cube type
+					for (int i = cubeDepth; i < depth; ++i) {
+						Node parent = parents[i];
+						boolean allSame = true;
+						for (Node child: parent.children) {
+							if (child.type != cube.type) {
+								allSame = false;
+								break;
+							}
+						}
+						if (allSame) {
+							parent.merge(cube.type);
+						} else {
+							break;
+						}
+					}
+				}
+			} finally {
+				modCount += 1;
+			}
+		}
+	}
+
+	/**
+	 * Build a subtree from dense voxel data, merging uniform nodes.
+	 */
+	private static Node buildCube(int[] types, int size, int x, int y, int z,
+			int level) {
+		if (level == 0) {
+			return new Node(types[x + size * (z + size * y)]);
+		}
+		level -= 1;
+		int half = 1 << level;
+		Node[] children = new Node[8];
+		boolean uniform = true;
+		for (int i = 0; i < 8; ++i) {
+			Node child = buildCube(types, size,
+					x + half * ((i >> 2) & 1), y + half * ((i >> 1) & 1), z + half * (i & 1),
+					level);
+			children[i] = child;
+			uniform = uniform && child.type != -1 && child.type == children[0].type;
+		}
+		if (uniform) {
+			return children[0];
+		}
+		Node node = new Node(-1);
+		node.children = children;
+		return node;
+	}
+
+	@Override
+	public int get(int x, int y, int z) {
+		Node node = root;
+		int level = depth;
+		while (node.type == -1) {
+			level -= 1;
+			node = node.children[(((x >>> level) & 1) << 2)
+					| (((y >>> level) & 1) << 1) | ((z >>> level) & 1)];
+		}
+		return node.type;
+	}
+
+	@Override
+	public Lookup lookup() {
+		return new NodeLookup();
+	}
+
+	@Override
+	public int getModificationStamp() {
+		return modCount;
+	}
+
+	@Override
+	public long getLeaf(int x, int y, int z) {
+		Node node = root;
+		int level = depth;
+		while (node.type == -1) {
+			level -= 1;
+			int lx = x >>> level;
+			int ly = y >>> level;
+			int lz = z >>> level;
+			node = node.children[((lx&1)<<2) | ((ly&1)<<1) | (lz&1)];
+		}
+		return ((long) level << 32) | (node.type & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public void store(DataOutputStream out) throws IOException {
+		root.store(out);
+	}
+
+	@Override
+	public synchronized void load(DataInputStream in) throws IOException {
+		modCount += 1;
+		try {
+			root.load(in);
+		} finally {
+			modCount += 1;
+		}
+	}
+
+	@Override
+	public void visit(OctreeVisitor visitor) {
+		root.visit(visitor, 0, 0, 0, depth);
+	}
+
+	@Override
+	public int[] toDataBuffer() {
+		int[] data = new int[root.dataSize()];
+		root.dumpData(0, data);
+		return data;
+	}
+
+	@Override
+	public long nodeCount() {
+		return root.nodeCount();
+	}
+
+	@Override
+	public long memoryUsage() {
+		long nodes = nodeCount();
+		// each branch node has a child array
+		long branches = (nodes - 1) / 8;
+		return nodes * NODE_SIZE + branches * CHILD_ARRAY_SIZE;
+	}
+}
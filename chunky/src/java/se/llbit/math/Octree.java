@@ -19,8 +19,6 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
-import org.apache.commons.math3.util.FastMath;
-
 import se.llbit.chunky.model.TexturedBlockModel;
 import se.llbit.chunky.model.WaterModel;
 import se.llbit.chunky.renderer.scene.Scene;
@@ -30,136 +28,84 @@ import se.llbit.chunky.world.Material;
 /**
  * A simple voxel Octree.
  *
+ * <p>The octree nodes are stored by an {@link OctreeImplementation}.
+ * The ray traversal code is shared by all implementations.
+ *
+ * <p>Voxel lookups do not lock the octree. Any number of threads can read
+ * the octree concurrently, but only while no other thread modifies it.
+ * Use {@link #getLocked} to read voxels while other threads write.
+ * Threads doing many lookups should use their own {@link Cursor}.
+ *
  * @author Jesper Öqvist (jesper@llbit.se)
  */
 public class Octree {
 
 	/**
-	 * An Octree node
+	 * Caches the path to the last accessed voxel, to speed up lookups of
+	 * nearby voxels. Each thread should use its own cursor.
+	 *
+	 * <p>Like {@link Octree#get}, cursor lookups must not be made while
+	 * another thread modifies the octree.
 	 */
-	public static final class Node {
-		/**
-		 * The node type. Type is -1 if it's a non-leaf node.
-		 */
-		public int type;
-
-		/**
-		 * Child array
-		 */
-		public Node[] children;
-
-		/**
-		 * Create new octree leaf node with the given type
-		 * @param type
-		 */
-		public Node(int type) {
-			this.type = type;
+	public final class Cursor {
+		private final OctreeImplementation.Lookup lookup;
+		private int stamp;
+
+		Cursor() {
+			lookup = implementation.lookup();
+			// the stamp is never odd between writes, so the first lookup resets the path
+			stamp = -1;
 		}
 
 		/**
-		 * Subdivide this leaf node
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @return The voxel type at the given coordinates
 		 */
-		public final void subdivide() {
-			children = new Node[8];
-			children[0] = new Node(type);
-			children[1] = new Node(type);
-			children[2] = new Node(type);
-			children[3] = new Node(type);
-			children[4] = new Node(type);
-			children[5] = new Node(type);
-			children[6] = new Node(type);
-			children[7] = new Node(type);
-			type = -1;
+		public int get(int x, int y, int z) {
+			int current = implementation.getModificationStamp();
+			if (current != stamp) {
+				// the cached path may contain removed nodes
+				lookup.reset();
+				stamp = current;
+			}
+			return lookup.get(x, y, z);
 		}
+	}
 
-		/**
-		 * Merge the leafs of this node and make this node a
-		 * leaf node.
-		 * @param newType
-		 */
-		public final void merge(int newType) {
-			type = newType;
-			children = null;
-		}
+	/**
+	 * Caches the path to the last visited leaf during ray traversal. Leaves
+	 * visited by a ray, and by rays traced just before it through the same
+	 * region, are found by descending from the deepest shared node instead
+	 * of from the root. Each thread should use its own traversal.
+	 */
+	public final class Traversal {
+		private final OctreeImplementation.Lookup lookup;
+		private int stamp;
 
-		/**
-		 * @return Calculated data size, in bytes, to store this node
-		 */
-		public int dataSize() {
-			if (type != -1) {
-				return 1;
-			} else {
-				int total = 9;// type plus child indices
-				for (Node child: children)
-					total += child.dataSize();
-				return total;
-			}
+		Traversal() {
+			lookup = implementation.lookup();
+			stamp = -1;
 		}
 
 		/**
-		 * @param index
-		 * @param data
-		 * @return A dump of the octree data in this node
+		 * Reset the cached path if nodes were split or merged since
+		 * the last traversal.
 		 */
-		public int dumpData(int index, int[] data) {
-			data[index++] = type;
-			if (type == -1) {
-				int childIndex = index;
-				index += 8;
-				for (int i = 0; i < 8; ++i) {
-					data[childIndex+i] = index;
-					index = children[i].dumpData(index, data);
-				}
+		void validate() {
+			int current = implementation.getModificationStamp();
+			if (current != stamp) {
+				lookup.reset();
+				stamp = current;
 			}
-			return index;
 		}
 
 		/**
-		 * Serialize this node
-		 * @param out
-		 * @throws IOException
+		 * @return The octree this traversal belongs to
 		 */
-		public void store(DataOutputStream out) throws IOException {
-			out.writeInt(type);
-			if (type == -1) {
-				for (int i = 0; i < 8; ++i) {
-					children[i].store(out);
-				}
-			}
-		}
-
-		/**
-		 * Deserialize node
-		 * @param in
-		 * @throws IOException
-		 */
-		public void load(DataInputStream in) throws IOException {
-			type = in.readInt();
-			if (type == -1) {
-				children = new Node[8];
-				for (int i = 0; i < 8; ++i) {
-					children[i] = new Node(0);
-					children[i].load(in);
-				}
-			}
-		}
-
-		public void visit(OctreeVisitor visitor, int x, int y, int z, int depth) {
-			if (type == -1) {
-				int cx = x<<1;
-				int cy = y<<1;
-				int cz = z<<1;
-				children[0].visit(visitor, cx,   cy,   cz,   depth-1);
-				children[1].visit(visitor, cx,   cy,   cz|1, depth-1);
-				children[2].visit(visitor, cx,   cy|1, cz,   depth-1);
-				children[3].visit(visitor, cx,   cy|1, cz|1, depth-1);
-				children[4].visit(visitor, cx|1, cy,   cz,   depth-1);
-				children[5].visit(visitor, cx|1, cy,   cz|1, depth-1);
-				children[6].visit(visitor, cx|1, cy|1, cz,   depth-1);
-				children[7].visit(visitor, cx|1, cy|1, cz|1, depth-1);
-			} else {
-				visitor.visit(type, x<<depth, y<<depth, z<<depth, depth);
-			}
+		public Octree octree() {
+			return Octree.this;
 		}
 	}
 
@@ -168,35 +114,34 @@ public class Octree {
 	 */
 	public final int depth;
 
-	/**
-	 * Root node
-	 */
-	public final Node root;
+	private final OctreeType type;
+
+	private final OctreeImplementation implementation;
 
 	/**
 	 * Timestamp of last serialization.
 	 */
 	private long timestamp = 0;
 
-	private final Node[] parents;
-	private final Node[] cache;
-	private int cx = 0;
-	private int cy = 0;
-	private int cz = 0;
-	private int cacheLevel;
-
 	/**
 	 * Create a new Octree. The dimensions of the Octree
 	 * are 2^levels.
 	 * @param octreeDepth The number of levels in the Octree.
 	 */
 	public Octree(int octreeDepth) {
+		this(OctreeType.DEFAULT, octreeDepth);
+	}
+
+	/**
+	 * Create a new Octree using the given implementation.
+	 * The dimensions of the Octree are 2^levels.
+	 * @param type The octree implementation to use
+	 * @param octreeDepth The number of levels in the Octree.
+	 */
+	public Octree(OctreeType type, int octreeDepth) {
 		depth = octreeDepth;
-		root = new Node(0);
-		parents = new Node[depth];
-		cache = new Node[depth+1];
-		cache[depth] = root;
-		cacheLevel = depth;
+		this.type = type;
+		implementation = type.create(octreeDepth);
 	}
 
 	/**
@@ -207,72 +152,62 @@ public class Octree {
 	 * @param y
 	 * @param z
 	 */
-	public synchronized void set(int type, int x, int y, int z) {
-		Node node = root;
-		int parentLvl = depth-1;
-		int level = parentLvl;
-		for (int i = depth-1; i >= 0; --i) {
-			level = i;
-			parents[i] = node;
-
-			if (node.type == type) {
-				return;
-			} else if (node.children == null) {
-				node.subdivide();
-				parentLvl = i;
-			}
-
-			int xbit = 1 & (x >> i);
-			int ybit = 1 & (y >> i);
-			int zbit = 1 & (z >> i);
-			node = node.children[(xbit<<2) | (ybit<<1) | zbit];
-
-		}
-		node.type = type;
-
-		// merge nodes where all children have been set to the same type
-		for (int i = level; i <= parentLvl; ++i) {
-			Node parent = parents[i];
-
-			boolean allSame = true;
-			for (Node child: parent.children) {
-				if (child.type != node.type) {
-					allSame = false;
-					break;
-				}
-			}
-
-			if (allSame) {
-				parent.merge(node.type);
-				cacheLevel = FastMath.max(i, cacheLevel);
-			} else {
-				break;
-			}
-		}
+	public void set(int type, int x, int y, int z) {
+		implementation.set(type, x, y, z);
+	}
 
+	/**
+	 * Replace all voxels in a cube. Cubes can be filled concurrently.
+	 * @param cubeDepth The cube has side length 2^cubeDepth
+	 * @param types Voxel types in the cube, indexed by
+	 * <code>x + size * (z + size * y)</code>
+	 * @param x0 Cube x coordinate, must be a multiple of the cube size
+	 * @param y0 Cube y coordinate, must be a multiple of the cube size
+	 * @param z0 Cube z coordinate, must be a multiple of the cube size
+	 */
+	public void setCube(int cubeDepth, int[] types, int x0, int y0, int z0) {
+		implementation.setCube(cubeDepth, types, x0, y0, z0);
 	}
 
 	/**
+	 * Look up a voxel without locking. Must not be called while another
+	 * thread modifies the octree, use {@link #getLocked} then instead.
 	 * @param x
 	 * @param y
 	 * @param z
 	 * @return The voxel type at the given coordinates
 	 */
-	public synchronized int get(int x, int y, int z) {
-		while (cacheLevel < depth && ((x >>> cacheLevel) != cx ||
-					(y >>> cacheLevel) != cy || (z >>> cacheLevel) != cz))
-			cacheLevel += 1;
+	public int get(int x, int y, int z) {
+		return implementation.get(x, y, z);
+	}
 
-		int type;
-		while ((type = cache[cacheLevel].type) == -1) {
-			cacheLevel -= 1;
-			cx = x >>> cacheLevel;
-			cy = y >>> cacheLevel;
-			cz = z >>> cacheLevel;
-			cache[cacheLevel] = cache[cacheLevel+1]
-					.children[((cx&1)<<2) | ((cy&1)<<1) | (cz&1)];
+	/**
+	 * Look up a voxel while holding the octree lock. Writes also hold
+	 * the lock, so this is safe to call while other threads modify the
+	 * octree.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return The voxel type at the given coordinates
+	 */
+	public int getLocked(int x, int y, int z) {
+		synchronized (implementation) {
+			return implementation.get(x, y, z);
 		}
-		return type;
+	}
+
+	/**
+	 * @return A new cursor for fast lookups of nearby voxels
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @return A new traversal cache for ray intersection tests
+	 */
+	public Traversal traversal() {
+		return new Traversal();
 	}
 
 	/**
@@ -280,11 +215,7 @@ public class Octree {
 	 * @return The data buffer representing the full octree data
 	 */
 	public int[] toDataBuffer() {
-		int size = 0;
-		size = root.dataSize();
-		int[] data = new int[size];
-		root.dumpData(0, data);
-		return data;
+		return implementation.toDataBuffer();
 	}
 
 	/**
@@ -294,7 +225,7 @@ public class Octree {
 	 */
 	public void store(DataOutputStream out) throws IOException {
 		out.writeInt(depth);
-		root.store(out);
+		implementation.store(out);
 	}
 
 	/**
@@ -304,21 +235,65 @@ public class Octree {
 	 * @throws IOException
 	 */
 	public static Octree load(DataInputStream in) throws IOException {
+		return load(OctreeType.DEFAULT, in);
+	}
+
+	/**
+	 * Deserialize the octree from a data input stream. The serialized
+	 * format is the same for all octree implementations.
+	 * @param type The octree implementation to use
+	 * @param in
+	 * @return The deserialized octree
+	 * @throws IOException
+	 */
+	public static Octree load(OctreeType type, DataInputStream in) throws IOException {
 		int treeDepth = in.readInt();
-		Octree tree = new Octree(treeDepth);
-		tree.root.load(in);
+		Octree tree = new Octree(type, treeDepth);
+		tree.implementation.load(in);
 		return tree;
 	}
 
+	/**
+	 * @return The octree implementation used by this octree
+	 */
+	public OctreeType getType() {
+		return type;
+	}
+
+	/**
+	 * @return The number of nodes in the octree
+	 */
+	public long nodeCount() {
+		return implementation.nodeCount();
+	}
+
+	/**
+	 * @return Estimated heap size of the octree nodes, in bytes
+	 */
+	public long memoryUsage() {
+		return implementation.memoryUsage();
+	}
+
 	/**
 	 * Test if a point is inside the octree.
 	 * @param o vector
 	 * @return {@code true} if the vector is inside the octree
 	 */
 	public boolean isInside(Vector3d o) {
-		int x = (int) QuickMath.floor(o.x);
-		int y = (int) QuickMath.floor(o.y);
-		int z = (int) QuickMath.floor(o.z);
+		return isInside(o.x, o.y, o.z);
+	}
+
+	/**
+	 * Test whether a point is inside this octree
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @return {@code true} if the point is inside the octree
+	 */
+	public boolean isInside(double px, double py, double pz) {
+		int x = (int) QuickMath.floor(px);
+		int y = (int) QuickMath.floor(py);
+		int z = (int) QuickMath.floor(pz);
 
 		int lx = x >>> depth;
 		int ly = y >>> depth;
@@ -332,20 +307,33 @@ public class Octree {
 	 * @param scene
 	 * @param ray the ray
 	 * @return <code>true</code> if the ray intersects a voxel
+	 * @see #intersect(Scene, Ray, Traversal)
 	 */
 	public boolean intersect(Scene scene, Ray ray) {
+		return intersect(scene, ray, new Traversal());
+	}
 
+	/**
+	 * Test whether the ray intersects any voxel before exiting the Octree.
+	 * @param scene
+	 * @param ray the ray
+	 * @param traversal cached traversal path, must belong to this octree
+	 * @return <code>true</code> if the ray intersects a voxel
+	 */
+	public boolean intersect(Scene scene, Ray ray, Traversal traversal) {
+		traversal.validate();
 		if (ray.getCurrentMaterial() == Block.WATER) {
-			return exitWater(scene, ray);
+			return exitWater(scene, ray, traversal.lookup);
 		} else {
-			return enterBlock(scene, ray);
+			return enterBlock(scene, ray, traversal.lookup);
 		}
 	}
 
-	private boolean enterBlock(Scene scene, Ray ray) {
+	private boolean enterBlock(Scene scene, Ray ray,
+			OctreeImplementation.Lookup lookup) {
 
 		int level;
-		Octree.Node node;
+		int type;
 		boolean first = true;
 
 		int lx, ly, lz;
@@ -363,7 +351,6 @@ public class Octree {
 			y = (int) QuickMath.floor(ray.o.y + d.y * Ray.OFFSET);
 			z = (int) QuickMath.floor(ray.o.z + d.z * Ray.OFFSET);
 
-			node = root;
 			level = depth;
 			lx = x >>> level;
 			ly = y >>> level;
@@ -429,19 +416,18 @@ public class Octree {
 
 			first = false;
 
-			while (node.type == -1) {
-				level -= 1;
-				lx = x >>> level;
-				ly = y >>> level;
-				lz = z >>> level;
-				node = node.children[((lx&1)<<2) | ((ly&1)<<1) | (lz&1)];
-			}
+			long leaf = lookup.getLeaf(x, y, z);
+			type = (int) leaf;
+			level = (int) (leaf >>> 32);
+			lx = x >>> level;
+			ly = y >>> level;
+			lz = z >>> level;
 
-			Block currentBlock = Block.get(node.type);
+			Block currentBlock = Block.get(type);
 			Material prevBlock = ray.getCurrentMaterial();
 
 			ray.setPrevMat(prevBlock, ray.getCurrentData());
-			ray.setCurrentMat(currentBlock, node.type);
+			ray.setCurrentMat(currentBlock, type);
 
 			if (currentBlock.localIntersect) {
 
@@ -513,10 +499,11 @@ public class Octree {
 		}
 	}
 
-	private boolean exitWater(Scene scene, Ray ray) {
+	private boolean exitWater(Scene scene, Ray ray,
+			OctreeImplementation.Lookup lookup) {
 
 		int level;
-		Octree.Node node;
+		int type;
 		boolean first = true;
 
 		int lx, ly, lz;
@@ -532,7 +519,6 @@ public class Octree {
 			y = (int) QuickMath.floor(ray.o.y + d.y * Ray.OFFSET);
 			z = (int) QuickMath.floor(ray.o.z + d.z * Ray.OFFSET);
 
-			node = root;
 			level = depth;
 			lx = x >>> level;
 			ly = y >>> level;
@@ -596,19 +582,18 @@ public class Octree {
 
 			first = false;
 
-			while (node.type == -1) {
-				level -= 1;
-				lx = x >>> level;
-				ly = y >>> level;
-				lz = z >>> level;
-				node = node.children[((lx&1)<<2) | ((ly&1)<<1) | (lz&1)];
-			}
+			long leaf = lookup.getLeaf(x, y, z);
+			type = (int) leaf;
+			level = (int) (leaf >>> 32);
+			lx = x >>> level;
+			ly = y >>> level;
+			lz = z >>> level;
 
-			Block currentBlock = Block.get(node.type);
+			Block currentBlock = Block.get(type);
 			Material prevBlock = ray.getCurrentMaterial();
 
 			ray.setPrevMat(prevBlock, ray.getCurrentData());
-			ray.setCurrentMat(currentBlock, node.type);
+			ray.setCurrentMat(currentBlock, type);
 
 			if (currentBlock != Block.WATER) {
 				if (currentBlock.localIntersect) {
@@ -625,7 +610,7 @@ public class Octree {
 			}
 
 			// exit current octree leaf
-			if ((node.type & (1<<WaterModel.FULL_BLOCK)) == 0) {
+			if ((type & (1<<WaterModel.FULL_BLOCK)) == 0) {
 				if (WaterModel.intersectTop(ray)) {
 					ray.setCurrentMat(Block.AIR, 0);
 					//ray.n.negate();
@@ -701,6 +686,6 @@ public class Octree {
 	}
 
 	public void visit(OctreeVisitor visitor) {
-		root.visit(visitor, 0, 0, 0, depth);
+		implementation.visit(visitor);
 	}
 }
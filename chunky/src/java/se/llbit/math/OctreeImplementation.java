@@ -0,0 +1,165 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Storage for the voxel data of an {@link Octree}.
+ *
+ * <p>A leaf is identified by its type and its level, i.e. the bit size
+ * of the leaf node. Both are packed in a long by {@link #getLeaf} so that
+ * ray traversal can find the leaf without allocating.
+ *
+ * <p>Writes are synchronized on the implementation. Reads do not lock and
+ * must not be made while another thread writes. The modification stamp
+ * changes whenever a node is split or merged, so that cached lookup
+ * paths can be reset. Changing the type of a leaf does not change the
+ * stamp.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public interface OctreeImplementation {
+
+	/**
+	 * A cached lookup path into the octree. Consecutive lookups of nearby
+	 * voxels reuse the cached nodes. Lookups are not thread safe.
+	 */
+	interface Lookup {
+		/**
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @return The voxel type at the given coordinates
+		 */
+		int get(int x, int y, int z);
+
+		/**
+		 * Find the leaf node containing the given coordinates,
+		 * like {@link OctreeImplementation#getLeaf}.
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @return The leaf type in the low 32 bits, and the leaf level in
+		 * the high 32 bits
+		 */
+		long getLeaf(int x, int y, int z);
+
+		/**
+		 * Clear the cached path.
+		 */
+		void reset();
+	}
+
+	/**
+	 * Set the voxel type at the given coordinates.
+	 * @param type
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	void set(int type, int x, int y, int z);
+
+	/**
+	 * Replace all voxels in a cube. The subtree for the cube is built before
+	 * the octree is locked, so that multiple threads can fill separate cubes
+	 * concurrently.
+	 * @param cubeDepth The cube has side length 2^cubeDepth
+	 * @param types Voxel types in the cube, indexed by
+	 * <code>x + size * (z + size * y)</code>
+	 * @param x0 Cube x coordinate, must be a multiple of the cube size
+	 * @param y0 Cube y coordinate, must be a multiple of the cube size
+	 * @param z0 Cube z coordinate, must be a multiple of the cube size
+	 */
+	void setCube(int cubeDepth, int[] types, int x0, int y0, int z0);
+
+	/**
+	 * Look up a voxel without locking. Must not be called while the
+	 * octree is modified.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return The voxel type at the given coordinates
+	 */
+	int get(int x, int y, int z);
+
+	/**
+	 * @return A new cached lookup path
+	 */
+	Lookup lookup();
+
+	/**
+	 * @return The structural modification stamp. The stamp is odd while
+	 * nodes are being split or merged.
+	 */
+	int getModificationStamp();
+
+	/**
+	 * Find the leaf node containing the given coordinates. The coordinates
+	 * must be inside the octree. This is used for ray traversal, and
+	 * must not be called while the octree is modified.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return The leaf type in the low 32 bits, and the leaf level in
+	 * the high 32 bits
+	 */
+	long getLeaf(int x, int y, int z);
+
+	/**
+	 * @return The number of levels in the octree
+	 */
+	int getDepth();
+
+	/**
+	 * Serialize the octree nodes in depth-first order
+	 * @param out
+	 * @throws IOException
+	 */
+	void store(DataOutputStream out) throws IOException;
+
+	/**
+	 * Deserialize the octree nodes written by {@link #store}.
+	 * This replaces all current nodes.
+	 * @param in
+	 * @throws IOException
+	 */
+	void load(DataInputStream in) throws IOException;
+
+	/**
+	 * Visit all leaf nodes in the octree
+	 * @param visitor
+	 */
+	void visit(OctreeVisitor visitor);
+
+	/**
+	 * @return The octree data in the layout used by the OpenCL renderer
+	 */
+	int[] toDataBuffer();
+
+	/**
+	 * @return The number of nodes in the octree
+	 */
+	long nodeCount();
+
+	/**
+	 * @return Estimated heap size of the octree, in bytes
+	 */
+	long memoryUsage();
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+/**
+ * The available octree implementations.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public enum OctreeType {
+	/** One object per octree node. */
+	NODE_BASED {
+		@Override
+		public String toString() {
+			return "Node-based";
+		}
+
+		@Override
+		public OctreeImplementation create(int depth) {
+			return new NodeBasedOctree(depth);
+		}
+	},
+
+	/** All octree nodes packed in a single int array. */
+	PACKED {
+		@Override
+		public String toString() {
+			return "Packed";
+		}
+
+		@Override
+		public OctreeImplementation create(int depth) {
+			return new PackedOctree(depth);
+		}
+	};
+
+	public static final OctreeType DEFAULT = NODE_BASED;
+
+	public static OctreeType get(String name) {
+		for (OctreeType type: values()) {
+			if (type.name().equals(name)) {
+				return type;
+			}
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * @param depth octree depth
+	 * @return A new empty octree implementation of this type
+	 */
+	public abstract OctreeImplementation create(int depth);
+}
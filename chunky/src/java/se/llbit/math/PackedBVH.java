@@ -0,0 +1,537 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import se.llbit.math.primitive.Primitive;
+
+/**
+ * Bounding Volume Hierarchy stored in flat arrays.
+ *
+ * <p>The hierarchy is built top-down with binned Surface Area Heuristic
+ * splits. Large subtrees are built in parallel in a thread pool.
+ *
+ * <p>Nodes are stored in depth-first order, so the first child of an inner
+ * node is the node directly after it. Each node has six bounds in the
+ * bounds array and two ints in the node array. For an inner node these are
+ * the index of the second child and zero, for a leaf they are the index of
+ * the first primitive and the number of primitives.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class PackedBVH {
+
+	/**
+	 * Maximum depth of the tree. Deeper nodes are turned into leaves.
+	 */
+	private static final int MAX_DEPTH = 62;
+
+	/**
+	 * Required size of the traversal stack.
+	 */
+	public static final int STACK_SIZE = MAX_DEPTH + 2;
+
+	private static final int NUM_BINS = 16;
+
+	/**
+	 * Nodes with this many primitives or fewer are always leaves.
+	 */
+	private static final int MIN_SPLIT = 3;
+
+	/**
+	 * Nodes with more primitives are split even if SAH says otherwise.
+	 */
+	private static final int MAX_LEAF_SIZE = 8;
+
+	/**
+	 * Cost of testing a child node relative to the cost of testing
+	 * a primitive.
+	 */
+	private static final double TRAVERSAL_COST = 0.5;
+
+	/**
+	 * Subtrees with more primitives than this are built in parallel.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private final Primitive[] primitives;
+	private final double[] bounds;
+	private final int[] nodes;
+
+	/**
+	 * Temporary tree node used during construction.
+	 */
+	private static final class BuildNode {
+		final double[] bounds = new double[6];
+		BuildNode child1;
+		BuildNode child2;
+		int start;
+		int count;
+		int size = 1;
+	}
+
+	/**
+	 * Builds a subtree for a range of the primitive index array. Tasks
+	 * work on disjoint ranges of the shared arrays.
+	 *
+	 * <p>A task that hands a subtree to the pool runs that subtree itself if
+	 * no pool thread has started it yet, so waiting tasks never occupy all
+	 * pool threads.
+	 */
+	private static final class Builder implements Callable<BuildNode> {
+		private final ExecutorService pool;
+		private final double[] primBounds;
+		private final double[] centroids;
+		private final int[] index;
+		private final int start;
+		private final int end;
+		private final int depth;
+
+		Builder(ExecutorService pool, double[] primBounds, double[] centroids,
+				int[] index, int start, int end, int depth) {
+			this.pool = pool;
+			this.primBounds = primBounds;
+			this.centroids = centroids;
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+		}
+
+		@Override
+		public BuildNode call() {
+			BuildNode node = new BuildNode();
+			double[] bb = node.bounds;
+			bb[0] = bb[2] = bb[4] = Double.POSITIVE_INFINITY;
+			bb[1] = bb[3] = bb[5] = Double.NEGATIVE_INFINITY;
+			double[] cb = {
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			};
+			for (int i = start; i < end; ++i) {
+				int p = index[i];
+				for (int axis = 0; axis < 3; ++axis) {
+					bb[axis*2] = Math.min(bb[axis*2], primBounds[p*6 + axis*2]);
+					bb[axis*2+1] = Math.max(bb[axis*2+1], primBounds[p*6 + axis*2 + 1]);
+					double c = centroids[p*3 + axis];
+					cb[axis*2] = Math.min(cb[axis*2], c);
+					cb[axis*2+1] = Math.max(cb[axis*2+1], c);
+				}
+			}
+
+			int count = end - start;
+			node.start = start;
+			node.count = count;
+			if (count <= MIN_SPLIT || depth >= MAX_DEPTH) {
+				return node;
+			}
+
+			// find the cheapest split plane between bins on any axis
+			int[] binCount = new int[NUM_BINS];
+			double[] binBounds = new double[NUM_BINS * 6];
+			double[] rightArea = new double[NUM_BINS];
+			double bestCost = Double.POSITIVE_INFINITY;
+			int bestAxis = -1;
+			int bestBin = 0;
+			for (int axis = 0; axis < 3; ++axis) {
+				double cmin = cb[axis*2];
+				double extent = cb[axis*2+1] - cmin;
+				if (!(extent > 0)) {
+					continue;
+				}
+				double scale = NUM_BINS / extent;
+				for (int bin = 0; bin < NUM_BINS; ++bin) {
+					binCount[bin] = 0;
+					clear(binBounds, bin);
+				}
+				for (int i = start; i < end; ++i) {
+					int p = index[i];
+					int bin = bin(centroids[p*3 + axis], cmin, scale);
+					binCount[bin] += 1;
+					expand(binBounds, bin, primBounds, p);
+				}
+				double[] acc = new double[6];
+				clear(acc, 0);
+				int rightCount = 0;
+				for (int bin = NUM_BINS-1; bin > 0; --bin) {
+					rightCount += binCount[bin];
+					expand(acc, 0, binBounds, bin);
+					rightArea[bin] = rightCount > 0 ? area(acc, 0) : 0;
+				}
+				clear(acc, 0);
+				int leftCount = 0;
+				rightCount = count;
+				for (int bin = 0; bin < NUM_BINS-1; ++bin) {
+					leftCount += binCount[bin];
+					rightCount -= binCount[bin];
+					expand(acc, 0, binBounds, bin);
+					if (leftCount == 0 || rightCount == 0) {
+						continue;
+					}
+					double cost = area(acc, 0) * leftCount + rightArea[bin+1] * rightCount;
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestBin = bin;
+					}
+				}
+			}
+
+			int mid;
+			if (bestAxis == -1) {
+				// all centroids coincide
+				if (count <= MAX_LEAF_SIZE) {
+					return node;
+				}
+				mid = start + count / 2;
+			} else {
+				double nodeArea = area(bb, 0);
+				if (count <= MAX_LEAF_SIZE &&
+						TRAVERSAL_COST * nodeArea + bestCost >= count * nodeArea) {
+					return node;
+				}
+				double cmin = cb[bestAxis*2];
+				double scale = NUM_BINS / (cb[bestAxis*2+1] - cmin);
+				int i = start;
+				int j = end - 1;
+				while (i <= j) {
+					if (bin(centroids[index[i]*3 + bestAxis], cmin, scale) <= bestBin) {
+						i += 1;
+					} else {
+						int tmp = index[i];
+						index[i] = index[j];
+						index[j] = tmp;
+						j -= 1;
+					}
+				}
+				mid = i;
+			}
+
+			node.count = 0;
+			Builder task1 = new Builder(pool, primBounds, centroids, index, start, mid, depth+1);
+			Builder task2 = new Builder(pool, primBounds, centroids, index, mid, end, depth+1);
+			if (count > PARALLEL_THRESHOLD && pool != null) {
+				FutureTask<BuildNode> future = new FutureTask<BuildNode>(task1);
+				pool.execute(future);
+				node.child2 = task2.call();
+				// does nothing if a pool thread already started the task
+				future.run();
+				node.child1 = join(future);
+			} else {
+				node.child1 = task1.call();
+				node.child2 = task2.call();
+			}
+			node.size = 1 + node.child1.size + node.child2.size;
+			return node;
+		}
+	}
+
+	private static BuildNode join(FutureTask<BuildNode> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("BVH construction was interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private static int bin(double centroid, double cmin, double scale) {
+		int bin = (int) ((centroid - cmin) * scale);
+		return bin < NUM_BINS ? bin : NUM_BINS - 1;
+	}
+
+	private static void clear(double[] bb, int i) {
+		bb[i*6] = bb[i*6+2] = bb[i*6+4] = Double.POSITIVE_INFINITY;
+		bb[i*6+1] = bb[i*6+3] = bb[i*6+5] = Double.NEGATIVE_INFINITY;
+	}
+
+	private static void expand(double[] bb, int i, double[] other, int j) {
+		for (int k = 0; k < 6; k += 2) {
+			bb[i*6+k] = Math.min(bb[i*6+k], other[j*6+k]);
+			bb[i*6+k+1] = Math.max(bb[i*6+k+1], other[j*6+k+1]);
+		}
+	}
+
+	private static double area(double[] bb, int i) {
+		double x = bb[i*6+1] - bb[i*6];
+		double y = bb[i*6+3] - bb[i*6+2];
+		double z = bb[i*6+5] - bb[i*6+4];
+		return 2 * (x*y + y*z + z*x);
+	}
+
+	/**
+	 * Construct a new BVH containing the given primitives
+	 * @param list
+	 */
+	public PackedBVH(List<Primitive> list) {
+		Primitive[] input = list.toArray(new Primitive[list.size()]);
+		int n = input.length;
+		primitives = new Primitive[n];
+		if (n == 0) {
+			bounds = new double[0];
+			nodes = new int[0];
+			return;
+		}
+
+		double[] primBounds = new double[n * 6];
+		double[] centroids = new double[n * 3];
+		int[] index = new int[n];
+		for (int i = 0; i < n; ++i) {
+			AABB bb = input[i].bounds();
+			primBounds[i*6] = bb.xmin;
+			primBounds[i*6+1] = bb.xmax;
+			primBounds[i*6+2] = bb.ymin;
+			primBounds[i*6+3] = bb.ymax;
+			primBounds[i*6+4] = bb.zmin;
+			primBounds[i*6+5] = bb.zmax;
+			centroids[i*3] = (bb.xmin + bb.xmax) / 2;
+			centroids[i*3+1] = (bb.ymin + bb.ymax) / 2;
+			centroids[i*3+2] = (bb.zmin + bb.zmax) / 2;
+			index[i] = i;
+		}
+
+		BuildNode root;
+		if (n > PARALLEL_THRESHOLD) {
+			ExecutorService pool = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors());
+			try {
+				root = new Builder(pool, primBounds, centroids, index, 0, n, 0).call();
+			} finally {
+				pool.shutdownNow();
+			}
+		} else {
+			root = new Builder(null, primBounds, centroids, index, 0, n, 0).call();
+		}
+
+		for (int i = 0; i < n; ++i) {
+			primitives[i] = input[index[i]];
+		}
+		bounds = new double[root.size * 6];
+		nodes = new int[root.size * 2];
+		flatten(root, 0);
+	}
+
+	/**
+	 * Store a subtree in depth-first order
+	 * @return The index after the last node of the subtree
+	 */
+	private int flatten(BuildNode node, int next) {
+		int i = next++;
+		System.arraycopy(node.bounds, 0, bounds, i*6, 6);
+		if (node.child1 == null) {
+			nodes[i*2] = node.start;
+			nodes[i*2+1] = node.count;
+		} else {
+			next = flatten(node.child1, next);
+			nodes[i*2] = next;
+			nodes[i*2+1] = 0;
+			next = flatten(node.child2, next);
+		}
+		return next;
+	}
+
+	/**
+	 * @return The number of nodes in the tree
+	 */
+	public int nodeCount() {
+		return nodes.length / 2;
+	}
+
+	/**
+	 * Find closest intersection between the ray and any object in the BVH.
+	 * @param ray
+	 * @return {@code true} if there exists any intersection
+	 */
+	public boolean closestIntersection(Ray ray) {
+		return closestIntersection(ray, new int[STACK_SIZE]);
+	}
+
+	/**
+	 * Find closest intersection between the ray and any object in the BVH.
+	 * @param ray
+	 * @param stack traversal stack, at least {@link #STACK_SIZE} long
+	 * @return {@code true} if there exists any intersection
+	 */
+	public boolean closestIntersection(Ray ray, int[] stack) {
+		if (nodes.length == 0) {
+			return false;
+		}
+		double ox = ray.o.x;
+		double oy = ray.o.y;
+		double oz = ray.o.z;
+		double rx = 1 / ray.d.x;
+		double ry = 1 / ray.d.y;
+		double rz = 1 / ray.d.z;
+		if (entry(0, ox, oy, oz, rx, ry, rz, ray.t) == Double.POSITIVE_INFINITY) {
+			return false;
+		}
+		boolean hit = false;
+		int sp = 0;
+		int node = 0;
+		while (true) {
+			int count = nodes[node*2+1];
+			if (count > 0) {
+				int first = nodes[node*2];
+				for (int i = first; i < first + count; ++i) {
+					hit = primitives[i].intersect(ray) || hit;
+				}
+			} else {
+				int child1 = node + 1;
+				int child2 = nodes[node*2];
+				double t1 = entry(child1, ox, oy, oz, rx, ry, rz, ray.t);
+				double t2 = entry(child2, ox, oy, oz, rx, ry, rz, ray.t);
+				// visit the nearest child first
+				if (t1 <= t2 && t1 != Double.POSITIVE_INFINITY) {
+					if (t2 != Double.POSITIVE_INFINITY) {
+						stack[sp++] = child2;
+					}
+					node = child1;
+					continue;
+				} else if (t2 != Double.POSITIVE_INFINITY) {
+					if (t1 != Double.POSITIVE_INFINITY) {
+						stack[sp++] = child1;
+					}
+					node = child2;
+					continue;
+				}
+			}
+			// skip nodes behind the closest intersection found so far
+			do {
+				if (sp == 0) {
+					return hit;
+				}
+				node = stack[--sp];
+			} while (entry(node, ox, oy, oz, rx, ry, rz, ray.t) == Double.POSITIVE_INFINITY);
+		}
+	}
+
+	/**
+	 * Find any intersection between the ray and any object in the BVH.
+	 * @param ray
+	 * @return {@code true} if there exists any intersection
+	 */
+	public boolean anyIntersection(Ray ray) {
+		if (nodes.length == 0) {
+			return false;
+		}
+		double ox = ray.o.x;
+		double oy = ray.o.y;
+		double oz = ray.o.z;
+		double rx = 1 / ray.d.x;
+		double ry = 1 / ray.d.y;
+		double rz = 1 / ray.d.z;
+		int[] stack = new int[STACK_SIZE];
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int node = stack[--sp];
+			if (entry(node, ox, oy, oz, rx, ry, rz, ray.t) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			int count = nodes[node*2+1];
+			if (count > 0) {
+				int first = nodes[node*2];
+				for (int i = first; i < first + count; ++i) {
+					if (primitives[i].intersect(ray)) {
+						return true;
+					}
+				}
+			} else {
+				stack[sp++] = nodes[node*2];
+				stack[sp++] = node + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Intersect the ray with the bounds of a node. Slabs parallel to the ray
+	 * give infinite or NaN distances, which are ignored by the comparisons.
+	 * @return Distance to the node along the ray, zero if the ray starts
+	 * inside the node, or positive infinity if the ray misses the node or
+	 * enters it after tMax
+	 */
+	private double entry(int node, double ox, double oy, double oz,
+			double rx, double ry, double rz, double tMax) {
+		int b = node * 6;
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+
+		double t1 = (bounds[b] - ox) * rx;
+		double t2 = (bounds[b+1] - ox) * rx;
+		if (t1 > t2) {
+			double t = t1;
+			t1 = t2;
+			t2 = t;
+		}
+		if (t1 > tNear) {
+			tNear = t1;
+		}
+		if (t2 < tFar) {
+			tFar = t2;
+		}
+
+		t1 = (bounds[b+2] - oy) * ry;
+		t2 = (bounds[b+3] - oy) * ry;
+		if (t1 > t2) {
+			double t = t1;
+			t1 = t2;
+			t2 = t;
+		}
+		if (t1 > tNear) {
+			tNear = t1;
+		}
+		if (t2 < tFar) {
+			tFar = t2;
+		}
+
+		t1 = (bounds[b+4] - oz) * rz;
+		t2 = (bounds[b+5] - oz) * rz;
+		if (t1 > t2) {
+			double t = t1;
+			t1 = t2;
+			t2 = t;
+		}
+		if (t1 > tNear) {
+			tNear = t1;
+		}
+		if (t2 < tFar) {
+			tFar = t2;
+		}
+
+		if (tNear < tFar + Ray.EPSILON && tFar >= 0 && tNear < tMax) {
+			return tNear > 0 ? tNear : 0;
+		} else {
+			return Double.POSITIVE_INFINITY;
+		}
+	}
+}
@@ -0,0 +1,526 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Octree implementation where all nodes are stored in a single int array.
+ *
+ * <p>Each node is one int. A positive value is a branch node, and the value
+ * is the index of the first of its eight children, which are stored
+ * consecutively. Other values are leaf nodes, storing the negated leaf type.
+ * The root node is at index zero, so child indices are always positive.
+ *
+ * <p>This uses about an eighth of the memory of {@link NodeBasedOctree}
+ * and avoids a pointer dereference for each level during ray traversal.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class PackedOctree implements OctreeImplementation {
+
+	/**
+	 * Largest array size that can be allocated.
+	 */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private final int depth;
+
+	/**
+	 * Node data. The array is replaced when it grows, so readers should
+	 * load the field once.
+	 */
+	private volatile int[] nodes;
+
+	/**
+	 * Number of used elements in the node array.
+	 */
+	private int size;
+
+	/**
+	 * Index of the first free child block, or zero if there is none.
+	 * The first element of each free block points to the next free block.
+	 */
+	private int freeHead = 0;
+	private int numFree = 0;
+
+	private final int[] parents;
+
+	/**
+	 * Structural modification stamp.
+	 */
+	private volatile int modCount = 0;
+
+	/**
+	 * Caches the path to the last accessed leaf.
+	 */
+	private final class PackedLookup implements Lookup {
+		private final int[] cache = new int[depth+1];
+		private int[] cachedNodes;
+		private int cx = 0;
+		private int cy = 0;
+		private int cz = 0;
+		private int cacheLevel;
+
+		PackedLookup() {
+			reset();
+		}
+
+		@Override
+		public int get(int x, int y, int z) {
+			return (int) getLeaf(x, y, z);
+		}
+
+		@Override
+		public long getLeaf(int x, int y, int z) {
+			int[] nodes = cachedNodes;
+			// find the deepest cached node that contains the voxel
+			int level = cacheLevel;
+			while (level < depth && (((x ^ cx) | (y ^ cy) | (z ^ cz)) >>> level) != 0) {
+				level += 1;
+			}
+			int node = cache[level];
+			int value = nodes[node];
+			// the level check stops garbage paths during concurrent modification
+			while (value > 0 && level > 0) {
+				level -= 1;
+				node = value + (((x >>> level) & 1) << 2)
+						+ (((y >>> level) & 1) << 1) + ((z >>> level) & 1);
+				cache[level] = node;
+				value = nodes[node];
+			}
+			cx = x;
+			cy = y;
+			cz = z;
+			cacheLevel = level;
+			return ((long) level << 32) | (-value & 0xFFFFFFFFL);
+		}
+
+		@Override
+		public void reset() {
+			// the node array is replaced when it grows, which is a structural change
+			cachedNodes = nodes;
+			cache[depth] = 0;
+			cacheLevel = depth;
+		}
+	}
+
+	/**
+	 * Create a new octree. The dimensions of the octree are 2^levels.
+	 * @param octreeDepth The number of levels in the octree.
+	 */
+	public PackedOctree(int octreeDepth) {
+		depth = octreeDepth;
+		nodes = new int[64];
+		size = 1;
+		parents = new int[depth];
+	}
+
+	@Override
+	public synchronized void set(int type, int x, int y, int z) {
+		boolean structural = false;
+		try {
+			int leaf = -type;
+			int node = 0;
+			int parentLvl = depth-1;
+			int level = parentLvl;
+			for (int i = depth-1; i >= 0; --i) {
+				level = i;
+				parents[i] = node;
+
+				int value = nodes[node];
+				if (value == leaf) {
+					return;
+				} else if (value <= 0) {
+					if (!structural) {
+						modCount += 1;
+						structural = true;
+					}
+					subdivide(node);
+					parentLvl = i;
+				}
+
+				int xbit = 1 & (x >> i);
+				int ybit = 1 & (y >> i);
+				int zbit = 1 & (z >> i);
+				node = nodes[node] + ((xbit<<2) | (ybit<<1) | zbit);
+			}
+			int[] nodes = this.nodes;
+			nodes[node] = leaf;
+
+			// merge nodes where all children have been set to the same type
+			for (int i = level; i <= parentLvl; ++i) {
+				int parent = parents[i];
+				int first = nodes[parent];
+
+				boolean allSame = true;
+				for (int j = 0; j < 8; ++j) {
+					if (nodes[first+j] != leaf) {
+						allSame = false;
+						break;
+					}
+				}
+
+				if (allSame) {
+					if (!structural) {
+						modCount += 1;
+						structural = true;
+					}
+					nodes[parent] = leaf;
+					freeBlock(first);
+				} else {
+					break;
+				}
+			}
+		} finally {
+			if (structural) {
+				modCount += 1;
+			}
+		}
+	}
+
+	@Override
+	public void setCube(int cubeDepth, int[] types, int x0, int y0, int z0) {
+		// build the subtree in a separate array, with the cube root at index 0
+		int[] cube = new int[64];
+		int[] cubeSize = { 1 };
+		cube = buildCube(cube, cubeSize, 0, types, 1 << cubeDepth, 0, 0, 0, cubeDepth);
+		synchronized (this) {
+			modCount += 1;
+			try {
+				int node = 0;
+				for (int i = depth-1; i >= cubeDepth; --i) {
+					parents[i] = node;
+					int value = nodes[node];
+					if (value <= 0) {
+						if (value == cube[0]) {
+							return;
+						}
+						subdivide(node);
+					}
+					int xbit = 1 & (x0 >> i);
+					int ybit = 1 & (y0 >> i);
+					int zbit = 1 & (z0 >> i);
+					node = nodes[node] + ((xbit<<2) | (ybit<<1) | zbit);
+				}
+				if (nodes[node] > 0) {
+					freeSubtree(nodes[node]);
+				}
+				int leaf = cube[0];
+				if (leaf > 0) {
+					// allocate the block before storing it, the node array may grow
+					int block = copyCube(cube, leaf);
+					nodes[node] = block;
+				} else {
+					nodes[node] = leaf;
+					int[] nodes = this.nodes;
+					// merge nodes where all children have the cube type
+					for (int i = cubeDepth; i < depth; ++i) {
+						int parent = parents[i];
+						int first = nodes[parent];
+						boolean allSame = true;
+						for (int j = 0; j < 8; ++j) {
+							if (nodes[first+j] != leaf) {
+								allSame = false;
+								break;
+							}
+						}
+						if (allSame) {
+							nodes[parent] = leaf;
+							freeBlock(first);
+						} else {
+							break;
+						}
+					}
+				}
+			} finally {
+				modCount += 1;
+			}
+		}
+	}
+
+	/**
+	 * Build a subtree from dense voxel data, merging uniform nodes.
+	 * @return The cube array, which is replaced when it grows
+	 */
+	private static int[] buildCube(int[] cube, int[] cubeSize, int node,
+			int[] types, int size, int x, int y, int z, int level) {
+		if (level == 0) {
+			cube[node] = -types[x + size * (z + size * y)];
+			return cube;
+		}
+		level -= 1;
+		int half = 1 << level;
+		int block = cubeSize[0];
+		if (block + 8 > cube.length) {
+			int[] grown = new int[cube.length * 2];
+			System.arraycopy(cube, 0, grown, 0, block);
+			cube = grown;
+		}
+		cubeSize[0] += 8;
+		boolean uniform = true;
+		for (int i = 0; i < 8; ++i) {
+			cube = buildCube(cube, cubeSize, block + i, types, size,
+					x + half * ((i >> 2) & 1), y + half * ((i >> 1) & 1), z + half * (i & 1),
+					level);
+			uniform = uniform && cube[block+i] <= 0 && cube[block+i] == cube[block];
+		}
+		if (uniform) {
+			// the block is last in the cube array, so it can be released
+			cube[node] = cube[block];
+			cubeSize[0] = block;
+		} else {
+			cube[node] = block;
+		}
+		return cube;
+	}
+
+	/**
+	 * Copy a child block of a cube subtree into the node array.
+	 * @return The index of the copied block
+	 */
+	private int copyCube(int[] cube, int cubeBlock) {
+		int block = allocateBlock();
+		for (int i = 0; i < 8; ++i) {
+			int value = cube[cubeBlock+i];
+			if (value > 0) {
+				value = copyCube(cube, value);
+			}
+			nodes[block+i] = value;
+		}
+		return block;
+	}
+
+	private void freeSubtree(int block) {
+		for (int i = 0; i < 8; ++i) {
+			int value = nodes[block+i];
+			if (value > 0) {
+				freeSubtree(value);
+			}
+		}
+		freeBlock(block);
+	}
+
+	@Override
+	public int get(int x, int y, int z) {
+		int[] nodes = this.nodes;
+		int level = depth;
+		int value = nodes[0];
+		// the level check stops garbage paths during concurrent modification
+		while (value > 0 && level > 0) {
+			level -= 1;
+			value = nodes[value + (((x >>> level) & 1) << 2)
+					+ (((y >>> level) & 1) << 1) + ((z >>> level) & 1)];
+		}
+		return -value;
+	}
+
+	@Override
+	public Lookup lookup() {
+		return new PackedLookup();
+	}
+
+	@Override
+	public int getModificationStamp() {
+		return modCount;
+	}
+
+	@Override
+	public long getLeaf(int x, int y, int z) {
+		int[] nodes = this.nodes;
+		int level = depth;
+		int value = nodes[0];
+		while (value > 0) {
+			level -= 1;
+			value = nodes[value + (((x >>> level) & 1) << 2)
+					+ (((y >>> level) & 1) << 1) + ((z >>> level) & 1)];
+		}
+		return ((long) level << 32) | (-value & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Turn a leaf node into a branch with eight copies of the leaf.
+	 */
+	private void subdivide(int node) {
+		int block = allocateBlock();
+		int[] nodes = this.nodes;
+		int leaf = nodes[node];
+		for (int i = 0; i < 8; ++i) {
+			nodes[block+i] = leaf;
+		}
+		nodes[node] = block;
+	}
+
+	/**
+	 * @return The index of a new block of eight nodes
+	 */
+	private int allocateBlock() {
+		if (freeHead != 0) {
+			int block = freeHead;
+			freeHead = nodes[block];
+			numFree -= 1;
+			return block;
+		}
+		if (size > MAX_ARRAY_SIZE - 8) {
+			throw new IllegalStateException(
+					"Octree is too large for the packed representation");
+		}
+		if (size + 8 > nodes.length) {
+			int capacity = (int) Math.min(MAX_ARRAY_SIZE, nodes.length * 2L);
+			int[] grown = new int[capacity];
+			System.arraycopy(nodes, 0, grown, 0, size);
+			nodes = grown;
+		}
+		int block = size;
+		size += 8;
+		return block;
+	}
+
+	private void freeBlock(int block) {
+		nodes[block] = freeHead;
+		freeHead = block;
+		numFree += 1;
+	}
+
+	@Override
+	public void store(DataOutputStream out) throws IOException {
+		store(out, nodes, 0);
+	}
+
+	private static void store(DataOutputStream out, int[] nodes, int node)
+			throws IOException {
+		int value = nodes[node];
+		if (value > 0) {
+			out.writeInt(-1);
+			for (int i = 0; i < 8; ++i) {
+				store(out, nodes, value+i);
+			}
+		} else {
+			out.writeInt(-value);
+		}
+	}
+
+	@Override
+	public synchronized void load(DataInputStream in) throws IOException {
+		modCount += 1;
+		try {
+			nodes = new int[64];
+			size = 1;
+			freeHead = 0;
+			numFree = 0;
+			load(in, 0);
+		} finally {
+			modCount += 1;
+		}
+	}
+
+	private void load(DataInputStream in, int node) throws IOException {
+		int type = in.readInt();
+		if (type == -1) {
+			int block = allocateBlock();
+			nodes[node] = block;
+			for (int i = 0; i < 8; ++i) {
+				load(in, block+i);
+			}
+		} else {
+			nodes[node] = -type;
+		}
+	}
+
+	@Override
+	public void visit(OctreeVisitor visitor) {
+		visit(visitor, nodes, 0, 0, 0, 0, depth);
+	}
+
+	private static void visit(OctreeVisitor visitor, int[] nodes, int node,
+			int x, int y, int z, int depth) {
+		int value = nodes[node];
+		if (value > 0) {
+			int cx = x<<1;
+			int cy = y<<1;
+			int cz = z<<1;
+			visit(visitor, nodes, value+0, cx,   cy,   cz,   depth-1);
+			visit(visitor, nodes, value+1, cx,   cy,   cz|1, depth-1);
+			visit(visitor, nodes, value+2, cx,   cy|1, cz,   depth-1);
+			visit(visitor, nodes, value+3, cx,   cy|1, cz|1, depth-1);
+			visit(visitor, nodes, value+4, cx|1, cy,   cz,   depth-1);
+			visit(visitor, nodes, value+5, cx|1, cy,   cz|1, depth-1);
+			visit(visitor, nodes, value+6, cx|1, cy|1, cz,   depth-1);
+			visit(visitor, nodes, value+7, cx|1, cy|1, cz|1, depth-1);
+		} else {
+			visitor.visit(-value, x<<depth, y<<depth, z<<depth, depth);
+		}
+	}
+
+	@Override
+	public int[] toDataBuffer() {
+		int[] nodes = this.nodes;
+		int[] data = new int[dataSize(nodes, 0)];
+		dumpData(nodes, 0, 0, data);
+		return data;
+	}
+
+	private static int dataSize(int[] nodes, int node) {
+		int value = nodes[node];
+		if (value > 0) {
+			int total = 9;// type plus child indices
+			for (int i = 0; i < 8; ++i) {
+				total += dataSize(nodes, value+i);
+			}
+			return total;
+		} else {
+			return 1;
+		}
+	}
+
+	/**
+	 * Convert a node to the layout used by the OpenCL renderer.
+	 * @see NodeBasedOctree.Node#dumpData(int, int[])
+	 */
+	private static int dumpData(int[] nodes, int node, int index, int[] data) {
+		int value = nodes[node];
+		if (value > 0) {
+			data[index++] = -1;
+			int childIndex = index;
+			index += 8;
+			for (int i = 0; i < 8; ++i) {
+				data[childIndex+i] = index;
+				index = dumpData(nodes, value+i, index, data);
+			}
+		} else {
+			data[index++] = -value;
+		}
+		return index;
+	}
+
+	@Override
+	public synchronized long nodeCount() {
+		return size - 8L * numFree;
+	}
+
+	@Override
+	public long memoryUsage() {
+		return 4L * nodes.length;
+	}
+}
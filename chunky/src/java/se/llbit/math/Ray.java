@@ -16,8 +16,6 @@
  */
 package se.llbit.math;
 
-import java.util.Random;
-
 import org.apache.commons.math3.util.FastMath;
 
 import se.llbit.chunky.renderer.scene.Scene;
@@ -107,6 +105,8 @@ public class Ray {
 		distance = 0;
 		prevMaterial = Block.AIR;
 		currentMaterial = Block.AIR;
+		prevData = 0;
+		currentData = 0;
 		depth = 0;
 		color.set(0, 0, 0, 0);
 		emittance.set(0, 0, 0);
@@ -117,6 +117,8 @@ public class Ray {
 	public void set(Ray other) {
 		prevMaterial = other.prevMaterial;
 		currentMaterial = other.currentMaterial;
+		prevData = other.prevData;
+		currentData = other.currentData;
 		depth = other.depth+1;
 		distance = 0;
 		o.set(other.o);
@@ -207,21 +209,21 @@ public class Ray {
 	}
 
 	/**
-	 * @return foliage color for the current block
+	 * Multiply the ray color by the foliage color for the current block.
 	 */
-	public float[] getBiomeFoliageColor(Scene scene) {
-		return scene.getFoliageColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET));
+	public void applyBiomeFoliageColor(Scene scene) {
+		scene.tintFoliageColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET), color);
 	}
 
 	/**
-	 * @return grass color for the current block
+	 * Multiply the ray color by the grass color for the current block.
 	 */
-	public float[] getBiomeGrassColor(Scene scene) {
-		return scene.getGrassColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET));
+	public void applyBiomeGrassColor(Scene scene) {
+		scene.tintGrassColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET), color);
 	}
 
 	/** Set this ray to a random diffuse reflection of the input ray. */
-	public final void diffuseReflection(Ray ray, Random random) {
+	public final void diffuseReflection(Ray ray, Sampler random) {
 		set(ray);
 
 		// get random point on unit disk
@@ -287,7 +289,7 @@ public class Ray {
 	 * Scatter ray normal
 	 * @param random random number source
 	 */
-	public final void scatterNormal(Random random) {
+	public final void scatterNormal(Sampler random) {
 		// get random point on unit disk
 		double x1 = random.nextDouble();
 		double x2 = random.nextDouble();
@@ -0,0 +1,203 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.util.Random;
+
+/**
+ * A stream of random numbers for path tracing. Each worker thread owns
+ * one sampler, so samplers are not thread safe.
+ *
+ * <p>Before each camera sample the renderer calls {@link #startSample}.
+ * Low-discrepancy samplers use this to pick the sample index, and each
+ * following call to {@link #nextDouble} uses the next dimension of the
+ * sequence. The first dimensions are always the pixel jitter, followed by
+ * the lens sample, then the samples drawn along the path.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public abstract class Sampler {
+
+	/**
+	 * Start a new camera sample.
+	 * @param x pixel x coordinate
+	 * @param y pixel y coordinate
+	 * @param index the sample number for this pixel
+	 */
+	public void startSample(int x, int y, int index) {
+	}
+
+	/**
+	 * Set the seed of the current render. Low-discrepancy samplers use it
+	 * to pick a different sample pattern for each render, so that renders
+	 * of the same scene on different machines can be merged.
+	 * @param seed
+	 */
+	public void setRenderSeed(long seed) {
+	}
+
+	/**
+	 * @return A uniformly distributed number in [0, 1)
+	 */
+	public abstract double nextDouble();
+
+	/**
+	 * @return A uniformly distributed number in [0, 1)
+	 */
+	public float nextFloat() {
+		return (float) nextDouble();
+	}
+
+	/**
+	 * The SplitMix64 finalizer. Used to derive well-mixed bits from seeds
+	 * and coordinates.
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Uses java.util.Random. Each call goes through an atomic update of the
+	 * generator state.
+	 */
+	public static final class RandomSampler extends Sampler {
+		private final Random random;
+
+		public RandomSampler(long seed) {
+			random = new Random(seed);
+		}
+
+		@Override
+		public double nextDouble() {
+			return random.nextDouble();
+		}
+
+		@Override
+		public float nextFloat() {
+			return random.nextFloat();
+		}
+	}
+
+	/**
+	 * The xorshift64* generator. The state is a plain field, so generating
+	 * a number is just a few shifts and a multiplication.
+	 */
+	public static final class XorShiftSampler extends Sampler {
+		private long state;
+
+		public XorShiftSampler(long seed) {
+			state = mix(seed + 0x9E3779B97F4A7C15L);
+			if (state == 0) {
+				state = 1;
+			}
+		}
+
+		/**
+		 * @return 64 random bits
+		 */
+		public long nextLong() {
+			long x = state;
+			x ^= x >>> 12;
+			x ^= x << 25;
+			x ^= x >>> 27;
+			state = x;
+			return x * 0x2545F4914F6CDD1DL;
+		}
+
+		@Override
+		public double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+
+		@Override
+		public float nextFloat() {
+			return (nextLong() >>> 40) * 0x1.0p-24f;
+		}
+	}
+
+	/**
+	 * The Halton sequence, using one prime base per dimension. Each pixel
+	 * gets a random rotation of the sequence (Cranley-Patterson rotation)
+	 * so that neighbouring pixels are not correlated. The rotation also
+	 * depends on the render seed, so that independent renders draw
+	 * different samples. Dimensions past the
+	 * last prime base, and numbers drawn outside a camera sample, come from
+	 * a xorshift generator.
+	 */
+	public static final class HaltonSampler extends Sampler {
+		private static final int[] PRIMES = {
+			2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53,
+		};
+
+		private final XorShiftSampler random;
+		private int index;
+		private int dimension = PRIMES.length;
+		private long pixelHash;
+		private long renderSeed = 0;
+
+		public HaltonSampler(long seed) {
+			random = new XorShiftSampler(seed);
+		}
+
+		@Override
+		public void setRenderSeed(long seed) {
+			renderSeed = mix(seed);
+		}
+
+		@Override
+		public void startSample(int x, int y, int index) {
+			this.index = index;
+			dimension = 0;
+			// the rotation only depends on the pixel and the render, so it
+			// stays the same when the pixel is rendered by another worker
+			pixelHash = mix(renderSeed ^ mix(((long) x << 32) | (y & 0xFFFFFFFFL)));
+		}
+
+		@Override
+		public double nextDouble() {
+			if (dimension >= PRIMES.length) {
+				return random.nextDouble();
+			}
+			int dim = dimension++;
+			double offset = (mix(pixelHash + dim) >>> 11) * 0x1.0p-53;
+			double value = radicalInverse(PRIMES[dim], index) + offset;
+			return value >= 1 ? value - 1 : value;
+		}
+
+		/**
+		 * @return The digits of the index in the given base, mirrored
+		 * around the decimal point
+		 */
+		static double radicalInverse(int base, int index) {
+			if (base == 2) {
+				return (Integer.reverse(index) >>> 1) * 0x1.0p-31;
+			}
+			double invBase = 1.0 / base;
+			double scale = invBase;
+			double result = 0;
+			while (index > 0) {
+				int next = index / base;
+				result += (index - next * base) * scale;
+				scale *= invBase;
+				index = next;
+			}
+			return result;
+		}
+	}
+}
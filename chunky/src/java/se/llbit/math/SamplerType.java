@@ -0,0 +1,79 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+/**
+ * The available random number samplers.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public enum SamplerType {
+	/** Independent samples from java.util.Random. */
+	RANDOM {
+		@Override
+		public String toString() {
+			return "java.util.Random";
+		}
+
+		@Override
+		public Sampler create(long seed) {
+			return new Sampler.RandomSampler(seed);
+		}
+	},
+
+	/** Independent samples from a xorshift generator. */
+	XORSHIFT {
+		@Override
+		public String toString() {
+			return "Xorshift";
+		}
+
+		@Override
+		public Sampler create(long seed) {
+			return new Sampler.XorShiftSampler(seed);
+		}
+	},
+
+	/** Per-pixel low-discrepancy samples. */
+	HALTON {
+		@Override
+		public String toString() {
+			return "Halton";
+		}
+
+		@Override
+		public Sampler create(long seed) {
+			return new Sampler.HaltonSampler(seed);
+		}
+	};
+
+	public static final SamplerType DEFAULT = XORSHIFT;
+
+	public static SamplerType get(String name) {
+		for (SamplerType type: values()) {
+			if (type.name().equals(name)) {
+				return type;
+			}
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * @param seed
+	 * @return A new sampler of this type
+	 */
+	public abstract Sampler create(long seed);
+}
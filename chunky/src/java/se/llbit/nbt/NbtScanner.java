@@ -0,0 +1,251 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.nbt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Pull parser for NBT data. Tag headers are read one at a time and the
+ * caller decides, per tag, whether to read the payload or skip it. Tag
+ * names are not converted to strings, so scanning a document allocates
+ * almost nothing.
+ *
+ * <p>Each named tag is read by first calling {@link #next()} and then
+ * exactly one of the payload methods, or {@link #skip(int)}.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class NbtScanner {
+	public static final int TAG_END = 0;
+	public static final int TAG_BYTE = 1;
+	public static final int TAG_SHORT = 2;
+	public static final int TAG_INT = 3;
+	public static final int TAG_LONG = 4;
+	public static final int TAG_FLOAT = 5;
+	public static final int TAG_DOUBLE = 6;
+	public static final int TAG_BYTE_ARRAY = 7;
+	public static final int TAG_STRING = 8;
+	public static final int TAG_LIST = 9;
+	public static final int TAG_COMPOUND = 10;
+	public static final int TAG_INT_ARRAY = 11;
+
+	private final DataInputStream in;
+	private byte[] name = new byte[32];
+	private int nameLength = 0;
+	private int listType = TAG_END;
+
+	/**
+	 * @param in The NBT input stream
+	 */
+	public NbtScanner(DataInputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the header of the next named tag.
+	 * @return The tag type, or {@link #TAG_END} at the end of a compound tag
+	 * @throws IOException
+	 */
+	public int next() throws IOException {
+		int type = in.readByte();
+		if (type == TAG_END) {
+			nameLength = 0;
+			return TAG_END;
+		}
+		nameLength = in.readUnsignedShort();
+		if (nameLength > name.length) {
+			name = new byte[nameLength];
+		}
+		in.readFully(name, 0, nameLength);
+		return type;
+	}
+
+	/**
+	 * Compare the name of the current tag to an ASCII string.
+	 * @param expected
+	 * @return {@code true} if the current tag has the expected name
+	 */
+	public boolean nameEquals(String expected) {
+		if (nameLength != expected.length()) {
+			return false;
+		}
+		for (int i = 0; i < nameLength; ++i) {
+			if (name[i] != expected.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The name of the current tag
+	 */
+	public String name() {
+		try {
+			return new String(name, 0, nameLength, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * Read a TAG_Byte payload.
+	 * @throws IOException
+	 */
+	public int readByte() throws IOException {
+		return in.readByte();
+	}
+
+	/**
+	 * Read a TAG_Int payload.
+	 * @throws IOException
+	 */
+	public int readInt() throws IOException {
+		return in.readInt();
+	}
+
+	/**
+	 * Read a TAG_Byte_Array payload into the given array. Elements that do
+	 * not fit in the destination are skipped.
+	 * @param dest
+	 * @param offset Destination offset
+	 * @param maxLength Maximum number of elements to store
+	 * @return The length of the array in the NBT data
+	 * @throws IOException
+	 */
+	public int readByteArray(byte[] dest, int offset, int maxLength)
+			throws IOException {
+		int length = in.readInt();
+		int n = Math.max(0, Math.min(length, maxLength));
+		in.readFully(dest, offset, n);
+		skipFully(length - (long) n);
+		return length;
+	}
+
+	/**
+	 * Read a TAG_Int_Array payload into the given array. Elements that do
+	 * not fit in the destination are skipped.
+	 * @param dest
+	 * @param offset Destination offset
+	 * @param maxLength Maximum number of elements to store
+	 * @return The length of the array in the NBT data
+	 * @throws IOException
+	 */
+	public int readIntArray(int[] dest, int offset, int maxLength)
+			throws IOException {
+		int length = in.readInt();
+		int n = Math.max(0, Math.min(length, maxLength));
+		for (int i = 0; i < n; ++i) {
+			dest[offset + i] = in.readInt();
+		}
+		skipFully(4 * (length - (long) n));
+		return length;
+	}
+
+	/**
+	 * Read the header of a TAG_List payload. The list items are then read
+	 * using the payload methods, with the type given by {@link #listType()}.
+	 * @return The number of items in the list
+	 * @throws IOException
+	 */
+	public int readListHeader() throws IOException {
+		listType = in.readByte();
+		return in.readInt();
+	}
+
+	/**
+	 * @return The item type of the last list header that was read
+	 */
+	public int listType() {
+		return listType;
+	}
+
+	/**
+	 * Fully parse a tag payload.
+	 * @param type The tag type
+	 * @return The parsed tag
+	 */
+	public SpecificTag readTag(int type) {
+		return SpecificTag.read((byte) type, in);
+	}
+
+	/**
+	 * Skip a tag payload.
+	 * @param type The tag type
+	 * @throws IOException
+	 */
+	public void skip(int type) throws IOException {
+		switch (type) {
+		case TAG_BYTE:
+			skipFully(1);
+			break;
+		case TAG_SHORT:
+			skipFully(2);
+			break;
+		case TAG_INT:
+		case TAG_FLOAT:
+			skipFully(4);
+			break;
+		case TAG_LONG:
+		case TAG_DOUBLE:
+			skipFully(8);
+			break;
+		case TAG_BYTE_ARRAY:
+			skipFully(in.readInt());
+			break;
+		case TAG_STRING:
+			skipFully(in.readUnsignedShort());
+			break;
+		case TAG_LIST: {
+			int itemType = in.readByte();
+			int length = in.readInt();
+			for (int i = 0; i < length; ++i) {
+				skip(itemType);
+			}
+			break;
+		}
+		case TAG_COMPOUND:
+			while (true) {
+				int itemType = next();
+				if (itemType == TAG_END) {
+					break;
+				}
+				skip(itemType);
+			}
+			break;
+		case TAG_INT_ARRAY:
+			skipFully(4L * in.readInt());
+			break;
+		default:
+			throw new IOException("Unknown NBT tag type: " + type);
+		}
+	}
+
+	private void skipFully(long n) throws IOException {
+		while (n > 0) {
+			int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				// skipBytes may return zero before the end of the stream
+				in.readByte();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.nbt.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import se.llbit.chunky.world.ChunkDataReader;
+import se.llbit.chunky.world.ChunkDataSource;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.Region;
+import se.llbit.nbt.AnyTag;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.ListTag;
+import se.llbit.nbt.NamedTag;
+import se.llbit.nbt.SpecificTag;
+import se.llbit.util.ThreadAllocation;
+
+/**
+ * Compares the time and allocations needed to extract block data from the
+ * chunks of a region file using quick parsing and {@link ChunkDataReader}.
+ * The chunks are decompressed before timing, so only parsing is measured.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+@SuppressWarnings("javadoc")
+public class ChunkParseBenchmark {
+
+	private static final int CHUNK_BYTES = 16 * 256 * 16;
+
+	protected static final String USAGE =
+		"Usage: ChunkParseBenchmark <region-file> [iterations]";
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		File regionFile = new File(args[0]);
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		for (int z = 0; z < 32; ++z) {
+			for (int x = 0; x < 32; ++x) {
+				ChunkDataSource data = Region.getChunkData(regionFile,
+						ChunkPosition.get(x, z));
+				if (data != null) {
+					chunks.add(readFully(data.inputStream));
+				}
+			}
+		}
+		if (chunks.isEmpty()) {
+			System.err.println("No chunks found in " + regionFile);
+			System.exit(1);
+		}
+		System.out.format("%d chunks, %d iterations%n", chunks.size(), iterations);
+
+		byte[] blocks = new byte[CHUNK_BYTES];
+		byte[] blockData = new byte[CHUNK_BYTES / 2];
+		byte[] biomes = new byte[256];
+		byte[] blocks2 = new byte[CHUNK_BYTES];
+		byte[] blockData2 = new byte[CHUNK_BYTES / 2];
+		byte[] biomes2 = new byte[256];
+		for (byte[] chunk: chunks) {
+			quickParse(chunk, blocks, blockData, biomes);
+			scan(chunk, blocks2, blockData2, biomes2);
+			if (!Arrays.equals(blocks, blocks2) || !Arrays.equals(blockData, blockData2)
+					|| !Arrays.equals(biomes, biomes2)) {
+				System.err.println("Error: parse results differ!");
+				System.exit(1);
+			}
+		}
+
+		for (int round = 0; round < 3; ++round) {
+			long time = System.nanoTime();
+			long allocated = ThreadAllocation.allocatedBytes();
+			for (int i = 0; i < iterations; ++i) {
+				for (byte[] chunk: chunks) {
+					quickParse(chunk, blocks, blockData, biomes);
+				}
+			}
+			report("quickParse", chunks.size() * iterations, time, allocated);
+
+			time = System.nanoTime();
+			allocated = ThreadAllocation.allocatedBytes();
+			for (int i = 0; i < iterations; ++i) {
+				for (byte[] chunk: chunks) {
+					scan(chunk, blocks, blockData, biomes);
+				}
+			}
+			report("ChunkDataReader", chunks.size() * iterations, time, allocated);
+		}
+	}
+
+	private static void quickParse(byte[] chunk, byte[] blocks, byte[] blockData,
+			byte[] biomes) {
+		Set<String> request = new HashSet<String>();
+		request.add(".Level.Sections");
+		request.add(".Level.Biomes");
+		request.add(".Level.Entities");
+		request.add(".Level.TileEntities");
+		Map<String, AnyTag> data = NamedTag.quickParse(new DataInputStream(
+				new ByteArrayInputStream(chunk)), request);
+		Arrays.fill(blocks, (byte) 0);
+		Arrays.fill(blockData, (byte) 0);
+		AnyTag sections = data.get(".Level.Sections");
+		if (sections.isList()) {
+			for (SpecificTag section : ((ListTag) sections).getItemList()) {
+				int y = section.get("Y").byteValue() & 0xFF;
+				AnyTag blocksTag = section.get("Blocks");
+				if (blocksTag.isByteArray(4096)) {
+					System.arraycopy(blocksTag.byteArray(), 0, blocks, 4096 * y, 4096);
+				}
+				AnyTag dataTag = section.get("Data");
+				if (dataTag.isByteArray(2048)) {
+					System.arraycopy(dataTag.byteArray(), 0, blockData, 2048 * y, 2048);
+				}
+			}
+		}
+		AnyTag biomesTag = data.get(".Level.Biomes");
+		if (biomesTag.isByteArray(256)) {
+			System.arraycopy(biomesTag.byteArray(), 0, biomes, 0, 256);
+		}
+	}
+
+	private static void scan(byte[] chunk, byte[] blocks, byte[] blockData,
+			byte[] biomes) {
+		Arrays.fill(blocks, (byte) 0);
+		Arrays.fill(blockData, (byte) 0);
+		new ChunkDataReader()
+				.blocks(blocks)
+				.blockData(blockData)
+				.biomes(biomes)
+				.entities(new LinkedList<CompoundTag>(), new LinkedList<CompoundTag>())
+				.read(new DataInputStream(new ByteArrayInputStream(chunk)));
+	}
+
+	private static void report(String name, int chunks, long startTime,
+			long startAllocated) {
+		double time = (System.nanoTime() - startTime) / 1000.0 / chunks;
+		long allocated = ThreadAllocation.allocatedBytes();
+		if (allocated >= 0 && startAllocated >= 0) {
+			System.out.format("%-16s %8.1f us/chunk %8d bytes/chunk%n", name, time,
+					(allocated - startAllocated) / chunks);
+		} else {
+			System.out.format("%-16s %8.1f us/chunk%n", name, time);
+		}
+	}
+
+	private static byte[] readFully(DataInputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,260 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.png;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Finds the block boundaries of a raw deflate stream without producing
+ * the decompressed data.
+ *
+ * <p>Used to turn a finished deflate stream into one that can be continued
+ * by another stream, since the sync flush that does this in zlib is not
+ * available through the Java 6 Deflater API.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+final class DeflateScanner {
+
+	private static final int MAX_BITS = 15;
+
+	/**
+	 * Number of extra bits for length codes 257 to 285
+	 */
+	private static final int[] LENGTH_EXTRA = {
+		0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0,
+	};
+
+	/**
+	 * Number of extra bits for distance codes 0 to 29
+	 */
+	private static final int[] DIST_EXTRA = {
+		0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+		7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13,
+	};
+
+	/**
+	 * Order of the code length code lengths in a dynamic block header
+	 */
+	private static final int[] CODE_LENGTH_ORDER = {
+		16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15,
+	};
+
+	private static final Huffman FIXED_LENGTH;
+	private static final Huffman FIXED_DIST;
+
+	static {
+		int[] lengths = new int[288];
+		for (int i = 0; i < 144; ++i) {
+			lengths[i] = 8;
+		}
+		for (int i = 144; i < 256; ++i) {
+			lengths[i] = 9;
+		}
+		for (int i = 256; i < 280; ++i) {
+			lengths[i] = 7;
+		}
+		for (int i = 280; i < 288; ++i) {
+			lengths[i] = 8;
+		}
+		FIXED_LENGTH = new Huffman(lengths, 0, 288);
+		for (int i = 0; i < 30; ++i) {
+			lengths[i] = 5;
+		}
+		FIXED_DIST = new Huffman(lengths, 0, 30);
+	}
+
+	/**
+	 * Canonical Huffman code, decoded one bit at a time.
+	 */
+	private static final class Huffman {
+		final int[] count = new int[MAX_BITS + 1];
+		final int[] symbol;
+
+		Huffman(int[] lengths, int offset, int n) {
+			symbol = new int[n];
+			for (int i = 0; i < n; ++i) {
+				count[lengths[offset + i]] += 1;
+			}
+			int[] next = new int[MAX_BITS + 1];
+			for (int len = 1; len < MAX_BITS; ++len) {
+				next[len + 1] = next[len] + count[len];
+			}
+			for (int i = 0; i < n; ++i) {
+				int len = lengths[offset + i];
+				if (len != 0) {
+					symbol[next[len]++] = i;
+				}
+			}
+		}
+	}
+
+	private final byte[] data;
+	private final int size;
+	private int bitPos = 0;
+
+	/**
+	 * Bit offset of the header of the last block
+	 */
+	int lastBlock;
+
+	/**
+	 * Bit offset directly after the end of the last block
+	 */
+	int end;
+
+	/**
+	 * @param data a complete raw deflate stream
+	 * @param size number of bytes in the stream
+	 */
+	DeflateScanner(byte[] data, int size) {
+		this.data = data;
+		this.size = size;
+	}
+
+	/**
+	 * Walk through all blocks of the stream.
+	 * @throws DataFormatException if the stream is malformed
+	 */
+	void scan() throws DataFormatException {
+		boolean last;
+		do {
+			lastBlock = bitPos;
+			last = bits(1) == 1;
+			switch (bits(2)) {
+			case 0:
+				bitPos = (bitPos + 7) & ~7;
+				int len = bits(16);
+				if ((bits(16) ^ 0xFFFF) != len) {
+					throw new DataFormatException("Corrupt stored block length");
+				}
+				bitPos += len * 8;
+				if (bitPos > size * 8) {
+					throw new DataFormatException("Stored block past end of stream");
+				}
+				break;
+			case 1:
+				codes(FIXED_LENGTH, FIXED_DIST);
+				break;
+			case 2:
+				dynamic();
+				break;
+			default:
+				throw new DataFormatException("Invalid block type");
+			}
+		} while (!last);
+		end = bitPos;
+	}
+
+	private void dynamic() throws DataFormatException {
+		int nlen = bits(5) + 257;
+		int ndist = bits(5) + 1;
+		int ncode = bits(4) + 4;
+		int[] lengths = new int[320];
+		for (int i = 0; i < ncode; ++i) {
+			lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		Huffman lencode = new Huffman(lengths, 0, 19);
+		int index = 0;
+		while (index < nlen + ndist) {
+			int sym = decode(lencode);
+			if (sym < 16) {
+				lengths[index++] = sym;
+				continue;
+			}
+			int len = 0;
+			int repeat;
+			if (sym == 16) {
+				if (index == 0) {
+					throw new DataFormatException("Repeat with no previous length");
+				}
+				len = lengths[index - 1];
+				repeat = 3 + bits(2);
+			} else if (sym == 17) {
+				repeat = 3 + bits(3);
+			} else {
+				repeat = 11 + bits(7);
+			}
+			if (index + repeat > nlen + ndist) {
+				throw new DataFormatException("Too many code lengths");
+			}
+			while (repeat-- > 0) {
+				lengths[index++] = len;
+			}
+		}
+		codes(new Huffman(lengths, 0, nlen), new Huffman(lengths, nlen, ndist));
+	}
+
+	/**
+	 * Skip the codes of a compressed block, up to and including the end of
+	 * block code.
+	 */
+	private void codes(Huffman lencode, Huffman distcode) throws DataFormatException {
+		while (true) {
+			int sym = decode(lencode);
+			if (sym < 256) {
+				continue;
+			} else if (sym == 256) {
+				return;
+			}
+			sym -= 257;
+			if (sym >= LENGTH_EXTRA.length) {
+				throw new DataFormatException("Invalid length code");
+			}
+			bitPos += LENGTH_EXTRA[sym];
+			int dist = decode(distcode);
+			if (dist >= DIST_EXTRA.length) {
+				throw new DataFormatException("Invalid distance code");
+			}
+			bitPos += DIST_EXTRA[dist];
+		}
+	}
+
+	private int decode(Huffman h) throws DataFormatException {
+		int code = 0;
+		int first = 0;
+		int index = 0;
+		for (int len = 1; len <= MAX_BITS; ++len) {
+			code |= bits(1);
+			int count = h.count[len];
+			if (code - count < first) {
+				return h.symbol[index + (code - first)];
+			}
+			index += count;
+			first = (first + count) << 1;
+			code <<= 1;
+		}
+		throw new DataFormatException("Invalid Huffman code");
+	}
+
+	/**
+	 * Read bits, least significant bit first.
+	 */
+	private int bits(int n) throws DataFormatException {
+		if (bitPos + n > size * 8) {
+			throw new DataFormatException("Unexpected end of stream");
+		}
+		int value = 0;
+		for (int i = 0; i < n; ++i) {
+			int pos = bitPos + i;
+			value |= ((data[pos >> 3] >> (pos & 7)) & 1) << i;
+		}
+		bitPos += n;
+		return value;
+	}
+}
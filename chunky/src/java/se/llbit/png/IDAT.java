@@ -98,6 +98,26 @@ public class IDAT extends PngChunk {
 	 */
 	public static final int FILTER_TYPE_NONE = 0;// the filter type for no filter
 
+	/**
+	 * Filter type: difference to the byte to the left
+	 */
+	public static final int FILTER_TYPE_SUB = 1;
+
+	/**
+	 * Filter type: difference to the byte above
+	 */
+	public static final int FILTER_TYPE_UP = 2;
+
+	/**
+	 * Filter type: difference to the mean of the left and upper bytes
+	 */
+	public static final int FILTER_TYPE_AVERAGE = 3;
+
+	/**
+	 * Filter type: difference to the Paeth predictor
+	 */
+	public static final int FILTER_TYPE_PAETH = 4;
+
 	private int crc;
 	private byte[] compressedData;
 	private IDATOutputStream idatOut;
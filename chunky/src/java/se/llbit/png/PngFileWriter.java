@@ -18,15 +18,36 @@ package se.llbit.png;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 
 import se.llbit.chunky.renderer.ProgressListener;
 
 /**
+ * Writes PNG images.
+ *
+ * <p>The image is split into stripes of scanlines that are filtered and
+ * compressed in parallel. Each scanline gets the filter type that
+ * minimizes the sum of absolute differences. Each stripe is compressed as a
+ * finished raw deflate stream. All but the last stripe then get their final
+ * block flag cleared and are ended on a byte boundary with an empty stored
+ * block, so that the compressed stripes can be concatenated into a single
+ * zlib stream. The zlib checksum is combined from the checksums of the
+ * stripes.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class PngFileWriter {
@@ -38,6 +59,40 @@ public class PngFileWriter {
 
 	public static final int MAX_CHUNK_BYTES = 0x100000;// max input/output buffer size = 1 MiB
 
+	/**
+	 * Uncompressed stripe size, in bytes
+	 */
+	private static final int STRIPE_SIZE = 0x80000;
+
+	/**
+	 * zlib header for a deflate stream with the default compression level
+	 */
+	private static final int ZLIB_HEADER = 0x789C;
+
+	/**
+	 * Adler-32 modulus
+	 */
+	private static final int ADLER_BASE = 65521;
+
+	private static final ProgressListener NO_PROGRESS = new ProgressListener() {
+		@Override
+		public void setProgress(String task, int done, int start, int target) {
+		}
+
+		@Override
+		public void setProgress(String task, int done, int start, int target,
+				String eta) {
+		}
+
+		@Override
+		public void taskAborted(String task) {
+		}
+
+		@Override
+		public void taskFailed(String task) {
+		}
+	};
+
 	private final DataOutputStream out;
 
 	/**
@@ -45,7 +100,7 @@ public class PngFileWriter {
 	 * @throws IOException
 	 */
 	public PngFileWriter(File file) throws IOException {
-		out = new DataOutputStream(new FileOutputStream(file));
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
 		out.writeLong(PNG_SIGNATURE);
 	}
 
@@ -64,29 +119,19 @@ public class PngFileWriter {
 		out.close();
 	}
 
+	/**
+	 * Write the image to a PNG file.
+	 */
+	public void write(BufferedImage image) throws IOException {
+		write(image, NO_PROGRESS);
+	}
+
 	/**
 	 * Write the image to a PNG file.
 	 */
 	public void write(BufferedImage image, ProgressListener progressListener) throws IOException {
-		DataBufferInt dataBuf = (DataBufferInt) image.getData().getDataBuffer();
-		int[] data = dataBuf.getData();
-		int width = image.getWidth();
-		int height = image.getHeight();
-		writeChunk(new IHDR(width, height));
-		IDATWriter idat = new IDATWriter();
-		int i = 0;
-		for (int y = 0; y < height; ++y) {
-			progressListener.setProgress("Writing PNG", y, 0, height);
-			idat.write(IDAT.FILTER_TYPE_NONE); // Scanline header.
-			for (int x = 0; x < width; ++x) {
-				int rgb = data[i++];
-				idat.write((rgb >> 16) & 0xFF);
-				idat.write((rgb >> 8) & 0xFF);
-				idat.write(rgb & 0xFF);
-			}
-			progressListener.setProgress("Writing PNG", y+1, 0, height);
-		}
-		idat.close();
+		writeChunk(new IHDR(image.getWidth(), image.getHeight()));
+		writeImage(image, null, progressListener);
 	}
 
 	/**
@@ -94,90 +139,342 @@ public class PngFileWriter {
 	 */
 	public void write(BufferedImage image, byte[] alpha, ProgressListener progressListener)
 			throws IOException {
-		DataBufferInt dataBuf = (DataBufferInt) image.getData().getDataBuffer();
-		int[] data = dataBuf.getData();
-		int width = image.getWidth();
-		int height = image.getHeight();
-		writeChunk(new IHDR(width, height, IHDR.COLOR_TYPE_RGBA));
+		writeChunk(new IHDR(image.getWidth(), image.getHeight(), IHDR.COLOR_TYPE_RGBA));
+		writeImage(image, alpha, progressListener);
+	}
+
+	/**
+	 * Write the IDAT chunks for an image.
+	 * @param alpha alpha channel, or {@code null} for RGB images
+	 */
+	private void writeImage(BufferedImage image, final byte[] alpha,
+			ProgressListener progressListener) throws IOException {
+		// the raster is used directly, getData() would copy it
+		DataBufferInt dataBuf = (DataBufferInt) image.getRaster().getDataBuffer();
+		final int[] data = dataBuf.getData();
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		int rowSize = 1 + width * (alpha == null ? 3 : 4);
+		int rowsPerStripe = Math.max(1, STRIPE_SIZE / rowSize);
+		progressListener.setProgress("Writing PNG", 0, 0, height);
 		IDATWriter idat = new IDATWriter();
-		int i = 0;
-		for (int y = 0; y < height; ++y) {
-			progressListener.setProgress("Writing PNG", y, 0, height);
-			idat.write(IDAT.FILTER_TYPE_NONE); // Scanline header.
+		idat.writeShort(ZLIB_HEADER);
+		long adler = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// at most two stripes per thread are kept in memory
+			LinkedList<Future<Stripe>> pending = new LinkedList<Future<Stripe>>();
+			int next = 0;
+			int written = 0;
+			while (written < height) {
+				while (next < height && pending.size() < 2 * threads) {
+					final int y0 = next;
+					final int rows = Math.min(rowsPerStripe, height - y0);
+					pending.add(executor.submit(new Callable<Stripe>() {
+						@Override
+						public Stripe call() throws DataFormatException {
+							return encodeStripe(data, alpha, width, y0, rows, y0 + rows == height);
+						}
+					}));
+					next += rows;
+				}
+				Stripe stripe = pending.removeFirst().get();
+				idat.write(stripe.data, 0, stripe.size);
+				adler = adlerCombine(adler, stripe.adler, stripe.rawSize);
+				written += stripe.rows;
+				progressListener.setProgress("Writing PNG", written, 0, height);
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while writing PNG", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to encode PNG", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		idat.writeInt((int) adler);
+		idat.close();
+	}
+
+	/**
+	 * A filtered and compressed stripe of scanlines.
+	 */
+	private static class Stripe {
+		int rows;
+		byte[] data;
+		int size;
+		long adler;
+		int rawSize;
+	}
+
+	/**
+	 * Filter and compress a stripe of scanlines.
+	 * @param last {@code true} if this is the last stripe of the image
+	 */
+	private static Stripe encodeStripe(int[] data, byte[] alpha, int width,
+			int y0, int rows, boolean last) throws DataFormatException {
+		int bpp = alpha == null ? 3 : 4;
+		int rowBytes = width * bpp;
+		byte[] raw = new byte[rows * (rowBytes + 1)];
+		byte[] prev = new byte[rowBytes];
+		byte[] cur = new byte[rowBytes];
+		byte[] best = new byte[rowBytes];
+		byte[] candidate = new byte[rowBytes];
+		if (y0 > 0) {
+			unpack(data, alpha, width, y0 - 1, prev);
+		}
+		int pos = 0;
+		for (int y = y0; y < y0 + rows; ++y) {
+			unpack(data, alpha, width, y, cur);
+			int bestType = IDAT.FILTER_TYPE_NONE;
+			System.arraycopy(cur, 0, best, 0, rowBytes);
+			long bestSum = filterCost(best);
+			for (int type = IDAT.FILTER_TYPE_SUB; type <= IDAT.FILTER_TYPE_PAETH; ++type) {
+				filter(type, cur, prev, bpp, candidate);
+				long sum = filterCost(candidate);
+				if (sum < bestSum) {
+					byte[] tmp = best;
+					best = candidate;
+					candidate = tmp;
+					bestSum = sum;
+					bestType = type;
+				}
+			}
+			raw[pos++] = (byte) bestType;
+			System.arraycopy(best, 0, raw, pos, rowBytes);
+			pos += rowBytes;
+			byte[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+
+		Stripe stripe = new Stripe();
+		stripe.rows = rows;
+		stripe.rawSize = raw.length;
+		Adler32 adler = new Adler32();
+		adler.update(raw, 0, raw.length);
+		stripe.adler = adler.getValue();
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] compressed = new byte[raw.length / 2 + 64];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == compressed.length) {
+					compressed = grow(compressed);
+				}
+				size += deflater.deflate(compressed, size, compressed.length - size);
+			}
+			if (!last) {
+				// clear the final block flag and end the stripe on a byte
+				// boundary with an empty stored block
+				DeflateScanner scanner = new DeflateScanner(compressed, size);
+				scanner.scan();
+				compressed[scanner.lastBlock >> 3] &= ~(1 << (scanner.lastBlock & 7));
+				int aligned = (scanner.end + 3 + 7) >> 3;
+				while (compressed.length < aligned + 4) {
+					compressed = grow(compressed);
+				}
+				for (int i = size; i < aligned; ++i) {
+					compressed[i] = 0;
+				}
+				compressed[aligned] = 0;
+				compressed[aligned + 1] = 0;
+				compressed[aligned + 2] = (byte) 0xFF;
+				compressed[aligned + 3] = (byte) 0xFF;
+				size = aligned + 4;
+			}
+			stripe.data = compressed;
+			stripe.size = size;
+		} finally {
+			deflater.end();
+		}
+		return stripe;
+	}
+
+	private static byte[] grow(byte[] buf) {
+		byte[] copy = new byte[buf.length * 2];
+		System.arraycopy(buf, 0, copy, 0, buf.length);
+		return copy;
+	}
+
+	/**
+	 * Convert one row of pixels to bytes.
+	 */
+	private static void unpack(int[] data, byte[] alpha, int width, int y, byte[] row) {
+		int i = y * width;
+		int pos = 0;
+		if (alpha == null) {
+			for (int x = 0; x < width; ++x) {
+				int rgb = data[i++];
+				row[pos++] = (byte) (rgb >> 16);
+				row[pos++] = (byte) (rgb >> 8);
+				row[pos++] = (byte) rgb;
+			}
+		} else {
 			for (int x = 0; x < width; ++x) {
 				int rgb = data[i];
-				idat.write((rgb >> 16) & 0xFF);
-				idat.write((rgb >> 8) & 0xFF);
-				idat.write(rgb & 0xFF);
-				idat.write(alpha[i]);
+				row[pos++] = (byte) (rgb >> 16);
+				row[pos++] = (byte) (rgb >> 8);
+				row[pos++] = (byte) rgb;
+				row[pos++] = alpha[i];
 				i += 1;
 			}
-			progressListener.setProgress("Writing PNG", y + 1, 0, height);
 		}
-		idat.close();
 	}
 
+	/**
+	 * Apply a scanline filter.
+	 * @param type filter type
+	 * @param cur the current scanline
+	 * @param prev the previous scanline, all zeroes for the first scanline
+	 * @param bpp bytes per pixel
+	 * @param result the filtered scanline
+	 */
+	static void filter(int type, byte[] cur, byte[] prev, int bpp, byte[] result) {
+		int n = cur.length;
+		switch (type) {
+		case IDAT.FILTER_TYPE_SUB:
+			for (int i = 0; i < bpp; ++i) {
+				result[i] = cur[i];
+			}
+			for (int i = bpp; i < n; ++i) {
+				result[i] = (byte) (cur[i] - cur[i - bpp]);
+			}
+			break;
+		case IDAT.FILTER_TYPE_UP:
+			for (int i = 0; i < n; ++i) {
+				result[i] = (byte) (cur[i] - prev[i]);
+			}
+			break;
+		case IDAT.FILTER_TYPE_AVERAGE:
+			for (int i = 0; i < bpp; ++i) {
+				result[i] = (byte) (cur[i] - ((prev[i] & 0xFF) >> 1));
+			}
+			for (int i = bpp; i < n; ++i) {
+				result[i] = (byte) (cur[i] - (((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >> 1));
+			}
+			break;
+		case IDAT.FILTER_TYPE_PAETH:
+			for (int i = 0; i < bpp; ++i) {
+				result[i] = (byte) (cur[i] - prev[i]);
+			}
+			for (int i = bpp; i < n; ++i) {
+				int a = cur[i - bpp] & 0xFF;
+				int b = prev[i] & 0xFF;
+				int c = prev[i - bpp] & 0xFF;
+				int p = a + b - c;
+				int pa = Math.abs(p - a);
+				int pb = Math.abs(p - b);
+				int pc = Math.abs(p - c);
+				int predictor;
+				if (pa <= pb && pa <= pc) {
+					predictor = a;
+				} else if (pb <= pc) {
+					predictor = b;
+				} else {
+					predictor = c;
+				}
+				result[i] = (byte) (cur[i] - predictor);
+			}
+			break;
+		default:
+			System.arraycopy(cur, 0, result, 0, n);
+		}
+	}
+
+	/**
+	 * @return the sum of absolute values of the filtered bytes, read as
+	 * signed values
+	 */
+	private static long filterCost(byte[] row) {
+		long sum = 0;
+		for (int i = 0; i < row.length; ++i) {
+			sum += Math.abs(row[i]);
+		}
+		return sum;
+	}
+
+	/**
+	 * Combine the Adler-32 checksums of two consecutive byte sequences,
+	 * like adler32_combine in zlib.
+	 * @param adler1 checksum of the first sequence
+	 * @param adler2 checksum of the second sequence
+	 * @param len2 length of the second sequence
+	 * @return the checksum of the concatenated sequences
+	 */
+	static long adlerCombine(long adler1, long adler2, long len2) {
+		long rem = len2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (rem * sum1) % ADLER_BASE;
+		sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+		if (sum1 >= ADLER_BASE) {
+			sum1 -= ADLER_BASE;
+		}
+		if (sum1 >= ADLER_BASE) {
+			sum1 -= ADLER_BASE;
+		}
+		if (sum2 >= ((long) ADLER_BASE << 1)) {
+			sum2 -= ((long) ADLER_BASE << 1);
+		}
+		if (sum2 >= ADLER_BASE) {
+			sum2 -= ADLER_BASE;
+		}
+		return sum1 | (sum2 << 16);
+	}
+
+	/**
+	 * Splits compressed data into IDAT chunks.
+	 */
 	class IDATWriter {
-		Deflater deflater = new Deflater();
-		int inputSize = 0;
-		byte[] inputBuf = new byte[MAX_CHUNK_BYTES];
 		int outputSize = 0;
 		byte[] outputBuf = new byte[MAX_CHUNK_BYTES];
 
-		void write(int b) throws IOException {
-			if (inputSize == MAX_CHUNK_BYTES) {
-				deflater.setInput(inputBuf, 0, inputSize);
-				inputSize = 0;
-				deflate();
+		void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (outputSize == MAX_CHUNK_BYTES) {
+					writeChunk();
+				}
+				int n = Math.min(len, MAX_CHUNK_BYTES - outputSize);
+				System.arraycopy(b, off, outputBuf, outputSize, n);
+				outputSize += n;
+				off += n;
+				len -= n;
 			}
-			inputBuf[inputSize++] = (byte) b;
 		}
 
-		void write16(int bb) throws IOException {
-			write(bb >> 8);
-			write(bb & 0xFF);
+		void writeShort(int v) throws IOException {
+			write(new byte[] { (byte) (v >> 8), (byte) v }, 0, 2);
 		}
 
-		private void deflate() throws IOException {
-			int deflated;
-			do {
-				if (outputSize == MAX_CHUNK_BYTES) {
-					writeChunk();
-				}
-				deflated = deflater.deflate(outputBuf, outputSize, MAX_CHUNK_BYTES - outputSize);
-				outputSize += deflated;
-			} while (deflated != 0);
+		void writeInt(int v) throws IOException {
+			write(new byte[] { (byte) (v >> 24), (byte) (v >> 16), (byte) (v >> 8), (byte) v },
+					0, 4);
 		}
 
 		private void writeChunk() throws IOException {
 			out.writeInt(outputSize);
-
-			CrcOutputStream crcOut = new CrcOutputStream();
-			DataOutputStream crc = new DataOutputStream(crcOut);
-
-			crc.writeInt(IDAT.CHUNK_TYPE);
 			out.writeInt(IDAT.CHUNK_TYPE);
-
-			crc.write(outputBuf, 0, outputSize);
 			out.write(outputBuf, 0, outputSize);
 
-			out.writeInt(crcOut.getCRC());
-			crc.close();
+			CRC32 crc = new CRC32();
+			crc.update(IDAT.CHUNK_TYPE >>> 24);
+			crc.update(IDAT.CHUNK_TYPE >>> 16);
+			crc.update(IDAT.CHUNK_TYPE >>> 8);
+			crc.update(IDAT.CHUNK_TYPE);
+			crc.update(outputBuf, 0, outputSize);
+			out.writeInt((int) crc.getValue());
 
 			outputSize = 0;
 		}
 
 		void close() throws IOException {
-			if (inputSize > 0) {
-				deflater.setInput(inputBuf, 0, inputSize);
-				deflater.finish();
-				inputSize = 0;
-				deflate();
-			}
 			if (outputSize > 0) {
 				writeChunk();
 			}
-			deflater.end();
 		}
 	}
 }
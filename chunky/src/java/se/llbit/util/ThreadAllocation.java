@@ -0,0 +1,69 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the number of bytes allocated by the current thread, for
+ * benchmarks.
+ *
+ * <p>The counter is an extension of the HotSpot thread bean that is not
+ * available on all JVMs, so it is looked up by reflection.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class ThreadAllocation {
+
+	private static final Method GET_THREAD_ALLOCATED_BYTES = lookup();
+
+	private ThreadAllocation() {
+	}
+
+	private static Method lookup() {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+			if (beanClass.isInstance(ManagementFactory.getThreadMXBean())) {
+				return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+			}
+		} catch (ClassNotFoundException e) {
+		} catch (NoSuchMethodException e) {
+		}
+		return null;
+	}
+
+	/**
+	 * @return Bytes allocated by the current thread, or -1 if not supported
+	 */
+	public static long allocatedBytes() {
+		if (GET_THREAD_ALLOCATED_BYTES == null) {
+			return -1;
+		}
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			return (Long) GET_THREAD_ALLOCATED_BYTES.invoke(bean,
+					Thread.currentThread().getId());
+		} catch (IllegalAccessException e) {
+			return -1;
+		} catch (InvocationTargetException e) {
+			return -1;
+		}
+	}
+}
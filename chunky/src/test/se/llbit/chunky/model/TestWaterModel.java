@@ -0,0 +1,124 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import se.llbit.chunky.resources.Texture;
+import se.llbit.chunky.world.Block;
+import se.llbit.chunky.world.BlockData;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector2d;
+import se.llbit.math.Vector3d;
+import se.llbit.math.primitive.TexturedTriangle;
+
+/**
+ * Checks that lily pads intersected in the water block give the same
+ * result as the lily pad triangles previously added to the BVH.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestWaterModel {
+
+	/**
+	 * The two triangles that were added to the BVH for a lily pad
+	 * with the given rotation.
+	 */
+	private static TexturedTriangle[] triangles(int dir) {
+		double height = 1-0.12;
+		Vector3d c1 = new Vector3d(0, height, 0);
+		Vector3d c2 = new Vector3d(0, height, 1);
+		Vector3d c3 = new Vector3d(1, height, 1);
+		Vector3d c4 = new Vector3d(1, height, 0);
+		Vector2d t1 = new Vector2d(0, 0);
+		Vector2d t2 = new Vector2d(0, 1);
+		Vector2d t3 = new Vector2d(1, 1);
+		Vector2d t4 = new Vector2d(1, 0);
+		switch (dir) {
+		case 0:
+			return new TexturedTriangle[] {
+				new TexturedTriangle(c1, c3, c2, t1, t3, t2, Block.LILY_PAD),
+				new TexturedTriangle(c1, c4, c3, t1, t4, t3, Block.LILY_PAD),
+			};
+		case 1:
+			return new TexturedTriangle[] {
+				new TexturedTriangle(c1, c3, c2, t4, t2, t1, Block.LILY_PAD),
+				new TexturedTriangle(c1, c4, c3, t4, t3, t2, Block.LILY_PAD),
+			};
+		case 2:
+			return new TexturedTriangle[] {
+				new TexturedTriangle(c1, c3, c2, t3, t1, t4, Block.LILY_PAD),
+				new TexturedTriangle(c1, c4, c3, t3, t2, t1, Block.LILY_PAD),
+			};
+		default:
+			return new TexturedTriangle[] {
+				new TexturedTriangle(c1, c3, c2, t2, t4, t3, Block.LILY_PAD),
+				new TexturedTriangle(c1, c4, c3, t2, t1, t4, Block.LILY_PAD),
+			};
+		}
+	}
+
+	@Test
+	public void testLilyPad() {
+		Random random = new Random(1);
+		int hits = 0;
+		for (int dir = 0; dir < 4; ++dir) {
+			TexturedTriangle[] triangles = triangles(dir);
+			int data = Block.WATER_ID | (1<<BlockData.LILY_PAD)
+					| (dir<<BlockData.LILY_PAD_ROTATION);
+			for (int i = 0; i < 2000; ++i) {
+				Ray expected = new Ray();
+				// keep away from the block edges, where the ray would be
+				// considered to be in the neighbouring block
+				expected.o.set(.01 + .98 * random.nextDouble(), 1,
+						.01 + .98 * random.nextDouble());
+				expected.d.set(random.nextGaussian(), -Math.abs(random.nextGaussian()),
+						random.nextGaussian());
+				expected.d.normalize();
+				Ray actual = new Ray();
+				actual.set(expected);
+				actual.setCurrentMat(Block.WATER, data);
+
+				expected.t = Double.POSITIVE_INFINITY;
+				boolean hit = false;
+				for (TexturedTriangle triangle: triangles) {
+					hit = triangle.intersect(expected) || hit;
+				}
+				boolean visible = hit &&
+						Texture.lilyPad.getColor(expected.u, expected.v)[3] > Ray.EPSILON;
+
+				boolean actualHit = WaterModel.intersect(actual);
+				if (visible) {
+					assertTrue(actualHit);
+					assertTrue(actual.getCurrentMaterial() == Block.LILY_PAD);
+					assertEquals(expected.t, actual.distance, 1e-9);
+					assertEquals(expected.u, actual.u, 1e-9);
+					assertEquals(expected.v, actual.v, 1e-9);
+					assertEquals(expected.color.x, actual.color.x, 1e-6);
+					hits += 1;
+				} else {
+					assertTrue(actual.getCurrentMaterial() != Block.LILY_PAD);
+				}
+			}
+		}
+		assertTrue(hits > 0);
+	}
+}
@@ -0,0 +1,182 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+import se.llbit.json.JsonParser.SyntaxError;
+
+/**
+ * Runs render jobs on an empty scene and reads back the result lines.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestRenderServer {
+
+	private File sceneDir;
+
+	@Before
+	public void setUp() throws IOException {
+		sceneDir = File.createTempFile("scenes", "");
+		sceneDir.delete();
+		sceneDir.mkdir();
+		write(new File(sceneDir, "test.json"), "{\"name\": \"test\", \"width\": 20,"
+				+ " \"height\": 20, \"sppTarget\": 1, \"animation\": {\"keyframes\":"
+				+ " [{\"frame\": 0, \"set\": {\"exposure\": 1}}]}}");
+	}
+
+	@After
+	public void tearDown() {
+		for (File file: sceneDir.listFiles()) {
+			file.delete();
+		}
+		sceneDir.delete();
+	}
+
+	/**
+	 * Each job gets one parseable result line, and failed jobs do not stop
+	 * the server.
+	 */
+	@Test
+	public void testResults() throws Exception {
+		String output = new File(sceneDir, "out.png").getPath();
+		List<JsonObject> results = runJobs(
+				"{\"scene\": \"test\", \"output\": " + quote(output) + "}",
+				"{not json",
+				"{\"scene\": \"missing\"}",
+				"{\"scene\": \"test\", \"animate\": true, \"output\": \"frame%q.png\"}",
+				"{\"scene\": \"test\", \"set\": {\"exposure\": 2}}");
+		assertEquals(5, results.size());
+
+		assertEquals(1, results.get(0).get("job").intValue(0));
+		assertEquals("done", results.get(0).get("status").stringValue(""));
+		assertEquals(output, results.get(0).get("output").stringValue(""));
+		assertEquals(1, results.get(0).get("spp").intValue(0));
+		assertTrue(new File(output).isFile());
+
+		for (int i = 1; i < 4; ++i) {
+			assertEquals(i + 1, results.get(i).get("job").intValue(0));
+			assertEquals("error", results.get(i).get("status").stringValue(""));
+		}
+
+		assertEquals(5, results.get(4).get("job").intValue(0));
+		assertEquals("done", results.get(4).get("status").stringValue(""));
+	}
+
+	/**
+	 * Animation output patterns need exactly one integer conversion.
+	 */
+	@Test
+	public void testFramePattern() throws IOException {
+		RenderServer.checkFramePattern("frame%04d.png");
+		RenderServer.checkFramePattern("100%%/frame%x.png");
+		assertInvalidPattern("frame.png");
+		assertInvalidPattern("100%.png");
+		assertInvalidPattern("frame%d-%d.png");
+		assertInvalidPattern("frame%s.png");
+		assertInvalidPattern("frame%.2d.png");
+	}
+
+	/**
+	 * An invalid pattern fails the job before any frame is rendered.
+	 */
+	@Test
+	public void testAnimationOutput() throws Exception {
+		String pattern = new File(sceneDir, "frame%02d.png").getPath();
+		List<JsonObject> results = runJobs(
+				"{\"scene\": \"test\", \"animate\": true, \"output\": \"frame.png\"}",
+				"{\"scene\": \"test\", \"animate\": true, \"output\": " + quote(pattern) + "}");
+		assertEquals(2, results.size());
+		assertEquals("error", results.get(0).get("status").stringValue(""));
+		assertEquals("done", results.get(1).get("status").stringValue(""));
+		assertEquals(0, results.get(1).get("frame").intValue(-1));
+		assertTrue(new File(String.format(pattern, 0)).isFile());
+		assertTrue(!new File("frame.png").exists());
+	}
+
+	private static void assertInvalidPattern(String pattern) {
+		try {
+			RenderServer.checkFramePattern(pattern);
+			fail("pattern should be invalid: " + pattern);
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private List<JsonObject> runJobs(String... jobs) throws Exception {
+		StringBuilder input = new StringBuilder();
+		for (String job: jobs) {
+			input.append(job).append('\n');
+		}
+		ChunkyOptions options = new ChunkyOptions();
+		options.sceneDir = sceneDir;
+		options.renderThreads = 2;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RenderServer server = new RenderServer(new RenderContext(options),
+				new ConsoleRenderListener(),
+				new ByteArrayInputStream(input.toString().getBytes("UTF-8")),
+				new PrintStream(out, true, "UTF-8"));
+		server.start();
+		server.join();
+
+		List<JsonObject> results = new ArrayList<JsonObject>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(out.toByteArray()), "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			results.add(parse(line));
+		}
+		return results;
+	}
+
+	private static JsonObject parse(String line) throws IOException, SyntaxError {
+		return new JsonParser(new ByteArrayInputStream(line.getBytes("UTF-8")))
+				.parse().object();
+	}
+
+	private static String quote(String str) {
+		return "\"" + str.replace("\\", "\\\\") + "\"";
+	}
+
+	private static void write(File file, String text) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
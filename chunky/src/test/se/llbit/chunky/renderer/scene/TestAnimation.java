@@ -0,0 +1,62 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+
+/**
+ * Checks keyframe interpolation of animation settings.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestAnimation {
+
+	private static JsonObject parse(String json) throws Exception {
+		return new JsonParser(new ByteArrayInputStream(json.getBytes("UTF-8")))
+				.parse().object();
+	}
+
+	@Test
+	public void testInterpolation() throws Exception {
+		Animation animation = new Animation(parse("{\"keyframes\": ["
+				+ "{\"frame\": 10, \"set\": {\"sppTarget\": 30, \"sun\": {\"altitude\": 1.0}}},"
+				+ "{\"frame\": 0, \"set\": {\"sppTarget\": 10, \"sun\": {\"altitude\": 0.0},"
+				+ " \"outputMode\": \"PNG\"}},"
+				+ "{\"frame\": 20, \"set\": {\"outputMode\": \"TIFF_32\"}}]}"));
+		assertEquals(21, animation.frameCount());
+
+		JsonObject frame = animation.frame(5);
+		assertEquals(20, frame.get("sppTarget").intValue(-1));
+		assertEquals(0.5, frame.get("sun").object().get("altitude").doubleValue(-1), 1e-9);
+		assertEquals("PNG", frame.get("outputMode").stringValue(""));
+
+		// settings keep their value after the last keyframe that sets them
+		frame = animation.frame(15);
+		assertEquals(30, frame.get("sppTarget").intValue(-1));
+		assertEquals(1.0, frame.get("sun").object().get("altitude").doubleValue(-1), 1e-9);
+		assertEquals("PNG", frame.get("outputMode").stringValue(""));
+
+		frame = animation.frame(20);
+		assertEquals("TIFF_32", frame.get("outputMode").stringValue(""));
+	}
+}
@@ -0,0 +1,250 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import se.llbit.chunky.renderer.ProgressListener;
+
+/**
+ * Test reading and writing render dumps
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestRenderDump {
+
+	private static final ProgressListener NO_PROGRESS = new ProgressListener() {
+		@Override
+		public void setProgress(String task, int done, int start, int target) {
+		}
+
+		@Override
+		public void setProgress(String task, int done, int start, int target,
+				String eta) {
+		}
+
+		@Override
+		public void taskAborted(String task) {
+		}
+
+		@Override
+		public void taskFailed(String task) {
+		}
+	};
+
+	/**
+	 * Collects all samples of a dump.
+	 */
+	private static class Samples implements RenderDump.SampleHandler {
+		final int width;
+		final double[] samples;
+		final int[] count;
+		final double[] squares;
+		boolean adaptive = false;
+		int maxColumns = 0;
+		int nextRow = 0;
+
+		Samples(int width, int height) {
+			this.width = width;
+			samples = new double[width * height * 3];
+			count = new int[width * height];
+			squares = new double[width * height];
+		}
+
+		@Override
+		public void samples(int x0, int y0, int columns, int rows,
+				double[] samples, int[] count, double[] squares) {
+			if (x0 == 0) {
+				assertEquals(nextRow, y0);
+				nextRow += rows;
+			}
+			maxColumns = Math.max(maxColumns, columns);
+			for (int y = 0; y < rows; ++y) {
+				for (int x = 0; x < columns; ++x) {
+					int i = y * columns + x;
+					int j = (y0 + y) * width + x0 + x;
+					System.arraycopy(samples, i * 3, this.samples, j * 3, 3);
+					if (count != null) {
+						adaptive = true;
+						this.count[j] = count[i];
+						this.squares[j] = squares[i];
+					}
+				}
+			}
+		}
+
+		@Override
+		public void sampleCounts(int x0, int y0, int columns, int rows,
+				int[] count, double[] squares) {
+			adaptive = true;
+			for (int y = 0; y < rows; ++y) {
+				for (int x = 0; x < columns; ++x) {
+					int i = y * columns + x;
+					int j = (y0 + y) * width + x0 + x;
+					this.count[j] = count[i];
+					this.squares[j] = squares[i];
+				}
+			}
+		}
+	}
+
+	private static SampleBuffer randomSamples(int width, int height, Random random) {
+		SampleBuffer samples = SampleBufferType.DOUBLE.create(width, height);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				samples.set(samples.index(x, y), random.nextDouble(),
+						random.nextDouble(), random.nextDouble());
+			}
+		}
+		return samples;
+	}
+
+	private static double[] rowMajor(SampleBuffer samples, int width, int height) {
+		double[] result = new double[width * height * 3];
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int index = samples.index(x, y);
+				int i = (y * width + x) * 3;
+				result[i] = samples.getR(index);
+				result[i+1] = samples.getG(index);
+				result[i+2] = samples.getB(index);
+			}
+		}
+		return result;
+	}
+
+	private static void roundTrip(boolean compress, boolean adaptive)
+			throws IOException {
+		// wide enough to need several blocks
+		int width = 5000;
+		int height = 31;
+		Random random = new Random(1);
+		SampleBuffer samples = randomSamples(width, height, random);
+		int[] count = null;
+		double[] squares = null;
+		if (adaptive) {
+			count = new int[width * height];
+			squares = new double[width * height];
+			for (int i = 0; i < count.length; ++i) {
+				count[i] = random.nextInt(1000);
+				squares[i] = random.nextDouble();
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RenderDump.write(out, samples, 123, 4567L, count, squares, compress,
+				NO_PROGRESS, "");
+
+		RenderDump dump = RenderDump.open(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(width, dump.width);
+		assertEquals(height, dump.height);
+		assertEquals(123, dump.spp);
+		assertEquals(4567L, dump.renderTime);
+		Samples result = new Samples(width, height);
+		dump.readSamples(result, NO_PROGRESS, "");
+		dump.close();
+		assertEquals(height, result.nextRow);
+		assertEquals(width, result.maxColumns);
+		assertArrayEquals(rowMajor(samples, width, height), result.samples, 0);
+		assertEquals(adaptive, result.adaptive);
+		if (adaptive) {
+			assertArrayEquals(count, result.count);
+			assertArrayEquals(squares, result.squares, 0);
+		}
+	}
+
+	@Test
+	public void testCompressed() throws IOException {
+		roundTrip(true, false);
+		roundTrip(true, true);
+	}
+
+	@Test
+	public void testUncompressed() throws IOException {
+		roundTrip(false, false);
+		roundTrip(false, true);
+	}
+
+	/**
+	 * Dumps written in the old GZip format can still be read, one column at
+	 * a time.
+	 */
+	@Test
+	public void testLegacyFormat() throws IOException {
+		legacyRoundTrip(false);
+		legacyRoundTrip(true);
+	}
+
+	private static void legacyRoundTrip(boolean adaptive) throws IOException {
+		int width = 40;
+		int height = 30;
+		Random random = new Random(2);
+		SampleBuffer samples = randomSamples(width, height, random);
+		int[] count = new int[width * height];
+		double[] squares = new double[width * height];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(17);
+		out.writeLong(89L);
+		for (int x = 0; x < width; ++x) {
+			for (int y = 0; y < height; ++y) {
+				int index = samples.index(x, y);
+				out.writeDouble(samples.getR(index));
+				out.writeDouble(samples.getG(index));
+				out.writeDouble(samples.getB(index));
+			}
+		}
+		if (adaptive) {
+			out.writeInt(RenderDump.LEGACY_ADAPTIVE_MAGIC);
+			for (int x = 0; x < width; ++x) {
+				for (int y = 0; y < height; ++y) {
+					count[y*width+x] = random.nextInt(1000);
+					squares[y*width+x] = random.nextDouble();
+					out.writeInt(count[y*width+x]);
+					out.writeDouble(squares[y*width+x]);
+				}
+			}
+		}
+		out.close();
+
+		RenderDump dump = RenderDump.open(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(width, dump.width);
+		assertEquals(height, dump.height);
+		assertEquals(17, dump.spp);
+		assertEquals(89L, dump.renderTime);
+		Samples result = new Samples(width, height);
+		dump.readSamples(result, NO_PROGRESS, "");
+		dump.close();
+		assertEquals(1, result.maxColumns);
+		assertArrayEquals(rowMajor(samples, width, height), result.samples, 0);
+		assertEquals(adaptive, result.adaptive);
+		if (adaptive) {
+			assertArrayEquals(count, result.count);
+			assertArrayEquals(squares, result.squares, 0);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.junit.Test;
+
+import se.llbit.chunky.renderer.ConsoleRenderListener;
+
+/**
+ * Checks that an interrupted frame finalization does not write an image.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestSaveFrame {
+
+	@Test
+	public void testInterrupted() throws IOException {
+		Scene scene = new Scene();
+		scene.setCanvasSize(20, 20);
+		File file = File.createTempFile("frame", ".png");
+		file.delete();
+		try {
+			Thread.currentThread().interrupt();
+			try {
+				scene.saveFrame(file, new ConsoleRenderListener());
+				fail("saving an interrupted frame should fail");
+			} catch (InterruptedIOException e) {
+				// expected
+			}
+			assertTrue(Thread.interrupted());
+			assertFalse(file.exists());
+
+			scene.saveFrame(file, new ConsoleRenderListener());
+			assertTrue(file.isFile());
+		} finally {
+			Thread.interrupted();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that the heightmap handles columns far apart.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestHeightmap {
+
+	@Test
+	public void testDistantColumns() {
+		Heightmap heightmap = new Heightmap();
+		heightmap.set(70, 0, 0);
+		heightmap.set(80, -1, -1);
+		heightmap.set(90, 1000000, 1000000);
+		heightmap.set(100, -29999999, 29999999);
+		heightmap.set(110, 29999999, -29999999);
+		assertEquals(70, heightmap.get(0, 0));
+		assertEquals(80, heightmap.get(-1, -1));
+		assertEquals(90, heightmap.get(1000000, 1000000));
+		assertEquals(100, heightmap.get(-29999999, 29999999));
+		assertEquals(110, heightmap.get(29999999, -29999999));
+		assertEquals(World.SEA_LEVEL, heightmap.get(1000001, 1000000));
+		assertEquals(World.SEA_LEVEL, heightmap.get(500000, 500000));
+	}
+}
@@ -0,0 +1,158 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that map tile cache records are only used while the chunk
+ * timestamp and the block palette are unchanged.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestMapTileCache {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("tilecache", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child: children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testTimestamp() throws IOException {
+		MapTileCache cache = new MapTileCache(dir, 1);
+		ChunkPosition pos = ChunkPosition.get(-33, 5);
+		byte[] biomes = new byte[256];
+		for (int i = 0; i < biomes.length; ++i) {
+			biomes[i] = (byte) i;
+		}
+		cache.write(MapTileCache.Layer.BIOMES, 0, pos, 100, null, biomes);
+
+		// a new cache instance reads the same files
+		cache = new MapTileCache(dir, 1);
+		byte[] result = new byte[256];
+		assertTrue(cache.read(MapTileCache.Layer.BIOMES, 0, pos, 100, null, result));
+		assertArrayEquals(biomes, result);
+
+		assertFalse(cache.read(MapTileCache.Layer.BIOMES, 0, pos, 101, null, result));
+		assertFalse(cache.read(MapTileCache.Layer.BIOMES, -1, pos, 100, null, result));
+		assertFalse(cache.read(MapTileCache.Layer.BIOMES, 0, ChunkPosition.get(-34, 5),
+				100, null, result));
+	}
+
+	/**
+	 * A record that is rewritten while it is read is not returned.
+	 */
+	@Test
+	public void testConcurrentWrite() throws Exception {
+		final MapTileCache cache = new MapTileCache(dir, 1);
+		final ChunkPosition pos = ChunkPosition.get(3, 4);
+		final byte[] first = new byte[256];
+		final byte[] second = new byte[256];
+		for (int i = 0; i < first.length; ++i) {
+			first[i] = 1;
+			second[i] = 2;
+		}
+		cache.write(MapTileCache.Layer.CAVES, 0, pos, 100, null, first);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 20000; ++i) {
+					cache.write(MapTileCache.Layer.CAVES, 0, pos, 200, null, second);
+					cache.write(MapTileCache.Layer.CAVES, 0, pos, 100, null, first);
+				}
+			}
+		};
+		writer.start();
+		byte[] result = new byte[256];
+		while (writer.isAlive()) {
+			if (cache.read(MapTileCache.Layer.CAVES, 0, pos, 100, null, result)) {
+				assertArrayEquals(first, result);
+			}
+		}
+		writer.join();
+	}
+
+	@Test
+	public void testPalette() throws IOException {
+		ChunkPosition pos = ChunkPosition.get(3, 4);
+		int[] bitmap = new int[256];
+		byte[] heights = new byte[256];
+		for (int i = 0; i < bitmap.length; ++i) {
+			bitmap[i] = 0xFF000000 | i * 0x10101;
+			heights[i] = (byte) (200 + i % 50);
+		}
+		new MapTileCache(dir, 1).write(MapTileCache.Layer.SURFACE, 0, pos, 7, bitmap, heights);
+
+		int[] resultBitmap = new int[256];
+		byte[] resultHeights = new byte[256];
+		assertTrue(new MapTileCache(dir, 1).read(MapTileCache.Layer.SURFACE, 0, pos, 7,
+				resultBitmap, resultHeights));
+		assertArrayEquals(bitmap, resultBitmap);
+		assertArrayEquals(heights, resultHeights);
+
+		// the surface colors are invalid after the palette changed
+		assertFalse(new MapTileCache(dir, 2).read(MapTileCache.Layer.SURFACE, 0, pos, 7,
+				resultBitmap, resultHeights));
+	}
+
+	@Test
+	public void testOverview() throws IOException {
+		MapTileCache cache = new MapTileCache(dir, 1);
+		// chunks in different regions of the same overview file
+		ChunkPosition a = ChunkPosition.get(-1, -1);
+		ChunkPosition b = ChunkPosition.get(-256, -225);
+		cache.writeOverview(MapTileCache.Layer.BIOMES, 0, a, 10, 0xFF112233);
+		cache.writeOverview(MapTileCache.Layer.BIOMES, 0, b, 11, 0xFF445566);
+
+		cache = new MapTileCache(dir, 1);
+		assertEquals(0xFF112233, cache.overviewColor(MapTileCache.Layer.BIOMES, 0, a));
+		assertEquals(0xFF445566, cache.overviewColor(MapTileCache.Layer.BIOMES, 0, b));
+		assertTrue(cache.hasOverview(MapTileCache.Layer.BIOMES, 0, a, 10));
+		assertFalse(cache.hasOverview(MapTileCache.Layer.BIOMES, 0, a, 11));
+		assertEquals(0, cache.overviewColor(MapTileCache.Layer.CAVES, 0, a));
+		assertEquals(0, cache.overviewColor(MapTileCache.Layer.BIOMES, 0,
+				ChunkPosition.get(-257, -225)));
+	}
+}
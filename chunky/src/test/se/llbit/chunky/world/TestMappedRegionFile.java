@@ -0,0 +1,101 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that region file headers are read from the mapping and that
+ * mappings are dropped when a world is released.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestMappedRegionFile {
+
+	private File dir;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("region", "");
+		dir.delete();
+		dir.mkdir();
+		file = new File(dir, "r.0.0.mca");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(3 * 4096);
+			raf.seek(0);
+			raf.writeInt((2 << 8) | 1);
+			raf.seek(4096);
+			raf.writeInt(100);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		MappedRegionFile.release(dir);
+		file.delete();
+		dir.delete();
+	}
+
+	/**
+	 * A header rewritten in place is seen even if the modification time
+	 * and length of the file did not change.
+	 */
+	@Test
+	public void testHeaderRewrite() throws IOException {
+		MappedRegionFile region = MappedRegionFile.get(file);
+		assertEquals((2 << 8) | 1, region.getLocation(0));
+		assertEquals(100, region.getTimestamp(0));
+		assertEquals(0, region.getLocation(1));
+
+		long lastModified = file.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(4);
+			raf.writeInt((2 << 8) | 1);
+			raf.seek(4096 + 4);
+			raf.writeInt(200);
+		} finally {
+			raf.close();
+		}
+		file.setLastModified(lastModified);
+
+		assertSame(region, MappedRegionFile.get(file));
+		assertEquals((2 << 8) | 1, region.getLocation(1));
+		assertEquals(200, region.getTimestamp(1));
+	}
+
+	@Test
+	public void testRelease() throws IOException {
+		MappedRegionFile region = MappedRegionFile.get(file);
+		assertSame(region, MappedRegionFile.get(file));
+		MappedRegionFile.release(dir);
+		assertNotSame(region, MappedRegionFile.get(file));
+	}
+}
@@ -0,0 +1,92 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that regions are parsed closest to the view first and that
+ * regions that left the view are dropped.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestRegionQueue {
+
+	@Test
+	public void testPriority() {
+		RegionQueue queue = new RegionQueue();
+		// map center in region (2, 0), minimap covers a larger area
+		ChunkView map = new ChunkView(80, 16, 400, 400, 4);
+		ChunkView minimap = new ChunkView(80, 16, 400, 400, 1);
+		queue.setView(map, minimap);
+		queue.add(ChunkPosition.get(0, 0));
+		queue.add(ChunkPosition.get(5, 0));
+		queue.add(ChunkPosition.get(2, 0));
+		queue.add(ChunkPosition.get(3, 1));
+		assertFalse(queue.add(ChunkPosition.get(2, 0)));
+		assertTrue(map.isRegionVisible(1, 0));
+		assertFalse(map.isRegionVisible(5, 0));
+		assertTrue(minimap.isRegionVisible(5, 0));
+
+		assertEquals(ChunkPosition.get(2, 0), queue.poll());
+		assertEquals(ChunkPosition.get(3, 1), queue.poll());
+		assertEquals(ChunkPosition.get(0, 0), queue.poll());
+		// only visible in the minimap
+		assertEquals(ChunkPosition.get(5, 0), queue.poll());
+		assertTrue(queue.isEmpty());
+		assertEquals(4, queue.addedCount());
+	}
+
+	/**
+	 * Regions only visible in the minimap are still polled closest first.
+	 */
+	@Test
+	public void testMinimapPriority() {
+		RegionQueue queue = new RegionQueue();
+		ChunkView map = new ChunkView(80, 16, 400, 400, 4);
+		ChunkView minimap = new ChunkView(80, 16, 400, 400, 1);
+		queue.setView(map, minimap);
+		queue.add(ChunkPosition.get(-4, 0));
+		queue.add(ChunkPosition.get(6, 0));
+		queue.add(ChunkPosition.get(5, 0));
+		queue.add(ChunkPosition.get(-3, 0));
+		assertFalse(map.isRegionVisible(-4, 0));
+		assertTrue(minimap.isRegionVisible(-4, 0));
+		assertFalse(map.isRegionVisible(6, 0));
+		assertTrue(minimap.isRegionVisible(6, 0));
+
+		assertEquals(ChunkPosition.get(5, 0), queue.poll());
+		assertEquals(ChunkPosition.get(6, 0), queue.poll());
+		assertEquals(ChunkPosition.get(-3, 0), queue.poll());
+		assertEquals(ChunkPosition.get(-4, 0), queue.poll());
+	}
+
+	@Test
+	public void testDropInvisible() {
+		RegionQueue queue = new RegionQueue();
+		queue.add(ChunkPosition.get(0, 0));
+		queue.add(ChunkPosition.get(40, 40));
+		ChunkView view = new ChunkView(0, 0, 200, 200, 4);
+		queue.setView(view, view);
+		assertEquals(1, queue.size());
+		assertEquals(1, queue.droppedCount());
+		assertEquals(ChunkPosition.get(0, 0), queue.poll());
+	}
+}
@@ -0,0 +1,69 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import se.llbit.chunky.world.Block;
+import se.llbit.math.primitive.Primitive;
+import se.llbit.math.primitive.TexturedTriangle;
+
+/**
+ * Checks that the packed BVH finds the same intersections as the
+ * node-based BVH.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestBVH {
+
+	@Test
+	public void testClosestIntersection() {
+		Random random = new Random(1);
+		List<Primitive> primitives = new ArrayList<Primitive>();
+		Vector2d uv = new Vector2d(0, 0);
+		for (int i = 0; i < 6000; ++i) {
+			Vector3d c1 = new Vector3d(random.nextInt(64), random.nextInt(64),
+					random.nextInt(64));
+			Vector3d c2 = new Vector3d(c1.x + random.nextDouble(), c1.y, c1.z);
+			Vector3d c3 = new Vector3d(c1.x, c1.y + random.nextDouble(),
+					c1.z + random.nextDouble());
+			primitives.add(new TexturedTriangle(c1, c2, c3, uv, uv, uv, Block.STONE));
+		}
+		BVH bvh = new BVH(primitives);
+		PackedBVH packed = new PackedBVH(primitives);
+		Ray expected = new Ray();
+		Ray actual = new Ray();
+		for (int i = 0; i < 5000; ++i) {
+			expected.o.set(random.nextDouble() * 64, random.nextDouble() * 64,
+					random.nextDouble() * 64);
+			expected.d.set(random.nextGaussian(), random.nextGaussian(),
+					random.nextGaussian());
+			expected.d.normalize();
+			expected.t = Double.POSITIVE_INFINITY;
+			actual.set(expected);
+			actual.t = Double.POSITIVE_INFINITY;
+			assertEquals(bvh.closestIntersection(expected),
+					packed.closestIntersection(actual));
+			assertEquals(expected.t, actual.t, 0);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the packed octree behaves like the node-based octree.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestOctree {
+
+	private static final int DEPTH = 5;
+
+	/**
+	 * Fill both octrees with the same random voxels. Regions are filled
+	 * and then partially cleared so that nodes are both split and merged.
+	 */
+	private static void fill(Octree a, Octree b, long seed) {
+		Random random = new Random(seed);
+		int size = 1 << DEPTH;
+		for (int i = 0; i < 2000; ++i) {
+			int type = random.nextInt(4);
+			int x0 = random.nextInt(size);
+			int y0 = random.nextInt(size);
+			int z0 = random.nextInt(size);
+			int extent = 1 + random.nextInt(8);
+			for (int x = x0; x < Math.min(size, x0 + extent); ++x) {
+				for (int y = y0; y < Math.min(size, y0 + extent); ++y) {
+					for (int z = z0; z < Math.min(size, z0 + extent); ++z) {
+						a.set(type, x, y, z);
+						b.set(type, x, y, z);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGet() {
+		Octree nodes = new Octree(OctreeType.NODE_BASED, DEPTH);
+		Octree packed = new Octree(OctreeType.PACKED, DEPTH);
+		fill(nodes, packed, 1);
+		int size = 1 << DEPTH;
+		for (int x = 0; x < size; ++x) {
+			for (int y = 0; y < size; ++y) {
+				for (int z = 0; z < size; ++z) {
+					assertEquals(nodes.get(x, y, z), packed.get(x, y, z));
+				}
+			}
+		}
+		assertEquals(nodes.nodeCount(), packed.nodeCount());
+	}
+
+	@Test
+	public void testDataBuffer() {
+		Octree nodes = new Octree(OctreeType.NODE_BASED, DEPTH);
+		Octree packed = new Octree(OctreeType.PACKED, DEPTH);
+		fill(nodes, packed, 2);
+		assertArrayEquals(nodes.toDataBuffer(), packed.toDataBuffer());
+	}
+
+	/**
+	 * Filling a cube gives the same octree as setting each voxel.
+	 */
+	@Test
+	public void testSetCube() {
+		for (OctreeType type: OctreeType.values()) {
+			Octree expected = new Octree(type, DEPTH);
+			Octree actual = new Octree(type, DEPTH);
+			fill(expected, actual, 5);
+			Random random = new Random(6);
+			int[] cube = new int[8 * 8 * 8];
+			for (int i = 0; i < 50; ++i) {
+				int x0 = 8 * random.nextInt(4);
+				int y0 = 8 * random.nextInt(4);
+				int z0 = 8 * random.nextInt(4);
+				// mostly uniform cubes, so that nodes are also merged
+				int types = 1 + random.nextInt(2);
+				for (int y = 0; y < 8; ++y) {
+					for (int z = 0; z < 8; ++z) {
+						for (int x = 0; x < 8; ++x) {
+							int value = random.nextInt(types);
+							cube[x + 8 * (z + 8 * y)] = value;
+							expected.set(value, x0 + x, y0 + y, z0 + z);
+						}
+					}
+				}
+				actual.setCube(3, cube, x0, y0, z0);
+				assertArrayEquals(expected.toDataBuffer(), actual.toDataBuffer());
+			}
+			assertEquals(expected.nodeCount(), actual.nodeCount());
+		}
+	}
+
+	/**
+	 * Cached leaf lookups give the same leaves as uncached lookups.
+	 */
+	@Test
+	public void testLookupLeaf() {
+		for (OctreeType type: OctreeType.values()) {
+			OctreeImplementation octree = type.create(DEPTH);
+			Random random = new Random(7);
+			int size = 1 << DEPTH;
+			for (int i = 0; i < 500; ++i) {
+				octree.set(random.nextInt(3), random.nextInt(size),
+						random.nextInt(size), random.nextInt(size));
+			}
+			OctreeImplementation.Lookup lookup = octree.lookup();
+			for (int i = 0; i < 5000; ++i) {
+				int x = random.nextInt(size);
+				int y = random.nextInt(size);
+				int z = random.nextInt(size);
+				assertEquals(octree.getLeaf(x, y, z), lookup.getLeaf(x, y, z));
+				// a short step, like a ray moving to the next leaf
+				x = Math.min(size - 1, x + 1);
+				assertEquals(octree.getLeaf(x, y, z), lookup.getLeaf(x, y, z));
+			}
+		}
+	}
+
+	/**
+	 * An octree stored by one implementation can be loaded by the other.
+	 */
+	@Test
+	public void testStore() throws IOException {
+		Octree nodes = new Octree(OctreeType.NODE_BASED, DEPTH);
+		Octree packed = new Octree(OctreeType.PACKED, DEPTH);
+		fill(nodes, packed, 3);
+		byte[] nodeData = store(nodes);
+		assertArrayEquals(nodeData, store(packed));
+
+		Octree loaded = Octree.load(OctreeType.PACKED,
+				new DataInputStream(new ByteArrayInputStream(nodeData)));
+		assertEquals(DEPTH, loaded.depth);
+		assertArrayEquals(nodeData, store(loaded));
+		assertArrayEquals(nodes.toDataBuffer(), loaded.toDataBuffer());
+	}
+
+	/**
+	 * Locked lookups concurrent with node splits and merges return a voxel
+	 * type that has been written to the octree. Unlocked lookups are only
+	 * checked after the writer is done.
+	 */
+	@Test
+	public void testGetLocked() throws InterruptedException {
+		for (OctreeType type: OctreeType.values()) {
+			final Octree octree = new Octree(type, DEPTH);
+			final int size = 1 << DEPTH;
+			for (int x = 0; x < size; ++x) {
+				for (int y = 0; y < size; ++y) {
+					for (int z = 0; z < size; ++z) {
+						octree.set(1, x, y, z);
+					}
+				}
+			}
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20; ++i) {
+						int type = 1 + (i & 1);
+						for (int x = 0; x < size; ++x) {
+							for (int y = 0; y < size; ++y) {
+								for (int z = 0; z < size; ++z) {
+									octree.set(type, x, y, z);
+								}
+							}
+						}
+					}
+				}
+			};
+			writer.start();
+			Random random = new Random(4);
+			while (writer.isAlive()) {
+				int x = random.nextInt(size);
+				int y = random.nextInt(size);
+				int z = random.nextInt(size);
+				int value = octree.getLocked(x, y, z);
+				assertTrue(value == 1 || value == 2);
+			}
+			writer.join();
+			Octree.Cursor cursor = octree.cursor();
+			for (int x = 0; x < size; ++x) {
+				for (int y = 0; y < size; ++y) {
+					for (int z = 0; z < size; ++z) {
+						assertEquals(2, cursor.get(x, y, z));
+						assertEquals(2, octree.get(x, y, z));
+					}
+				}
+			}
+			assertEquals(1, octree.nodeCount());
+		}
+	}
+
+	private static byte[] store(Octree octree) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		octree.store(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,107 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestSampler {
+
+	@Test
+	public void testRadicalInverse() {
+		assertEquals(0, Sampler.HaltonSampler.radicalInverse(2, 0), 0);
+		assertEquals(0.5, Sampler.HaltonSampler.radicalInverse(2, 1), 0);
+		assertEquals(0.25, Sampler.HaltonSampler.radicalInverse(2, 2), 0);
+		assertEquals(0.75, Sampler.HaltonSampler.radicalInverse(2, 3), 0);
+		assertEquals(1/3.0, Sampler.HaltonSampler.radicalInverse(3, 1), 1e-15);
+		assertEquals(1/9.0, Sampler.HaltonSampler.radicalInverse(3, 3), 1e-15);
+		assertEquals(7/9.0 + 2/27.0, Sampler.HaltonSampler.radicalInverse(3, 23), 1e-15);
+	}
+
+	/**
+	 * All samplers produce numbers in [0, 1) with the expected mean.
+	 */
+	@Test
+	public void testRange() {
+		for (SamplerType type: SamplerType.values()) {
+			Sampler sampler = type.create(1);
+			double sum = 0;
+			int n = 0;
+			for (int i = 0; i < 1000; ++i) {
+				sampler.startSample(i % 7, i % 11, i);
+				for (int dim = 0; dim < 20; ++dim) {
+					double value = sampler.nextDouble();
+					assertTrue(value >= 0 && value < 1);
+					float f = sampler.nextFloat();
+					assertTrue(f >= 0 && f < 1);
+					sum += value;
+					n += 1;
+				}
+			}
+			assertEquals(type.toString(), 0.5, sum / n, 0.01);
+		}
+	}
+
+	/**
+	 * Halton samplers with different render seeds draw different samples,
+	 * while samplers with the same render seed agree.
+	 */
+	@Test
+	public void testHaltonRenderSeed() {
+		Sampler a = SamplerType.HALTON.create(1);
+		Sampler b = SamplerType.HALTON.create(2);
+		Sampler c = SamplerType.HALTON.create(3);
+		a.setRenderSeed(10);
+		b.setRenderSeed(10);
+		c.setRenderSeed(11);
+		int same = 0;
+		for (int i = 0; i < 100; ++i) {
+			a.startSample(5, 6, i);
+			b.startSample(5, 6, i);
+			c.startSample(5, 6, i);
+			for (int dim = 0; dim < 16; ++dim) {
+				double value = a.nextDouble();
+				assertEquals(value, b.nextDouble(), 0);
+				if (value == c.nextDouble()) {
+					same += 1;
+				}
+			}
+		}
+		assertEquals(0, same);
+	}
+
+	/**
+	 * The first dimensions of the Halton sampler are stratified: a
+	 * full base-2 cycle of samples hits each interval once.
+	 */
+	@Test
+	public void testHaltonStratification() {
+		Sampler sampler = SamplerType.HALTON.create(1);
+		boolean[] hit = new boolean[16];
+		for (int i = 0; i < 16; ++i) {
+			sampler.startSample(3, 4, i);
+			int bin = (int) (sampler.nextDouble() * 16);
+			assertTrue(!hit[bin]);
+			hit[bin] = true;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/* Copyright (c) 2015 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.png;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import se.llbit.chunky.renderer.ProgressListener;
+
+/**
+ * Checks that images written by the striped PNG writer decode to the
+ * original pixels.
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TestPngFileWriter {
+
+	/**
+	 * Large enough for several stripes, with both smooth and noisy regions
+	 * so that all filter types are used.
+	 */
+	private static BufferedImage image(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(1);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int rgb;
+				if (x < width / 2) {
+					rgb = ((x & 0xFF) << 16) | ((y & 0xFF) << 8) | ((x + y) & 0xFF);
+				} else {
+					rgb = random.nextInt(0x1000000);
+				}
+				image.setRGB(x, y, rgb);
+			}
+		}
+		return image;
+	}
+
+	@Test
+	public void testRGB() throws IOException {
+		BufferedImage image = image(500, 700);
+		File file = File.createTempFile("test", ".png");
+		file.deleteOnExit();
+		PngFileWriter writer = new PngFileWriter(file);
+		writer.write(image);
+		writer.writeChunk(new IEND());
+		writer.close();
+
+		BufferedImage decoded = ImageIO.read(file);
+		assertEquals(image.getWidth(), decoded.getWidth());
+		assertEquals(image.getHeight(), decoded.getHeight());
+		for (int y = 0; y < image.getHeight(); ++y) {
+			for (int x = 0; x < image.getWidth(); ++x) {
+				assertEquals(image.getRGB(x, y) & 0xFFFFFF, decoded.getRGB(x, y) & 0xFFFFFF);
+			}
+		}
+	}
+
+	/**
+	 * Incompressible stripes are written as stored blocks.
+	 */
+	@Test
+	public void testNoise() throws IOException {
+		BufferedImage image = new BufferedImage(600, 600, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(3);
+		for (int y = 0; y < image.getHeight(); ++y) {
+			for (int x = 0; x < image.getWidth(); ++x) {
+				image.setRGB(x, y, random.nextInt(0x1000000));
+			}
+		}
+		File file = File.createTempFile("test", ".png");
+		file.deleteOnExit();
+		PngFileWriter writer = new PngFileWriter(file);
+		writer.write(image);
+		writer.writeChunk(new IEND());
+		writer.close();
+
+		BufferedImage decoded = ImageIO.read(file);
+		for (int y = 0; y < image.getHeight(); ++y) {
+			for (int x = 0; x < image.getWidth(); ++x) {
+				assertEquals(image.getRGB(x, y) & 0xFFFFFF, decoded.getRGB(x, y) & 0xFFFFFF);
+			}
+		}
+	}
+
+	@Test
+	public void testRGBA() throws IOException {
+		BufferedImage image = image(400, 600);
+		byte[] alpha = new byte[400 * 600];
+		for (int i = 0; i < alpha.length; ++i) {
+			alpha[i] = (byte) (i % 7 == 0 ? 0 : 255 - (i % 200));
+		}
+		File file = File.createTempFile("test", ".png");
+		file.deleteOnExit();
+		PngFileWriter writer = new PngFileWriter(file);
+		writer.write(image, alpha, new ProgressListener() {
+			@Override
+			public void setProgress(String task, int done, int start, int target) {
+			}
+
+			@Override
+			public void setProgress(String task, int done, int start, int target,
+					String eta) {
+			}
+
+			@Override
+			public void taskAborted(String task) {
+			}
+
+			@Override
+			public void taskFailed(String task) {
+			}
+		});
+		writer.writeChunk(new IEND());
+		writer.close();
+
+		BufferedImage decoded = ImageIO.read(file);
+		for (int y = 0; y < image.getHeight(); ++y) {
+			for (int x = 0; x < image.getWidth(); ++x) {
+				int argb = decoded.getRGB(x, y);
+				assertEquals(alpha[x + y * 400] & 0xFF, argb >>> 24);
+				assertEquals(image.getRGB(x, y) & 0xFFFFFF, argb & 0xFFFFFF);
+			}
+		}
+	}
+
+	@Test
+	public void testAdlerCombine() {
+		byte[] data = new byte[200000];
+		new Random(2).nextBytes(data);
+		Adler32 whole = new Adler32();
+		whole.update(data, 0, data.length);
+		for (int split: new int[] { 0, 1, 65521, 100000, data.length }) {
+			Adler32 first = new Adler32();
+			first.update(data, 0, split);
+			Adler32 second = new Adler32();
+			second.update(data, split, data.length - split);
+			assertEquals(whole.getValue(), PngFileWriter.adlerCombine(first.getValue(),
+					second.getValue(), data.length - split));
+		}
+	}
+}
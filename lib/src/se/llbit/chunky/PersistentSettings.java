@@ -236,6 +236,48 @@ public final class PersistentSettings {
 		save();
 	}
 
+	/**
+	 * @return The name of the default octree implementation for new scenes
+	 */
+	public static String getOctreeImplementation() {
+		return settings.getString("octreeImplementation", "NODE_BASED");
+	}
+
+	/**
+	 * @return The name of the default sample buffer type for new scenes
+	 */
+	public static String getSampleBufferType() {
+		return settings.getString("sampleBufferType", "DOUBLE");
+	}
+
+	/**
+	 * @return The name of the default sampler type for new scenes
+	 */
+	public static String getSamplerType() {
+		return settings.getString("samplerType", "XORSHIFT");
+	}
+
+	/**
+	 * @return The name of the default path tracer type for new scenes
+	 */
+	public static String getPathTracerType() {
+		return settings.getString("pathTracerType", "RECURSIVE");
+	}
+
+	/**
+	 * @return {@code true} if render dumps should be compressed
+	 */
+	public static boolean getCompressDumps() {
+		return settings.getBool("compressDumps", false);
+	}
+
+	/**
+	 * @return {@code true} if parsed map layers should be cached on disk
+	 */
+	public static boolean getCacheMapTiles() {
+		return settings.getBool("cacheMapTiles", true);
+	}
+
 	public static boolean getFollowPlayer() {
 		return settings.getBool("followPlayer", false);
 	}